@@ -22,6 +22,15 @@ public class ElementConstantDouble extends Element {
 		this.value = value;
 	}
 
+	/**
+	 * Getter method for value of element.
+	 * 
+	 * @return	value of element.
+	 */
+	public double getValue() {
+		return value;
+	}
+	
 	/**
 	 * Returns element value as String.
 	 * 
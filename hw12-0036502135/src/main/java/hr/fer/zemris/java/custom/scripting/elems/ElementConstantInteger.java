@@ -22,6 +22,15 @@ public class ElementConstantInteger extends Element {
 		this.value = value;
 	}
 
+	/**
+	 * Getter method for value of element.
+	 * 
+	 * @return	value of element.
+	 */
+	public int getValue() {
+		return value;
+	}
+	
 	/**
 	 * Returns element value as String.
 	 * 
@@ -0,0 +1,553 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer of class files, enough to generate classes of compiled templates.
+ * Supports constant pool entries of classes, strings, integers, doubles and methods,
+ * and methods whose code is written instruction by instruction.
+ * Classes are written in version 49, so verifier infers types itself
+ * and code with jumps doesn't need stack map frames.
+ * Class names and descriptors are given in internal form, with slashes.
+ * 
+ * @author Martin Sršen
+ *
+ */
+class ClassFileWriter {
+
+	/**
+	 * Access flag of public class or method.
+	 */
+	static final int ACC_PUBLIC = 0x0001;
+	/**
+	 * Access flag of final class.
+	 */
+	static final int ACC_FINAL = 0x0010;
+	/**
+	 * Class flag that turns on modern semantics of invokespecial.
+	 */
+	static final int ACC_SUPER = 0x0020;
+	
+	/**
+	 * Instruction that pushes null.
+	 */
+	static final int ACONST_NULL = 0x01;
+	/**
+	 * Instruction that returns from void method.
+	 */
+	static final int RETURN = 0xB1;
+	/**
+	 * Instruction that calls instance method.
+	 */
+	static final int INVOKEVIRTUAL = 0xB6;
+	/**
+	 * Instruction that calls constructor or private method.
+	 */
+	static final int INVOKESPECIAL = 0xB7;
+	/**
+	 * Instruction that jumps if int on top of stack is zero.
+	 */
+	static final int IFEQ = 0x99;
+	/**
+	 * Instruction that always jumps.
+	 */
+	static final int GOTO = 0xA7;
+	
+	/**
+	 * Magic number every class file starts with.
+	 */
+	private static final int MAGIC = 0xCAFEBABE;
+	/**
+	 * Major version of written class files, Java 5.
+	 */
+	private static final int VERSION = 49;
+	/**
+	 * Maximum number of constant pool entries and maximum length of method code.
+	 */
+	private static final int MAX_SIZE = 0xFFFF;
+	
+	/**
+	 * Bytes of constant pool entries.
+	 */
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	/**
+	 * Stream constant pool entries are written into.
+	 */
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	/**
+	 * Indexes of written constant pool entries, mapped by their description.
+	 */
+	private Map<String, Integer> constants = new HashMap<>();
+	/**
+	 * Index of next constant pool entry.
+	 */
+	private int poolCount = 1;
+	/**
+	 * Index of written class.
+	 */
+	private int thisClass;
+	/**
+	 * Index of super class.
+	 */
+	private int superClass;
+	/**
+	 * Bytes of written methods.
+	 */
+	private List<byte[]> methods = new ArrayList<>();
+	
+	/**
+	 * Constructor that starts public final class with given name and super class.
+	 * 
+	 * @param name	Internal name of class.
+	 * @param superName	Internal name of super class.
+	 */
+	ClassFileWriter(String name, String superName) {
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+	}
+	
+	/**
+	 * Returns index of UTF-8 constant with given value, adding it if needed.
+	 * 
+	 * @param value	Value of constant.
+	 * @return	index of constant.
+	 * @throws IllegalArgumentException	if value is too long or constant pool is full.
+	 */
+	int utf8(String value) {
+		Integer index = constants.get("U" + value);
+		if(index != null)	return index;
+		
+		try {
+			pool.writeByte(1);
+			pool.writeUTF(value);
+		} catch(IOException ex) {
+			throw new IllegalArgumentException("Constant is too long to be written into class file.", ex);
+		}
+		return add("U" + value);
+	}
+	
+	/**
+	 * Returns index of class constant, adding it if needed.
+	 * 
+	 * @param name	Internal name of class.
+	 * @return	index of constant.
+	 */
+	int classRef(String name) {
+		return reference("C" + name, 7, utf8(name), -1);
+	}
+	
+	/**
+	 * Returns index of string constant, adding it if needed.
+	 * 
+	 * @param value	Value of string.
+	 * @return	index of constant.
+	 */
+	int string(String value) {
+		return reference("S" + value, 8, utf8(value), -1);
+	}
+	
+	/**
+	 * Returns index of integer constant, adding it if needed.
+	 * 
+	 * @param value	Value of constant.
+	 * @return	index of constant.
+	 * @throws IllegalArgumentException	if constant pool is full.
+	 */
+	int integer(int value) {
+		Integer index = constants.get("I" + value);
+		if(index != null)	return index;
+		
+		try {
+			pool.writeByte(3);
+			pool.writeInt(value);
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return add("I" + value);
+	}
+	
+	/**
+	 * Returns index of double constant, adding it if needed.
+	 * Double constant takes two entries of constant pool.
+	 * 
+	 * @param value	Value of constant.
+	 * @return	index of constant.
+	 * @throws IllegalArgumentException	if constant pool is full.
+	 */
+	int doubleConstant(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		Integer index = constants.get("D" + bits);
+		if(index != null)	return index;
+		if(poolCount >= MAX_SIZE - 1) {
+			throw new IllegalArgumentException("Constant pool of class is full.");
+		}
+		
+		try {
+			pool.writeByte(6);
+			pool.writeLong(bits);
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		index = add("D" + bits);
+		poolCount++;
+		return index;
+	}
+	
+	/**
+	 * Returns index of method constant, adding it if needed.
+	 * 
+	 * @param owner	Internal name of class that declares method.
+	 * @param name	Name of method.
+	 * @param descriptor	Descriptor of method.
+	 * @return	index of constant.
+	 */
+	int methodRef(String owner, String name, String descriptor) {
+		int nameAndType = reference("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor));
+		return reference("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType);
+	}
+	
+	/**
+	 * Starts public method with given name and descriptor.
+	 * 
+	 * @param name	Name of method.
+	 * @param descriptor	Descriptor of method.
+	 * @return	writer of method code.
+	 */
+	Code method(String name, String descriptor) {
+		return new Code(utf8(name), utf8(descriptor));
+	}
+	
+	/**
+	 * Returns bytes of written class.
+	 * 
+	 * @return	class file.
+	 */
+	byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			out.writeShort(0);
+			out.writeShort(methods.size());
+			for(byte[] method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0);
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Returns index of constant that references one or two other constants, adding it if needed.
+	 * 
+	 * @param key	Description of constant.
+	 * @param tag	Tag of constant.
+	 * @param first	Index of first referenced constant.
+	 * @param second	Index of second referenced constant, or -1 if there is none.
+	 * @return	index of constant.
+	 */
+	private int reference(String key, int tag, int first, int second) {
+		Integer index = constants.get(key);
+		if(index != null)	return index;
+		
+		try {
+			pool.writeByte(tag);
+			pool.writeShort(first);
+			if(second >= 0) {
+				pool.writeShort(second);
+			}
+		} catch(IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return add(key);
+	}
+	
+	/**
+	 * Assigns index to constant that was just written.
+	 * 
+	 * @param key	Description of constant.
+	 * @return	index of constant.
+	 * @throws IllegalArgumentException	if constant pool is full.
+	 */
+	private int add(String key) {
+		if(poolCount >= MAX_SIZE) {
+			throw new IllegalArgumentException("Constant pool of class is full.");
+		}
+		
+		constants.put(key, poolCount);
+		return poolCount++;
+	}
+	
+	/**
+	 * Class representing position in code that jumps can target.
+	 */
+	static class Label {
+		/**
+		 * Offset of label in code, or -1 if it isn't placed yet.
+		 */
+		private int offset = -1;
+		/**
+		 * Offsets of jump instructions that target label before it was placed.
+		 */
+		private List<Integer> jumps = new ArrayList<>();
+	}
+	
+	/**
+	 * Class that writes code of one method.
+	 */
+	class Code {
+		/**
+		 * Index of method name.
+		 */
+		private int name;
+		/**
+		 * Index of method descriptor.
+		 */
+		private int descriptor;
+		/**
+		 * Written instructions.
+		 */
+		private ByteArrayOutputStream code = new ByteArrayOutputStream();
+		/**
+		 * Labels used by jumps of method.
+		 */
+		private List<Label> labels = new ArrayList<>();
+		
+		/**
+		 * Constructor that starts method.
+		 * 
+		 * @param name	Index of method name.
+		 * @param descriptor	Index of method descriptor.
+		 */
+		private Code(int name, int descriptor) {
+			this.name = name;
+			this.descriptor = descriptor;
+		}
+		
+		/**
+		 * Writes instruction without operands.
+		 * 
+		 * @param opcode	Opcode of instruction.
+		 */
+		void op(int opcode) {
+			code.write(opcode);
+		}
+		
+		/**
+		 * Writes instruction that loads reference from local variable.
+		 * 
+		 * @param index	Index of local variable.
+		 */
+		void load(int index) {
+			local(0x2A, 0x19, index);
+		}
+		
+		/**
+		 * Writes instruction that stores reference into local variable.
+		 * 
+		 * @param index	Index of local variable.
+		 */
+		void store(int index) {
+			local(0x4B, 0x3A, index);
+		}
+		
+		/**
+		 * Writes instruction that pushes given int.
+		 * 
+		 * @param value	Value to push.
+		 */
+		void push(int value) {
+			if(value >= -1 && value <= 5) {
+				code.write(0x03 + value);
+			} else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				code.write(0x10);
+				code.write(value);
+			} else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				code.write(0x11);
+				u2(value);
+			} else {
+				constant(integer(value));
+			}
+		}
+		
+		/**
+		 * Writes instruction that pushes given double.
+		 * 
+		 * @param value	Value to push.
+		 */
+		void push(double value) {
+			long bits = Double.doubleToRawLongBits(value);
+			if(bits == 0L) {
+				code.write(0x0E);
+			} else if(value == 1.0) {
+				code.write(0x0F);
+			} else {
+				code.write(0x14);
+				u2(doubleConstant(value));
+			}
+		}
+		
+		/**
+		 * Writes instruction that pushes given string, or null.
+		 * 
+		 * @param value	String to push, or null.
+		 */
+		void push(String value) {
+			if(value == null) {
+				code.write(ACONST_NULL);
+				return;
+			}
+			
+			constant(string(value));
+		}
+		
+		/**
+		 * Writes instruction that pushes single-entry constant with given index.
+		 * 
+		 * @param index	Index of constant.
+		 */
+		private void constant(int index) {
+			if(index <= 0xFF) {
+				code.write(0x12);
+				code.write(index);
+			} else {
+				code.write(0x13);
+				u2(index);
+			}
+		}
+		
+		/**
+		 * Writes instruction that calls method.
+		 * 
+		 * @param opcode	Opcode of call instruction.
+		 * @param owner	Internal name of class that declares method.
+		 * @param method	Name of method.
+		 * @param methodDescriptor	Descriptor of method.
+		 */
+		void invoke(int opcode, String owner, String method, String methodDescriptor) {
+			code.write(opcode);
+			u2(methodRef(owner, method, methodDescriptor));
+		}
+		
+		/**
+		 * Writes jump instruction to given label.
+		 * 
+		 * @param opcode	Opcode of jump instruction.
+		 * @param label	Target of jump.
+		 */
+		void jump(int opcode, Label label) {
+			if(!labels.contains(label)) {
+				labels.add(label);
+			}
+			
+			label.jumps.add(code.size());
+			code.write(opcode);
+			u2(0);
+		}
+		
+		/**
+		 * Places given label at current position.
+		 * 
+		 * @param label	Label to place.
+		 */
+		void mark(Label label) {
+			label.offset = code.size();
+		}
+		
+		/**
+		 * Ends method and adds it to class.
+		 * 
+		 * @param maxStack	Maximum depth of operand stack.
+		 * @param maxLocals	Number of local variables, including this and parameters.
+		 * @throws IllegalArgumentException	if code of method is too large.
+		 */
+		void end(int maxStack, int maxLocals) {
+			byte[] bytes = code.toByteArray();
+			if(bytes.length > MAX_SIZE) {
+				throw new IllegalArgumentException("Code of method is too large.");
+			}
+			
+			for(Label label : labels) {
+				for(int jump : label.jumps) {
+					int offset = label.offset - jump;
+					if(label.offset < 0 || offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+						throw new IllegalArgumentException("Jump can't reach its target.");
+					}
+					bytes[jump + 1] = (byte) (offset >> 8);
+					bytes[jump + 2] = (byte) offset;
+				}
+			}
+			
+			ByteArrayOutputStream method = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(method);
+			try {
+				out.writeShort(ACC_PUBLIC);
+				out.writeShort(name);
+				out.writeShort(descriptor);
+				out.writeShort(1);
+				out.writeShort(utf8("Code"));
+				out.writeInt(12 + bytes.length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.writeShort(0);
+				out.writeShort(0);
+			} catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			
+			methods.add(method.toByteArray());
+		}
+		
+		/**
+		 * Writes instruction that accesses local variable,
+		 * using short form when there is one.
+		 * 
+		 * @param shortOpcode	Opcode of short form for variable 0.
+		 * @param opcode	Opcode of general form.
+		 * @param index	Index of local variable.
+		 */
+		private void local(int shortOpcode, int opcode, int index) {
+			if(index <= 3) {
+				code.write(shortOpcode + index);
+			} else if(index <= 0xFF) {
+				code.write(opcode);
+				code.write(index);
+			} else {
+				code.write(0xC4);
+				code.write(opcode);
+				u2(index);
+			}
+		}
+		
+		/**
+		 * Writes unsigned two byte value.
+		 * 
+		 * @param value	Value to write.
+		 */
+		private void u2(int value) {
+			code.write(value >> 8);
+			code.write(value);
+		}
+	}
+}
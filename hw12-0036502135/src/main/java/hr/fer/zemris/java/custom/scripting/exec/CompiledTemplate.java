@@ -0,0 +1,75 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Super class of templates generated by SmartScriptCompiler.
+ * Generated class implements run method with code that executes nodes
+ * of document one after another, without looking at nodes or
+ * names of operations and functions.
+ * Texts of text nodes are encoded to bytes once, when template is created.
+ * Template holds no state of execution, so one template can be executed
+ * by multiple threads at the same time.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public abstract class CompiledTemplate {
+
+	/**
+	 * Texts of text nodes, in order of their indexes.
+	 */
+	private String[] texts;
+	/**
+	 * Texts of text nodes encoded as UTF-8.
+	 */
+	private byte[][] encodedTexts;
+	
+	/**
+	 * Constructor called by generated class with texts of its text nodes.
+	 * 
+	 * @param texts	Texts of text nodes.
+	 */
+	protected CompiledTemplate(String[] texts) {
+		this.texts = Objects.requireNonNull(texts, "Texts can't be null.");
+		this.encodedTexts = new byte[texts.length][];
+		
+		for(int i = 0; i < texts.length; i++) {
+			encodedTexts[i] = texts[i].getBytes(StandardCharsets.UTF_8);
+		}
+	}
+	
+	/**
+	 * Executes template and writes result into given context.
+	 * 
+	 * @param requestContext	RequestContext where result is written.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 * @throws NullPointerException	if null context is given.
+	 */
+	public void execute(RequestContext requestContext) throws IOException {
+		run(new ScriptRuntime(requestContext));
+	}
+	
+	/**
+	 * Executes nodes of document, implemented by generated class.
+	 * 
+	 * @param runtime	Runtime of execution.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	protected abstract void run(ScriptRuntime runtime) throws IOException;
+	
+	/**
+	 * Writes text of text node with given index.
+	 * 
+	 * @param runtime	Runtime of execution.
+	 * @param index	Index of text node.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	protected final void text(ScriptRuntime runtime, int index) throws IOException {
+		runtime.writeText(texts[index], encodedTexts[index]);
+	}
+}
@@ -43,13 +43,7 @@ public class ObjectMultistack {
 		}
 		
 		MultistackEntry toEnter = new MultistackEntry(valueWrapper);
-		
-		if(mapa.containsKey(name)) {
-			toEnter.next = mapa.get(name);
-			mapa.replace(name, toEnter);
-		}else {
-			mapa.put(name, toEnter);
-		}
+		toEnter.next = mapa.put(name, toEnter);
 	}
 	
 	/**
@@ -70,7 +64,7 @@ public class ObjectMultistack {
 		if(head.next == null) {
 			mapa.remove(name);
 		}else {
-			mapa.replace(name, head.next);
+			mapa.put(name, head.next);
 		}
 		
 		return head.getValue();
@@ -105,17 +99,19 @@ public class ObjectMultistack {
 	/**
 	 * Returns MultistackEntry from top of the stack from given key,
 	 * or if key doesn't exist throws exception.
+	 * Map is looked up only once, as keys are never mapped to null.
 	 * 
 	 * @param name	key of the stack to return MultistackEntry from.
 	 * @return	MultistackEntry on top of the stack with given key.
 	 * @throws	EmptyStackException if given key doesn't exist in map.
 	 */
 	private MultistackEntry getHeadEntry(String name) {
-		if(!mapa.containsKey(name)) {
+		MultistackEntry head = mapa.get(name);
+		if(head == null) {
 			throw new EmptyStackException();
 		}
 		
-		return mapa.get(name);
+		return head;
 	}
 	
 	/**
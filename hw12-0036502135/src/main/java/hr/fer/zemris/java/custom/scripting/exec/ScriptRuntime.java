@@ -0,0 +1,352 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Class that holds state of one execution of SmartScript document
+ * and implements operations script can use.
+ * Used both by SmartScriptEngine, which interprets document and
+ * looks operations up by their names, and by compiled templates,
+ * which call operations directly, so both give same results.
+ * Values script works with are ValueWrapper objects, operations that
+ * take values don't keep them, so they can change and return given values.
+ * Numbers are kept in values as primitives, so loops and operations
+ * don't convert them to text and parse them again.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class ScriptRuntime {
+
+	/**
+	 * Step of for loop that doesn't have step expression.
+	 */
+	private static final int DEFAULT_STEP = 1;
+	
+	/**
+	 * RequestContext where result is written.
+	 */
+	private RequestContext requestContext;
+	/**
+	 * Multistack where values of loop variables are saved.
+	 */
+	private ObjectMultistack multistack = new ObjectMultistack();
+	/**
+	 * DecimalFormat objects used by decfmt function, mapped by their format.
+	 */
+	private Map<String, DecimalFormat> formats = new HashMap<>();
+	
+	/**
+	 * Constructor that creates runtime writing into given context.
+	 * 
+	 * @param requestContext	RequestContext where result is written.
+	 * @throws NullPointerException	if null context is given.
+	 */
+	public ScriptRuntime(RequestContext requestContext) {
+		this.requestContext = Objects.requireNonNull(requestContext, "Can't take null request context.");
+	}
+	
+	/**
+	 * Writes text of text node.
+	 * Given bytes are written if context encodes text as UTF-8,
+	 * else text is encoded with encoding of context.
+	 * 
+	 * @param text	Text to write.
+	 * @param encoded	Text encoded as UTF-8, or null.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public void writeText(String text, byte[] encoded) throws IOException {
+		if(encoded != null && StandardCharsets.UTF_8.name().equalsIgnoreCase(requestContext.getEncoding())) {
+			requestContext.write(encoded);
+		} else {
+			requestContext.write(text);
+		}
+	}
+	
+	/**
+	 * Writes given value left on stack of echo node.
+	 * 
+	 * @param value	Value to write.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public void write(ValueWrapper value) throws IOException {
+		requestContext.write(value.toString());
+	}
+	
+	/**
+	 * Starts for loop, pushes its variable with start value on multistack.
+	 * 
+	 * @param name	Name of loop variable.
+	 * @param start	Start value.
+	 * @return	value of loop variable.
+	 */
+	public ValueWrapper startLoop(String name, String start) {
+		ValueWrapper variable = new ValueWrapper(start);
+		multistack.push(name, variable);
+		
+		return variable;
+	}
+	
+	/**
+	 * Parses given value of loop end or step into number, once before loop starts.
+	 * 
+	 * @param value	Value to parse.
+	 * @return	given value.
+	 * @throws RuntimeException	if value isn't number representation.
+	 */
+	public ValueWrapper number(ValueWrapper value) {
+		value.parseNumber();
+		return value;
+	}
+	
+	/**
+	 * Returns step of loop that doesn't have step expression.
+	 * 
+	 * @return	value of step.
+	 */
+	public ValueWrapper defaultStep() {
+		return new ValueWrapper(DEFAULT_STEP);
+	}
+	
+	/**
+	 * Checks whether loop body should be executed again.
+	 * 
+	 * @param variable	Value of loop variable.
+	 * @param end	End value.
+	 * @return	true if variable isn't larger than end value.
+	 */
+	public boolean testLoop(ValueWrapper variable, ValueWrapper end) {
+		return variable.compareWith(end) <= 0;
+	}
+	
+	/**
+	 * Adds step to value of loop variable.
+	 * 
+	 * @param variable	Value of loop variable.
+	 * @param step	Step of loop.
+	 */
+	public void stepLoop(ValueWrapper variable, ValueWrapper step) {
+		variable.apply(ValueWrapper.ADD, step);
+	}
+	
+	/**
+	 * Ends for loop, removes its variable from multistack.
+	 * 
+	 * @param name	Name of loop variable.
+	 */
+	public void endLoop(String name) {
+		multistack.pop(name);
+	}
+	
+	/**
+	 * Returns new value of constant.
+	 * 
+	 * @param text	Text of constant.
+	 * @return	value.
+	 */
+	public ValueWrapper constant(String text) {
+		return new ValueWrapper(text);
+	}
+	
+	/**
+	 * Returns new value of integer constant.
+	 * 
+	 * @param value	Value of constant.
+	 * @return	value.
+	 */
+	public ValueWrapper constant(int value) {
+		return new ValueWrapper(value);
+	}
+	
+	/**
+	 * Returns new value of double constant.
+	 * Infinite and NaN values are kept as text, same as text of constant.
+	 * 
+	 * @param value	Value of constant.
+	 * @return	value.
+	 */
+	public ValueWrapper constant(double value) {
+		return Double.isFinite(value) ? new ValueWrapper(value) : new ValueWrapper(Double.toString(value));
+	}
+	
+	/**
+	 * Returns new value holding current value of variable.
+	 * 
+	 * @param name	Name of variable.
+	 * @return	value.
+	 */
+	public ValueWrapper variable(String name) {
+		return multistack.peek(name).copy();
+	}
+	
+	/**
+	 * Adds second operand to first.
+	 * 
+	 * @param op1	First operand, gets result.
+	 * @param op2	Second operand.
+	 * @return	first operand.
+	 */
+	public ValueWrapper add(ValueWrapper op1, ValueWrapper op2) {
+		op1.apply(ValueWrapper.ADD, op2);
+		return op1;
+	}
+	
+	/**
+	 * Subtracts second operand from first.
+	 * 
+	 * @param op1	First operand, gets result.
+	 * @param op2	Second operand.
+	 * @return	first operand.
+	 */
+	public ValueWrapper subtract(ValueWrapper op1, ValueWrapper op2) {
+		op1.apply(ValueWrapper.SUBTRACT, op2);
+		return op1;
+	}
+	
+	/**
+	 * Multiplies first operand with second.
+	 * 
+	 * @param op1	First operand, gets result.
+	 * @param op2	Second operand.
+	 * @return	first operand.
+	 */
+	public ValueWrapper multiply(ValueWrapper op1, ValueWrapper op2) {
+		op1.apply(ValueWrapper.MULTIPLY, op2);
+		return op1;
+	}
+	
+	/**
+	 * Divides first operand with second.
+	 * 
+	 * @param op1	First operand, gets result.
+	 * @param op2	Second operand.
+	 * @return	first operand.
+	 */
+	public ValueWrapper divide(ValueWrapper op1, ValueWrapper op2) {
+		op1.apply(ValueWrapper.DIVIDE, op2);
+		return op1;
+	}
+	
+	/**
+	 * Executes sin function, value is angle in degrees.
+	 * 
+	 * @param value	Value of angle, gets result.
+	 * @return	given value.
+	 */
+	public ValueWrapper sin(ValueWrapper value) {
+		value.setNumber(Math.sin(Math.toRadians(value.parseDouble())));
+		return value;
+	}
+	
+	/**
+	 * Executes decfmt function.
+	 * 
+	 * @param value	Number to format, gets result.
+	 * @param format	Format of DecimalFormat.
+	 * @return	given value.
+	 */
+	public ValueWrapper decfmt(ValueWrapper value, ValueWrapper format) {
+		value.setValue(formats.computeIfAbsent(format.toString(), DecimalFormat::new).format(value.parseDouble()));
+		return value;
+	}
+	
+	/**
+	 * Executes dup function.
+	 * 
+	 * @param value	Value to duplicate.
+	 * @return	new value with same text.
+	 */
+	public ValueWrapper dup(ValueWrapper value) {
+		return value.copy();
+	}
+	
+	/**
+	 * Executes setMimeType function.
+	 * 
+	 * @param mimeType	Mime type of response.
+	 */
+	public void setMimeType(ValueWrapper mimeType) {
+		requestContext.setMimeType(mimeType.toString());
+	}
+	
+	/**
+	 * Executes paramGet function.
+	 * 
+	 * @param name	Name of parameter.
+	 * @param defValue	Value returned if there is no such parameter.
+	 * @return	value of parameter.
+	 */
+	public ValueWrapper paramGet(ValueWrapper name, ValueWrapper defValue) {
+		String value = requestContext.getParameter(name.toString());
+		return new ValueWrapper(value == null ? defValue : value);
+	}
+	
+	/**
+	 * Executes pparamGet function.
+	 * 
+	 * @param name	Name of persistent parameter.
+	 * @param defValue	Value returned if there is no such parameter.
+	 * @return	value of parameter.
+	 */
+	public ValueWrapper pparamGet(ValueWrapper name, ValueWrapper defValue) {
+		String value = requestContext.getPersistentParameter(name.toString());
+		return new ValueWrapper(value == null ? defValue : value);
+	}
+	
+	/**
+	 * Executes pparamSet function.
+	 * 
+	 * @param value	Value of persistent parameter.
+	 * @param name	Name of persistent parameter.
+	 */
+	public void pparamSet(ValueWrapper value, ValueWrapper name) {
+		requestContext.setPersistentParameter(name.toString(), value.toString());
+	}
+	
+	/**
+	 * Executes pparamDel function.
+	 * 
+	 * @param name	Name of persistent parameter.
+	 */
+	public void pparamDel(ValueWrapper name) {
+		requestContext.removePersistentParameter(name.toString());
+	}
+	
+	/**
+	 * Executes tparamGet function.
+	 * 
+	 * @param name	Name of temporary parameter.
+	 * @param defValue	Value returned if there is no such parameter.
+	 * @return	value of parameter.
+	 */
+	public ValueWrapper tparamGet(ValueWrapper name, ValueWrapper defValue) {
+		String value = requestContext.getTemporaryParameter(name.toString());
+		return new ValueWrapper(value == null ? defValue : value);
+	}
+	
+	/**
+	 * Executes tparamSet function.
+	 * 
+	 * @param value	Value of temporary parameter.
+	 * @param name	Name of temporary parameter.
+	 */
+	public void tparamSet(ValueWrapper value, ValueWrapper name) {
+		requestContext.setTemporaryParameter(name.toString(), value.toString());
+	}
+	
+	/**
+	 * Executes tparamDel function.
+	 * 
+	 * @param name	Name of temporary parameter.
+	 */
+	public void tparamDel(ValueWrapper name) {
+		requestContext.removeTemporaryParameter(name.toString());
+	}
+}
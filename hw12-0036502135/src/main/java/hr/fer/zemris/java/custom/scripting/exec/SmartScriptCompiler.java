@@ -0,0 +1,510 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.exec.ClassFileWriter.Code;
+import hr.fer.zemris.java.custom.scripting.exec.ClassFileWriter.Label;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.INodeVisitor;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+
+/**
+ * Compiler that turns parsed SmartScript document into generated class.
+ * Generated class extends CompiledTemplate and gives same results as
+ * SmartScriptEngine, as both call same operations of ScriptRuntime.
+ * Text nodes become writes of pre-encoded texts, for loops become jumps
+ * and echo nodes become straight-line code. Stack of echo node is kept in
+ * local variables, as its depth after each element is known while compiling,
+ * so operators and functions are resolved once and swap costs nothing.
+ * Document that would fail during execution because of unknown function or
+ * too few values on stack isn't compiled, so it can be interpreted instead.
+ * Each template is defined by its own class loader, so its class is unloaded
+ * once template isn't used anymore.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class SmartScriptCompiler {
+
+	/**
+	 * Internal name of CompiledTemplate.
+	 */
+	private static final String TEMPLATE = "hr/fer/zemris/java/custom/scripting/exec/CompiledTemplate";
+	/**
+	 * Internal name of ScriptRuntime.
+	 */
+	private static final String RUNTIME = "hr/fer/zemris/java/custom/scripting/exec/ScriptRuntime";
+	/**
+	 * Descriptor of ValueWrapper.
+	 */
+	private static final String VALUE = "Lhr/fer/zemris/java/custom/scripting/exec/ValueWrapper;";
+	/**
+	 * Descriptor of String.
+	 */
+	private static final String STRING = "Ljava/lang/String;";
+	/**
+	 * Internal name prefix of generated classes.
+	 */
+	private static final String CLASS_PREFIX = "hr/fer/zemris/java/custom/scripting/exec/GeneratedTemplate";
+	/**
+	 * Maximum depth of operand stack in generated code.
+	 */
+	private static final int MAX_STACK = 4;
+	/**
+	 * Index of local variable holding runtime, after this.
+	 */
+	private static final int RUNTIME_LOCAL = 1;
+	/**
+	 * Counter used to create unique class names.
+	 */
+	private static final AtomicInteger counter = new AtomicInteger();
+	
+	/**
+	 * Internal name of generated class.
+	 */
+	private String className;
+	/**
+	 * Writer of generated class.
+	 */
+	private ClassFileWriter writer;
+	/**
+	 * Writer of run method.
+	 */
+	private Code code;
+	/**
+	 * Texts of text nodes, in order of their indexes.
+	 */
+	private List<String> texts = new ArrayList<>();
+	/**
+	 * Index of first unused local variable.
+	 */
+	private int nextLocal = RUNTIME_LOCAL + 1;
+	/**
+	 * Number of local variables used by run method.
+	 */
+	private int maxLocals = nextLocal;
+	
+	/**
+	 * Implementation of INodeVisitor that writes code of each visited node.
+	 */
+	private INodeVisitor visitor = new INodeVisitor() {
+	
+		/**
+		 * Writes call that writes text with index of node.
+		 * 
+		 * @param node	TextNode to compile.
+		 */
+		@Override
+		public void visitTextNode(TextNode node) {
+			code.load(0);
+			code.load(RUNTIME_LOCAL);
+			code.push(texts.size());
+			code.invoke(ClassFileWriter.INVOKEVIRTUAL, className, "text", "(L" + RUNTIME + ";I)V");
+			
+			texts.add(node.getText());
+		}
+		
+		/**
+		 * Writes loop that tests variable, executes children
+		 * and adds step until variable is larger than end value.
+		 * Values of loop variable, end and step are kept in local variables,
+		 * end and step are parsed once, before loop starts.
+		 * 
+		 * @param node	ForLoopNode to compile.
+		 */
+		@Override
+		public void visitForLoopNode(ForLoopNode node) {
+			String name = node.getVariable().asText();
+			int variable = allocate(3);
+			Label test = new Label();
+			Label end = new Label();
+			
+			code.load(RUNTIME_LOCAL);
+			code.load(RUNTIME_LOCAL);
+			pushConstant(node.getEndExpression());
+			callRuntime("number", "(" + VALUE + ")" + VALUE);
+			code.store(variable + 1);
+			
+			code.load(RUNTIME_LOCAL);
+			if(node.getStepExpression() == null) {
+				callRuntime("defaultStep", "()" + VALUE);
+			}else {
+				code.load(RUNTIME_LOCAL);
+				pushConstant(node.getStepExpression());
+				callRuntime("number", "(" + VALUE + ")" + VALUE);
+			}
+			code.store(variable + 2);
+			
+			code.load(RUNTIME_LOCAL);
+			code.push(name);
+			code.push(node.getStartExpression().asText());
+			callRuntime("startLoop", "(" + STRING + STRING + ")" + VALUE);
+			code.store(variable);
+			
+			code.mark(test);
+			code.load(RUNTIME_LOCAL);
+			code.load(variable);
+			code.load(variable + 1);
+			callRuntime("testLoop", "(" + VALUE + VALUE + ")Z");
+			code.jump(ClassFileWriter.IFEQ, end);
+			
+			callChildren(node);
+			
+			code.load(RUNTIME_LOCAL);
+			code.load(variable);
+			code.load(variable + 2);
+			callRuntime("stepLoop", "(" + VALUE + VALUE + ")V");
+			code.jump(ClassFileWriter.GOTO, test);
+			
+			code.mark(end);
+			code.load(RUNTIME_LOCAL);
+			code.push(name);
+			callRuntime("endLoop", "(" + STRING + ")V");
+			
+			nextLocal -= 3;
+		}
+		
+		/**
+		 * Writes code of elements of echo node, followed by writes
+		 * of values left on stack, from bottom to top.
+		 * Value at depth i of stack is kept in local variable base + i.
+		 * 
+		 * @param node	EchoNode to compile.
+		 */
+		@Override
+		public void visitEchoNode(EchoNode node) {
+			int base = nextLocal;
+			int depth = 0;
+			
+			for(Element element : node.getElements()) {
+				if(isConstant(element)) {
+					code.load(RUNTIME_LOCAL);
+					pushConstant(element);
+					depth = store(base, depth);
+				}else if(element instanceof ElementVariable) {
+					depth = pushVariable(element.asText(), base, depth);
+				}else if(element instanceof ElementOperator) {
+					depth = compileOperator(element.asText(), base, depth);
+				}else if(element instanceof ElementFunction) {
+					depth = compileFunction(element.asText(), base, depth);
+				}
+			}
+			
+			for(int i = 0; i < depth; i++) {
+				code.load(RUNTIME_LOCAL);
+				code.load(base + i);
+				callRuntime("write", "(" + VALUE + ")V");
+			}
+		}
+		
+		/**
+		 * Writes code of children of document.
+		 * 
+		 * @param node	DocumentNode to compile.
+		 */
+		@Override
+		public void visitDocumentNode(DocumentNode node) {
+			callChildren(node);
+		}
+		
+		/**
+		 * Writes code of all children of given node.
+		 * 
+		 * @param node	Node whose children are compiled.
+		 */
+		private void callChildren(Node node) {
+			for(int index = 0; index < node.numberOfChildren(); index++) {
+				node.getChild(index).accept(this);
+			}
+		}
+		
+		/**
+		 * Helper method that checks whether given Element is constant element.
+		 * 
+		 * @param element	Element to check.
+		 * @return	true if given element is constant, false otherwise.
+		 */
+		private boolean isConstant(Element element) {
+			return  element instanceof ElementConstantDouble ||
+					element instanceof ElementConstantInteger ||
+					element instanceof ElementString;
+		}
+		
+		/**
+		 * Writes code that pushes value of variable on stack of echo node.
+		 * 
+		 * @param name	Name of variable.
+		 * @param base	Local variable of bottom of stack.
+		 * @param depth	Depth of stack.
+		 * @return	new depth of stack.
+		 */
+		private int pushVariable(String name, int base, int depth) {
+			code.load(RUNTIME_LOCAL);
+			code.push(name);
+			callRuntime("variable", "(" + STRING + ")" + VALUE);
+			return store(base, depth);
+		}
+		
+		/**
+		 * Writes call that creates value of constant element, with runtime already on operand stack.
+		 * Numbers are written into class as int or double constants, so they aren't parsed again.
+		 * 
+		 * @param element	Element of constant.
+		 */
+		private void pushConstant(Element element) {
+			if(element instanceof ElementConstantInteger) {
+				code.push(((ElementConstantInteger) element).getValue());
+				callRuntime("constant", "(I)" + VALUE);
+			}else if(element instanceof ElementConstantDouble) {
+				code.push(((ElementConstantDouble) element).getValue());
+				callRuntime("constant", "(D)" + VALUE);
+			}else {
+				code.push(element.asText());
+				callRuntime("constant", "(" + STRING + ")" + VALUE);
+			}
+		}
+		
+		/**
+		 * Writes code of operator.
+		 * 
+		 * @param operation	Operation, can be +,-,/ or *.
+		 * @param base	Local variable of bottom of stack.
+		 * @param depth	Depth of stack.
+		 * @return	new depth of stack.
+		 * @throws UnsupportedOperationException if unsupported operation is given.
+		 */
+		private int compileOperator(String operation, int base, int depth) {
+			switch(operation) {
+				case "+":
+					return call("add", 2, true, base, depth);
+				case "-":
+					return call("subtract", 2, true, base, depth);
+				case "*":
+					return call("multiply", 2, true, base, depth);
+				case "/":
+					return call("divide", 2, true, base, depth);
+				default:
+					throw new UnsupportedOperationException("Invalid operation given: " + operation);
+			}
+		}
+		
+		/**
+		 * Writes code of function.
+		 * Swap only exchanges local variables of two values on top of stack.
+		 * 
+		 * @param funcName	Name of function.
+		 * @param base	Local variable of bottom of stack.
+		 * @param depth	Depth of stack.
+		 * @return	new depth of stack.
+		 * @throws UnsupportedOperationException if unsupported function is given.
+		 */
+		private int compileFunction(String funcName, int base, int depth) {
+			switch(funcName) {
+				case "sin":
+					return call("sin", 1, true, base, depth);
+				case "decfmt":
+					return call("decfmt", 2, true, base, depth);
+				case "dup":
+					requireValues(funcName, 1, depth);
+					code.load(RUNTIME_LOCAL);
+					code.load(base + depth - 1);
+					callRuntime("dup", "(" + VALUE + ")" + VALUE);
+					return store(base, depth);
+				case "swap":
+					requireValues(funcName, 2, depth);
+					code.load(base + depth - 1);
+					code.load(base + depth - 2);
+					code.store(base + depth - 1);
+					code.store(base + depth - 2);
+					return depth;
+				case "setMimeType":
+					return call("setMimeType", 1, false, base, depth);
+				case "paramGet":
+					return call("paramGet", 2, true, base, depth);
+				case "pparamGet":
+					return call("pparamGet", 2, true, base, depth);
+				case "pparamSet":
+					return call("pparamSet", 2, false, base, depth);
+				case "pparamDel":
+					return call("pparamDel", 1, false, base, depth);
+				case "tparamGet":
+					return call("tparamGet", 2, true, base, depth);
+				case "tparamSet":
+					return call("tparamSet", 2, false, base, depth);
+				case "tparamDel":
+					return call("tparamDel", 1, false, base, depth);
+				default:
+					throw new UnsupportedOperationException("Function " + funcName + " not supported.");
+			}
+		}
+		
+		/**
+		 * Writes call of runtime method that takes values from top of stack
+		 * and optionally pushes its result.
+		 * 
+		 * @param method	Runtime method to call.
+		 * @param args	Number of values method takes, bottom one is first argument.
+		 * @param result	Whether method returns value.
+		 * @param base	Local variable of bottom of stack.
+		 * @param depth	Depth of stack.
+		 * @return	new depth of stack.
+		 */
+		private int call(String method, int args, boolean result, int base, int depth) {
+			requireValues(method, args, depth);
+			
+			StringBuilder descriptor = new StringBuilder("(");
+			code.load(RUNTIME_LOCAL);
+			for(int i = depth - args; i < depth; i++) {
+				code.load(base + i);
+				descriptor.append(VALUE);
+			}
+			descriptor.append(')').append(result ? VALUE : "V");
+			callRuntime(method, descriptor.toString());
+			
+			return result ? store(base, depth - args) : depth - args;
+		}
+		
+		/**
+		 * Writes instruction that stores value on top of operand stack on top of stack of echo node.
+		 * 
+		 * @param base	Local variable of bottom of stack.
+		 * @param depth	Depth of stack.
+		 * @return	new depth of stack.
+		 */
+		private int store(int base, int depth) {
+			code.store(base + depth);
+			maxLocals = Math.max(maxLocals, base + depth + 1);
+			
+			return depth + 1;
+		}
+		
+		/**
+		 * Checks whether stack has enough values for operation.
+		 * 
+		 * @param name	Name of operation.
+		 * @param args	Number of values operation takes.
+		 * @param depth	Depth of stack.
+		 * @throws IllegalArgumentException	if stack has too few values.
+		 */
+		private void requireValues(String name, int args, int depth) {
+			if(depth < args) {
+				throw new IllegalArgumentException("Not enough values on stack for " + name + ".");
+			}
+		}
+	};
+	
+	/**
+	 * Compiles given document.
+	 * 
+	 * @param documentNode	Document to compile.
+	 * @return	compiled template.
+	 * @throws UnsupportedOperationException	if document uses unsupported operation or function.
+	 * @throws IllegalArgumentException	if echo node has too few values for its operations
+	 * 			or document is too large to compile.
+	 * @throws IllegalStateException	if generated class can't be loaded.
+	 * @throws NullPointerException	if null document is given.
+	 */
+	public static CompiledTemplate compile(DocumentNode documentNode) {
+		Objects.requireNonNull(documentNode, "Can't compile null document node.");
+		
+		return new SmartScriptCompiler().generate(documentNode);
+	}
+	
+	/**
+	 * Private constructor, compiler is used through compile method.
+	 */
+	private SmartScriptCompiler() {
+		className = CLASS_PREFIX + counter.incrementAndGet();
+		writer = new ClassFileWriter(className, TEMPLATE);
+	}
+	
+	/**
+	 * Generates class of given document and creates its instance.
+	 * 
+	 * @param documentNode	Document to compile.
+	 * @return	compiled template.
+	 */
+	private CompiledTemplate generate(DocumentNode documentNode) {
+		Code constructor = writer.method("<init>", "([" + STRING + ")V");
+		constructor.load(0);
+		constructor.load(1);
+		constructor.invoke(ClassFileWriter.INVOKESPECIAL, TEMPLATE, "<init>", "([" + STRING + ")V");
+		constructor.op(ClassFileWriter.RETURN);
+		constructor.end(2, 2);
+		
+		code = writer.method("run", "(L" + RUNTIME + ";)V");
+		documentNode.accept(visitor);
+		code.op(ClassFileWriter.RETURN);
+		code.end(MAX_STACK, maxLocals);
+		
+		byte[] bytes = writer.toByteArray();
+		try {
+			Class<?> type = new TemplateLoader().define(className.replace('/', '.'), bytes);
+			return (CompiledTemplate) type.getConstructor(String[].class)
+					.newInstance((Object) texts.toArray(new String[texts.size()]));
+		} catch(ReflectiveOperationException | LinkageError ex) {
+			throw new IllegalStateException("Generated template can't be loaded.", ex);
+		}
+	}
+	
+	/**
+	 * Writes call of runtime method.
+	 * 
+	 * @param method	Name of method.
+	 * @param descriptor	Descriptor of method.
+	 */
+	private void callRuntime(String method, String descriptor) {
+		code.invoke(ClassFileWriter.INVOKEVIRTUAL, RUNTIME, method, descriptor);
+	}
+	
+	/**
+	 * Allocates given number of local variables.
+	 * 
+	 * @param count	Number of variables.
+	 * @return	index of first allocated variable.
+	 */
+	private int allocate(int count) {
+		int first = nextLocal;
+		nextLocal += count;
+		maxLocals = Math.max(maxLocals, nextLocal);
+		
+		return first;
+	}
+	
+	/**
+	 * Class loader that defines class of one template.
+	 */
+	private static class TemplateLoader extends ClassLoader {
+	
+		/**
+		 * Constructor that creates loader whose parent loaded CompiledTemplate.
+		 */
+		private TemplateLoader() {
+			super(CompiledTemplate.class.getClassLoader());
+		}
+		
+		/**
+		 * Defines class from given bytes.
+		 * 
+		 * @param name	Binary name of class.
+		 * @param bytes	Class file.
+		 * @return	defined class.
+		 */
+		private Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
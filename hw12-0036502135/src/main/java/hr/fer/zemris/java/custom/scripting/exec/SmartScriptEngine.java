@@ -1,15 +1,9 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
 import java.io.IOException;
-import java.text.DecimalFormat;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.Stack;
-import java.util.function.BiConsumer;
-import java.util.function.BiFunction;
-
-import static java.lang.Math.sin;
-import static java.lang.Math.toRadians;
 
 import hr.fer.zemris.java.custom.scripting.elems.Element;
 import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
@@ -45,13 +39,9 @@ public class SmartScriptEngine {
 	 */
 	private DocumentNode documentNode;
 	/**
-	 * RequestContext where result is written.
-	 */
-	private RequestContext requestContext;
-	/**
-	 * Multistack where data is saved.
+	 * Runtime that executes operations and writes result into RequestContext.
 	 */
-	private ObjectMultistack multistack = new ObjectMultistack();
+	private ScriptRuntime runtime;
 	
 	/**
 	 * Implementation of INodeVisitor.
@@ -69,7 +59,7 @@ public class SmartScriptEngine {
 		@Override
 		public void visitTextNode(TextNode node) {
 			try {
-				requestContext.write(node.getText());
+				runtime.writeText(node.getText(), null);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -78,6 +68,7 @@ public class SmartScriptEngine {
 		/**
 		 * Executed for loop node.
 		 * Loop count is based on start value, end value and step.
+		 * End value and step are parsed once, before loop starts.
 		 * On each loop it will call accept method on each child.
 		 * 
 		 * @param node	ForLoopNode to execute.
@@ -85,17 +76,18 @@ public class SmartScriptEngine {
 		@Override
 		public void visitForLoopNode(ForLoopNode node) {
 			String name = node.getVariable().asText();
-			String end = node.getEndExpression().asText();
-			String step = node.getStepExpression().asText();
+			ValueWrapper end = runtime.number(constant(node.getEndExpression()));
+			ValueWrapper step = node.getStepExpression() == null ? runtime.defaultStep()
+					: runtime.number(constant(node.getStepExpression()));
 			
-			multistack.push(name, new ValueWrapper(node.getStartExpression().asText()));
-			while(multistack.peek(name).numCompare(end) <= 0) {
+			ValueWrapper variable = runtime.startLoop(name, node.getStartExpression().asText());
+			while(runtime.testLoop(variable, end)) {
 				callChildren(node);
 					
-				multistack.peek(name).add(step);
+				runtime.stepLoop(variable, step);
 			}
 			
-			multistack.pop(name);
+			runtime.endLoop(name);
 		}
 		
 		/**
@@ -108,16 +100,15 @@ public class SmartScriptEngine {
 		 */
 		@Override
 		public void visitEchoNode(EchoNode node) {
-			Stack<Object> stack = new Stack<>();
+			Stack<ValueWrapper> stack = new Stack<>();
 			
 			for(Element element : node.getElements()) {
 				if(isConstant(element)) {
-					stack.push(new ValueWrapper(element.asText()));
+					stack.push(constant(element));
 				}else if(element instanceof ElementVariable) {
-					Object value = multistack.peek(element.asText()).toString();
-					stack.push(new ValueWrapper(value));
+					stack.push(runtime.variable(element.asText()));
 				}else if(element instanceof ElementOperator) {
-					stack.push(calculate(element.asText(), (ValueWrapper) stack.pop(), (ValueWrapper) stack.pop()));
+					stack.push(calculate(element.asText(), stack.pop(), stack.pop()));
 				}else if(element instanceof ElementFunction) {
 					executeFunction(element.asText(), stack);
 				}
@@ -127,7 +118,7 @@ public class SmartScriptEngine {
 			
 			while(!stack.isEmpty()) {
 				try {
-					requestContext.write(stack.pop().toString());
+					runtime.write(stack.pop());
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
@@ -169,6 +160,23 @@ public class SmartScriptEngine {
 					element instanceof ElementString;
 		}
 		
+		/**
+		 * Helper method that creates value of constant element.
+		 * Numbers are taken from element, without parsing its text.
+		 * 
+		 * @param element	Element of constant.
+		 * @return	value of constant.
+		 */
+		private ValueWrapper constant(Element element) {
+			if(element instanceof ElementConstantInteger) {
+				return runtime.constant(((ElementConstantInteger) element).getValue());
+			}else if(element instanceof ElementConstantDouble) {
+				return runtime.constant(((ElementConstantDouble) element).getValue());
+			}
+			
+			return runtime.constant(element.asText());
+		}
+		
 		/**
 		 * Helper method used to do calculation operation on 2 ValueWrapper values,
 		 * and return result of it as ValueWrapper object instance.
@@ -180,26 +188,18 @@ public class SmartScriptEngine {
 		 * @throws UnsupportedOperationException if unsupported operation is given.
 		 */
 		private ValueWrapper calculate(String operation, ValueWrapper op2, ValueWrapper op1) {
-			String operator2 = op2.toString();
-			
 			switch(operation) {
 				case "+":
-					op1.add(operator2);
-					break;
+					return runtime.add(op1, op2);
 				case "-":
-					op1.subtract(operator2);
-					break;
+					return runtime.subtract(op1, op2);
 				case "*":
-					op1.multiply(operator2);
-					break;
+					return runtime.multiply(op1, op2);
 				case "/":
-					op1.divide(operator2);
-					break;
+					return runtime.divide(op1, op2);
 				default:
 					throw new UnsupportedOperationException("Invalid operation given: " + operation);
 			}
-			
-			return op1;
 		}
 		
 		/**
@@ -212,127 +212,66 @@ public class SmartScriptEngine {
 		 * @param stack	Used to get arguments and to store result.
 		 * @throws UnsupportedOperationException if unsupported function is given.
 		 */
-		private void executeFunction(String funcName, Stack<Object> stack) {
+		private void executeFunction(String funcName, Stack<ValueWrapper> stack) {
+			ValueWrapper arg;
+			
 			switch(funcName) {
 				case "sin":
-					sinFunc(stack);
+					stack.push(runtime.sin(stack.pop()));
 					break;
 				case "decfmt":
-					decfmtFunc(stack);
+					arg = stack.pop();
+					stack.push(runtime.decfmt(stack.pop(), arg));
 					break;
 				case "dup":
-					stack.push(new ValueWrapper(stack.peek().toString()));
+					stack.push(runtime.dup(stack.peek()));
 					break;
 				case "swap":
 					swapFunc(stack);
 					break;
 				case "setMimeType":
-					requestContext.setMimeType(stack.pop().toString());
+					runtime.setMimeType(stack.pop());
 					break;
 				case "paramGet":
-					mapGetter(stack, (reqCont, name) -> reqCont.getParameter(name));
+					arg = stack.pop();
+					stack.push(runtime.paramGet(stack.pop(), arg));
 					break;
 				case "pparamGet":
-					mapGetter(stack, (reqCont, name) -> reqCont.getPersistentParameter(name));
+					arg = stack.pop();
+					stack.push(runtime.pparamGet(stack.pop(), arg));
 					break;
 				case "pparamSet":
-					mapSetter(stack, "persistent");
+					arg = stack.pop();
+					runtime.pparamSet(stack.pop(), arg);
 					break;
 				case "pparamDel":
-					mapRemove(stack, (reqCont, name) -> reqCont.removePersistentParameter(name));
+					runtime.pparamDel(stack.pop());
 					break;
 				case "tparamGet":
-					mapGetter(stack, (reqCont, name) -> reqCont.getTemporaryParameter(name));
+					arg = stack.pop();
+					stack.push(runtime.tparamGet(stack.pop(), arg));
 					break;
 				case "tparamSet":
-					mapSetter(stack, "temporary");
+					arg = stack.pop();
+					runtime.tparamSet(stack.pop(), arg);
 					break;
 				case "tparamDel":
-					mapRemove(stack, (reqCont, name) -> reqCont.removeTemporaryParameter(name));
+					runtime.tparamDel(stack.pop());
 					break;
 				default:
 					throw new UnsupportedOperationException("Function " + funcName + " not supported.");
 			}
 		}
 		
-		/**
-		 * Used to execute functions that get value from map in requestContext object.
-		 * Pushes obtained value onto given stack if it exists, or defaultValue if not.
-		 * 
-		 * @param stack	Used to get arguments and to store result.
-		 * @param func	BiFunction used to get value from map.
-		 */
-		private void mapGetter(Stack<Object> stack, BiFunction<RequestContext, String, String> func) {
-			Object defValue = stack.pop();
-			String name = stack.pop().toString();
-			String value = func.apply(requestContext, name);
-			stack.push(new ValueWrapper(value == null ? defValue : value));
-		}
-		
-		/**
-		 * Used to execute functions that removes value from map in requestContext object.
-		 * 
-		 * @param stack	Used to get arguments and to store result.
-		 * @param func	BiFunction used to remove value from map.
-		 */
-		private void mapRemove(Stack<Object> stack, BiConsumer<RequestContext, String> func) {
-			String name = stack.pop().toString();
-			func.accept(requestContext, name);
-		}
-		 
-		/**
-		 * Used to execute functions that put value in map in requestContext object.
-		 * 
-		 * @param stack	Used to get arguments and to store result.
-		 * @param func	BiFunction used to get value from map.
-		 */
-		private void mapSetter(Stack<Object> stack, String mapName) {
-			String name = stack.pop().toString();
-			String value = stack.pop().toString();
-			
-			if(mapName.equals("persistent")) {
-				requestContext.setPersistentParameter(name, value);
-			}else if(mapName.equals("temporary")) {
-				requestContext.setTemporaryParameter(name, value);
-			}
-		}
-		
-		/**
-		 * Helper method that executes sin function.
-		 * Takes number from top of the stack and calculates its sin value.
-		 * Puts result back on stack.
-		 * 
-		 * @param stack	Used to get arguments and to store result.
-		 */
-		private void sinFunc(Stack<Object> stack) {
-			ValueWrapper wrapper = (ValueWrapper) stack.peek();
-			Double value = Double.parseDouble(wrapper.toString());
-			wrapper.setValue(sin(toRadians(value)));
-		}
-		
-		/**
-		 * Helper method that executes decfmt function.
-		 * Takes format from top of the stack,creates it.
-		 * Takes number from top of the stack and calculates formated number.
-		 * Puts result back on stack.
-		 * 
-		 * @param stack	Used to get arguments and to store result.
-		 */
-		private void decfmtFunc(Stack<Object> stack) {
-			DecimalFormat format = new DecimalFormat(stack.pop().toString());
-			ValueWrapper wrapper = (ValueWrapper) stack.peek();
-			wrapper.setValue(format.format(Double.parseDouble(wrapper.toString())));
-		}
-		
 		/**
 		 * Helper method that executes swap function.
 		 * Takes 2 object from top of the stack and swaps them.
 		 * 
 		 * @param stack	Used to get arguments and to store result.
 		 */
-		private void swapFunc(Stack<Object> stack) {
-			Object obj1 = stack.pop();
-			Object obj2 = stack.pop();
+		private void swapFunc(Stack<ValueWrapper> stack) {
+			ValueWrapper obj1 = stack.pop();
+			ValueWrapper obj2 = stack.pop();
 			
 			stack.push(obj1);
 			stack.push(obj2);
@@ -352,7 +291,7 @@ public class SmartScriptEngine {
 		Objects.requireNonNull(requestContext, "Can't take null request context.");
 		
 		this.documentNode = documentNode;
-		this.requestContext = requestContext;
+		this.runtime = new ScriptRuntime(requestContext);
 	}
 	
 	/**
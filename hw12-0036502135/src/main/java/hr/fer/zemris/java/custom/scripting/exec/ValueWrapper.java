@@ -1,7 +1,5 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BinaryOperator;
-
 /**
  * Class that represents simple Wrapper for all different objects and null value.
  * It implements methods that can perform operations with other given object,
@@ -9,6 +7,10 @@ import java.util.function.BinaryOperator;
  *  Implements method that will compare wrapper with given object, only 4 types that
  *  we mentioned are allowed.
  *  Null values in operations are transformed into Integers with value 0.
+ *  Integer and Double values are stored as tagged primitive int or double, so
+ *  operations don't box them. String value is parsed once, when wrapper takes part
+ *  in operation, and result is stored as primitive. Result of operation between two
+ *  integers is computed as double and cast to int.
  * 
  * @author Martin Sršen
  *
@@ -16,9 +18,51 @@ import java.util.function.BinaryOperator;
 public class ValueWrapper {
 
 	/**
-	 * Object that ValueWrapper wraps or null.
+	 * Operation code of addition.
+	 */
+	static final int ADD = 0;
+	/**
+	 * Operation code of subtraction.
+	 */
+	static final int SUBTRACT = 1;
+	/**
+	 * Operation code of multiplication.
+	 */
+	static final int MULTIPLY = 2;
+	/**
+	 * Operation code of division.
+	 */
+	static final int DIVIDE = 3;
+	
+	/**
+	 * Tag of value stored as object.
+	 */
+	private static final int OBJECT = 0;
+	/**
+	 * Tag of value stored as primitive int.
+	 */
+	private static final int INTEGER = 1;
+	/**
+	 * Tag of value stored as primitive double.
+	 */
+	private static final int DOUBLE = 2;
+	
+	/**
+	 * Object that ValueWrapper wraps or null, used if value isn't stored as primitive.
 	 */
 	private Object value;
+	/**
+	 * Tag that tells how value is stored.
+	 */
+	private int type;
+	/**
+	 * Value stored as primitive int.
+	 */
+	private int intValue;
+	/**
+	 * Value stored as primitive double.
+	 */
+	private double doubleValue;
 	
 	/**
 	 * Constructor that takes Object to wrap.
@@ -26,26 +70,58 @@ public class ValueWrapper {
 	 * 
 	 * @param value	Object to wrap or null value.
 	 */
-	public ValueWrapper(Object value) {	
-		this.value = value;
+	public ValueWrapper(Object value) {
+		setValue(value);
 	}
-
+	
+	/**
+	 * Constructor that takes int value, stored without boxing.
+	 * 
+	 * @param value	Value to wrap.
+	 */
+	ValueWrapper(int value) {
+		setNumber(value);
+	}
+	
+	/**
+	 * Constructor that takes double value, stored without boxing.
+	 * 
+	 * @param value	Value to wrap.
+	 */
+	ValueWrapper(double value) {
+		setNumber(value);
+	}
+	
 	/**
 	 * Getter method for wrapped value.
 	 * 
 	 * @return	value.
 	 */
 	public Object getValue() {
-		return value;
+		switch(type) {
+			case INTEGER:
+				return Integer.valueOf(intValue);
+			case DOUBLE:
+				return Double.valueOf(doubleValue);
+			default:
+				return value;
+		}
 	}
-
+	
 	/**
 	 * Setter method for wrapped value.
 	 * 
 	 * @param value	Object or null value to wrap.
 	 */
 	public void setValue(Object value) {
-		this.value = value;
+		if(value instanceof Integer) {
+			setNumber(((Integer) value).intValue());
+		}else if(value instanceof Double) {
+			setNumber(((Double) value).doubleValue());
+		}else {
+			this.type = OBJECT;
+			this.value = value;
+		}
 	}
 	
 	/**
@@ -58,12 +134,9 @@ public class ValueWrapper {
 	 * @throws	RuntimeException if any value is invalid Object type or String type isn't number representation.
 	 */
 	public void add(Object incValue) {
-		Number number1 = convertToNumber(this.getValue());
-		Number number2 = convertToNumber(incValue);
-		
-		this.setValue(operate(number1, number2, (v1, v2) -> v1+v2));
+		operate(ADD, incValue);
 	}
-
+	
 	/**
 	 * Subtract currently wrapped value to given Object value
 	 * and stores result into wrapped value.
@@ -74,10 +147,7 @@ public class ValueWrapper {
 	 * @throws	RuntimeException if any value is invalid Object type or String type isn't number representation.
 	 */
 	public void subtract(Object decValue) {
-		Number number1 = convertToNumber(this.getValue());
-		Number number2 = convertToNumber(decValue);
-		
-		this.setValue(operate(number1, number2, (v1, v2) -> v1-v2));
+		operate(SUBTRACT, decValue);
 	}
 	
 	/**
@@ -90,10 +160,7 @@ public class ValueWrapper {
 	 * @throws	RuntimeException if any value is invalid Object type or String type isn't number representation.
 	 */
 	public void multiply(Object mulValue) {
-		Number number1 = convertToNumber(this.getValue());
-		Number number2 = convertToNumber(mulValue);
-		
-		this.setValue(operate(number1, number2, (v1, v2) -> v1*v2));
+		operate(MULTIPLY, mulValue);
 	}
 	
 	/**
@@ -107,14 +174,7 @@ public class ValueWrapper {
 	 * @throws IllegalArgumentException if division by 0 is attempted.
 	 */
 	public void divide(Object divValue) {
-		Number number1 = convertToNumber(this.getValue());
-		Number number2 = convertToNumber(divValue);
-		
-		if(number2.doubleValue() < 1E-5) {
-			throw new IllegalArgumentException("Divide by 0 attempt: " + number1 + "/" + number2);
-		}
-		
-		this.setValue(operate(number1, number2, (v1, v2) -> v1/v2));
+		operate(DIVIDE, divValue);
 	}
 	
 	/**
@@ -126,85 +186,245 @@ public class ValueWrapper {
 	 * @return	1 if wrapped value is bigger, 0 if they are equal, -1 if wrapped value is less that given.
 	 */
 	public int numCompare(Object withValue) {
-		Double number1 = (Double) convertToNumber(this.getValue()).doubleValue();
-		Double number2 = (Double) convertToNumber(withValue).doubleValue();
+		double number1 = toNumber();
 		
-		return number1.compareTo(number2);
+		return Double.compare(number1, new ValueWrapper(withValue).toNumber());
 	}
 	
 	@Override
 	public String toString() {
-		return value == null ? "0" : value.toString();
+		switch(type) {
+			case INTEGER:
+				return Integer.toString(intValue);
+			case DOUBLE:
+				return Double.toString(doubleValue);
+			default:
+				return value == null ? "0" : value.toString();
+		}
 	}
 	
 	/**
-	 * Helper method that calculates operation between 2 given numbers.
-	 * Operation is determined by BinaryOperator functional interface.
+	 * Applies operation with number that text of given wrapper represents
+	 * and stores result into wrapped value.
+	 * Same as calling operation with text of given wrapper, but numbers
+	 * stored as primitives are used without converting them to text.
 	 * 
-	 * @param originalNumber	Wrapped Object number value.
-	 * @param givenNumber	Given Object number value.
-	 * @param operator	BinaryOperator functional interface that calculates operation and returns result.
-	 * @return	result of operation between 2 given numbers.
+	 * @param operation	Operation code.
+	 * @param other	Wrapper of second operand.
+	 * @throws	RuntimeException if any value isn't number representation.
+	 * @throws IllegalArgumentException if division by 0 is attempted.
 	 */
-	private static Number operate(Number originalNumber, Number givenNumber, BinaryOperator<Double> operator) {
-		Double result = operator.apply(originalNumber.doubleValue(), givenNumber.doubleValue());
+	void apply(int operation, ValueWrapper other) {
+		parseNumber();
 		
-		if(originalNumber instanceof Integer && givenNumber instanceof Integer) {
-			return (Integer) result.intValue();
+		if(other.type == INTEGER) {
+			calculate(operation, true, other.intValue);
+		}else if(other.type == DOUBLE && Double.isFinite(other.doubleValue)) {
+			calculate(operation, false, other.doubleValue);
+		}else {
+			String text = other.toString();
+			boolean decimal = isDecimal(text);
+			calculate(operation, !decimal, parse(text, decimal));
 		}
-
-		return result;
 	}
 	
 	/**
-	 * Takes Object through argument and check whether given Object is number representation.
-	 * Null value is represented as Integer with value of 0.
-	 * Valid objects are String, Double, Integer and null value.
+	 * Compares currently wrapped value to number stored in given wrapper,
+	 * as if they were both converted to text first.
+	 * 
+	 * @param other	Wrapper to compare with.
+	 * @return	1 if wrapped value is bigger, 0 if they are equal, -1 if wrapped value is less that given.
+	 * @throws	RuntimeException if any value isn't number representation.
+	 */
+	int compareWith(ValueWrapper other) {
+		double number1 = toNumber();
+		double number2 = other.type == INTEGER || other.type == DOUBLE && Double.isFinite(other.doubleValue)
+				? other.toNumber() : new ValueWrapper(other.toString()).toNumber();
+		
+		return Double.compare(number1, number2);
+	}
+	
+	/**
+	 * Returns new wrapper that holds same text as this wrapper.
+	 * Numbers are copied as primitives, other values are converted to text.
+	 * 
+	 * @return	copy of wrapper.
+	 */
+	ValueWrapper copy() {
+		if(type == INTEGER)	return new ValueWrapper(intValue);
+		if(type == DOUBLE && Double.isFinite(doubleValue))	return new ValueWrapper(doubleValue);
+		
+		return new ValueWrapper(toString());
+	}
+	
+	/**
+	 * Returns value parsed as double from text of wrapper.
+	 * Same as parsing text of wrapper with Double.parseDouble.
+	 * 
+	 * @return	value as double.
+	 * @throws NumberFormatException	if text isn't valid double.
+	 */
+	double parseDouble() {
+		switch(type) {
+			case INTEGER:
+				return intValue;
+			case DOUBLE:
+				return doubleValue;
+			default:
+				return Double.parseDouble(toString());
+		}
+	}
+	
+	/**
+	 * Stores given int as wrapped value.
+	 * 
+	 * @param value	Value to store.
+	 */
+	void setNumber(int value) {
+		this.type = INTEGER;
+		this.intValue = value;
+		this.value = null;
+	}
+	
+	/**
+	 * Stores given double as wrapped value.
+	 * 
+	 * @param value	Value to store.
+	 */
+	void setNumber(double value) {
+		this.type = DOUBLE;
+		this.doubleValue = value;
+		this.value = null;
+	}
+	
+	/**
+	 * Converts wrapped value to number stored as primitive, if it isn't already.
 	 * 
-	 * @param obj	Object to check if it represents number.
-	 * @return	Number that was converted from Object.
-	 * @throws	RuntimeException if given String isn't number representation or
-	 * 			if invalid Object type was given.
+	 * @throws	RuntimeException if wrapped String isn't number representation or
+	 * 			if wrapped Object type is invalid.
 	 */
-	private static Number convertToNumber(Object obj) {
-		checkObjectValidation(obj);
+	void parseNumber() {
+		if(type != OBJECT)	return;
 		
-		if(obj == null) {
-			return Integer.valueOf(0);
-		}else if(obj instanceof Integer || obj instanceof Double) {
-			return (Number) obj;
-		}else{
-			String num = (String) obj;
+		if(value instanceof String) {
+			boolean decimal = isDecimal((String) value);
+			double number = parse((String) value, decimal);
 			
-			if(num.contains(".") || num.toUpperCase().contains("E")) {
-				try {
-					return Double.parseDouble(num.trim());
-				}catch(NumberFormatException exc) {}
+			if(decimal) {
+				setNumber(number);
 			}else {
-				try {
-					return Integer.parseInt(num.trim());
-				}catch(NumberFormatException ex) {}
+				setNumber((int) number);
 			}
-			
-			throw new RuntimeException("Invalid string representation of number: " + num);
+		}else {
+			setNumber((int) toNumber());
 		}
 	}
 	
 	/**
-	 * Helper method that checks whether given Object is allowed Object type.
-	 * Allowed types are String, Double, Integer and null value.
+	 * Helper method that converts given value and applies operation
+	 * between wrapped value and it.
+	 * 
+	 * @param operation	Operation code.
+	 * @param other	Second operand.
+	 * @throws	RuntimeException if any value is invalid Object type or String type isn't number representation.
+	 */
+	private void operate(int operation, Object other) {
+		parseNumber();
+		
+		ValueWrapper number2 = new ValueWrapper(other);
+		number2.parseNumber();
+		calculate(operation, number2.type == INTEGER, number2.toNumber());
+	}
+	
+	/**
+	 * Helper method that calculates operation between wrapped number and given number.
+	 * Result is computed as double, if both numbers are integers it is cast to int.
 	 * 
-	 * @param value	Value to check.
-	 * @throws	RuntimeException if given Object isn't allowed Object type.
+	 * @param operation	Operation code.
+	 * @param integer	Whether given number is integer.
+	 * @param number2	Given number.
+	 * @throws IllegalArgumentException if division by 0 is attempted.
 	 */
-	private static void checkObjectValidation(Object value) {
-		boolean valid = value == null ||
-						value instanceof Integer ||
-						value instanceof Double ||
-						value instanceof String;
+	private void calculate(int operation, boolean integer, double number2) {
+		double number1 = toNumber();
+		double result;
 		
-		if(!valid) {
-			throw new RuntimeException("Invalid object type for ValueWrapper operation." + value.getClass());
+		switch(operation) {
+			case ADD:
+				result = number1 + number2;
+				break;
+			case SUBTRACT:
+				result = number1 - number2;
+				break;
+			case MULTIPLY:
+				result = number1 * number2;
+				break;
+			case DIVIDE:
+				if(number2 < 1E-5) {
+					throw new IllegalArgumentException("Divide by 0 attempt: " + this + "/"
+							+ (integer ? Integer.toString((int) number2) : Double.toString(number2)));
+				}
+				result = number1 / number2;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid operation code: " + operation);
+		}
+		
+		if(type == INTEGER && integer) {
+			setNumber((int) result);
+		}else {
+			setNumber(result);
+		}
+	}
+	
+	/**
+	 * Returns wrapped value as double, without changing how it is stored.
+	 * Null value is represented as Integer with value of 0.
+	 * 
+	 * @return	value as double.
+	 * @throws	RuntimeException if wrapped String isn't number representation or
+	 * 			if wrapped Object type is invalid.
+	 */
+	private double toNumber() {
+		switch(type) {
+			case INTEGER:
+				return intValue;
+			case DOUBLE:
+				return doubleValue;
+			default:
+				if(value == null)	return 0;
+				if(value instanceof String) {
+					String num = (String) value;
+					return parse(num, isDecimal(num));
+				}
+				
+				throw new RuntimeException("Invalid object type for ValueWrapper operation." + value.getClass());
+		}
+	}
+	
+	/**
+	 * Checks whether given text should be parsed as double.
+	 * 
+	 * @param num	Text of number.
+	 * @return	true if text contains decimal point or exponent.
+	 */
+	private static boolean isDecimal(String num) {
+		return num.indexOf('.') >= 0 || num.indexOf('E') >= 0 || num.indexOf('e') >= 0;
+	}
+	
+	/**
+	 * Parses given text of number.
+	 * 
+	 * @param num	Text of number.
+	 * @param decimal	Whether text should be parsed as double, else it is parsed as int.
+	 * @return	parsed number.
+	 * @throws	RuntimeException if given String isn't number representation.
+	 */
+	private static double parse(String num, boolean decimal) {
+		try {
+			return decimal ? Double.parseDouble(num.trim()) : Integer.parseInt(num.trim());
+		}catch(NumberFormatException ex) {
+			throw new RuntimeException("Invalid string representation of number: " + num);
 		}
 	}
 }
@@ -0,0 +1,489 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous access log.
+ * Request threads put records into bounded ring buffer without locking,
+ * and single deamon thread takes them out, formats them in combined log
+ * format followed by duration of request in microseconds, and writes them
+ * to file in batches. If buffer is full, record is dropped and counted,
+ * so request threads never wait for disk.
+ * Log file is rotated when it grows over maximal size or when rotation
+ * interval passes. Rotated file is renamed by appending time of rotation
+ * to its name.
+ * If writing, rotating or opening file fails, writer closes file, waits
+ * and opens it again, and then writes same batch. Records that arrive
+ * in the meantime wait in buffer, or are dropped if it fills up.
+ * Ring buffer uses sequence number for each slot, so producers claim
+ * slots with compare and set and publish them by advancing their sequence.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class AccessLog {
+
+	/**
+	 * Maximum number of records written in one batch.
+	 */
+	private static final int BATCH_SIZE = 256;
+	/**
+	 * Time in nanoseconds writer waits when buffer is empty.
+	 */
+	private static final long IDLE_WAIT = 10_000_000;
+	/**
+	 * Time in nanoseconds writer waits before it opens file again after error.
+	 */
+	private static final long RETRY_WAIT = 1_000_000_000;
+	/**
+	 * Format of time in log records.
+	 */
+	private static final DateTimeFormatter RECORD_TIME =
+			DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ROOT).withZone(ZoneId.systemDefault());
+	/**
+	 * Format of time appended to name of rotated file.
+	 */
+	private static final DateTimeFormatter ROTATION_TIME =
+			DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT).withZone(ZoneId.systemDefault());
+	
+	/**
+	 * Path to log file.
+	 */
+	private Path file;
+	/**
+	 * Size in bytes after which file is rotated, 0 for no limit.
+	 */
+	private long maxSize;
+	/**
+	 * Time in milliseconds after which file is rotated, 0 for no limit.
+	 */
+	private long rotateInterval;
+	/**
+	 * Slots of ring buffer.
+	 */
+	private AtomicReferenceArray<Record> slots;
+	/**
+	 * Sequence numbers of slots. Slot is free for producer when its sequence
+	 * equals producer position, and full for consumer when it equals consumer position plus one.
+	 */
+	private AtomicLongArray sequences;
+	/**
+	 * Mask used to get index of slot from position.
+	 */
+	private int mask;
+	/**
+	 * Position of next slot producers write to.
+	 */
+	private AtomicLong tail = new AtomicLong();
+	/**
+	 * Position of next slot writer reads from. Only writer thread changes it.
+	 */
+	private long head;
+	/**
+	 * Number of dropped records.
+	 */
+	private LongAdder dropped = new LongAdder();
+	/**
+	 * Stream of current log file.
+	 */
+	private OutputStream out;
+	/**
+	 * Size of current log file.
+	 */
+	private long size;
+	/**
+	 * Time when current log file was opened.
+	 */
+	private long openedAt;
+	/**
+	 * Thread that writes records, or null if log isn't started.
+	 */
+	private Thread writer;
+	/**
+	 * Whether writer should stop once buffer is empty.
+	 */
+	private volatile boolean stopRequest;
+	
+	/**
+	 * Constructor that creates access log writing to given file.
+	 * 
+	 * @param file	Path to log file.
+	 * @param capacity	Number of records buffer holds, rounded up to power of two.
+	 * @param maxSize	Size in bytes after which file is rotated, 0 for no limit.
+	 * @param rotateInterval	Time in milliseconds after which file is rotated, 0 for no limit.
+	 * @throws IllegalArgumentException	if capacity isn't positive or some limit is negative.
+	 */
+	public AccessLog(Path file, int capacity, long maxSize, long rotateInterval) {
+		this.file = Objects.requireNonNull(file, "Log file can't be null.");
+		if(capacity < 1 || capacity > 1 << 30 || maxSize < 0 || rotateInterval < 0) {
+			throw new IllegalArgumentException("Invalid access log limits.");
+		}
+		
+		int slotCount = Integer.highestOneBit(capacity);
+		if(slotCount < capacity) {
+			slotCount <<= 1;
+		}
+		
+		this.maxSize = maxSize;
+		this.rotateInterval = rotateInterval;
+		this.slots = new AtomicReferenceArray<>(slotCount);
+		this.sequences = new AtomicLongArray(slotCount);
+		this.mask = slotCount - 1;
+		
+		for(int i = 0; i < slotCount; i++) {
+			sequences.set(i, i);
+		}
+	}
+	
+	/**
+	 * Opens log file and starts writer thread.
+	 * Does nothing if log is already started.
+	 * 
+	 * @throws IOException	if log file can't be opened.
+	 */
+	public synchronized void start() throws IOException {
+		if(writer != null)	return;
+		
+		open();
+		stopRequest = false;
+		writer = new Thread(this::runWriter);
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Stops writer thread after it writes records that are in buffer,
+	 * and closes log file.
+	 */
+	public synchronized void stop() {
+		if(writer == null)	return;
+		
+		stopRequest = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(5000);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+	}
+	
+	/**
+	 * Adds record of served request to buffer.
+	 * Never blocks, if buffer is full record is dropped.
+	 * 
+	 * @param record	Record to add.
+	 * @return	true if record was added, false if it was dropped.
+	 * @throws NullPointerException	if null record is given.
+	 */
+	public boolean log(Record record) {
+		Objects.requireNonNull(record, "Record can't be null.");
+		
+		while(true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			
+			if(sequence < position) {
+				dropped.increment();
+				return false;
+			}
+			
+			if(sequence == position && tail.compareAndSet(position, position + 1)) {
+				slots.set(index, record);
+				sequences.set(index, position + 1);
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Returns number of records that were dropped because buffer was full,
+	 * or because file couldn't be written when log was stopped.
+	 * 
+	 * @return	number of dropped records.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+	
+	/**
+	 * Takes next record from buffer. Called only by writer thread.
+	 * 
+	 * @return	next record, or null if buffer is empty.
+	 */
+	private Record poll() {
+		int index = (int) head & mask;
+		if(sequences.get(index) != head + 1)	return null;
+		
+		Record record = slots.get(index);
+		slots.set(index, null);
+		sequences.set(index, head + slots.length());
+		head++;
+		
+		return record;
+	}
+	
+	/**
+	 * Method executed by writer thread.
+	 * Writes records in batches until log is stopped and buffer is empty.
+	 * Batch that couldn't be written is kept and written again once file
+	 * is reopened. If log is stopped while file keeps failing, batch is
+	 * dropped after second attempt.
+	 */
+	private void runWriter() {
+		StringBuilder batch = new StringBuilder();
+		int batchRecords = 0;
+		int failures = 0;
+		
+		while(true) {
+			if(batchRecords == 0) {
+				batch.setLength(0);
+				Record record;
+				while(batchRecords < BATCH_SIZE && (record = poll()) != null) {
+					record.appendTo(batch);
+					batchRecords++;
+				}
+			}
+			
+			try {
+				if(out == null) {
+					open();
+				}
+				
+				if(batchRecords > 0) {
+					write(batch);
+					batchRecords = 0;
+					failures = 0;
+					continue;
+				}
+				
+				if(stopRequest)	break;
+				if(isRotationDue(0)) {
+					rotate();
+				}
+			} catch(IOException ex) {
+				if(failures++ == 0) {
+					ex.printStackTrace();
+				}
+				closeFile();
+				
+				if(stopRequest) {
+					if(failures < 2)	continue;
+					
+					dropped.add(batchRecords);
+					break;
+				}
+				LockSupport.parkNanos(RETRY_WAIT);
+				continue;
+			}
+			
+			LockSupport.parkNanos(IDLE_WAIT);
+		}
+		
+		closeFile();
+	}
+	
+	/**
+	 * Closes current log file, ignoring errors.
+	 * Next write opens file again.
+	 */
+	private void closeFile() {
+		if(out == null)	return;
+		
+		try {
+			out.close();
+		} catch (IOException ignorable) {}
+		out = null;
+	}
+	
+	/**
+	 * Writes formatted records to log file, rotating it first if needed.
+	 * 
+	 * @param batch	Formatted records.
+	 * @throws IOException	if error happens writing file.
+	 */
+	private void write(StringBuilder batch) throws IOException {
+		byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+		if(isRotationDue(bytes.length)) {
+			rotate();
+		}
+		
+		out.write(bytes);
+		out.flush();
+		size += bytes.length;
+	}
+	
+	/**
+	 * Checks whether log file should be rotated before given number of bytes is written.
+	 * 
+	 * @param bytes	Number of bytes that will be written.
+	 * @return	true if file should be rotated, false otherwise.
+	 */
+	private boolean isRotationDue(long bytes) {
+		if(size == 0)	return false;
+		
+		return (maxSize > 0 && size + bytes > maxSize)
+				|| (rotateInterval > 0 && System.currentTimeMillis() - openedAt >= rotateInterval);
+	}
+	
+	/**
+	 * Closes current log file, renames it and opens new one.
+	 * 
+	 * @throws IOException	if error happens renaming or opening file.
+	 */
+	private void rotate() throws IOException {
+		out.close();
+		
+		String suffix = ROTATION_TIME.format(Instant.now());
+		Path target = file.resolveSibling(file.getFileName() + "." + suffix);
+		for(int i = 1; Files.exists(target); i++) {
+			target = file.resolveSibling(file.getFileName() + "." + suffix + "-" + i);
+		}
+		
+		Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+		open();
+	}
+	
+	/**
+	 * Opens log file for appending.
+	 * 
+	 * @throws IOException	if file can't be opened.
+	 */
+	private void open() throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		if(dir != null) {
+			Files.createDirectories(dir);
+		}
+		
+		out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		size = Files.size(file);
+		openedAt = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Class representing one served request.
+	 * Record is only filled by request thread, it is formatted by writer thread.
+	 */
+	public static class Record {
+		/**
+		 * Address of client.
+		 */
+		private String client;
+		/**
+		 * Time when request was received, in milliseconds.
+		 */
+		private long time;
+		/**
+		 * First line of request.
+		 */
+		private String requestLine;
+		/**
+		 * Status code of response.
+		 */
+		private int status;
+		/**
+		 * Number of sent bytes.
+		 */
+		private long bytes;
+		/**
+		 * Value of Referer header, or null.
+		 */
+		private String referer;
+		/**
+		 * Value of User-Agent header, or null.
+		 */
+		private String userAgent;
+		/**
+		 * Duration of request in microseconds.
+		 */
+		private long micros;
+		
+		/**
+		 * Constructor that creates new record.
+		 * 
+		 * @param client	Address of client.
+		 * @param time	Time when request was received, in milliseconds.
+		 * @param requestLine	First line of request.
+		 * @param status	Status code of response.
+		 * @param bytes	Number of sent bytes.
+		 * @param referer	Value of Referer header, or null.
+		 * @param userAgent	Value of User-Agent header, or null.
+		 * @param micros	Duration of request in microseconds.
+		 */
+		public Record(String client, long time, String requestLine, int status, long bytes,
+				String referer, String userAgent, long micros) {
+			this.client = client;
+			this.time = time;
+			this.requestLine = requestLine;
+			this.status = status;
+			this.bytes = bytes;
+			this.referer = referer;
+			this.userAgent = userAgent;
+			this.micros = micros;
+		}
+		
+		/**
+		 * Appends record formatted as line of log to given builder.
+		 * 
+		 * @param sb	Builder to append to.
+		 */
+		public void appendTo(StringBuilder sb) {
+			sb.append(client == null ? "-" : client).append(" - - [")
+				.append(RECORD_TIME.format(Instant.ofEpochMilli(time))).append("] ");
+			appendQuoted(sb, requestLine);
+			sb.append(' ').append(status).append(' ');
+			if(bytes > 0) {
+				sb.append(bytes);
+			} else {
+				sb.append('-');
+			}
+			sb.append(' ');
+			appendQuoted(sb, referer);
+			sb.append(' ');
+			appendQuoted(sb, userAgent);
+			sb.append(' ').append(micros).append('\n');
+		}
+		
+		/**
+		 * Appends given value in quotes, escaping quotes, backslashes and control characters.
+		 * 
+		 * @param sb	Builder to append to.
+		 * @param value	Value to append, or null for "-".
+		 */
+		private static void appendQuoted(StringBuilder sb, String value) {
+			sb.append('"');
+			if(value == null) {
+				sb.append('-');
+			} else {
+				for(int i = 0; i < value.length(); i++) {
+					char c = value.charAt(i);
+					if(c == '"' || c == '\\') {
+						sb.append('\\').append(c);
+					} else if(c < 32 || c == 127) {
+						sb.append(String.format("\\x%02x", (int) c));
+					} else {
+						sb.append(c);
+					}
+				}
+			}
+			sb.append('"');
+		}
+	}
+}
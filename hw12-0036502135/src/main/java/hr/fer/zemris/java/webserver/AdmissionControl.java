@@ -0,0 +1,165 @@
+package hr.fer.zemris.java.webserver;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control of connections.
+ * Limits number of connections that wait for worker thread and
+ * number of connections that one client address has open at the same time,
+ * so server under overload turns away new connections early
+ * instead of queueing them until they time out.
+ * Connections of trusted proxies aren't limited per client, since
+ * they carry connections of many clients from one address.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class AdmissionControl {
+
+	/**
+	 * Maximum number of waiting connections, 0 for no limit.
+	 */
+	private int queueSize;
+	/**
+	 * Maximum number of open connections of one client, 0 for no limit.
+	 */
+	private int maxConnectionsPerClient;
+	/**
+	 * Number of connections waiting for worker thread.
+	 */
+	private AtomicInteger queued = new AtomicInteger();
+	/**
+	 * Numbers of open connections mapped by client address.
+	 */
+	private Map<InetAddress, Integer> connections = new ConcurrentHashMap<>();
+	/**
+	 * Addresses of trusted proxies.
+	 */
+	private Set<InetAddress> trustedProxies;
+	
+	/**
+	 * Constructor that takes limits of admission.
+	 * 
+	 * @param queueSize	Maximum number of waiting connections, 0 for no limit.
+	 * @param maxConnectionsPerClient	Maximum number of open connections of one client, 0 for no limit.
+	 * @throws IllegalArgumentException	if some limit is negative.
+	 */
+	public AdmissionControl(int queueSize, int maxConnectionsPerClient) {
+		this(queueSize, maxConnectionsPerClient, Collections.emptySet());
+	}
+	
+	/**
+	 * Constructor that takes limits of admission and addresses of trusted proxies.
+	 * 
+	 * @param queueSize	Maximum number of waiting connections, 0 for no limit.
+	 * @param maxConnectionsPerClient	Maximum number of open connections of one client, 0 for no limit.
+	 * @param trustedProxies	Addresses of proxies whose connections aren't limited per client.
+	 * @throws IllegalArgumentException	if some limit is negative.
+	 * @throws NullPointerException	if null set of proxies is given.
+	 */
+	public AdmissionControl(int queueSize, int maxConnectionsPerClient, Set<InetAddress> trustedProxies) {
+		if(queueSize < 0 || maxConnectionsPerClient < 0) {
+			throw new IllegalArgumentException("Admission limits can't be negative.");
+		}
+		
+		this.queueSize = queueSize;
+		this.maxConnectionsPerClient = maxConnectionsPerClient;
+		this.trustedProxies = new HashSet<>(Objects.requireNonNull(trustedProxies, "Trusted proxies can't be null."));
+	}
+	
+	/**
+	 * Checks whether given address belongs to trusted proxy.
+	 * 
+	 * @param client	Address of client.
+	 * @return	true if client is trusted proxy, false otherwise.
+	 */
+	public boolean isTrustedProxy(InetAddress client) {
+		return client != null && trustedProxies.contains(client);
+	}
+	
+	/**
+	 * Admits new connection of given client if client has less than
+	 * maximum number of open connections, or if client is trusted proxy.
+	 * Admitted connection must be released when it is closed.
+	 * 
+	 * @param client	Address of client.
+	 * @return	true if connection is admitted, false otherwise.
+	 * @throws NullPointerException	if null address is given.
+	 */
+	public boolean acquireConnection(InetAddress client) {
+		Objects.requireNonNull(client, "Client address can't be null.");
+		if(maxConnectionsPerClient == 0 || trustedProxies.contains(client))	return true;
+		
+		boolean[] admitted = new boolean[1];
+		connections.compute(client, (address, count) -> {
+			int open = count == null ? 0 : count;
+			if(open >= maxConnectionsPerClient)	return count;
+			
+			admitted[0] = true;
+			return open + 1;
+		});
+		
+		return admitted[0];
+	}
+	
+	/**
+	 * Releases closed connection of given client.
+	 * 
+	 * @param client	Address of client.
+	 */
+	public void releaseConnection(InetAddress client) {
+		if(maxConnectionsPerClient == 0 || client == null || trustedProxies.contains(client))	return;
+		
+		connections.computeIfPresent(client, (address, count) -> count <= 1 ? null : count - 1);
+	}
+	
+	/**
+	 * Puts connection into queue of connections waiting for worker thread,
+	 * if queue isn't full.
+	 * Connection must be removed from queue when worker starts serving it.
+	 * 
+	 * @return	true if connection was queued, false if queue is full.
+	 */
+	public boolean enqueue() {
+		while(true) {
+			int current = queued.get();
+			if(queueSize > 0 && current >= queueSize)	return false;
+			if(queued.compareAndSet(current, current + 1))	return true;
+		}
+	}
+	
+	/**
+	 * Removes connection from queue of waiting connections.
+	 */
+	public void dequeue() {
+		queued.decrementAndGet();
+	}
+	
+	/**
+	 * Returns number of connections waiting for worker thread.
+	 * 
+	 * @return	number of waiting connections.
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+	
+	/**
+	 * Returns number of open connections of given client.
+	 * If connections per client aren't limited, they aren't counted and 0 is returned.
+	 * 
+	 * @param client	Address of client.
+	 * @return	number of open connections.
+	 */
+	public int getConnections(InetAddress client) {
+		Integer count = connections.get(client);
+		return count == null ? 0 : count;
+	}
+}
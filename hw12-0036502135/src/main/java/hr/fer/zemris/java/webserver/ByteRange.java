@@ -0,0 +1,171 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class representing range of bytes of resource, requested with Range header.
+ * Offers parsing of Range header against length of resource.
+ * Ranges are sorted and overlapping or adjacent ranges are joined,
+ * so client can't make server send same bytes multiple times.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class ByteRange {
+
+	/**
+	 * Index of first byte of range.
+	 */
+	private long start;
+	/**
+	 * Index of last byte of range.
+	 */
+	private long end;
+	
+	/**
+	 * Constructor that takes indexes of first and last byte of range.
+	 * 
+	 * @param start	Index of first byte.
+	 * @param end	Index of last byte.
+	 * @throws IllegalArgumentException	if start is negative or after end.
+	 */
+	public ByteRange(long start, long end) {
+		if(start < 0 || start > end) {
+			throw new IllegalArgumentException("Invalid range: " + start + "-" + end);
+		}
+		
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * Parses value of Range header against resource of given length.
+	 * Returns null if header is invalid, isn't in bytes or has more than given
+	 * number of ranges, in which case header should be ignored and whole
+	 * resource sent. Returns empty list if no range is satisfiable.
+	 * 
+	 * @param header	Value of Range header.
+	 * @param length	Length of resource.
+	 * @param maxRanges	Maximum number of ranges.
+	 * @return	sorted satisfiable ranges, or null if header should be ignored.
+	 */
+	public static List<ByteRange> parse(String header, long length, int maxRanges) {
+		if(header == null)	return null;
+		
+		header = header.trim();
+		if(!header.regionMatches(true, 0, "bytes=", 0, 6))	return null;
+		
+		String[] specs = header.substring(6).split(",", -1);
+		if(specs.length > maxRanges)	return null;
+		
+		List<ByteRange> ranges = new ArrayList<>();
+		for(String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+			if(dash < 0)	return null;
+			
+			long first;
+			long last;
+			try {
+				if(dash == 0) {
+					long suffix = Long.parseLong(spec.substring(1));
+					if(suffix <= 0)	continue;
+					
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash).trim());
+					String lastText = spec.substring(dash + 1).trim();
+					if(lastText.isEmpty()) {
+						last = length - 1;
+					} else {
+						last = Long.parseLong(lastText);
+						if(last < first)	return null;
+						last = Math.min(last, length - 1);
+					}
+				}
+			} catch(NumberFormatException ex) {
+				return null;
+			}
+			
+			if(first < length) {
+				ranges.add(new ByteRange(first, last));
+			}
+		}
+		
+		return coalesce(ranges);
+	}
+	
+	/**
+	 * Sorts given ranges and joins ranges that overlap or touch.
+	 * 
+	 * @param ranges	Ranges to join.
+	 * @return	sorted disjoint ranges.
+	 */
+	private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+		if(ranges.size() < 2)	return ranges;
+		
+		Collections.sort(ranges, Comparator.comparingLong(ByteRange::getStart));
+		List<ByteRange> joined = new ArrayList<>();
+		
+		ByteRange current = ranges.get(0);
+		for(int i = 1; i < ranges.size(); i++) {
+			ByteRange next = ranges.get(i);
+			
+			if(next.start <= current.end + 1) {
+				current = new ByteRange(current.start, Math.max(current.end, next.end));
+			} else {
+				joined.add(current);
+				current = next;
+			}
+		}
+		joined.add(current);
+		
+		return joined;
+	}
+	
+	/**
+	 * Returns index of first byte of range.
+	 * 
+	 * @return	index of first byte.
+	 */
+	public long getStart() {
+		return start;
+	}
+	
+	/**
+	 * Returns index of last byte of range.
+	 * 
+	 * @return	index of last byte.
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Returns number of bytes in range.
+	 * 
+	 * @return	length of range.
+	 */
+	public long getLength() {
+		return end - start + 1;
+	}
+	
+	/**
+	 * Returns value of Content-Range header for this range of resource of given length.
+	 * 
+	 * @param length	Length of resource.
+	 * @return	value of Content-Range header.
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + start + "-" + end + "/" + length;
+	}
+	
+	@Override
+	public String toString() {
+		return start + "-" + end;
+	}
+}
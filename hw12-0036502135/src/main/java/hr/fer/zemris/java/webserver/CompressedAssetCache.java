@@ -0,0 +1,132 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Cache of compressed static files.
+ * Each file is compressed once per encoding and kept in memory
+ * together with last modified time and size of file when it was compressed.
+ * If file was changed since, it is compressed again.
+ * Cache is bounded by total number of bytes of compressed data,
+ * when it is full least recently used files are removed.
+ * Files that don't get smaller when compressed are remembered as such,
+ * so they aren't compressed on each request.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class CompressedAssetCache {
+
+	/**
+	 * Maximum total size of cached compressed data in bytes.
+	 */
+	private long capacity;
+	/**
+	 * Cached files mapped by their path and encoding, weighted by size of compressed data.
+	 */
+	private LruCache<String, Entry> entries;
+	
+	/**
+	 * Constructor that creates cache bounded by total size of compressed data.
+	 * 
+	 * @param capacity	Maximum total size of compressed data in bytes.
+	 * @throws IllegalArgumentException	if capacity is negative.
+	 */
+	public CompressedAssetCache(long capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Cache capacity can't be negative.");
+		}
+		
+		this.capacity = capacity;
+		entries = new LruCache<>(capacity, Entry::size);
+	}
+	
+	/**
+	 * Returns content of given file compressed with given encoding.
+	 * If compressed content is cached and file didn't change, cached data is returned,
+	 * else file is read and compressed and result is cached if it fits in cache.
+	 * 
+	 * @param file	Path to file.
+	 * @param encoding	gzip or deflate.
+	 * @return	compressed content, or null if compressed content isn't smaller than file.
+	 * @throws IOException	if error happens reading file.
+	 * @throws NullPointerException	if null file or encoding is given.
+	 */
+	public byte[] get(Path file, String encoding) throws IOException {
+		Objects.requireNonNull(file, "File path can't be null.");
+		Objects.requireNonNull(encoding, "Encoding can't be null.");
+		
+		Path path = file.toAbsolutePath().normalize();
+		String key = encoding + ":" + path;
+		
+		long modified = Files.getLastModifiedTime(path).toMillis();
+		long length = Files.size(path);
+		
+		Entry entry = entries.get(key);
+		if(entry != null && entry.modified == modified && entry.length == length)	return entry.data;
+		
+		byte[] content = Files.readAllBytes(path);
+		byte[] data = ContentEncoding.encode(content, encoding);
+		if(data.length >= content.length) {
+			data = null;
+		}
+		
+		long dataSize = data == null ? 0 : data.length;
+		if(dataSize > capacity)	return data;
+		
+		entries.put(key, new Entry(data, modified, length));
+		return data;
+	}
+	
+	/**
+	 * Returns total size of cached compressed data.
+	 * 
+	 * @return	size of cached data in bytes.
+	 */
+	public long size() {
+		return entries.weight();
+	}
+	
+	/**
+	 * Class representing one cached file.
+	 */
+	private static class Entry {
+		/**
+		 * Compressed content, or null if compression doesn't make file smaller.
+		 */
+		private byte[] data;
+		/**
+		 * Last modified time of file when it was compressed.
+		 */
+		private long modified;
+		/**
+		 * Size of file when it was compressed.
+		 */
+		private long length;
+		
+		/**
+		 * Constructor that creates new entry.
+		 * 
+		 * @param data	Compressed content.
+		 * @param modified	Last modified time of file when it was compressed.
+		 * @param length	Size of file when it was compressed.
+		 */
+		private Entry(byte[] data, long modified, long length) {
+			this.data = data;
+			this.modified = modified;
+			this.length = length;
+		}
+		
+		/**
+		 * Returns number of bytes entry takes in cache.
+		 * 
+		 * @return	size of compressed data.
+		 */
+		private long size() {
+			return data == null ? 0 : data.length;
+		}
+	}
+}
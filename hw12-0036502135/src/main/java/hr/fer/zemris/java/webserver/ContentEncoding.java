@@ -0,0 +1,131 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility class with methods used for response compression.
+ * Supported content encodings are gzip and deflate.
+ * Provides method that chooses encoding from value of Accept-Encoding header,
+ * and methods that compress data using chosen encoding.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class ContentEncoding {
+
+	/**
+	 * Name of gzip encoding.
+	 */
+	public static final String GZIP = "gzip";
+	/**
+	 * Name of deflate encoding.
+	 */
+	public static final String DEFLATE = "deflate";
+	
+	/**
+	 * Chooses encoding that client accepts, preferring gzip.
+	 * Encodings with quality value 0 are not accepted.
+	 * 
+	 * @param acceptEncoding	Value of Accept-Encoding header, may be null.
+	 * @return	gzip, deflate or null if client doesn't accept any of them.
+	 */
+	public static String negotiate(String acceptEncoding) {
+		if(acceptEncoding == null)	return null;
+		
+		Double gzip = null;
+		Double deflate = null;
+		double any = 0;
+		
+		for(String part : acceptEncoding.split(",")) {
+			String[] pts = part.split(";");
+			String name = pts[0].trim().toLowerCase();
+			double quality = pts.length > 1 ? parseQuality(pts[1]) : 1;
+			
+			if(name.equals(GZIP) || name.equals("x-gzip")) {
+				gzip = quality;
+			} else if(name.equals(DEFLATE)) {
+				deflate = quality;
+			} else if(name.equals("*")) {
+				any = quality;
+			}
+		}
+		
+		if(gzip == null)	gzip = any;
+		if(deflate == null)	deflate = any;
+		
+		if(gzip > 0 && gzip >= deflate)	return GZIP;
+		if(deflate > 0)	return DEFLATE;
+		return null;
+	}
+	
+	/**
+	 * Creates stream that compresses data using given encoding
+	 * and writes it to given stream.
+	 * Calling flush on created stream flushes compressor, so
+	 * all written data can be decompressed.
+	 * 
+	 * @param os	Stream where compressed data is written.
+	 * @param encoding	gzip or deflate.
+	 * @return	new compressing stream.
+	 * @throws IOException	if error happens writing to given stream.
+	 * @throws IllegalArgumentException	if unsupported encoding is given.
+	 */
+	public static OutputStream newEncoder(OutputStream os, String encoding) throws IOException {
+		if(GZIP.equals(encoding)) {
+			return new GZIPOutputStream(os, 512, true);
+		}
+		if(DEFLATE.equals(encoding)) {
+			return new DeflaterOutputStream(os, new Deflater(), 512, true) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					def.end();
+				}
+			};
+		}
+		
+		throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+	}
+	
+	/**
+	 * Compresses given data using given encoding.
+	 * 
+	 * @param data	Data to compress.
+	 * @param encoding	gzip or deflate.
+	 * @return	compressed data.
+	 * @throws IllegalArgumentException	if unsupported encoding is given.
+	 */
+	public static byte[] encode(byte[] data, String encoding) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 3 + 64);
+		
+		try(OutputStream os = newEncoder(bos, encoding)) {
+			os.write(data);
+		} catch(IOException ex) {
+			throw new RuntimeException("Error compressing data.", ex);
+		}
+		
+		return bos.toByteArray();
+	}
+	
+	/**
+	 * Parses quality parameter of Accept-Encoding header part.
+	 * 
+	 * @param param	Parameter in form q=value.
+	 * @return	parsed quality, or 1 if parameter is invalid.
+	 */
+	private static double parseQuality(String param) {
+		String[] nameValue = param.split("=");
+		if(nameValue.length != 2 || !nameValue[0].trim().equalsIgnoreCase("q"))	return 1;
+		
+		try {
+			return Double.parseDouble(nameValue[1].trim());
+		} catch(NumberFormatException ex) {
+			return 1;
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * Encoder of response headers.
+ * Status lines, Content-Type lines and fixed header names are encoded
+ * once and kept as byte fragments, so header of response is built by
+ * copying fragments into reusable buffer. Values that change with each
+ * response, such as lengths and cookies, are written into buffer directly,
+ * without building strings first.
+ * Each thread has its own encoder, which is reused for all headers it builds.
+ * Text is encoded with ISO_8859_1 charset, characters outside of it are
+ * replaced with question mark.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class HeaderEncoder {
+
+	/**
+	 * Maximum number of entries in each cache of encoded fragments,
+	 * so status texts and mime types chosen by workers can't grow it without limit.
+	 */
+	private static final int CACHE_LIMIT = 256;
+	/**
+	 * Line terminator.
+	 */
+	private static final byte[] CRLF = encode("\r\n");
+	/**
+	 * Start of status line.
+	 */
+	private static final byte[] HTTP_VERSION = encode("HTTP/1.1 ");
+	/**
+	 * Start of Content-Length line.
+	 */
+	private static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+	/**
+	 * Whole Transfer-Encoding line of chunked responses.
+	 */
+	private static final byte[] CHUNKED = encode("Transfer-Encoding: chunked\r\n");
+	/**
+	 * Start of ETag line.
+	 */
+	private static final byte[] ETAG = encode("ETag: ");
+	/**
+	 * Start of Last-Modified line.
+	 */
+	private static final byte[] LAST_MODIFIED = encode("Last-Modified: ");
+	/**
+	 * Whole Connection line of connections that are kept alive.
+	 */
+	private static final byte[] KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+	/**
+	 * Whole Connection line of connections that are closed.
+	 */
+	private static final byte[] CLOSE = encode("Connection: close\r\n");
+	/**
+	 * Start of Set-Cookie line.
+	 */
+	private static final byte[] SET_COOKIE = encode("Set-Cookie: ");
+	/**
+	 * Separator between header name and value.
+	 */
+	private static final byte[] SEPARATOR = encode(": ");
+	
+	/**
+	 * Charsets mapped by their names.
+	 */
+	private static final Map<String, Charset> CHARSETS = new ConcurrentHashMap<>();
+	/**
+	 * Encoded status lines mapped by status code.
+	 */
+	private static final Map<Integer, StatusLine> STATUS_LINES = new ConcurrentHashMap<>();
+	/**
+	 * Encoded Content-Type lines mapped by encoding and then by mime type.
+	 */
+	private static final Map<String, Map<String, byte[]>> CONTENT_TYPES = new ConcurrentHashMap<>();
+	/**
+	 * Encoder of each thread.
+	 */
+	private static final ThreadLocal<HeaderEncoder> ENCODERS = ThreadLocal.withInitial(HeaderEncoder::new);
+	
+	/**
+	 * Buffer header is written into.
+	 */
+	private byte[] buffer = new byte[512];
+	/**
+	 * Number of bytes written into buffer.
+	 */
+	private int length;
+	/**
+	 * Time in seconds of last formatted date.
+	 */
+	private long dateSeconds = -1;
+	/**
+	 * Encoded last formatted date.
+	 */
+	private byte[] date;
+	
+	/**
+	 * Returns empty encoder of current thread.
+	 * Content of encoder is valid until thread builds next header.
+	 * 
+	 * @return	encoder of current thread.
+	 */
+	public static HeaderEncoder get() {
+		HeaderEncoder encoder = ENCODERS.get();
+		encoder.length = 0;
+		return encoder;
+	}
+	
+	/**
+	 * Returns charset of given name. Charsets are looked up only once.
+	 * 
+	 * @param name	Name of charset.
+	 * @return	charset of given name.
+	 * @throws IllegalArgumentException	if charset of given name doesn't exist.
+	 */
+	public static Charset charset(String name) {
+		Charset charset = CHARSETS.get(name);
+		if(charset == null) {
+			charset = Charset.forName(name);
+			if(CHARSETS.size() < CACHE_LIMIT) {
+				CHARSETS.put(name, charset);
+			}
+		}
+		
+		return charset;
+	}
+	
+	/**
+	 * Writes status line of given status.
+	 * 
+	 * @param statusCode	Status code.
+	 * @param statusText	Status text.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder status(int statusCode, String statusText) {
+		StatusLine line = STATUS_LINES.get(statusCode);
+		if(line != null && line.text.equals(statusText)) {
+			return append(line.bytes);
+		}
+		
+		append(HTTP_VERSION).append(statusCode).append(' ').append(statusText).append(CRLF);
+		if(line == null && statusText != null && STATUS_LINES.size() < CACHE_LIMIT) {
+			STATUS_LINES.putIfAbsent(statusCode, new StatusLine(statusText, encode("HTTP/1.1 " + statusCode + " " + statusText + "\r\n")));
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Writes Content-Type line of given mime type.
+	 * Charset is appended to textual mime types.
+	 * 
+	 * @param mimeType	Mime type.
+	 * @param encoding	Name of charset of textual content.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder contentType(String mimeType, String encoding) {
+		Map<String, byte[]> lines = CONTENT_TYPES.get(encoding);
+		if(lines == null) {
+			if(CONTENT_TYPES.size() >= CACHE_LIMIT) {
+				return append(encode("Content-Type: " + contentTypeOf(mimeType, encoding) + "\r\n"));
+			}
+			lines = CONTENT_TYPES.computeIfAbsent(encoding, e -> new ConcurrentHashMap<>());
+		}
+		
+		byte[] line = lines.get(mimeType);
+		if(line == null) {
+			line = encode("Content-Type: " + contentTypeOf(mimeType, encoding) + "\r\n");
+			if(lines.size() < CACHE_LIMIT) {
+				lines.put(mimeType, line);
+			}
+		}
+		
+		return append(line);
+	}
+	
+	/**
+	 * Writes Content-Length line.
+	 * 
+	 * @param contentLength	Length of body.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder contentLength(long contentLength) {
+		return append(CONTENT_LENGTH).append(contentLength).append(CRLF);
+	}
+	
+	/**
+	 * Writes Transfer-Encoding line of chunked body.
+	 * 
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder chunked() {
+		return append(CHUNKED);
+	}
+	
+	/**
+	 * Writes ETag line.
+	 * 
+	 * @param etag	Entity tag.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder etag(String etag) {
+		return append(ETAG).append(etag).append(CRLF);
+	}
+	
+	/**
+	 * Writes Last-Modified line. Date formatted last is remembered,
+	 * so files modified in the same second don't format it again.
+	 * 
+	 * @param lastModified	Time of last modification in milliseconds.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder lastModified(long lastModified) {
+		long seconds = Math.floorDiv(lastModified, 1000);
+		if(seconds != dateSeconds) {
+			date = encode(RequestContext.formatDate(lastModified));
+			dateSeconds = seconds;
+		}
+		
+		return append(LAST_MODIFIED).append(date).append(CRLF);
+	}
+	
+	/**
+	 * Writes header line with given name and value.
+	 * 
+	 * @param name	Name of header.
+	 * @param value	Value of header.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder header(String name, String value) {
+		return append(name).append(SEPARATOR).append(value).append(CRLF);
+	}
+	
+	/**
+	 * Writes Connection line.
+	 * 
+	 * @param keepAlive	Whether connection is kept alive.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder connection(boolean keepAlive) {
+		return append(keepAlive ? KEEP_ALIVE : CLOSE);
+	}
+	
+	/**
+	 * Writes Set-Cookie line of given cookie.
+	 * 
+	 * @param cookie	Cookie to set.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder cookie(RCCookie cookie) {
+		append(SET_COOKIE).append(cookie.getName()).append('=').append('"').append(cookie.getValue()).append('"');
+		if(cookie.getDomain() != null) {
+			append("; Domain=").append(cookie.getDomain());
+		}
+		if(cookie.getPath() != null) {
+			append("; Path=").append(cookie.getPath());
+		}
+		if(cookie.getMaxAge() != null) {
+			append("; Max-Age=").append(cookie.getMaxAge().longValue());
+		}
+		if(cookie.isHttpOnly()) {
+			append("; HttpOnly");
+		}
+		
+		return append(CRLF);
+	}
+	
+	/**
+	 * Writes empty line that ends header.
+	 * 
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder end() {
+		return append(CRLF);
+	}
+	
+	/**
+	 * Writes given bytes.
+	 * 
+	 * @param bytes	Bytes to write.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder append(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+		return this;
+	}
+	
+	/**
+	 * Writes given text. Null is written as "null", same as when it is appended to string.
+	 * 
+	 * @param text	Text to write.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder append(String text) {
+		if(text == null) {
+			text = "null";
+		}
+		
+		ensureCapacity(text.length());
+		for(int i = 0, n = text.length(); i < n; i++) {
+			char c = text.charAt(i);
+			if(c > 0xFF) {
+				c = '?';
+				if(Character.isHighSurrogate(text.charAt(i)) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+					i++;
+				}
+			}
+			buffer[length++] = (byte) c;
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Writes decimal representation of given number.
+	 * 
+	 * @param number	Number to write.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder append(long number) {
+		if(number < 0) {
+			return append(Long.toString(number));
+		}
+		
+		int digits = 1;
+		for(long rest = number / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		
+		ensureCapacity(digits);
+		for(int i = length + digits - 1; i >= length; i--) {
+			buffer[i] = (byte) ('0' + number % 10);
+			number /= 10;
+		}
+		length += digits;
+		
+		return this;
+	}
+	
+	/**
+	 * Writes given character, which must be in ISO_8859_1 charset.
+	 * 
+	 * @param c	Character to write.
+	 * @return	this encoder.
+	 */
+	public HeaderEncoder append(char c) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) c;
+		return this;
+	}
+	
+	/**
+	 * Returns buffer header was written into.
+	 * Only first {@link #length()} bytes belong to header.
+	 * 
+	 * @return	buffer of encoder.
+	 */
+	public byte[] array() {
+		return buffer;
+	}
+	
+	/**
+	 * Returns number of written bytes.
+	 * 
+	 * @return	number of written bytes.
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * Returns copy of written bytes.
+	 * 
+	 * @return	written bytes.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+	
+	/**
+	 * Grows buffer if it can't take given number of bytes.
+	 * 
+	 * @param needed	Number of bytes that will be written.
+	 */
+	private void ensureCapacity(int needed) {
+		if(length + needed <= buffer.length)	return;
+		
+		buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + needed));
+	}
+	
+	/**
+	 * Returns value of Content-Type header for given mime type.
+	 * Charset is appended to textual mime types.
+	 * 
+	 * @param mimeType	Mime type.
+	 * @param encoding	Name of charset of textual content.
+	 * @return	value of Content-Type header.
+	 */
+	static String contentTypeOf(String mimeType, String encoding) {
+		return mimeType + (mimeType.toLowerCase().startsWith("text/") ? "; charset=" + encoding : "");
+	}
+	
+	/**
+	 * Encodes given text with ISO_8859_1 charset.
+	 * 
+	 * @param text	Text to encode.
+	 * @return	encoded text.
+	 */
+	private static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+	
+	/**
+	 * Class representing encoded status line.
+	 */
+	private static class StatusLine {
+		/**
+		 * Status text of line.
+		 */
+		private String text;
+		/**
+		 * Encoded line.
+		 */
+		private byte[] bytes;
+		
+		/**
+		 * Constructor that creates new status line.
+		 * 
+		 * @param text	Status text of line.
+		 * @param bytes	Encoded line.
+		 */
+		private StatusLine(String text, byte[] bytes) {
+			this.text = text;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,409 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Parser of HTTP request headers.
+ * Reads bytes from input stream into reusable buffer, in large blocks,
+ * and finds end of header and bounds of header lines without creating strings.
+ * Header values are converted into strings only when they are asked for,
+ * so headers that server doesn't use cost nothing but one scan.
+ * Bytes read after end of header are kept in buffer, so pipelined
+ * requests on same connection are parsed from them.
+ * Header can't be larger than buffer and can't have more than
+ * {@value #MAX_LINES} lines.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class HttpRequestParser {
+
+	/**
+	 * Maximum number of lines in header.
+	 */
+	public static final int MAX_LINES = 128;
+	
+	/**
+	 * Result of reading request header.
+	 */
+	public enum Status {
+		/**
+		 * Whole header was read.
+		 */
+		REQUEST,
+		/**
+		 * Connection was closed before header was read.
+		 */
+		CLOSED,
+		/**
+		 * Header is larger than allowed.
+		 */
+		TOO_LARGE
+	}
+	
+	/**
+	 * Buffer with read bytes, position marks end of read data.
+	 */
+	private ByteBuffer buffer;
+	/**
+	 * Array behind buffer.
+	 */
+	private byte[] data;
+	/**
+	 * Index of first byte after header of current request.
+	 */
+	private int headerEnd;
+	/**
+	 * Number of lines of current request, including request line.
+	 */
+	private int lines;
+	/**
+	 * Indexes of first bytes of lines.
+	 */
+	private int[] lineStarts = new int[MAX_LINES];
+	/**
+	 * Indexes of bytes after lines, without line terminators.
+	 */
+	private int[] lineEnds = new int[MAX_LINES];
+	/**
+	 * Request line of current request.
+	 */
+	private String requestLine;
+	
+	/**
+	 * Constructor that creates parser for headers of at most given size.
+	 * 
+	 * @param maxHeaderSize	Maximum size of header in bytes.
+	 * @throws IllegalArgumentException	if size isn't positive.
+	 */
+	public HttpRequestParser(int maxHeaderSize) {
+		if(maxHeaderSize < 1) {
+			throw new IllegalArgumentException("Header size must be positive.");
+		}
+		
+		buffer = ByteBuffer.allocate(maxHeaderSize);
+		data = buffer.array();
+	}
+	
+	/**
+	 * Adds given bytes, already read from connection, to buffer.
+	 * 
+	 * @param bytes	Bytes read from connection.
+	 * @throws IllegalArgumentException	if bytes don't fit into buffer.
+	 */
+	public void feed(byte[] bytes) {
+		Objects.requireNonNull(bytes, "Bytes can't be null.");
+		if(bytes.length > buffer.remaining()) {
+			throw new IllegalArgumentException("Bytes don't fit into buffer.");
+		}
+		
+		buffer.put(bytes);
+	}
+	
+	/**
+	 * Reads header of next request.
+	 * Bytes of previous request are removed from buffer, then bytes are
+	 * read from given stream until buffer contains whole header.
+	 * 
+	 * @param is	Stream to read from.
+	 * @return	status of reading.
+	 * @throws IOException	if error happens reading stream.
+	 */
+	public Status next(InputStream is) throws IOException {
+		discardRequest();
+		
+		int scanned = 0;
+		while(true) {
+			int end = findHeaderEnd(data, scanned, buffer.position());
+			if(end >= 0) {
+				headerEnd = end;
+				return splitLines() ? Status.REQUEST : Status.TOO_LARGE;
+			}
+			
+			if(!buffer.hasRemaining())	return Status.TOO_LARGE;
+			
+			scanned = Math.max(0, buffer.position() - 3);
+			int read = is.read(data, buffer.position(), buffer.remaining());
+			if(read < 0)	return Status.CLOSED;
+			
+			buffer.position(buffer.position() + read);
+		}
+	}
+	
+	/**
+	 * Returns whether buffer contains bytes after header of current request.
+	 * 
+	 * @return	true if next request was already partially read, false otherwise.
+	 */
+	public boolean hasBuffered() {
+		return buffer.position() > headerEnd;
+	}
+	
+	/**
+	 * Returns copy of bytes read after header of current request.
+	 * 
+	 * @return	bytes read after header.
+	 */
+	public byte[] getBuffered() {
+		return Arrays.copyOfRange(data, headerEnd, Math.max(headerEnd, buffer.position()));
+	}
+	
+	/**
+	 * Returns copy of bytes in buffer, header of current request
+	 * followed by bytes read after it.
+	 * 
+	 * @return	bytes in buffer.
+	 */
+	public byte[] getBytes() {
+		return Arrays.copyOf(data, buffer.position());
+	}
+	
+	/**
+	 * Returns request line of current request.
+	 * 
+	 * @return	request line.
+	 */
+	public String getRequestLine() {
+		if(requestLine == null) {
+			requestLine = lines == 0 ? "" : toString(lineStarts[0], lineEnds[0]);
+		}
+		
+		return requestLine;
+	}
+	
+	/**
+	 * Returns value of header with given name.
+	 * Names are compared ignoring case. Values of repeated headers are
+	 * joined with commas and folded lines are joined with first line.
+	 * 
+	 * @param name	Header name.
+	 * @return	trimmed header value, or null if request has no such header.
+	 */
+	public String getHeader(String name) {
+		String value = null;
+		
+		for(int i = 1; i < lines; i++) {
+			if(!isHeader(i, name))	continue;
+			
+			StringBuilder sb = new StringBuilder(toString(lineStarts[i] + name.length() + 1, lineEnds[i]).trim());
+			while(i + 1 < lines && isFolded(i + 1)) {
+				i++;
+				sb.append(' ').append(toString(lineStarts[i], lineEnds[i]).trim());
+			}
+			
+			value = value == null ? sb.toString() : value + ", " + sb;
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Returns value of cookie with given name from Cookie headers.
+	 * If cookie is sent multiple times, last value is returned.
+	 * Quotes around value are removed.
+	 * 
+	 * @param name	Cookie name.
+	 * @return	cookie value, or null if request has no such cookie.
+	 */
+	public String getCookie(String name) {
+		String value = null;
+		
+		for(int i = 1; i < lines; i++) {
+			if(!isHeader(i, "Cookie"))	continue;
+			
+			int pos = lineStarts[i] + "Cookie".length() + 1;
+			int end = lineEnds[i];
+			
+			while(pos < end) {
+				int pairEnd = indexOf(';', pos, end);
+				int eq = indexOf('=', pos, pairEnd);
+				
+				if(eq < pairEnd) {
+					int nameStart = skipSpaces(pos, eq);
+					int nameEnd = trimSpaces(nameStart, eq);
+					
+					if(regionMatches(nameStart, nameEnd, name, false)) {
+						int valueStart = skipSpaces(eq + 1, pairEnd);
+						value = toString(valueStart, trimSpaces(valueStart, pairEnd)).replace("\"", "");
+					}
+				}
+				
+				pos = pairEnd + 1;
+			}
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Finds end of header in given part of array.
+	 * Header ends with empty line, terminated by CRLF or by LF.
+	 * 
+	 * @param data	Array with read bytes.
+	 * @param from	Index from which search starts.
+	 * @param to	Index after last read byte.
+	 * @return	index of first byte after header, or -1 if header isn't complete.
+	 */
+	public static int findHeaderEnd(byte[] data, int from, int to) {
+		for(int i = Math.max(1, from); i < to; i++) {
+			if(data[i] != '\n')	continue;
+			
+			if(data[i - 1] == '\n' || (i > 1 && data[i - 1] == '\r' && data[i - 2] == '\n')) {
+				return i + 1;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Removes bytes of current request from buffer, keeping bytes
+	 * that were read after its header.
+	 */
+	private void discardRequest() {
+		if(headerEnd > 0) {
+			int remaining = buffer.position() - headerEnd;
+			System.arraycopy(data, headerEnd, data, 0, remaining);
+			buffer.position(remaining);
+		}
+		
+		headerEnd = 0;
+		lines = 0;
+		requestLine = null;
+	}
+	
+	/**
+	 * Finds bounds of lines of current header.
+	 * 
+	 * @return	true if header has allowed number of lines, false otherwise.
+	 */
+	private boolean splitLines() {
+		int start = 0;
+		
+		for(int i = 0; i < headerEnd; i++) {
+			if(data[i] != '\n')	continue;
+			
+			int end = i > start && data[i - 1] == '\r' ? i - 1 : i;
+			if(end == start)	break;
+			if(lines == MAX_LINES)	return false;
+			
+			lineStarts[lines] = start;
+			lineEnds[lines] = end;
+			lines++;
+			start = i + 1;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks whether given line is header with given name.
+	 * 
+	 * @param line	Index of line.
+	 * @param name	Header name.
+	 * @return	true if line is header with given name, false otherwise.
+	 */
+	private boolean isHeader(int line, String name) {
+		int start = lineStarts[line];
+		int colon = start + name.length();
+		
+		return colon < lineEnds[line] && data[colon] == ':' && regionMatches(start, colon, name, true);
+	}
+	
+	/**
+	 * Checks whether given line continues previous line.
+	 * 
+	 * @param line	Index of line.
+	 * @return	true if line starts with space or tab.
+	 */
+	private boolean isFolded(int line) {
+		byte first = data[lineStarts[line]];
+		return first == ' ' || first == '\t';
+	}
+	
+	/**
+	 * Checks whether given part of buffer contains given text.
+	 * 
+	 * @param start	Index of first byte.
+	 * @param end	Index after last byte.
+	 * @param text	ASCII text to compare with.
+	 * @param ignoreCase	Whether case of letters is ignored.
+	 * @return	true if bytes match text, false otherwise.
+	 */
+	private boolean regionMatches(int start, int end, String text, boolean ignoreCase) {
+		if(end - start != text.length())	return false;
+		
+		for(int i = 0; i < text.length(); i++) {
+			char c = (char) (data[start + i] & 0xFF);
+			char t = text.charAt(i);
+			
+			if(c != t && !(ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(t))) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Returns index of first given byte in given part of buffer.
+	 * 
+	 * @param b	Byte to find.
+	 * @param from	Index from which search starts.
+	 * @param to	Index at which search ends.
+	 * @return	index of byte, or to if it isn't found.
+	 */
+	private int indexOf(char b, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] == b)	return i;
+		}
+		
+		return to;
+	}
+	
+	/**
+	 * Skips spaces at start of given part of buffer.
+	 * 
+	 * @param from	Index of first byte.
+	 * @param to	Index after last byte.
+	 * @return	index of first byte that isn't space.
+	 */
+	private int skipSpaces(int from, int to) {
+		while(from < to && (data[from] == ' ' || data[from] == '\t')) {
+			from++;
+		}
+		
+		return from;
+	}
+	
+	/**
+	 * Skips spaces at end of given part of buffer.
+	 * 
+	 * @param from	Index of first byte.
+	 * @param to	Index after last byte.
+	 * @return	index after last byte that isn't space.
+	 */
+	private int trimSpaces(int from, int to) {
+		while(to > from && (data[to - 1] == ' ' || data[to - 1] == '\t')) {
+			to--;
+		}
+		
+		return to;
+	}
+	
+	/**
+	 * Converts given part of buffer into string.
+	 * 
+	 * @param start	Index of first byte.
+	 * @param end	Index after last byte.
+	 * @return	string of bytes decoded as ISO-8859-1.
+	 */
+	private String toString(int start, int end) {
+		return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+}
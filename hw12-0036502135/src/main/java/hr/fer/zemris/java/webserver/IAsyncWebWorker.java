@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Interface of workers that process requests asynchronously.
+ * Worker starts processing and returns stage that completes once response is written,
+ * so server doesn't hold thread of its pool while worker waits for slow resource.
+ * When stage completes, server finishes response and continues serving connection.
+ * Worker must not write to context after returned stage completes,
+ * and nothing else writes to it while stage is pending.
+ * Asynchronous worker can be mapped in workers.properties same as other workers.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public interface IAsyncWebWorker extends IWebWorker {
+
+	/**
+	 * Method that starts processing request.
+	 * 
+	 * @param context	RequestContext used to read data from and write data to.
+	 * @return	stage that completes when response is written, exceptionally if processing failed.
+	 * @throws Exception	If exception happens starting processing.
+	 */
+	public CompletionStage<?> processRequestAsync(RequestContext context) throws Exception;
+	
+	/**
+	 * Method that processes request and waits until it is done.
+	 * Used when worker is called where request can't be suspended,
+	 * for example when other worker dispatches request to it.
+	 * 
+	 * @param context	RequestContext used to read data from and write data to.
+	 * @throws Exception	If exception happens during processing request.
+	 */
+	@Override
+	public default void processRequest(RequestContext context) throws Exception {
+		try {
+			processRequestAsync(context).toCompletableFuture().get();
+		} catch(ExecutionException ex) {
+			throw unwrap(ex.getCause());
+		}
+	}
+	
+	/**
+	 * Returns exception that caused processing to fail.
+	 * 
+	 * @param cause	Cause of failed stage.
+	 * @return	exception that should be thrown to caller.
+	 */
+	private static Exception unwrap(Throwable cause) {
+		while(cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		
+		if(cause instanceof Error)	throw (Error) cause;
+		return cause instanceof Exception ? (Exception) cause : new Exception(cause);
+	}
+
+}
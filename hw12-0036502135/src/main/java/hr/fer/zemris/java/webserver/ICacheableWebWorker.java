@@ -0,0 +1,33 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Interface of workers whose responses can be cached by server.
+ * Response of such worker must depend only on parameters from which
+ * its cache key is made, so server can send same response to all
+ * requests with same key until it expires.
+ * Only responses with status 200 that don't set cookies are cached.
+ * Cacheable worker must not dispatch request to other resources,
+ * since its response is rendered outside of client's connection.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public interface ICacheableWebWorker extends IWebWorker {
+
+	/**
+	 * Returns key under which response for given request is cached.
+	 * Requests with same key get same response.
+	 * 
+	 * @param context	RequestContext of request.
+	 * @return	cache key, or null if response for this request shouldn't be cached.
+	 */
+	public String getCacheKey(RequestContext context);
+	
+	/**
+	 * Returns time in milliseconds for which cached response is valid.
+	 * 
+	 * @return	time to live of cached response.
+	 */
+	public long getCacheTTL();
+
+}
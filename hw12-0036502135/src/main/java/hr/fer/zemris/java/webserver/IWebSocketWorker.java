@@ -0,0 +1,71 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * Interface of workers that talk to clients over WebSocket connections.
+ * When client requests worker with Upgrade: websocket header, server completes
+ * opening handshake and worker is notified about opened connection, each message
+ * client sends and closing of connection. Worker can push messages to client
+ * whenever it wants, so clients don't have to poll it with new requests.
+ * Calls for one connection are made one at a time and in order, but calls for
+ * different connections can be made from different threads at the same time.
+ * WebSocket worker can be mapped in workers.properties same as other workers.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public interface IWebSocketWorker extends IWebWorker {
+
+	/**
+	 * Method called when WebSocket connection is opened.
+	 * 
+	 * @param socket	Opened connection.
+	 * @throws Exception	If exception happens, connection is closed.
+	 */
+	public void onOpen(WebSocket socket) throws Exception;
+	
+	/**
+	 * Method called when client sends text message.
+	 * 
+	 * @param socket	Connection message was received from.
+	 * @param message	Received message.
+	 * @throws Exception	If exception happens, connection is closed.
+	 */
+	public default void onMessage(WebSocket socket, String message) throws Exception {
+	}
+	
+	/**
+	 * Method called when client sends binary message.
+	 * 
+	 * @param socket	Connection message was received from.
+	 * @param message	Received message.
+	 * @throws Exception	If exception happens, connection is closed.
+	 */
+	public default void onMessage(WebSocket socket, byte[] message) throws Exception {
+	}
+	
+	/**
+	 * Method called once connection is closed, by either side or because it failed.
+	 * No messages can be sent after it is called.
+	 * 
+	 * @param socket	Closed connection.
+	 */
+	public default void onClose(WebSocket socket) {
+	}
+	
+	/**
+	 * Method called when worker is requested without upgrade to WebSocket.
+	 * Answers with 426 Upgrade Required.
+	 * 
+	 * @param context	RequestContext used to read data from and write data to.
+	 * @throws Exception	If exception happens during processing request.
+	 */
+	@Override
+	public default void processRequest(RequestContext context) throws Exception {
+		context.setStatusCode(426);
+		context.setStatusText("Upgrade Required");
+		context.setHeader("Upgrade", "websocket");
+		context.setMimeType("text/plain");
+		context.write("WebSocket connection is required.");
+	}
+
+}
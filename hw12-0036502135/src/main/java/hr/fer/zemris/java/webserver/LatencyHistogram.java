@@ -0,0 +1,168 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies with logarithmic buckets.
+ * Values smaller than {@value #LINEAR_BUCKETS} are counted exactly, larger
+ * values are counted in buckets whose width is 1/16 of their magnitude,
+ * so each value is known with error of at most 6.25%.
+ * Recording a value doesn't lock and doesn't allocate memory,
+ * so histogram can be used by many threads at once.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Number of buckets that count exact values.
+	 */
+	private static final int LINEAR_BUCKETS = 32;
+	/**
+	 * Number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 16;
+	/**
+	 * Binary logarithm of number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	/**
+	 * Binary logarithm of first value that isn't counted exactly.
+	 */
+	private static final int FIRST_MAGNITUDE = 5;
+	/**
+	 * Total number of buckets.
+	 */
+	private static final int BUCKETS = LINEAR_BUCKETS + (63 - FIRST_MAGNITUDE) * SUB_BUCKETS;
+	
+	/**
+	 * Counts of values in each bucket.
+	 */
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/**
+	 * Number of recorded values.
+	 */
+	private LongAdder count = new LongAdder();
+	/**
+	 * Sum of recorded values.
+	 */
+	private LongAdder sum = new LongAdder();
+	/**
+	 * Largest recorded value.
+	 */
+	private AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records given value. Negative values are recorded as 0.
+	 * 
+	 * @param value	Value to record.
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * Returns number of recorded values.
+	 * 
+	 * @return	number of recorded values.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * Returns mean of recorded values.
+	 * 
+	 * @return	mean value, or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) sum.sum() / n;
+	}
+	
+	/**
+	 * Returns largest recorded value.
+	 * 
+	 * @return	largest value, or 0 if nothing was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns value below which given percentage of recorded values are.
+	 * Returned value is upper bound of bucket where percentile is,
+	 * but never larger than largest recorded value.
+	 * 
+	 * @param percentile	Percentage between 0 and 100.
+	 * @return	value at percentile, or 0 if nothing was recorded.
+	 * @throws IllegalArgumentException	if percentage isn't between 0 and 100.
+	 */
+	public long getPercentile(double percentile) {
+		if(percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if(total == 0)	return 0;
+		
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= target) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		
+		return max.get();
+	}
+	
+	/**
+	 * Returns index of bucket where given value is counted.
+	 * 
+	 * @param value	Non negative value.
+	 * @return	index of bucket.
+	 */
+	private static int bucketOf(long value) {
+		if(value < LINEAR_BUCKETS)	return (int) value;
+		
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		
+		return LINEAR_BUCKETS + (magnitude - FIRST_MAGNITUDE) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * Returns largest value counted in bucket with given index.
+	 * 
+	 * @param bucket	Index of bucket.
+	 * @return	largest value of bucket.
+	 */
+	private static long upperBoundOf(int bucket) {
+		if(bucket < LINEAR_BUCKETS)	return bucket;
+		
+		int magnitude = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_MAGNITUDE;
+		int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+		long width = 1L << (magnitude - SUB_BUCKET_BITS);
+		
+		return (SUB_BUCKETS + subBucket) * width + width - 1;
+	}
+}
@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Map bounded by total weight of its values, shared by caches of server.
+ * Values are kept in access order, so when total weight exceeds capacity
+ * least recently used values are removed, each in constant time.
+ * Weight of value is given by weigher, which returns 1 for caches
+ * bounded by number of values. Weight of value mustn't change while
+ * it is in map. All methods are synchronized on map.
+ * 
+ * @author Martin Sršen
+ *
+ * @param <K>	Type of keys.
+ * @param <V>	Type of values.
+ */
+class LruCache<K, V> {
+
+	/**
+	 * Maximum total weight of values.
+	 */
+	private long capacity;
+	/**
+	 * Function that returns weight of value.
+	 */
+	private ToLongFunction<V> weigher;
+	/**
+	 * Current total weight of values.
+	 */
+	private long weight;
+	/**
+	 * Values mapped by their keys, from least to most recently used.
+	 */
+	private Map<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+	
+	/**
+	 * Constructor that creates empty map.
+	 * 
+	 * @param capacity	Maximum total weight of values.
+	 * @param weigher	Function that returns weight of value.
+	 */
+	LruCache(long capacity, ToLongFunction<V> weigher) {
+		this.capacity = capacity;
+		this.weigher = weigher;
+	}
+	
+	/**
+	 * Returns value mapped by given key and marks it as most recently used.
+	 * 
+	 * @param key	Key of value.
+	 * @return	value, or null if there is none.
+	 */
+	synchronized V get(K key) {
+		return entries.get(key);
+	}
+	
+	/**
+	 * Maps given value by given key, as most recently used value, and
+	 * removes least recently used values while total weight exceeds capacity.
+	 * 
+	 * @param key	Key of value.
+	 * @param value	Value to store.
+	 * @return	value that was previously mapped by key, or null.
+	 */
+	synchronized V put(K key, V value) {
+		V old = entries.put(key, value);
+		weight += weigher.applyAsLong(value) - (old == null ? 0 : weigher.applyAsLong(old));
+		
+		Iterator<V> it = entries.values().iterator();
+		while(weight > capacity && it.hasNext()) {
+			weight -= weigher.applyAsLong(it.next());
+			it.remove();
+		}
+		
+		return old;
+	}
+	
+	/**
+	 * Removes value mapped by given key.
+	 * 
+	 * @param key	Key of value.
+	 * @return	removed value, or null if there was none.
+	 */
+	synchronized V remove(K key) {
+		V removed = entries.remove(key);
+		if(removed != null) {
+			weight -= weigher.applyAsLong(removed);
+		}
+		
+		return removed;
+	}
+	
+	/**
+	 * Removes value mapped by given key only if it is given value.
+	 * 
+	 * @param key	Key of value.
+	 * @param value	Value expected to be mapped by key.
+	 * @return	true if value was removed, false otherwise.
+	 */
+	synchronized boolean remove(K key, V value) {
+		if(!entries.remove(key, value))	return false;
+		
+		weight -= weigher.applyAsLong(value);
+		return true;
+	}
+	
+	/**
+	 * Removes values whose keys satisfy given filter.
+	 * 
+	 * @param filter	Filter of keys.
+	 */
+	synchronized void removeIf(Predicate<? super K> filter) {
+		Iterator<Map.Entry<K, V>> it = entries.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<K, V> e = it.next();
+			if(filter.test(e.getKey())) {
+				weight -= weigher.applyAsLong(e.getValue());
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Returns number of values.
+	 * 
+	 * @return	number of values.
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Returns total weight of values.
+	 * 
+	 * @return	total weight.
+	 */
+	synchronized long weight() {
+		return weight;
+	}
+}
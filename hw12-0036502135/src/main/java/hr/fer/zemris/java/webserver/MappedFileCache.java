@@ -0,0 +1,119 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Cache of memory mapped large files.
+ * Each file is mapped once and its mapping is shared by all requests,
+ * so content of file is read from page cache without copying it
+ * into heap and without opening file on each request.
+ * Last modified time and size of file are checked on each access,
+ * if file was changed it is mapped again.
+ * Cache holds at most given number of mappings, when it is full
+ * least recently used mapping is removed and unmapped once it is collected.
+ * Files should be replaced rather than modified in place while mapped.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class MappedFileCache {
+
+	/**
+	 * Maximum number of mapped files.
+	 */
+	private int capacity;
+	/**
+	 * Mapped files mapped by their path.
+	 */
+	private LruCache<Path, Entry> entries;
+	
+	/**
+	 * Constructor that creates cache holding given number of mappings.
+	 * 
+	 * @param capacity	Maximum number of mapped files, 0 turns mapping off.
+	 * @throws IllegalArgumentException	if capacity is negative.
+	 */
+	public MappedFileCache(int capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Cache capacity can't be negative.");
+		}
+		
+		this.capacity = capacity;
+		entries = new LruCache<>(capacity, entry -> 1);
+	}
+	
+	/**
+	 * Returns read only view of content of given file.
+	 * Each call returns new view, with position 0 and limit at size of file.
+	 * 
+	 * @param file	Path to file.
+	 * @return	mapped content, or null if mapping is off or file is too large to be mapped.
+	 * @throws IOException	if error happens mapping file.
+	 * @throws NullPointerException	if null file is given.
+	 */
+	public ByteBuffer get(Path file) throws IOException {
+		Objects.requireNonNull(file, "File path can't be null.");
+		if(capacity == 0)	return null;
+		
+		Path path = file.toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		long size = attributes.size();
+		long modified = attributes.lastModifiedTime().toMillis();
+		
+		Entry entry = entries.get(path);
+		if(entry != null && entry.modified == modified && entry.buffer.capacity() == size) {
+			return entry.buffer.duplicate();
+		}
+		
+		if(size > Integer.MAX_VALUE)	return null;
+		
+		ByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).asReadOnlyBuffer();
+		}
+		
+		entries.put(path, new Entry(buffer, modified));
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * Returns number of mapped files.
+	 * 
+	 * @return	number of mapped files.
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Class representing one mapped file.
+	 */
+	private static class Entry {
+		/**
+		 * Read only view of mapped content.
+		 */
+		private ByteBuffer buffer;
+		/**
+		 * Last modified time of file when it was mapped.
+		 */
+		private long modified;
+		
+		/**
+		 * Constructor that creates new entry.
+		 * 
+		 * @param buffer	Read only view of mapped content.
+		 * @param modified	Last modified time of file when it was mapped.
+		 */
+		private Entry(ByteBuffer buffer, long modified) {
+			this.buffer = buffer;
+			this.modified = modified;
+		}
+	}
+}
@@ -2,15 +2,32 @@ package hr.fer.zemris.java.webserver;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Context holder of various parameters and outputCookies.
@@ -18,10 +35,20 @@ import java.util.Set;
  * Automatically generates header when first write is attempted.
  * After header is generated, encoding, statusCode, statusText, mimeType
  * and output cookies can't be changed anymore.
+ * Optionally uses output buffer, in which case header and body are
+ * written to output stream only when buffer is full or when response is finished.
+ * If whole body fits into buffer, its length is sent as content length,
+ * else if content length is unknown and client allows it, body is sent in chunks.
  * Encoding default set to UTF-8,
  * status code default to 200,
  * status text default to OK and
  * mime type default to text/html.
+ * Connection is kept alive after response only if that was requested
+ * and end of body can be determined by client.
+ * If compression is set, body of unknown length whose mime type is
+ * compressible is compressed as it is written.
+ * Workers can declare version of their output using {@link #checkNotModified(String, long)},
+ * in which case client that already has that version gets response 304 without body.
  * 
  * @author Martin Sršen
  *
@@ -44,11 +71,31 @@ public class RequestContext {
 	 * Default mime type value.
 	 */
 	private static final String DEFAULT_MIME_TYPE = "text/html";
+	/**
+	 * Minimal size of output buffer.
+	 */
+	private static final int MIN_BUFFER_SIZE = 64;
+	/**
+	 * Bytes that end line.
+	 */
+	private static final byte[] CRLF = {'\r', '\n'};
+	/**
+	 * Status code of response telling client that its cached copy is valid.
+	 */
+	private static final int NOT_MODIFIED = 304;
+	/**
+	 * Bytes of last chunk that ends chunked body.
+	 */
+	private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
 	
 	/**
 	 * OutputStream where data is written.
 	 */
 	private OutputStream outputStream;
+	/**
+	 * Channel behind output stream, used to transfer files without copying, or null.
+	 */
+	private WritableByteChannel outputChannel;
 	/**
 	 * Currently used charset for encoding.
 	 */
@@ -91,11 +138,82 @@ public class RequestContext {
 	 * Length of content.
 	 */
 	private Long contentLength;
+	/**
+	 * Function that returns value of request header with given name, or null.
+	 */
+	private Function<String,String> requestHeaders = name -> null;
+	/**
+	 * Entity tag of response, or null.
+	 */
+	private String etag;
+	/**
+	 * Time of last modification of response in milliseconds, or negative value if unknown.
+	 */
+	private long lastModified = -1;
+	/**
+	 * Pre-built header lines that replace lines describing body, or null.
+	 */
+	private byte[] headerLines;
+	/**
+	 * Additional header lines, mapped from header name to value.
+	 */
+	private Map<String,String> headers = new LinkedHashMap<>();
+	/**
+	 * Whether connection should be kept alive after response.
+	 */
+	private boolean keepAlive;
+	
+	/**
+	 * Output buffer, or null if bytes are written directly to output stream.
+	 */
+	private byte[] buffer;
+	/**
+	 * Number of bytes in output buffer.
+	 */
+	private int buffered;
+	/**
+	 * Encoder used to encode text directly into output buffer.
+	 */
+	private CharsetEncoder encoder;
+	/**
+	 * Whether body can be sent in chunks when content length is unknown.
+	 */
+	private boolean chunkingAllowed;
+	/**
+	 * Whether body is sent in chunks.
+	 */
+	private boolean chunked;
+	
+	/**
+	 * Encoding used to compress body, or null if body isn't compressed.
+	 */
+	private String compression;
+	/**
+	 * Tests whether body of certain mime type should be compressed, or null if compression is off.
+	 */
+	private Predicate<String> compressible;
+	/**
+	 * Stream that compresses body, or null if body isn't compressed.
+	 */
+	private OutputStream compressor;
+	
+	/**
+	 * Number of bytes of response written to output stream.
+	 */
+	private long bytesSent;
 	
 	/**
 	 * Whether header was generated.
 	 */
 	private boolean headerGenerated;
+	/**
+	 * Whether response has no body, so written bytes are discarded.
+	 */
+	private boolean noBody;
+	/**
+	 * Whether header was written to output stream.
+	 */
+	private boolean headerSent;
 	/**
 	 * Used dispatcher.
 	 */
@@ -151,6 +269,9 @@ public class RequestContext {
 	 * length number of elements, to output stream
 	 * contained in current object.
 	 * If header wasn't generated, generates it.
+	 * If output buffer is used, bytes are written into it and
+	 * buffer is written to output stream only when it is full.
+	 * If body is compressed, bytes are compressed first.
 	 * 
 	 * @param data	Array of bytes to write to output stream.
 	 * @param offset	Array offset to write elements from.
@@ -165,7 +286,11 @@ public class RequestContext {
 			generateHeader();
 		}
 		
-		outputStream.write(data, offset, len);
+		if(compressor != null) {
+			compressor.write(data, offset, len);
+		} else {
+			writeOutput(data, offset, len);
+		}
 		
 		return this;
 	}
@@ -189,6 +314,7 @@ public class RequestContext {
 	 * Method that writes given text, converted to bytes using
 	 * currently set charset, to output stream
 	 * contained in current object.
+	 * If output buffer is used, text is encoded directly into it.
 	 * If header wasn't generated, generates it.
 	 * 
 	 * @param text	String to write to output stream.
@@ -202,7 +328,261 @@ public class RequestContext {
 			generateHeader();
 		}
 		
-		return write(text.getBytes(charset));
+		if(buffer == null || compressor != null) {
+			return write(text.getBytes(charset));
+		}
+		
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		boolean flushed = false;
+		
+		while(true) {
+			ByteBuffer out = ByteBuffer.wrap(buffer, buffered, buffer.length - buffered);
+			CoderResult result = flushed ? encoder.flush(out) : encoder.encode(chars, out, true);
+			buffered = out.position();
+			
+			if(result.isOverflow()) {
+				flushBuffer();
+			} else if(!flushed) {
+				flushed = true;
+			} else {
+				break;
+			}
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Method that writes count bytes of given file channel, starting from
+	 * given position, to output stream contained in current object.
+	 * If output channel is set, bytes are transferred directly to it,
+	 * without copying them through user space buffers.
+	 * If body is compressed, bytes are read from file and compressed.
+	 * If body is chunked, chunk sizes are taken from size of file, so file
+	 * shorter than count still gives valid body, and nothing is sent if count is 0.
+	 * If header wasn't generated, generates it.
+	 * 
+	 * @param file	File channel to read bytes from.
+	 * @param position	Position in file of first byte to write.
+	 * @param count	How many bytes to write.
+	 * @return	RequestContext current object.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public RequestContext write(FileChannel file, long position, long count) throws IOException {
+		Objects.requireNonNull(file, "File to write can't be null.");
+		
+		if(!headerGenerated) {
+			generateHeader();
+		}
+		
+		if(compressor != null) {
+			ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(count, 8192));
+			long end = position + count;
+			
+			while(position < end) {
+				bytes.clear().limit((int) Math.min(bytes.capacity(), end - position));
+				int read = file.read(bytes, position);
+				if(read < 0)	break;
+				
+				compressor.write(bytes.array(), 0, read);
+				position += read;
+			}
+			
+			return this;
+		}
+		
+		flushBuffer();
+		sendHeader();
+		if(noBody || count == 0)	return this;
+		
+		WritableByteChannel target = outputChannel == null ? Channels.newChannel(outputStream) : outputChannel;
+		long end = position + count;
+		
+		while(position < end) {
+			long piece = chunked ? Math.min(end, file.size()) - position : end - position;
+			if(piece <= 0)	break;
+			
+			if(chunked) {
+				send((Long.toHexString(piece) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			}
+			outputStream.flush();
+			
+			long pieceEnd = position + piece;
+			while(position < pieceEnd) {
+				long transferred = file.transferTo(position, pieceEnd - position, target);
+				if(transferred <= 0 && position >= file.size()) {
+					if(chunked) {
+						throw new IOException("File was truncated while it was being sent.");
+					}
+					return this;
+				}
+				
+				position += transferred;
+				bytesSent += transferred;
+			}
+			
+			if(chunked) {
+				send(CRLF);
+			}
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Method that writes remaining bytes of given buffer to output stream
+	 * contained in current object. Buffer can be memory mapped file.
+	 * If output channel is set, bytes are written directly to it,
+	 * so content of mapped file isn't copied into heap.
+	 * If body is compressed, or there is no output channel,
+	 * bytes are copied through small array.
+	 * Empty buffer writes nothing, so it doesn't end chunked body.
+	 * If header wasn't generated, generates it.
+	 * 
+	 * @param data	Buffer whose remaining bytes are written.
+	 * @return	RequestContext current object.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public RequestContext write(ByteBuffer data) throws IOException {
+		Objects.requireNonNull(data, "Data to write can't be null.");
+		
+		if(!headerGenerated) {
+			generateHeader();
+		}
+		
+		if(compressor != null || outputChannel == null) {
+			byte[] bytes = new byte[Math.min(data.remaining(), 8192)];
+			while(data.hasRemaining()) {
+				int count = Math.min(bytes.length, data.remaining());
+				data.get(bytes, 0, count);
+				write(bytes, 0, count);
+			}
+			
+			return this;
+		}
+		
+		flushBuffer();
+		sendHeader();
+		if(noBody || !data.hasRemaining())	return this;
+		
+		if(chunked) {
+			send((Integer.toHexString(data.remaining()) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		}
+		
+		outputStream.flush();
+		while(data.hasRemaining()) {
+			bytesSent += outputChannel.write(data);
+		}
+		
+		if(chunked) {
+			send(CRLF);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Writes whole response at once, with given header lines and body.
+	 * Header lines are written instead of lines that describe body, so
+	 * they must contain Content-Length of body and Content-Type, and may
+	 * contain ETag and Last-Modified. Each line must end with CRLF.
+	 * Status line, additional headers and cookies are written as usual.
+	 * If output channel supports it, header and body are written with
+	 * one gathering write, else they are written to output stream.
+	 * 
+	 * @param headerLines	Pre-built header lines describing body.
+	 * @param body	Bytes of body.
+	 * @return	RequestContext current object.
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 * @throws RuntimeException	if header was generated.
+	 */
+	public RequestContext writeResponse(byte[] headerLines, byte[] body) throws IOException {
+		checkAllowed();
+		Objects.requireNonNull(headerLines, "Header lines can't be null.");
+		Objects.requireNonNull(body, "Body can't be null.");
+		
+		contentLength = Long.valueOf(body.length);
+		generateHeader();
+		this.headerLines = headerLines;
+		
+		HeaderEncoder header = buildHeader();
+		headerSent = true;
+		if(noBody) {
+			body = new byte[0];
+		}
+		
+		if(!(outputChannel instanceof GatheringByteChannel)) {
+			send(header.array(), 0, header.length());
+			send(body);
+			return this;
+		}
+		
+		outputStream.flush();
+		ByteBuffer[] buffers = {ByteBuffer.wrap(header.array(), 0, header.length()), ByteBuffer.wrap(body)};
+		long total = header.length() + body.length;
+		long written = 0;
+		while(written < total) {
+			written += ((GatheringByteChannel) outputChannel).write(buffers);
+		}
+		
+		bytesSent += total;
+		return this;
+	}
+	
+	/**
+	 * Writes buffered bytes to output stream and flushes it.
+	 * If body is compressed, compressor is flushed first.
+	 * If header wasn't sent, sends it.
+	 * 
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public void flush() throws IOException {
+		if(!headerGenerated) {
+			generateHeader();
+		}
+		
+		if(compressor != null) {
+			compressor.flush();
+		}
+		
+		flushBuffer();
+		sendHeader();
+		outputStream.flush();
+	}
+	
+	/**
+	 * Ends response.
+	 * If header wasn't sent and content length is unknown, all content is still
+	 * in buffer, so its length is used as content length.
+	 * Writes buffered bytes, ends chunked body if it was used and flushes output stream.
+	 * If body is compressed, compressor is finished first.
+	 * If nothing was written, sends header of empty response.
+	 * 
+	 * @throws IOException	if something wrong happens writing to output stream.
+	 */
+	public void finish() throws IOException {
+		if(!headerGenerated) {
+			generateHeader();
+		}
+		
+		if(compressor != null) {
+			compressor.close();
+			compressor = null;
+		}
+		
+		if(!headerSent && contentLength == null && (buffer != null || buffered == 0)) {
+			contentLength = Long.valueOf(buffered);
+		}
+		
+		flushBuffer();
+		sendHeader();
+		if(chunked) {
+			send(LAST_CHUNK);
+			chunked = false;
+		}
+		
+		outputStream.flush();
 	}
 	
 	/**
@@ -374,6 +754,16 @@ public class RequestContext {
 		this.mimeType = mimeType;	
 	}
 	
+	/**
+	 * Returns value of Content-Type header of response.
+	 * Charset is appended to textual mime types.
+	 * 
+	 * @return	content type of response.
+	 */
+	public String getContentType() {
+		return HeaderEncoder.contentTypeOf(mimeType, encoding);
+	}
+	
 	/**
 	 * Setter method for contentLength if header was not generated,
 	 * else throws RuntimeException.
@@ -385,6 +775,318 @@ public class RequestContext {
 		this.contentLength = contentLength;
 	}
 	
+	/**
+	 * Sets additional header line with given name and value
+	 * if header was not generated, else throws RuntimeException.
+	 * If header with given name was already set, its value is replaced.
+	 * 
+	 * @param name	Header name.
+	 * @param value	Header value.
+	 * @throws NullPointerException	if null name or value is given.
+	 */
+	public void setHeader(String name, String value) {
+		checkAllowed();
+		Objects.requireNonNull(name, "Header name can't be null.");
+		Objects.requireNonNull(value, "Header value can't be null.");
+		
+		headers.put(name, value);
+	}
+	
+	/**
+	 * Setter method for keepAlive if header was not generated,
+	 * else throws RuntimeException.
+	 * Connection is kept alive only if content length is known
+	 * or chunked encoding is used when header is written.
+	 * 
+	 * @param keepAlive	Whether connection should be kept alive after response.
+	 */
+	public void setKeepAlive(boolean keepAlive) {
+		checkAllowed();
+		
+		this.keepAlive = keepAlive;
+	}
+	
+	/**
+	 * Returns whether connection can be reused after response is written.
+	 * That is true only if header was sent and it announced
+	 * persistent connection.
+	 * 
+	 * @return	true if connection can be reused, false otherwise.
+	 */
+	public boolean isKeepAlive() {
+		return headerSent && keepAlive;
+	}
+	
+	/**
+	 * Returns whether header of response was written to output stream.
+	 * 
+	 * @return	true if header was sent, false otherwise.
+	 */
+	public boolean isHeaderSent() {
+		return headerSent;
+	}
+	
+	/**
+	 * Sets size of output buffer if header was not generated,
+	 * else throws RuntimeException.
+	 * With size 0 buffer isn't used and each write goes directly to output stream.
+	 * 
+	 * @param size	Size of output buffer in bytes.
+	 * @throws IllegalArgumentException	if negative size is given.
+	 */
+	public void setBufferSize(int size) {
+		checkAllowed();
+		if(size < 0) {
+			throw new IllegalArgumentException("Buffer size can't be negative.");
+		}
+		
+		buffer = size == 0 ? null : new byte[Math.max(size, MIN_BUFFER_SIZE)];
+	}
+	
+	/**
+	 * Setter method for chunkingAllowed if header was not generated,
+	 * else throws RuntimeException.
+	 * Chunked encoding should be allowed only for HTTP/1.1 clients.
+	 * 
+	 * @param chunkingAllowed	Whether body can be sent in chunks when content length is unknown.
+	 */
+	public void setChunkingAllowed(boolean chunkingAllowed) {
+		checkAllowed();
+		
+		this.chunkingAllowed = chunkingAllowed;
+	}
+	
+	/**
+	 * Sets headers of request that is being answered.
+	 * 
+	 * @param requestHeaders	Request headers, mapped from lower case header name to value.
+	 * @throws NullPointerException	if null map is given.
+	 */
+	public void setRequestHeaders(Map<String,String> requestHeaders) {
+		Objects.requireNonNull(requestHeaders, "Request headers can't be null.");
+		
+		this.requestHeaders = name -> requestHeaders.get(name.toLowerCase());
+	}
+	
+	/**
+	 * Sets function that returns values of headers of request that is being answered.
+	 * Used so headers are parsed only when they are asked for.
+	 * 
+	 * @param requestHeaders	Function that returns value of header with given name, or null.
+	 * @throws NullPointerException	if null function is given.
+	 */
+	public void setRequestHeaders(Function<String,String> requestHeaders) {
+		Objects.requireNonNull(requestHeaders, "Request headers can't be null.");
+		
+		this.requestHeaders = requestHeaders;
+	}
+	
+	/**
+	 * Returns value of request header with given name.
+	 * Header names are not case sensitive.
+	 * 
+	 * @param name	Header name.
+	 * @return	header value, or null if request has no such header.
+	 */
+	public String getRequestHeader(String name) {
+		return requestHeaders.apply(name);
+	}
+	
+	/**
+	 * Declares version of response that is about to be written, so client can cache it.
+	 * Sets ETag and Last-Modified headers and checks conditional headers of request.
+	 * If-None-Match is checked if it is present, else If-Modified-Since is checked.
+	 * If client's copy is still valid, sets status to 304 Not Modified and returns true,
+	 * in which case caller shouldn't write body, since it would be discarded anyway.
+	 * Must be called before header is generated.
+	 * 
+	 * @param etag	Quoted entity tag of response, or null if it has none.
+	 * @param lastModified	Time of last modification in milliseconds, or negative value if unknown.
+	 * @return	true if client's copy is valid and response has no body, false otherwise.
+	 * @throws RuntimeException	if header was generated.
+	 */
+	public boolean checkNotModified(String etag, long lastModified) {
+		checkAllowed();
+		
+		this.etag = etag;
+		this.lastModified = lastModified;
+		if(statusCode != DEFAULT_STATUS_CODE)	return false;
+		
+		String ifNoneMatch = getRequestHeader("If-None-Match");
+		String ifModifiedSince = getRequestHeader("If-Modified-Since");
+		
+		boolean notModified;
+		if(ifNoneMatch != null) {
+			notModified = etag != null && matchesETag(ifNoneMatch, etag);
+		} else if(ifModifiedSince != null && lastModified >= 0) {
+			notModified = isNotModifiedSince(ifModifiedSince, lastModified);
+		} else {
+			notModified = false;
+		}
+		
+		if(notModified) {
+			setStatusCode(NOT_MODIFIED);
+			setStatusText("Not Modified");
+		}
+		
+		return notModified;
+	}
+	
+	/**
+	 * Checks whether Range header of request should be applied,
+	 * using If-Range header and entity tag and last modified time
+	 * set by {@link #checkNotModified(String, long)}.
+	 * Range is applied if request has no If-Range header, or if its value is
+	 * strong entity tag equal to entity tag of response, or date equal
+	 * to last modified time of response.
+	 * 
+	 * @return	true if requested range should be sent, false if whole response should be sent.
+	 */
+	public boolean isRangeApplicable() {
+		String ifRange = getRequestHeader("If-Range");
+		if(ifRange == null)	return true;
+		
+		ifRange = ifRange.trim();
+		if(ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+		}
+		
+		if(lastModified < 0)	return false;
+		try {
+			return ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond() == lastModified / 1000;
+		} catch(DateTimeParseException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Sets content encoding of body that is already encoded,
+	 * if header was not generated, else throws RuntimeException.
+	 * Encoding is appended to entity tag of response, if it has one.
+	 * 
+	 * @param encoding	Content encoding of body.
+	 * @throws NullPointerException	if null encoding is given.
+	 */
+	public void setContentEncoding(String encoding) {
+		checkAllowed();
+		Objects.requireNonNull(encoding, "Encoding can't be null.");
+		
+		headers.put("Content-Encoding", encoding);
+		if(etag != null) {
+			etag = encodedETag(etag, encoding);
+		}
+	}
+	
+	/**
+	 * Returns entity tag of representation of response with given content encoding.
+	 * Encoding is appended to tag, so different representations have different tags.
+	 * 
+	 * @param etag	Quoted entity tag of response.
+	 * @param encoding	Content encoding of representation.
+	 * @return	entity tag of representation.
+	 */
+	public static String encodedETag(String etag, String encoding) {
+		if(!etag.endsWith("\""))	return etag;
+		
+		return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+	}
+	
+	/**
+	 * Sets compression of body if header was not generated,
+	 * else throws RuntimeException.
+	 * Body is compressed only if its content length is unknown when header
+	 * is generated and given predicate accepts its mime type.
+	 * For such bodies Vary header is sent even if encoding is null,
+	 * since response depends on encodings client accepts.
+	 * 
+	 * @param encoding	Encoding that client accepts, gzip, deflate or null.
+	 * @param compressible	Tests whether body of given mime type should be compressed, or null to turn compression off.
+	 * @throws IllegalArgumentException	if unsupported encoding is given.
+	 */
+	public void setCompression(String encoding, Predicate<String> compressible) {
+		checkAllowed();
+		if(encoding != null && !encoding.equals(ContentEncoding.GZIP) && !encoding.equals(ContentEncoding.DEFLATE)) {
+			throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+		}
+		
+		this.compression = encoding;
+		this.compressible = compressible;
+	}
+	
+	/**
+	 * Sets channel that is behind output stream.
+	 * Used to write files to client without copying them.
+	 * 
+	 * @param outputChannel	Channel behind output stream, or null if there is none.
+	 */
+	public void setOutputChannel(WritableByteChannel outputChannel) {
+		this.outputChannel = outputChannel;
+	}
+	
+	/**
+	 * Returns number of bytes of response, including header,
+	 * that were written to output stream so far.
+	 * 
+	 * @return	number of sent bytes.
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+	
+	/**
+	 * Getter for status code of response.
+	 * 
+	 * @return	status code.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Getter for statusText.
+	 * 
+	 * @return	status text.
+	 */
+	String getStatusText() {
+		return statusText;
+	}
+	
+	/**
+	 * Getter for mimeType.
+	 * 
+	 * @return	mime type.
+	 */
+	String getMimeType() {
+		return mimeType;
+	}
+	
+	/**
+	 * Getter for encoding.
+	 * 
+	 * @return	encoding.
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * Getter for etag.
+	 * 
+	 * @return	entity tag of response, or null if it has none.
+	 */
+	String getETag() {
+		return etag;
+	}
+	
+	/**
+	 * Getter for lastModified.
+	 * 
+	 * @return	last modified time of response, or negative value if unknown.
+	 */
+	long getLastModified() {
+		return lastModified;
+	}
+	
 	/**
 	 * Getter for dispatcher reference.
 	 * 
@@ -408,31 +1110,258 @@ public class RequestContext {
 	}
 
 	/**
-	 * Helper method that generates header using statusCode, statusText, mimeType and list of cookies.
-	 * After generated, header is written into output stream using ISO_8859_1 charset to
-	 * transform text into bytes that will be written.
+	 * Helper method that marks header as generated, after which
+	 * properties used to create header can't be changed anymore.
+	 * Header is written into output stream when first bytes of body
+	 * are written to it, or when response is finished.
+	 * If body should be compressed, creates compressor.
 	 * 
 	 * @throws IOException	If something wrong happens writing to output stream.
 	 */
 	private void generateHeader() throws IOException {
-		charset = Charset.forName(encoding);
-						
-		StringBuilder header = new StringBuilder();
-		header.append("HTTP/1.1 " + statusCode + " " + statusText + "\r\n");
-		if(contentLength != null) {
-			header.append("Content-Length: ").append(contentLength).append("\r\n");
-		}
-		header.append("Content-Type: " + mimeType)
-							.append(mimeType.toLowerCase().startsWith("text/") ? "; charset=" + encoding : "").append("\r\n");
-		outputCookies.forEach(cookie -> header.append("Set-Cookie: ").append(cookie.getName() + "=\"" + cookie.getValue() + "\"")
-												.append(cookie.getDomain() == null ? "" : "; Domain=" + cookie.getDomain())
-												.append(cookie.getPath() == null ? "" : "; Path=" + cookie.getPath())
-												.append(cookie.getMaxAge() == null ? "" : "; Max-Age=" + cookie.getMaxAge())
-												.append(cookie.isHttpOnly() ? "; HttpOnly" : "").append("\r\n"));
-		header.append("\r\n");
-		
-		outputStream.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+		charset = HeaderEncoder.charset(encoding);
+		if(buffer != null) {
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		
 		headerGenerated = true;
+		noBody = statusCode == NOT_MODIFIED || statusCode == 204;
+		
+		if(compressible != null && contentLength == null && compressible.test(mimeType)) {
+			headers.put("Vary", "Accept-Encoding");
+			
+			if(compression != null && !noBody) {
+				headers.put("Content-Encoding", compression);
+				if(etag != null) {
+					etag = encodedETag(etag, compression);
+				}
+				compressor = ContentEncoding.newEncoder(new BodyStream(), compression);
+			}
+		}
+	}
+	
+	/**
+	 * Helper method that writes header using statusCode, statusText, mimeType and list of cookies,
+	 * if it wasn't already written.
+	 * If content length is unknown and chunked encoding is allowed, body is sent in chunks.
+	 * Header is written into output stream using ISO_8859_1 charset to
+	 * transform text into bytes that will be written.
+	 * 
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void sendHeader() throws IOException {
+		if(headerSent)	return;
+		
+		HeaderEncoder header = buildHeader();
+		send(header.array(), 0, header.length());
+		headerSent = true;
+	}
+	
+	/**
+	 * Helper method that creates header using statusCode, statusText, mimeType and list of cookies.
+	 * If content length is unknown and chunked encoding is allowed, body is sent in chunks.
+	 * If pre-built header lines are set, they are used instead of lines that describe body.
+	 * Header is encoded by header encoder of current thread, so it is valid
+	 * only until thread builds next header.
+	 * 
+	 * @return	encoder holding bytes of header.
+	 */
+	private HeaderEncoder buildHeader() {
+		chunked = !noBody && contentLength == null && chunkingAllowed;
+		
+		HeaderEncoder header = HeaderEncoder.get().status(statusCode, statusText);
+		if(headerLines != null && !noBody) {
+			header.append(headerLines);
+		} else {
+			if(contentLength != null && !noBody) {
+				header.contentLength(contentLength);
+			}
+			if(chunked) {
+				header.chunked();
+			}
+			header.contentType(mimeType, encoding);
+			if(etag != null) {
+				header.etag(etag);
+			}
+			if(lastModified >= 0) {
+				header.lastModified(lastModified);
+			}
+		}
+		headers.forEach(header::header);
+		keepAlive = keepAlive && (noBody || contentLength != null || chunked);
+		header.connection(keepAlive);
+		outputCookies.forEach(header::cookie);
+		
+		return header.end();
+	}
+	
+	/**
+	 * Helper method that writes given bytes into output buffer,
+	 * writing buffer to output stream when it is full.
+	 * If output buffer isn't used, bytes are written directly as part of body.
+	 * 
+	 * @param data	Array of bytes to write.
+	 * @param offset	Array offset to write elements from.
+	 * @param len	How many elements to write.
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void writeOutput(byte[] data, int offset, int len) throws IOException {
+		if(buffer == null) {
+			writeBody(data, offset, len);
+			return;
+		}
+		
+		if(buffered + len > buffer.length) {
+			flushBuffer();
+		}
+		
+		if(len >= buffer.length) {
+			writeBody(data, offset, len);
+		} else {
+			System.arraycopy(data, offset, buffer, buffered, len);
+			buffered += len;
+		}
+	}
+	
+	/**
+	 * Helper method that writes buffered bytes as part of body and empties buffer.
+	 * 
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void flushBuffer() throws IOException {
+		if(buffered == 0)	return;
+		
+		writeBody(buffer, 0, buffered);
+		buffered = 0;
+	}
+	
+	/**
+	 * Helper method that writes given bytes as part of body, sending
+	 * header first if it wasn't sent. If chunked encoding is used, 
+	 * bytes are written as one chunk.
+	 * 
+	 * @param data	Array of bytes to write.
+	 * @param offset	Array offset to write elements from.
+	 * @param len	How many elements to write.
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void writeBody(byte[] data, int offset, int len) throws IOException {
+		sendHeader();
+		if(len == 0 || noBody)	return;
+		
+		if(chunked) {
+			send((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			send(data, offset, len);
+			send(CRLF);
+		} else {
+			send(data, offset, len);
+		}
+	}
+	
+	/**
+	 * Helper method that writes given bytes to output stream and counts them.
+	 * 
+	 * @param data	Array of bytes to write.
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void send(byte[] data) throws IOException {
+		send(data, 0, data.length);
+	}
+	
+	/**
+	 * Helper method that writes given bytes to output stream and counts them.
+	 * 
+	 * @param data	Array of bytes to write.
+	 * @param offset	Array offset to write elements from.
+	 * @param len	How many elements to write.
+	 * @throws IOException	If something wrong happens writing to output stream.
+	 */
+	private void send(byte[] data, int offset, int len) throws IOException {
+		outputStream.write(data, offset, len);
+		bytesSent += len;
+	}
+	
+	/**
+	 * Checks whether If-None-Match header value matches given entity tag.
+	 * Tags are compared weakly, ignoring W/ prefix and content encoding
+	 * appended to tags of compressed representations.
+	 * 
+	 * @param ifNoneMatch	Value of If-None-Match header.
+	 * @param etag	Entity tag of response.
+	 * @return	true if header matches tag, false otherwise.
+	 */
+	private static boolean matchesETag(String ifNoneMatch, String etag) {
+		String tag = stripWeak(etag);
+		
+		for(String candidate : ifNoneMatch.split(",")) {
+			candidate = stripWeak(candidate.trim());
+			
+			if(candidate.equals("*") || candidate.equals(tag)
+					|| candidate.equals(encodedETag(tag, ContentEncoding.GZIP))
+					|| candidate.equals(encodedETag(tag, ContentEncoding.DEFLATE))) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Removes weak indicator from given entity tag.
+	 * 
+	 * @param etag	Entity tag.
+	 * @return	entity tag without W/ prefix.
+	 */
+	private static String stripWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+	
+	/**
+	 * Checks whether resource modified at given time wasn't modified
+	 * since date given in If-Modified-Since header.
+	 * Dates are compared in seconds, since header has no better precision.
+	 * 
+	 * @param ifModifiedSince	Value of If-Modified-Since header.
+	 * @param lastModified	Time of last modification in milliseconds.
+	 * @return	true if resource wasn't modified, false otherwise or if date is invalid.
+	 */
+	private static boolean isNotModifiedSince(String ifModifiedSince, long lastModified) {
+		try {
+			long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+			return lastModified / 1000 <= since;
+		} catch(DateTimeParseException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Formats given time as HTTP date.
+	 * 
+	 * @param millis	Time in milliseconds.
+	 * @return	formatted date.
+	 */
+	static String formatDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+				ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+	}
+	
+	/**
+	 * Stream into which compressor writes compressed body.
+	 * Written bytes go to output buffer.
+	 */
+	private class BodyStream extends OutputStream {
+	
+		@Override
+		public void write(int b) throws IOException {
+			writeOutput(new byte[] {(byte) b}, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			writeOutput(b, off, len);
+		}
 	}
 	
 	/**
@@ -0,0 +1,346 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+/**
+ * Cache of responses of cacheable workers.
+ * Whole response, its header lines and body, is kept in memory until it expires,
+ * so worker renders it once and all following requests with same key copy it.
+ * If response for some key is being rendered, other requests with same key
+ * wait for it instead of rendering it again.
+ * Cache is bounded by total number of bytes of cached responses,
+ * when it is full least recently used responses are removed.
+ * Expired response is removed when it is next looked up.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class ResponseCache {
+
+	/**
+	 * Maximum total size of cached responses in bytes.
+	 */
+	private long capacity;
+	/**
+	 * Cached responses mapped by their key, weighted by their size.
+	 */
+	private LruCache<String, Slot> slots;
+	/**
+	 * Responses that are being rendered mapped by their key.
+	 */
+	private Map<String, CompletableFuture<Entry>> pending = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor that creates cache bounded by total size of responses.
+	 * 
+	 * @param capacity	Maximum total size of cached responses in bytes.
+	 * @throws IllegalArgumentException	if capacity is negative.
+	 */
+	public ResponseCache(long capacity) {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Cache capacity can't be negative.");
+		}
+		
+		this.capacity = capacity;
+		slots = new LruCache<>(capacity, slot -> slot.entry.size());
+	}
+	
+	/**
+	 * Returns response cached under given key.
+	 * If there is no valid cached response, it is rendered by given renderer and cached
+	 * if it is cacheable and fits in cache. If same response is already being rendered
+	 * by other thread, waits for it instead. If response rendered by other thread
+	 * can't be cached or rendering failed, response is rendered again.
+	 * 
+	 * @param key	Key of response.
+	 * @param ttl	Time in milliseconds for which rendered response is valid.
+	 * @param renderer	Renders response.
+	 * @return	cached or rendered response.
+	 * @throws Exception	if renderer fails or thread is interrupted while waiting.
+	 * @throws NullPointerException	if null key or renderer is given.
+	 */
+	public Entry get(String key, long ttl, Callable<Entry> renderer) throws Exception {
+		Objects.requireNonNull(key, "Key can't be null.");
+		Objects.requireNonNull(renderer, "Renderer can't be null.");
+		
+		Entry cached = lookup(key);
+		if(cached != null)	return cached;
+		
+		CompletableFuture<Entry> render = new CompletableFuture<>();
+		CompletableFuture<Entry> running = pending.putIfAbsent(key, render);
+		if(running != null) {
+			Entry shared = await(running);
+			return shared != null && shared.isCacheable() ? shared : renderer.call();
+		}
+		
+		Entry entry = null;
+		try {
+			entry = lookup(key);
+			if(entry == null) {
+				entry = renderer.call();
+				store(key, entry, ttl);
+			}
+			return entry;
+		} finally {
+			pending.remove(key, render);
+			render.complete(entry);
+		}
+	}
+	
+	/**
+	 * Returns total size of cached responses.
+	 * 
+	 * @return	size of cached responses in bytes.
+	 */
+	public long size() {
+		return slots.weight();
+	}
+	
+	/**
+	 * Returns valid response cached under given key.
+	 * Expired response is removed.
+	 * 
+	 * @param key	Key of response.
+	 * @return	cached response, or null if there is no valid one.
+	 */
+	private Entry lookup(String key) {
+		Slot slot = slots.get(key);
+		if(slot == null)	return null;
+		
+		if(slot.expires <= System.currentTimeMillis()) {
+			slots.remove(key, slot);
+			return null;
+		}
+		
+		return slot.entry;
+	}
+	
+	/**
+	 * Caches given response if it is cacheable and fits in cache.
+	 * 
+	 * @param key	Key of response.
+	 * @param entry	Response to cache.
+	 * @param ttl	Time in milliseconds for which response is valid.
+	 */
+	private void store(String key, Entry entry, long ttl) {
+		if(entry == null || !entry.isCacheable() || ttl <= 0 || entry.size() > capacity)	return;
+		
+		slots.put(key, new Slot(entry, System.currentTimeMillis() + ttl));
+	}
+	
+	/**
+	 * Waits until response rendered by other thread is done.
+	 * 
+	 * @param running	Response that is being rendered.
+	 * @return	rendered response, or null if rendering failed.
+	 * @throws InterruptedException	if thread is interrupted while waiting.
+	 */
+	private static Entry await(CompletableFuture<Entry> running) throws InterruptedException {
+		try {
+			return running.get();
+		} catch(ExecutionException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Class representing response of worker.
+	 * Response is rendered into separate request context, and then written
+	 * to request context of each client it is sent to.
+	 */
+	public static class Entry {
+		/**
+		 * Status code of response.
+		 */
+		private int statusCode;
+		/**
+		 * Status text of response.
+		 */
+		private String statusText;
+		/**
+		 * Mime type of response.
+		 */
+		private String mimeType;
+		/**
+		 * Encoding of textual response.
+		 */
+		private String encoding;
+		/**
+		 * Entity tag of response, or null.
+		 */
+		private String etag;
+		/**
+		 * Last modified time of response, or negative value if unknown.
+		 */
+		private long lastModified;
+		/**
+		 * Header lines describing body and additional headers, each ending with CRLF.
+		 */
+		private byte[] headerLines;
+		/**
+		 * Body of response.
+		 */
+		private byte[] body;
+		/**
+		 * Cookies set by response.
+		 */
+		private List<RCCookie> cookies;
+		
+		/**
+		 * Constructor that creates response from request context it was rendered into.
+		 * Context must be finished and must have had chunked encoding
+		 * and output buffer turned off.
+		 * 
+		 * @param context	Context response was rendered into.
+		 * @param output	Bytes context has written.
+		 * @param cookies	Cookies context has set.
+		 * @throws IllegalArgumentException	if output doesn't contain whole header.
+		 */
+		public Entry(RequestContext context, byte[] output, List<RCCookie> cookies) {
+			int headerEnd = indexOfHeaderEnd(output);
+			if(headerEnd < 0) {
+				throw new IllegalArgumentException("Output doesn't contain header.");
+			}
+			
+			this.statusCode = context.getStatusCode();
+			this.statusText = context.getStatusText();
+			this.mimeType = context.getMimeType();
+			this.encoding = context.getEncoding();
+			this.etag = context.getETag();
+			this.lastModified = context.getLastModified();
+			this.body = Arrays.copyOfRange(output, headerEnd + 4, output.length);
+			this.headerLines = headerLinesOf(new String(output, 0, headerEnd, StandardCharsets.ISO_8859_1), body.length);
+			this.cookies = Collections.unmodifiableList(new ArrayList<>(cookies));
+		}
+		
+		/**
+		 * Writes response into given request context.
+		 * Conditional headers of request are checked first, so client that
+		 * already has response gets 304 Not Modified.
+		 * 
+		 * @param context	RequestContext to write response into.
+		 * @throws IOException	if error happens writing response.
+		 */
+		public void writeTo(RequestContext context) throws IOException {
+			context.setStatusCode(statusCode);
+			context.setStatusText(statusText);
+			context.setMimeType(mimeType);
+			context.setEncoding(encoding);
+			cookies.forEach(context::addRCCookie);
+			
+			if(context.checkNotModified(etag, lastModified))	return;
+			context.writeResponse(headerLines, body);
+		}
+		
+		/**
+		 * Checks whether response can be sent to other clients.
+		 * 
+		 * @return	true if response is successful and doesn't set cookies.
+		 */
+		public boolean isCacheable() {
+			return statusCode == 200 && cookies.isEmpty();
+		}
+		
+		/**
+		 * Returns body of response.
+		 * 
+		 * @return	body of response.
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+		
+		/**
+		 * Returns number of bytes response takes in cache.
+		 * 
+		 * @return	size of header lines and body.
+		 */
+		private long size() {
+			return headerLines.length + body.length;
+		}
+		
+		/**
+		 * Finds end of header in given output.
+		 * 
+		 * @param output	Output of request context.
+		 * @return	index of empty line that ends header, or -1 if there is none.
+		 */
+		private static int indexOfHeaderEnd(byte[] output) {
+			for(int i = 0; i + 3 < output.length; i++) {
+				if(output[i] == '\r' && output[i + 1] == '\n' && output[i + 2] == '\r' && output[i + 3] == '\n') {
+					return i;
+				}
+			}
+			
+			return -1;
+		}
+		
+		/**
+		 * Creates header lines that describe body from given header.
+		 * Status line and lines describing connection and length are left out,
+		 * and Content-Length of body is added.
+		 * 
+		 * @param header	Header without empty line at its end.
+		 * @param length	Length of body.
+		 * @return	encoded header lines.
+		 */
+		private static byte[] headerLinesOf(String header, int length) {
+			ByteArrayOutputStream lines = new ByteArrayOutputStream();
+			byte[] contentLength = ("Content-Length: " + length + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			lines.write(contentLength, 0, contentLength.length);
+			
+			String[] headerLines = header.split("\r\n");
+			for(int i = 1; i < headerLines.length; i++) {
+				String name = headerLines[i].substring(0, Math.max(0, headerLines[i].indexOf(':'))).trim();
+				if(name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")
+						|| name.equalsIgnoreCase("Connection") || name.equalsIgnoreCase("Set-Cookie")) {
+					continue;
+				}
+				
+				byte[] line = (headerLines[i] + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+				lines.write(line, 0, line.length);
+			}
+			
+			return lines.toByteArray();
+		}
+	}
+	
+	/**
+	 * Class representing cached response together with its expiration.
+	 */
+	private static class Slot {
+		/**
+		 * Cached response.
+		 */
+		private Entry entry;
+		/**
+		 * Time in milliseconds when response expires.
+		 */
+		private long expires;
+		
+		/**
+		 * Constructor that creates new slot.
+		 * 
+		 * @param entry	Cached response.
+		 * @param expires	Time in milliseconds when response expires.
+		 */
+		private Slot(Entry entry, long expires) {
+			this.entry = entry;
+			this.expires = expires;
+		}
+	}
+}
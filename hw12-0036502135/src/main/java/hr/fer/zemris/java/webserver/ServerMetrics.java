@@ -0,0 +1,373 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of running server.
+ * Counts connections, requests, sent bytes and error responses, and
+ * records latency of requests for each route in histogram.
+ * Time connections wait for worker thread is recorded in separate histogram.
+ * Counters are striped, so threads recording metrics don't contend.
+ * Values that server already knows, such as number of sessions and
+ * number of waiting jobs, are read from given suppliers when report is made.
+ * Number of routes is limited, requests of routes over limit are
+ * recorded under route {@value #OTHER_ROUTE}.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class ServerMetrics {
+
+	/**
+	 * Maximum number of routes that get their own histogram.
+	 */
+	private static final int MAX_ROUTES = 256;
+	/**
+	 * Route under which requests of routes over limit are recorded.
+	 */
+	public static final String OTHER_ROUTE = "[other]";
+	
+	/**
+	 * Time when metrics were created, in milliseconds.
+	 */
+	private long startTime = System.currentTimeMillis();
+	/**
+	 * Number of accepted connections.
+	 */
+	private LongAdder connectionsAccepted = new LongAdder();
+	/**
+	 * Number of connections that were rejected because server was overloaded.
+	 */
+	private LongAdder connectionsRejected = new LongAdder();
+	/**
+	 * Number of currently open connections.
+	 */
+	private LongAdder connectionsOpen = new LongAdder();
+	/**
+	 * Number of requests that are currently being served.
+	 */
+	private LongAdder requestsActive = new LongAdder();
+	/**
+	 * Number of served requests.
+	 */
+	private LongAdder requests = new LongAdder();
+	/**
+	 * Number of sent bytes.
+	 */
+	private LongAdder bytesSent = new LongAdder();
+	/**
+	 * Number of requests that failed with exception.
+	 */
+	private LongAdder failures = new LongAdder();
+	/**
+	 * Number of error responses, mapped by status code.
+	 */
+	private Map<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+	/**
+	 * Latency histograms in microseconds, mapped by route.
+	 */
+	private Map<String, LatencyHistogram> routes = new ConcurrentHashMap<>();
+	/**
+	 * Histogram of time connections waited for worker thread, in microseconds.
+	 */
+	private LatencyHistogram queueWait = new LatencyHistogram();
+	/**
+	 * Supplier of number of jobs waiting for worker thread.
+	 */
+	private IntSupplier queueDepth = () -> 0;
+	/**
+	 * Supplier of number of active sessions.
+	 */
+	private IntSupplier sessionCount = () -> 0;
+	/**
+	 * Supplier of number of access log records dropped because log buffer was full.
+	 */
+	private LongSupplier accessLogDropped = () -> 0;
+	
+	/**
+	 * Sets supplier of number of jobs waiting for worker thread.
+	 * 
+	 * @param queueDepth	Supplier of queue depth.
+	 */
+	public void setQueueDepth(IntSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+	
+	/**
+	 * Sets supplier of number of active sessions.
+	 * 
+	 * @param sessionCount	Supplier of number of sessions.
+	 */
+	public void setSessionCount(IntSupplier sessionCount) {
+		this.sessionCount = sessionCount;
+	}
+	
+	/**
+	 * Sets supplier of number of dropped access log records.
+	 * 
+	 * @param accessLogDropped	Supplier of number of dropped records.
+	 */
+	public void setAccessLogDropped(LongSupplier accessLogDropped) {
+		this.accessLogDropped = accessLogDropped;
+	}
+	
+	/**
+	 * Records that connection was accepted.
+	 */
+	public void connectionOpened() {
+		connectionsAccepted.increment();
+		connectionsOpen.increment();
+	}
+	
+	/**
+	 * Records that connection was closed.
+	 */
+	public void connectionClosed() {
+		connectionsOpen.decrement();
+	}
+	
+	/**
+	 * Records that connection was rejected because server was overloaded.
+	 */
+	public void connectionRejected() {
+		connectionsRejected.increment();
+	}
+	
+	/**
+	 * Records time connection waited for worker thread.
+	 * 
+	 * @param nanos	Waiting time in nanoseconds.
+	 */
+	public void jobStarted(long nanos) {
+		queueWait.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+	
+	/**
+	 * Records that serving of request started.
+	 */
+	public void requestStarted() {
+		requestsActive.increment();
+	}
+	
+	/**
+	 * Records that request of given route was served.
+	 * 
+	 * @param route	Route that served request.
+	 * @param nanos	Time spent serving request in nanoseconds.
+	 * @param bytes	Number of bytes sent in response.
+	 */
+	public void requestFinished(String route, long nanos, long bytes) {
+		requestsActive.decrement();
+		requests.increment();
+		bytesSent.add(bytes);
+		
+		histogramOf(route).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+	
+	/**
+	 * Records that error response with given status code was sent.
+	 * 
+	 * @param statusCode	Status code of response.
+	 */
+	public void errorSent(int statusCode) {
+		errors.computeIfAbsent(statusCode, code -> new LongAdder()).increment();
+	}
+	
+	/**
+	 * Records that serving of request failed with exception.
+	 */
+	public void requestFailed() {
+		requestsActive.decrement();
+		failures.increment();
+	}
+	
+	/**
+	 * Returns latency histogram of given route.
+	 * 
+	 * @param route	Route name.
+	 * @return	histogram of route, or null if route has no recorded requests.
+	 */
+	public LatencyHistogram getHistogram(String route) {
+		return routes.get(route);
+	}
+	
+	/**
+	 * Returns histogram of time connections waited for worker thread.
+	 * 
+	 * @return	histogram of waiting time in microseconds.
+	 */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+	
+	/**
+	 * Returns number of rejected connections.
+	 * 
+	 * @return	number of rejected connections.
+	 */
+	public long getRejectedConnections() {
+		return connectionsRejected.sum();
+	}
+	
+	/**
+	 * Returns number of served requests.
+	 * 
+	 * @return	number of requests.
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+	
+	/**
+	 * Returns number of sent bytes.
+	 * 
+	 * @return	number of bytes.
+	 */
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+	
+	/**
+	 * Returns number of currently open connections.
+	 * 
+	 * @return	number of connections.
+	 */
+	public long getOpenConnections() {
+		return connectionsOpen.sum();
+	}
+	
+	/**
+	 * Returns report of metrics as plain text.
+	 * 
+	 * @return	text report.
+	 */
+	public String toText() {
+		StringBuilder sb = new StringBuilder();
+		
+		sb.append("uptime_seconds ").append((System.currentTimeMillis() - startTime) / 1000).append('\n');
+		sb.append("connections_accepted ").append(connectionsAccepted.sum()).append('\n');
+		sb.append("connections_open ").append(connectionsOpen.sum()).append('\n');
+		sb.append("connections_rejected ").append(connectionsRejected.sum()).append('\n');
+		sb.append("requests_active ").append(requestsActive.sum()).append('\n');
+		sb.append("requests_total ").append(requests.sum()).append('\n');
+		sb.append("requests_failed ").append(failures.sum()).append('\n');
+		sb.append("bytes_sent ").append(bytesSent.sum()).append('\n');
+		sb.append("queue_depth ").append(queueDepth.getAsInt()).append('\n');
+		sb.append("queue_wait_us_p50 ").append(queueWait.getPercentile(50)).append('\n');
+		sb.append("queue_wait_us_p99 ").append(queueWait.getPercentile(99)).append('\n');
+		sb.append("queue_wait_us_max ").append(queueWait.getMax()).append('\n');
+		sb.append("sessions ").append(sessionCount.getAsInt()).append('\n');
+		sb.append("access_log_dropped ").append(accessLogDropped.getAsLong()).append('\n');
+		
+		new TreeMap<>(errors).forEach((code, count) ->
+			sb.append("errors{status=\"").append(code).append("\"} ").append(count.sum()).append('\n'));
+		
+		new TreeMap<>(routes).forEach((route, h) -> {
+			String name = "{route=\"" + route + "\"}";
+			sb.append("latency_us_count").append(name).append(' ').append(h.getCount()).append('\n');
+			sb.append("latency_us_mean").append(name).append(' ').append(String.format(Locale.ROOT, "%.1f", h.getMean())).append('\n');
+			sb.append("latency_us_p50").append(name).append(' ').append(h.getPercentile(50)).append('\n');
+			sb.append("latency_us_p90").append(name).append(' ').append(h.getPercentile(90)).append('\n');
+			sb.append("latency_us_p99").append(name).append(' ').append(h.getPercentile(99)).append('\n');
+			sb.append("latency_us_max").append(name).append(' ').append(h.getMax()).append('\n');
+		});
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Returns report of metrics as JSON object.
+	 * 
+	 * @return	JSON report.
+	 */
+	public String toJson() {
+		StringBuilder sb = new StringBuilder("{");
+		
+		sb.append("\"uptimeSeconds\":").append((System.currentTimeMillis() - startTime) / 1000);
+		sb.append(",\"connectionsAccepted\":").append(connectionsAccepted.sum());
+		sb.append(",\"connectionsOpen\":").append(connectionsOpen.sum());
+		sb.append(",\"connectionsRejected\":").append(connectionsRejected.sum());
+		sb.append(",\"requestsActive\":").append(requestsActive.sum());
+		sb.append(",\"requestsTotal\":").append(requests.sum());
+		sb.append(",\"requestsFailed\":").append(failures.sum());
+		sb.append(",\"bytesSent\":").append(bytesSent.sum());
+		sb.append(",\"queueDepth\":").append(queueDepth.getAsInt());
+		sb.append(",\"queueWaitP50Us\":").append(queueWait.getPercentile(50));
+		sb.append(",\"queueWaitP99Us\":").append(queueWait.getPercentile(99));
+		sb.append(",\"queueWaitMaxUs\":").append(queueWait.getMax());
+		sb.append(",\"sessions\":").append(sessionCount.getAsInt());
+		sb.append(",\"accessLogDropped\":").append(accessLogDropped.getAsLong());
+		
+		sb.append(",\"errors\":{");
+		String separator = "";
+		for(Map.Entry<Integer, LongAdder> e : new TreeMap<>(errors).entrySet()) {
+			sb.append(separator).append('"').append(e.getKey()).append("\":").append(e.getValue().sum());
+			separator = ",";
+		}
+		
+		sb.append("},\"routes\":{");
+		separator = "";
+		for(Map.Entry<String, LatencyHistogram> e : new TreeMap<>(routes).entrySet()) {
+			LatencyHistogram h = e.getValue();
+			
+			sb.append(separator).append('"').append(escape(e.getKey())).append("\":{")
+				.append("\"count\":").append(h.getCount())
+				.append(",\"meanUs\":").append(String.format(Locale.ROOT, "%.1f", h.getMean()))
+				.append(",\"p50Us\":").append(h.getPercentile(50))
+				.append(",\"p90Us\":").append(h.getPercentile(90))
+				.append(",\"p99Us\":").append(h.getPercentile(99))
+				.append(",\"maxUs\":").append(h.getMax())
+				.append('}');
+			separator = ",";
+		}
+		
+		return sb.append("}}").toString();
+	}
+	
+	/**
+	 * Returns histogram of given route, creating it if needed.
+	 * If there are too many routes, histogram of other routes is returned.
+	 * 
+	 * @param route	Route name.
+	 * @return	histogram of route.
+	 */
+	private LatencyHistogram histogramOf(String route) {
+		LatencyHistogram histogram = routes.get(route);
+		if(histogram != null)	return histogram;
+		
+		if(routes.size() >= MAX_ROUTES) {
+			route = OTHER_ROUTE;
+		}
+		
+		return routes.computeIfAbsent(route, r -> new LatencyHistogram());
+	}
+	
+	/**
+	 * Escapes given text so it can be used as JSON string.
+	 * 
+	 * @param text	Text to escape.
+	 * @return	escaped text.
+	 */
+	private static String escape(String text) {
+		StringBuilder sb = new StringBuilder();
+		
+		for(char c : text.toCharArray()) {
+			if(c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if(c < 32) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		
+		return sb.toString();
+	}
+}
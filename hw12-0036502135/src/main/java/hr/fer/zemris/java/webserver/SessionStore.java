@@ -0,0 +1,213 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+
+/**
+ * Store of active sessions.
+ * Sessions are kept in concurrent map, so looking up, adding and renewing
+ * sessions doesn't lock whole store.
+ * Expired sessions are removed by deamon thread using hashed timer wheel.
+ * Wheel has fixed number of buckets, each covering one tick of time.
+ * Session is put in bucket of tick in which it expires. On each tick thread
+ * checks only sessions from current bucket, removes expired ones and moves
+ * sessions that were renewed in the meantime to bucket of their new expiration.
+ * Renewing session only changes its validUntil time, so it is done in constant time.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class SessionStore {
+
+	/**
+	 * Default duration of one tick in milliseconds.
+	 */
+	private static final long DEFAULT_TICK = 1000;
+	/**
+	 * Default number of buckets in wheel.
+	 */
+	private static final int DEFAULT_WHEEL_SIZE = 512;
+	
+	/**
+	 * Active sessions mapped by session id.
+	 */
+	private Map<String, SessionMapEntry> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Wheel buckets containing ids of sessions expiring in tick of bucket.
+	 */
+	private List<Set<String>> wheel;
+	/**
+	 * Duration of one tick in milliseconds.
+	 */
+	private long tickMillis;
+	/**
+	 * Last tick whose bucket was processed.
+	 */
+	private volatile long processedTick;
+	/**
+	 * Thread that processes buckets, or null if store isn't started.
+	 */
+	private Thread expiryThread;
+	
+	/**
+	 * Default constructor that creates store with wheel of 512 buckets, 1 second each.
+	 */
+	public SessionStore() {
+		this(DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+	}
+	
+	/**
+	 * Constructor that creates store with wheel of given number of buckets,
+	 * each covering given number of milliseconds.
+	 * 
+	 * @param tickMillis	Duration of one tick in milliseconds.
+	 * @param wheelSize	Number of buckets in wheel.
+	 * @throws IllegalArgumentException	if tick duration or wheel size isn't positive.
+	 */
+	public SessionStore(long tickMillis, int wheelSize) {
+		if(tickMillis < 1 || wheelSize < 1) {
+			throw new IllegalArgumentException("Tick duration and wheel size must be positive.");
+		}
+		
+		this.tickMillis = tickMillis;
+		this.wheel = new ArrayList<>(wheelSize);
+		for(int i = 0; i < wheelSize; i++) {
+			wheel.add(ConcurrentHashMap.newKeySet());
+		}
+		
+		processedTick = System.currentTimeMillis() / tickMillis;
+	}
+	
+	/**
+	 * Returns session with given id if it exists and isn't expired.
+	 * Expired session is removed.
+	 * 
+	 * @param sid	Session id.
+	 * @return	session with given id, or null if it doesn't exist or expired.
+	 */
+	public SessionMapEntry get(String sid) {
+		if(sid == null)	return null;
+		
+		SessionMapEntry entry = sessions.get(sid);
+		if(entry == null)	return null;
+		
+		if(entry.validUntil < System.currentTimeMillis() / 1000) {
+			sessions.remove(sid, entry);
+			return null;
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Adds given session to store and schedules its expiration.
+	 * 
+	 * @param entry	Session to add.
+	 * @throws NullPointerException	if null session is given.
+	 */
+	public void put(SessionMapEntry entry) {
+		Objects.requireNonNull(entry, "Session can't be null.");
+		
+		sessions.put(entry.sid, entry);
+		schedule(entry.sid, entry.validUntil);
+	}
+	
+	/**
+	 * Returns number of sessions in store.
+	 * 
+	 * @return	number of sessions.
+	 */
+	public int size() {
+		return sessions.size();
+	}
+	
+	/**
+	 * Starts deamon thread that removes expired sessions.
+	 * Does nothing if thread is already running.
+	 */
+	public synchronized void start() {
+		if(expiryThread != null)	return;
+		
+		expiryThread = new Thread(this::runWheel);
+		expiryThread.setDaemon(true);
+		expiryThread.start();
+	}
+	
+	/**
+	 * Stops thread that removes expired sessions.
+	 */
+	public synchronized void stop() {
+		if(expiryThread == null)	return;
+		
+		expiryThread.interrupt();
+		expiryThread = null;
+	}
+	
+	/**
+	 * Removes expired sessions whose expiration tick passed.
+	 * Called by expiry thread on each tick, but can be called directly.
+	 */
+	public synchronized void expire() {
+		long now = System.currentTimeMillis();
+		long currentTick = now / tickMillis;
+		
+		while(processedTick < currentTick) {
+			long tick = processedTick + 1;
+			Iterator<String> it = wheel.get((int) (tick % wheel.size())).iterator();
+			
+			while(it.hasNext()) {
+				String sid = it.next();
+				SessionMapEntry entry = sessions.get(sid);
+				if(entry == null) {
+					it.remove();
+					continue;
+				}
+				
+				long expiresTick = entry.validUntil * 1000 / tickMillis;
+				if(entry.validUntil < now / 1000) {
+					sessions.remove(sid, entry);
+					it.remove();
+				} else if(expiresTick % wheel.size() != tick % wheel.size()) {
+					it.remove();
+					schedule(sid, entry.validUntil);
+				}
+			}
+			
+			processedTick = tick;
+		}
+	}
+	
+	/**
+	 * Puts session id into bucket of tick in which session expires.
+	 * 
+	 * @param sid	Session id.
+	 * @param validUntil	Time in seconds until session is valid.
+	 */
+	private void schedule(String sid, long validUntil) {
+		long tick = Math.max(validUntil * 1000 / tickMillis, processedTick + 1);
+		wheel.get((int) (tick % wheel.size())).add(sid);
+	}
+	
+	/**
+	 * Method executed by expiry thread.
+	 * Processes wheel buckets until thread is interrupted.
+	 */
+	private void runWheel() {
+		while(!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(tickMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			expire();
+		}
+	}
+}
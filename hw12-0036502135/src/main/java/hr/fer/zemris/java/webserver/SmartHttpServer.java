@@ -4,29 +4,51 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
 import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import hr.fer.zemris.java.custom.scripting.exec.CompiledTemplate;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
-import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
 
 /**
@@ -35,7 +57,17 @@ import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
  * Uses 1 thread as server thread,
  * that accepts requests,creates job to do on clients request
  * and adds it into thread pool.
- * Used ExpiredRemover thread to remove expired sessions.
+ * If server.ioMode is set to nio, server thread accepts connections
+ * using non blocking channels and small number of selector threads
+ * read request headers, so thread pool is used only for dispatching.
+ * Client workers are run by fixed thread pool, or if server.executor is set
+ * to virtual, each on its own virtual thread.
+ * Supports persistent connections, each connection can serve
+ * limited number of requests and is closed if idle for too long.
+ * Number of connections waiting for worker and number of connections
+ * of one client are limited, connections over limits and connections that
+ * waited for worker too long are answered with 503 Service Unavailable.
+ * Sessions are kept in session store, which removes expired sessions.
  * Once used writes stop, server stops.
  * 
  * @author Martin Sršen
@@ -47,6 +79,31 @@ public class SmartHttpServer {
 	 * Package where worker classes are stored.
 	 */
 	private static final String WORKERS_PACKAGE = "hr.fer.zemris.java.webserver.workers";
+	/**
+	 * Value of server.ioMode property that turns on non blocking mode.
+	 */
+	private static final String NIO_MODE = "nio";
+	/**
+	 * Time in milliseconds after which connection that didn't send whole header is closed.
+	 */
+	private static final long HEADER_TIMEOUT = 30000;
+	/**
+	 * Version of WebSocket protocol server supports.
+	 */
+	private static final String WEBSOCKET_VERSION = "13";
+	/**
+	 * Size of buffer WebSocket frames are read into.
+	 */
+	private static final int WEBSOCKET_BUFFER_SIZE = 8192;
+	/**
+	 * Time in milliseconds between checks whether idle persistent connection
+	 * in blocking mode should give its thread to waiting connections.
+	 */
+	private static final int KEEP_ALIVE_CHECK_INTERVAL = 100;
+	/**
+	 * Maximum number of ranges in Range header, requests with more ranges get whole file.
+	 */
+	private static final int MAX_RANGES = 16;
 	
 	/**
 	 * Ip adress of the server.
@@ -64,6 +121,95 @@ public class SmartHttpServer {
 	 * Threads used to process client requests.
 	 */
 	private int workerThreads;
+	/**
+	 * Type of executor that runs client workers, fixed or virtual.
+	 */
+	private String executorType;
+	/**
+	 * Maximum number of client workers that virtual executor runs at once, 0 for no limit.
+	 */
+	private int maxConcurrency;
+	/**
+	 * Used input/output mode, blocking or nio.
+	 */
+	private String ioMode;
+	/**
+	 * Number of selector threads used in nio mode.
+	 */
+	private int selectorThreads;
+	/**
+	 * Number of threads that accept connections.
+	 * Worker threads and selector threads are split between them.
+	 */
+	private int acceptorThreads;
+	/**
+	 * Time in milliseconds that idle persistent connection is kept open.
+	 */
+	private int keepAliveTimeout;
+	/**
+	 * Maximum number of requests served over one connection.
+	 */
+	private int keepAliveMaxRequests;
+	/**
+	 * Time in milliseconds that idle WebSocket connection is kept open, 0 if there is no limit.
+	 */
+	private int webSocketIdleTimeout;
+	/**
+	 * Time in milliseconds after which server pings silent WebSocket connection, 0 if it doesn't ping.
+	 */
+	private int webSocketPingInterval;
+	/**
+	 * Maximum size of message client can send over WebSocket connection, in bytes.
+	 */
+	private int webSocketMaxMessageSize;
+	/**
+	 * Time in milliseconds request waits for asynchronous worker, 0 if there is no limit.
+	 */
+	private long asyncTimeout;
+	/**
+	 * Maximum size of request header in bytes.
+	 */
+	private int maxHeaderSize;
+	/**
+	 * Size of output buffer of each response in bytes.
+	 */
+	private int outputBufferSize;
+	/**
+	 * Whether responses are compressed for clients that accept it.
+	 */
+	private boolean compression;
+	/**
+	 * Mime types whose content is compressed.
+	 */
+	private Set<String> compressibleTypes = new HashSet<>();
+	/**
+	 * Minimal size in bytes of static file that is compressed.
+	 */
+	private long compressionMinSize;
+	/**
+	 * Maximal size in bytes of static file that is compressed.
+	 */
+	private long compressionMaxSize;
+	/**
+	 * Cache of compressed static files.
+	 */
+	private CompressedAssetCache compressedFiles;
+	/**
+	 * Cache of small static files.
+	 */
+	private StaticFileCache staticFiles;
+	/**
+	 * Minimal size in bytes of static file that is served from memory mapping, 0 if mapping is off.
+	 */
+	private long mmapThreshold;
+	/**
+	 * Cache of memory mapped large static files.
+	 */
+	private MappedFileCache mappedFiles;
+	/**
+	 * Cache of responses of cacheable workers.
+	 */
+	private ResponseCache responses;
 	/**
 	 * Session alive time.
 	 */
@@ -73,30 +219,72 @@ public class SmartHttpServer {
 	 */
 	private Map<String,String> mimeTypes = new HashMap<String, String>();
 	/**
-	 * Reference to server thread.
+	 * Threads that accept connections, null if server isn't running.
 	 */
-	private ServerThread serverThread;
+	private List<Thread> acceptors;
 	/**
-	 * Reference to thread pool that process client requests.
+	 * Server socket channels acceptors accept connections from.
+	 * There is one for each acceptor if SO_REUSEPORT is supported, else acceptors share one.
 	 */
-	private ExecutorService threadPool;
+	private List<ServerSocketChannel> listeners;
+	/**
+	 * Thread pools that process client requests, one for each acceptor.
+	 */
+	private ExecutorService[] threadPools;
 	/**
 	 * Path to root directory from which we serve files.
 	 */
 	private Path documentRoot;
+	/**
+	 * Cache of parsed smart scripts.
+	 */
+	private TemplateCache templateCache;
+	/**
+	 * Whether cached smart scripts are executed compiled instead of interpreted.
+	 */
+	private boolean compileTemplates;
+	/**
+	 * Registry that creates and holds worker instances.
+	 */
+	private WorkerRegistry workerRegistry = new WorkerRegistry(getClass().getClassLoader());
 	/**
 	 * map of urls to workers.
 	 */
 	private Map<String,IWebWorker> workersMap;
 	
 	/**
-	 * Map of currently active sessions.
+	 * Admission control of accepted connections.
+	 */
+	private AdmissionControl admission;
+	/**
+	 * Addresses of clients whose connections are forwarded by trusted proxy, mapped by connection from proxy.
+	 */
+	private Map<Socket, InetAddress> forwardedClients = new ConcurrentHashMap<>();
+	/**
+	 * Maximum time in milliseconds connection may wait for worker, 0 for no limit.
+	 */
+	private long maxQueueWait;
+	/**
+	 * Response sent to connections that server can't serve because it is overloaded.
+	 */
+	private byte[] unavailableResponse;
+	/**
+	 * Access log of served requests, or null if requests aren't logged.
+	 */
+	private AccessLog accessLog;
+	/**
+	 * Path under which metrics of server are available to loopback clients, empty if they aren't.
+	 */
+	private String statusPath;
+	/**
+	 * Metrics of server.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<String, SmartHttpServer.SessionMapEntry>();
+	private ServerMetrics metrics = new ServerMetrics();
+	
 	/**
-	 * Used to generate SID.
+	 * Map of currently active sessions.
 	 */
-	private Random sessionRandom = new Random();
+	private SessionStore sessions = new SessionStore();
 
 	/**
 	 * Variable that stops server thread.
@@ -138,14 +326,89 @@ public class SmartHttpServer {
 			domainName = prop.getProperty("server.domainName");
 			port = Integer.parseInt(prop.getProperty("server.port"));
 			workerThreads = Integer.parseInt(prop.getProperty("server.workerThreads"));
+			executorType = prop.getProperty("server.executor", WorkerExecutors.FIXED).trim().toLowerCase();
+			maxConcurrency = Integer.parseInt(prop.getProperty("server.executor.maxConcurrency", "10000").trim());
+			ioMode = prop.getProperty("server.ioMode", "blocking").trim().toLowerCase();
+			selectorThreads = Integer.parseInt(prop.getProperty("server.selectorThreads", "1").trim());
+			if(selectorThreads < 1) {
+				throw new IllegalArgumentException("Number of selector threads must be positive.");
+			}
+			acceptorThreads = Integer.parseInt(prop.getProperty("server.acceptorThreads", "1").trim());
+			if(acceptorThreads < 1) {
+				throw new IllegalArgumentException("Number of acceptor threads must be positive.");
+			}
+			keepAliveTimeout = Integer.parseInt(prop.getProperty("server.keepAlive.timeout", "5").trim()) * 1000;
+			keepAliveMaxRequests = Integer.parseInt(prop.getProperty("server.keepAlive.maxRequests", "100").trim());
+			webSocketIdleTimeout = Integer.parseInt(prop.getProperty("server.webSocket.idleTimeout", "300").trim()) * 1000;
+			webSocketPingInterval = Integer.parseInt(prop.getProperty("server.webSocket.pingInterval", "30").trim()) * 1000;
+			webSocketMaxMessageSize = Integer.parseInt(prop.getProperty("server.webSocket.maxMessageSize", "65536").trim());
+			asyncTimeout = Long.parseLong(prop.getProperty("server.async.timeout", "30").trim()) * 1000;
+			maxHeaderSize = Integer.parseInt(prop.getProperty("server.maxHeaderSize", "8192").trim());
+			Set<InetAddress> trustedProxies = new HashSet<>();
+			for(String proxy : prop.getProperty("server.admission.trustedProxies", "").split(",")) {
+				if(!proxy.trim().isEmpty()) {
+					trustedProxies.add(InetAddress.getByName(proxy.trim()));
+				}
+			}
+			admission = new AdmissionControl(
+					Integer.parseInt(prop.getProperty("server.admission.queueSize", "256").trim()),
+					Integer.parseInt(prop.getProperty("server.admission.maxConnectionsPerClient", "64").trim()),
+					trustedProxies);
+			maxQueueWait = Long.parseLong(prop.getProperty("server.admission.maxQueueWait", "2000").trim());
+			unavailableResponse = ("HTTP/1.1 503 Service Unavailable\r\n" +
+					"Server: Smart Http Server\r\n" +
+					"Retry-After: " + prop.getProperty("server.admission.retryAfter", "1").trim() + "\r\n" +
+					"Content-Length: 0\r\n" +
+					"Content-Type: text/plain;charset=UTF-8\r\n" +
+					"Connection: close\r\n" +
+					"\r\n").getBytes(StandardCharsets.US_ASCII);
+			outputBufferSize = Integer.parseInt(prop.getProperty("server.outputBufferSize", "8192").trim());
 			documentRoot = Paths.get(prop.getProperty("server.documentRoot"));
 			sessionTimeout = Integer.parseInt(prop.getProperty("session.timeout"));
+			int templateCacheSize = Integer.parseInt(prop.getProperty("server.templateCache.size", "64").trim());
+			templateCache = new TemplateCache(templateCacheSize,
+					Boolean.parseBoolean(prop.getProperty("server.templateCache.watch", "false").trim()));
+			compileTemplates = templateCacheSize > 0
+					&& Boolean.parseBoolean(prop.getProperty("server.templateCache.compile", "true").trim());
 			
 			Path mimeConfig = Paths.get(prop.getProperty("server.mimeConfig"));
 			getMimeTypes(mimeConfig);
 			
+			compression = Boolean.parseBoolean(prop.getProperty("server.compression", "true").trim());
+			getCompressibleTypes(prop.getProperty("server.compression.mimeTypes",
+					"application/javascript, application/json, image/svg+xml"));
+			compressionMinSize = Long.parseLong(prop.getProperty("server.compression.minSize", "256").trim());
+			compressionMaxSize = Long.parseLong(prop.getProperty("server.compression.maxSize", "1048576").trim());
+			compressedFiles = new CompressedAssetCache(
+					Long.parseLong(prop.getProperty("server.compression.cacheSize", "16").trim()) * 1024 * 1024);
+			staticFiles = new StaticFileCache(
+					Long.parseLong(prop.getProperty("server.staticCache.size", "32").trim()) * 1024 * 1024,
+					Long.parseLong(prop.getProperty("server.staticCache.maxFileSize", "65536").trim()),
+					Long.parseLong(prop.getProperty("server.staticCache.checkInterval", "1000").trim()));
+			mmapThreshold = Long.parseLong(prop.getProperty("server.mmap.threshold", "1048576").trim());
+			mappedFiles = new MappedFileCache(Integer.parseInt(prop.getProperty("server.mmap.cacheSize", "16").trim()));
+			responses = new ResponseCache(
+					Long.parseLong(prop.getProperty("server.responseCache.size", "8").trim()) * 1024 * 1024);
+			
+			String accessLogFile = prop.getProperty("server.accessLog", "").trim();
+			if(!accessLogFile.isEmpty()) {
+				accessLog = new AccessLog(Paths.get(accessLogFile),
+						Integer.parseInt(prop.getProperty("server.accessLog.bufferSize", "8192").trim()),
+						Long.parseLong(prop.getProperty("server.accessLog.maxSize", "10485760").trim()),
+						Long.parseLong(prop.getProperty("server.accessLog.rotateInterval", "24").trim()) * 3600 * 1000);
+			}
+			
 			Path workers = Paths.get(prop.getProperty("server.workers"));
 			addWorkers(workers);
+			
+			statusPath = prop.getProperty("server.status.path", "").trim();
+			if(!statusPath.isEmpty()) {
+				workersMap.put(statusPath, new StatusWorker(metrics));
+			}
+			
+			if(Boolean.parseBoolean(prop.getProperty("server.workers.preload", "true").trim())) {
+				workerRegistry.preload(WORKERS_PACKAGE);
+			}
 		} catch (IOException e) {
 			throw new RuntimeException("Error reading properties.");
 		} catch(Exception ex) {
@@ -176,10 +439,48 @@ public class SmartHttpServer {
 		}
 	}
 	
+	/**
+	 * Method that fills set of compressible mime types.
+	 * All text mime types from mime properties are compressible,
+	 * together with given additional types.
+	 * 
+	 * @param additional	Additional compressible mime types, separated by commas.
+	 */
+	private void getCompressibleTypes(String additional) {
+		for(String mimeType : mimeTypes.values()) {
+			if(mimeType.trim().toLowerCase().startsWith("text/")) {
+				compressibleTypes.add(mimeType.trim().toLowerCase());
+			}
+		}
+		
+		for(String mimeType : additional.split(",")) {
+			if(!mimeType.trim().isEmpty()) {
+				compressibleTypes.add(mimeType.trim().toLowerCase());
+			}
+		}
+	}
+	
+	/**
+	 * Checks whether content of given mime type should be compressed.
+	 * Parameters of mime type, such as charset, are ignored.
+	 * 
+	 * @param mimeType	Mime type to check.
+	 * @return	true if content should be compressed, false otherwise.
+	 */
+	private boolean isCompressible(String mimeType) {
+		if(mimeType == null)	return false;
+		
+		int paramsStart = mimeType.indexOf(';');
+		String type = paramsStart < 0 ? mimeType : mimeType.substring(0, paramsStart);
+		
+		return compressibleTypes.contains(type.trim().toLowerCase());
+	}
+	
 	/**
 	 * Method that loads workers and worker urls
 	 * from given path
 	 * and saves them into map of workers.
+	 * Workers are obtained from worker registry.
 	 * 
 	 * @param workers	Path to file where worker properties are provided.
 	 * @throws IOException	if error happens reading files.
@@ -199,7 +500,7 @@ public class SmartHttpServer {
 					throw new RuntimeException("Multiple lines with same path loading workers.");
 				}
 				
-				IWebWorker worker = getWorkerClass(fqcn);
+				IWebWorker worker = workerRegistry.get(fqcn);
 				if(worker == null)	continue;
 				
 				workersMap.put(path, worker);
@@ -208,290 +509,1356 @@ public class SmartHttpServer {
 	}
 	
 	/**
-	 * Method that loads class from given class path,
-	 * returns it if it exists, or null if not.
+	 * Method that starts acceptor threads.
+	 * Each acceptor gets its own share of worker threads.
 	 * 
-	 * @param fqcn	Given class path.
-	 * @return	Class loaded from given class path, or null if doesn't exist.
-	 */
-	private IWebWorker getWorkerClass(String fqcn) {
-		try {
-			Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-
-			@SuppressWarnings("deprecation")
-			Object newObject = referenceToClass.newInstance();
-
-			IWebWorker iww = (IWebWorker) newObject;
-			return iww;
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | IllegalArgumentException e) {
-			return null;
-		}
-	}
-
-	/**
-	 * Method that starts server thread.
+	 * @throws RuntimeException	if error happens creating socket.
 	 */
 	protected synchronized void start() {
-		if(serverThread != null)	return;
+		if(acceptors != null)	return;
 		
 		stopRequest = false;
-		serverThread = new ServerThread();
-		ExpiredRemover remover = new ExpiredRemover();
+		try {
+			listeners = openListeners(acceptorThreads);
+			if(ioMode.equals(NIO_MODE)) {
+				for(ServerSocketChannel listener : listeners) {
+					listener.configureBlocking(false);
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error creating socket: " + e.getMessage(), e);
+		}
 		
-		threadPool = Executors.newFixedThreadPool(workerThreads, job -> {
-			Thread thr = new Thread(job);
-			thr.setDaemon(true);
-			return thr;
-		});
+		threadPools = new ExecutorService[acceptorThreads];
+		acceptors = new ArrayList<>();
+		for(int i = 0; i < acceptorThreads; i++) {
+			threadPools[i] = WorkerExecutors.create(executorType, shareOf(workerThreads, i),
+					maxConcurrency == 0 ? 0 : shareOf(maxConcurrency, i));
+			
+			ServerSocketChannel listener = listeners.get(i % listeners.size());
+			acceptors.add(ioMode.equals(NIO_MODE) ? new NioServerThread(i, listener) : new ServerThread(i, listener));
+		}
+		if(executorType.equals(WorkerExecutors.VIRTUAL) && !WorkerExecutors.isVirtualSupported()) {
+			System.out.println("Virtual threads not supported, using fixed pool of " + workerThreads + " threads.");
+		}
+		
+		metrics.setQueueDepth(() -> Arrays.stream(threadPools).mapToInt(WorkerExecutors::queueDepth).sum());
+		metrics.setSessionCount(sessions::size);
+		if(accessLog != null) {
+			metrics.setAccessLogDropped(accessLog::getDropped);
+			try {
+				accessLog.start();
+			} catch(IOException ex) {
+				System.out.println("Access log can't be opened, requests won't be logged.");
+				accessLog = null;
+			}
+		}
 		
-		serverThread.start();
-		remover.start();
+		acceptors.forEach(Thread::start);
+		sessions.start();
 		
 		System.out.println("Server started...");
 	}
 
 	/**
-	 * Method that terminates server thread.
+	 * Method that terminates acceptor threads.
+	 * Listening sockets are closed, so acceptors blocked in accept wake up.
 	 */
 	protected synchronized void stop() {
-		if(serverThread == null)	return;
+		if(acceptors == null)	return;
 		
 		stopRequest = true;
-		serverThread = null;
-		threadPool.shutdown();
+		acceptors = null;
+		for(ServerSocketChannel listener : listeners) {
+			try {
+				listener.close();
+			} catch (IOException ignorable) {}
+		}
+		for(ExecutorService threadPool : threadPools) {
+			threadPool.shutdown();
+		}
+		sessions.stop();
+		if(accessLog != null) {
+			accessLog.stop();
+		}
 		
 		System.out.println("Server stopped...");
 	}
+	
+	/**
+	 * Opens given number of server socket channels bound to address and port of server.
+	 * If more than one is needed, each channel is bound with SO_REUSEPORT, so
+	 * operating system spreads connections between them. If platform doesn't support it,
+	 * one channel is opened and shared.
+	 * SO_REUSEPORT would also let these channels share port with another instance
+	 * of server that is already running, so port is first bound without it and
+	 * released. If port is taken, binding fails as it would with one acceptor.
+	 * Another instance that binds port in the short time between probe and
+	 * bind of first channel isn't detected.
+	 * 
+	 * @param count	Number of needed channels.
+	 * @return	opened channels.
+	 * @throws IOException	if error happens opening or binding channel, or port is already in use.
+	 */
+	private List<ServerSocketChannel> openListeners(int count) throws IOException {
+		List<ServerSocketChannel> channels = new ArrayList<>();
+		
+		if(count > 1) {
+			int boundPort;
+			try(ServerSocketChannel probe = ServerSocketChannel.open()) {
+				probe.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				probe.bind(new InetSocketAddress(address, port));
+				boundPort = probe.socket().getLocalPort();
+			}
+			
+			try {
+				for(int i = 0; i < count; i++) {
+					ServerSocketChannel channel = ServerSocketChannel.open();
+					channels.add(channel);
+					channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+					channel.bind(new InetSocketAddress(address, boundPort));
+				}
+				return channels;
+			} catch(UnsupportedOperationException | IOException ex) {
+				for(ServerSocketChannel channel : channels) {
+					channel.close();
+				}
+				channels.clear();
+				System.out.println("SO_REUSEPORT not available, acceptors share one socket.");
+			}
+		}
+		
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.bind(new InetSocketAddress(address, port));
+		} catch(IOException ex) {
+			channel.close();
+			throw ex;
+		}
+		channels.add(channel);
+		
+		return channels;
+	}
+	
+	/**
+	 * Returns share of given number of threads that belongs to acceptor with given index.
+	 * Threads are split as evenly as possible and each acceptor gets at least one.
+	 * 
+	 * @param total	Total number of threads.
+	 * @param index	Index of acceptor.
+	 * @return	number of threads of acceptor.
+	 */
+	private int shareOf(int total, int index) {
+		return Math.max(1, total / acceptorThreads + (index < total % acceptorThreads ? 1 : 0));
+	}
 
 	/**
-	 * Class that extends from thread.
-	 * Represents thread that each 5 minutes
-	 * checks if SessionMapEntry in sessions map expired,
-	 * if yes, removes it from sessions map.
+	 * Admits accepted connection if its client has less than maximum number
+	 * of open connections, else answers it with 503 and closes it.
+	 * Nagle's algorithm is turned off on admitted connection, since header and
+	 * body of response are complete when written and shouldn't wait for acknowledgement.
+	 * 
+	 * @param client	Accepted connection.
+	 * @return	true if connection was admitted, false if it was closed.
+	 */
+	private boolean admitConnection(Socket client) {
+		metrics.connectionOpened();
+		try {
+			client.setTcpNoDelay(true);
+		} catch(SocketException ignorable) {}
+		
+		if(admission.acquireConnection(client.getInetAddress()))	return true;
+		
+		rejectConnection(client, false);
+		return false;
+	}
+	
+	/**
+	 * Answers given connection with 503 Service Unavailable and closes it.
+	 * Response is small, so writing it to fresh connection doesn't block.
+	 * 
+	 * @param client	Connection to reject.
+	 * @param admitted	Whether connection was admitted and must be released.
+	 */
+	private void rejectConnection(Socket client, boolean admitted) {
+		metrics.connectionRejected();
+		metrics.errorSent(503);
+		
+		try {
+			if(client.getChannel() != null) {
+				client.getChannel().write(ByteBuffer.wrap(unavailableResponse));
+			} else {
+				client.getOutputStream().write(unavailableResponse);
+			}
+			client.shutdownOutput();
+		} catch(IOException ignorable) {}
+		
+		try {
+			client.close();
+		} catch(IOException ignorable) {}
+		
+		connectionClosed(admitted ? client.getInetAddress() : null);
+	}
+	
+	/**
+	 * Closes admitted connection and records that it was closed.
+	 * Selector thread and client worker can close same connection at the same time,
+	 * so closing is recorded only by thread that actually closed it.
+	 * 
+	 * @param client	Admitted connection.
+	 */
+	private void closeConnection(Socket client) {
+		InetAddress address;
+		synchronized(client) {
+			if(client.isClosed())	return;
+			
+			address = client.getInetAddress();
+			try {
+				client.close();
+			} catch(IOException ignorable) {}
+		}
+		
+		forwardedClients.remove(client);
+		connectionClosed(address);
+	}
+	
+	/**
+	 * Returns address in last entry of given X-Forwarded-For header value.
+	 * Entry must be IP address literal, host names aren't resolved.
+	 * 
+	 * @param header	Value of X-Forwarded-For header, or null.
+	 * @param fallback	Address returned if header has no valid address.
+	 * @return	forwarded address, or fallback.
+	 */
+	private static InetAddress parseForwarded(String header, InetAddress fallback) {
+		if(header == null)	return fallback;
+		
+		String last = header.substring(header.lastIndexOf(',') + 1).trim();
+		if(last.isEmpty() || !last.matches("[0-9a-fA-F.:]+"))	return fallback;
+		
+		try {
+			return InetAddress.getByName(last);
+		} catch(UnknownHostException ex) {
+			return fallback;
+		}
+	}
+	
+	/**
+	 * Records that connection of given client was closed.
+	 * 
+	 * @param client	Address of client, or null if connection wasn't admitted.
+	 */
+	private void connectionClosed(InetAddress client) {
+		metrics.connectionClosed();
+		admission.releaseConnection(client);
+	}
+	
+	/**
+	 * Class representing server thread.
+	 * Accepts connections from its server socket channel in loop,
+	 * until channel is closed when server stops.
+	 * Server socket is opened through channel, so accepted sockets have
+	 * channels that files can be transferred to.
+	 * Creates client worker and submits it into thread pool of this acceptor.
 	 */
-	protected class ExpiredRemover extends Thread {
+	protected class ServerThread extends Thread {
 		
 		/**
-		 * Interval that determines when to check expired sessions.
+		 * Thread pool client workers are submitted to.
+		 */
+		private ExecutorService threadPool;
+		/**
+		 * Channel connections are accepted from.
 		 */
-		private static final int CHECK_INTERVAL = 300000;
+		private ServerSocketChannel channel;
 		
 		/**
-		 * Default constructor that sets this thread to be deamon thread.
+		 * Constructor that creates acceptor with given index.
+		 * 
+		 * @param index	Index of acceptor.
+		 * @param channel	Channel connections are accepted from.
 		 */
-		public ExpiredRemover() {
-			setDaemon(true);
+		public ServerThread(int index, ServerSocketChannel channel) {
+			super("acceptor-" + index);
+			this.threadPool = threadPools[index];
+			this.channel = channel;
 		}
 		
 		/**
 		 * Method called when thread starts.
+		 * 
+		 * @throws RuntimeException	if error happens accepting connection.
 		 */
 		@Override
 		public void run() {
-			while (true) {
-				try {
-					Thread.sleep(CHECK_INTERVAL);
-
-					synchronized(sessions) {
-						Map<String, SessionMapEntry> copy = new HashMap<>(sessions);
-						
-						copy.forEach((key, value) -> {
-							if (value.validUntil < System.currentTimeMillis() / 1000) {
-								sessions.remove(key);
-							}
-						});
+			try {
+				while(!stopRequest) {
+					Socket toClient = channel.accept().socket();
+					if(!admitConnection(toClient))	continue;
+					if(!admission.enqueue()) {
+						rejectConnection(toClient, true);
+						continue;
 					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+				
+					ClientWorker cw = new ClientWorker(toClient, threadPool);
+					threadPool.submit(cw);
 				}
+			} catch(ClosedChannelException ex) {
+			} catch (IOException e) {
+				throw new RuntimeException("Error accepting connection.");
 			}
 		}
 	}
 	
 	/**
-	 * Class representing server thread.
-	 * Creates server socket, binds it to address and port
-	 * and awaits client requests in loop, until stopRequest is sent.
-	 * Creates client worker and submits it into thread pool.
+	 * Class representing server thread used in nio mode.
+	 * Accepts connections from non blocking server socket channel
+	 * using selector. Accepted connections are distributed between
+	 * selector threads of this acceptor which read request headers without blocking.
+	 * Once whole header is read, connection is switched to blocking mode
+	 * and client worker is submitted into thread pool of this acceptor.
 	 */
-	protected class ServerThread extends Thread {
+	protected class NioServerThread extends Thread {
+		
+		/**
+		 * Thread pool client workers are submitted to.
+		 */
+		private ExecutorService threadPool;
+		/**
+		 * Channel connections are accepted from.
+		 */
+		private ServerSocketChannel channel;
+		/**
+		 * Number of selector threads of this acceptor.
+		 */
+		private int readerCount;
+		
+		/**
+		 * Constructor that creates acceptor with given index.
+		 * 
+		 * @param index	Index of acceptor.
+		 * @param channel	Non blocking channel connections are accepted from.
+		 */
+		public NioServerThread(int index, ServerSocketChannel channel) {
+			super("acceptor-" + index);
+			this.threadPool = threadPools[index];
+			this.channel = channel;
+			this.readerCount = shareOf(selectorThreads, index);
+		}
 		
 		/**
 		 * Method called when thread starts.
 		 * 
-		 * @throws RuntimeException	if error happens creating socket.
+		 * @throws RuntimeException	if error happens creating selector.
 		 */
 		@Override
 		public void run() {
-			try(ServerSocket socket = new ServerSocket()) {
-				socket.bind(new InetSocketAddress(address, port));
-				socket.setSoTimeout(500);
+			SelectorThread[] readers = new SelectorThread[readerCount];
+			
+			try(Selector selector = Selector.open()) {
+				channel.register(selector, SelectionKey.OP_ACCEPT);
+				
+				for(int i = 0; i < readers.length; i++) {
+					readers[i] = new SelectorThread(threadPool);
+					readers[i].start();
+				}
 				
+				int next = 0;
 				while(!stopRequest) {
-					try {
-						Socket toClient = socket.accept();
-						ClientWorker cw = new ClientWorker(toClient);
-						threadPool.submit(cw);
-					} catch(SocketTimeoutException ex) {}
+					selector.select(500);
+					selector.selectedKeys().clear();
+					
+					SocketChannel client;
+					while((client = channel.accept()) != null) {
+						if(!admitConnection(client.socket()))	continue;
+						client.configureBlocking(false);
+						readers[next].addConnection(client);
+						next = (next + 1) % readers.length;
+					}
 				}
+			} catch(ClosedChannelException ex) {
 			} catch (IOException e) {
-				throw new RuntimeException("Error creating socket.");
+				throw new RuntimeException("Error accepting connection.");
 			}
 		}
 	}
 	
 	/**
-	 * Class representing session map entry.
-	 * It is contained of session id, host, validUntil and map.
-	 */
-	protected static class SessionMapEntry {
-		String sid;
-		String host;
-		long validUntil;
-		Map<String, String> map;
-	}
-
-	/**
-	 * Class that represents job that will be executed on clients request to server.
-	 * Each ClientWorker takes socket connection between server and client.
+	 * Class representing selector thread used in nio mode.
+	 * Reads request headers of assigned connections without blocking.
+	 * When header is complete, gives connection to client worker
+	 * that is executed in thread pool.
+	 * Connections that exceed maximum header size are also given to
+	 * client worker, which answers with error.
+	 * Connections that don't send header in time are closed.
 	 */
-	protected class ClientWorker implements Runnable, IDispatcher {
+	protected class SelectorThread extends Thread {
+		
 		/**
-		 * Represents connection between client and server.
+		 * Selector used to wait for readable connections.
 		 */
-		private Socket csocket;
+		private Selector selector;
 		/**
-		 * Input stream from client.
+		 * Thread pool client workers are submitted to.
 		 */
-		private PushbackInputStream istream;
+		private ExecutorService threadPool;
 		/**
-		 * Output stream to client.
+		 * Constructor that opens selector and sets this thread to be deamon thread.
+		 * 
+		 * @param threadPool	Thread pool client workers are submitted to.
+		 * @throws IOException	if selector can't be opened.
 		 */
-		private OutputStream ostream;
+		public SelectorThread(ExecutorService threadPool) throws IOException {
+			this.threadPool = threadPool;
+			selector = Selector.open();
+			setDaemon(true);
+		}
+		
+		/**
+		 * Connections waiting to be registered with selector, mapped to their attachment,
+		 * header buffer or WebSocket connection.
+		 */
+		private Queue<Map.Entry<SocketChannel, Object>> pending = new ConcurrentLinkedQueue<>();
+		/**
+		 * Buffer WebSocket frames are read into.
+		 */
+		private ByteBuffer frames = ByteBuffer.allocate(WEBSOCKET_BUFFER_SIZE);
+		
+		/**
+		 * Adds new non blocking connection whose header should be read.
+		 * 
+		 * @param client	Accepted connection.
+		 */
+		public void addConnection(SocketChannel client) {
+			addConnection(client, HEADER_TIMEOUT);
+		}
+		
+		/**
+		 * Adds persistent connection whose response was written back to selector,
+		 * so idle connection doesn't occupy thread from thread pool.
+		 * Switches connection to non blocking mode.
+		 * 
+		 * @param client	Persistent connection.
+		 * @throws IOException	if connection mode can't be changed.
+		 */
+		public void resumeConnection(SocketChannel client) throws IOException {
+			client.configureBlocking(false);
+			addConnection(client, keepAliveTimeout);
+		}
+		
+		/**
+		 * Adds non blocking connection that may wait for header given amount of time.
+		 * 
+		 * @param client	Connection to add.
+		 * @param timeout	Time in milliseconds connection may wait for header.
+		 */
+		private void addConnection(SocketChannel client, long timeout) {
+			pending.add(new AbstractMap.SimpleEntry<>(client, new HeaderBuffer(timeout, maxHeaderSize)));
+			selector.wakeup();
+		}
+		
+		/**
+		 * Adds WebSocket connection whose frames should be read.
+		 * Switches connection to non blocking mode.
+		 * 
+		 * @param client	Connection upgraded to WebSocket.
+		 * @param socket	WebSocket connection that gets read frames.
+		 * @throws IOException	if connection mode can't be changed.
+		 */
+		public void addWebSocket(SocketChannel client, WebSocket socket) throws IOException {
+			client.configureBlocking(false);
+			pending.add(new AbstractMap.SimpleEntry<>(client, socket));
+			selector.wakeup();
+		}
+		
+		/**
+		 * Method called when thread starts.
+		 */
+		@Override
+		public void run() {
+			try {
+				while(!stopRequest) {
+					selector.select(500);
+					registerPending();
+					
+					List<SelectionKey> completed = new ArrayList<>();
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while(it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						
+						if(key.isValid() && key.attachment() instanceof WebSocket) {
+							if(key.isWritable()) {
+								writeFrames(key);
+							}
+							if(key.isValid() && key.isReadable()) {
+								readFrames(key);
+							}
+						} else if(key.isValid() && key.isReadable() && readHeader(key)) {
+							key.cancel();
+							completed.add(key);
+						}
+					}
+					
+					if(!completed.isEmpty()) {
+						selector.selectNow();
+						completed.forEach(this::dispatch);
+					}
+					
+					closeExpired();
+				}
+			} catch(IOException ex) {
+				ex.printStackTrace();
+			} finally {
+				selector.keys().forEach(this::closeKey);
+				try {
+					selector.close();
+				} catch (IOException ignorable) {}
+			}
+		}
+		
+		/**
+		 * Registers connections added since last selection.
+		 */
+		private void registerPending() {
+			Map.Entry<SocketChannel, Object> entry;
+			while((entry = pending.poll()) != null) {
+				try {
+					SelectionKey key = entry.getKey().register(selector, SelectionKey.OP_READ, entry.getValue());
+					if(entry.getValue() instanceof WebSocket) {
+						((WebSocket) entry.getValue()).register(key);
+					}
+				} catch (IOException ex) {
+					if(entry.getValue() instanceof WebSocket) {
+						((WebSocket) entry.getValue()).terminate();
+					}
+					closeChannel(entry.getKey());
+				}
+			}
+		}
+		
+		/**
+		 * Reads available bytes from connection of given key.
+		 * Returns true if whole header was read, or if buffer is full.
+		 * If connection was closed, closes it.
+		 * 
+		 * @param key	Key of readable connection.
+		 * @return	true if connection should be given to client worker, false otherwise.
+		 */
+		private boolean readHeader(SelectionKey key) {
+			SocketChannel client = (SocketChannel) key.channel();
+			HeaderBuffer header = (HeaderBuffer) key.attachment();
+			
+			try {
+				int r = client.read(header.buffer);
+				if(r < 0) {
+					closeChannel(client);
+					return false;
+				}
+				
+				header.lastRead = System.currentTimeMillis();
+				return !header.buffer.hasRemaining() || header.isComplete();
+			} catch(IOException ex) {
+				closeChannel(client);
+				return false;
+			}
+		}
+		
+		/**
+		 * Reads available bytes from WebSocket connection of given key
+		 * and gives them to its WebSocket. Closes connection if it was
+		 * closed by client, and if WebSocket stops accepting frames closes it
+		 * once its queued frames are written.
+		 * 
+		 * @param key	Key of readable WebSocket connection.
+		 */
+		private void readFrames(SelectionKey key) {
+			SocketChannel client = (SocketChannel) key.channel();
+			WebSocket socket = (WebSocket) key.attachment();
+			
+			try {
+				frames.clear();
+				int r = client.read(frames);
+				frames.flip();
+				if(r < 0) {
+					closeKey(key);
+				} else if(!socket.receive(frames) && socket.stopReading()) {
+					closeKey(key);
+				}
+			} catch(IOException ex) {
+				closeKey(key);
+			}
+		}
+		
+		/**
+		 * Writes queued frames of WebSocket connection of given key without blocking.
+		 * Closes connection if error happens, or if frames are no longer read
+		 * and all queued frames are written.
+		 * 
+		 * @param key	Key of writable WebSocket connection.
+		 */
+		private void writeFrames(SelectionKey key) {
+			WebSocket socket = (WebSocket) key.attachment();
+			
+			try {
+				if(socket.flush() && !socket.isReading()) {
+					closeKey(key);
+				}
+			} catch(IOException ex) {
+				closeKey(key);
+			}
+		}
+		
+		/**
+		 * Switches connection of given key to blocking mode
+		 * and submits client worker into thread pool.
+		 * 
+		 * @param key	Key of connection whose header was read.
+		 */
+		private void dispatch(SelectionKey key) {
+			SocketChannel client = (SocketChannel) key.channel();
+			HeaderBuffer header = (HeaderBuffer) key.attachment();
+			
+			try {
+				client.configureBlocking(true);
+				if(!admission.enqueue()) {
+					rejectConnection(client.socket(), true);
+					return;
+				}
+				
+				threadPool.submit(new ClientWorker(client.socket(), header.getBytes(), this, threadPool));
+			} catch(Exception ex) {
+				closeChannel(client);
+			}
+		}
+		
+		/**
+		 * Closes connections that didn't send whole header in time,
+		 * WebSocket connections that were idle for too long and closing
+		 * WebSocket connections whose client doesn't read last frames.
+		 * Pings WebSocket connections that were silent for ping interval.
+		 */
+		private void closeExpired() {
+			long now = System.currentTimeMillis();
+			
+			for(SelectionKey key : selector.keys()) {
+				if(!key.isValid())	continue;
+				
+				if(key.attachment() instanceof WebSocket) {
+					WebSocket socket = (WebSocket) key.attachment();
+					long idle = now - socket.getLastRead();
+					
+					if(!socket.isReading() ? idle > WebSocket.WRITE_TIMEOUT : webSocketIdleTimeout > 0 && idle > webSocketIdleTimeout) {
+						closeKey(key);
+					} else if(socket.isReading() && isPingDue(socket, now)) {
+						try {
+							socket.ping();
+						} catch(IOException ex) {
+							closeKey(key);
+						}
+					}
+					continue;
+				}
+				
+				HeaderBuffer header = (HeaderBuffer) key.attachment();
+				if(now - header.lastRead > header.timeout) {
+					closeChannel(key.channel());
+				}
+			}
+		}
+		
+		/**
+		 * Checks whether given WebSocket connection should be pinged, which is when
+		 * nothing was read from it and no ping was sent to it for ping interval.
+		 * 
+		 * @param socket	WebSocket connection to check.
+		 * @param now	Current time in milliseconds.
+		 * @return	true if connection should be pinged, false otherwise.
+		 */
+		private boolean isPingDue(WebSocket socket, long now) {
+			return webSocketPingInterval > 0 && now - Math.max(socket.getLastRead(), socket.getLastPing()) >= webSocketPingInterval;
+		}
+		
+		/**
+		 * Closes connection of given key.
+		 * If it is WebSocket connection, its WebSocket is terminated.
+		 * 
+		 * @param key	Key of connection to close.
+		 */
+		private void closeKey(SelectionKey key) {
+			if(key.attachment() instanceof WebSocket) {
+				((WebSocket) key.attachment()).terminate();
+			}
+			
+			closeChannel(key.channel());
+		}
+		
+		/**
+		 * Closes given channel ignoring errors.
+		 * 
+		 * @param channel	Channel to close.
+		 */
+		private void closeChannel(Channel channel) {
+			closeConnection(((SocketChannel) channel).socket());
+		}
+	}
+	
+	/**
+	 * Class that stores bytes of request header read by selector thread.
+	 */
+	private static class HeaderBuffer {
+		/**
+		 * Buffer with read bytes.
+		 */
+		private ByteBuffer buffer;
+		/**
+		 * Time of last read.
+		 */
+		private long lastRead = System.currentTimeMillis();
+		/**
+		 * Time in milliseconds connection may wait for header.
+		 */
+		private long timeout;
+		
+		/**
+		 * Constructor that takes time connection may wait for header
+		 * and maximum size of header.
+		 * 
+		 * @param timeout	Time in milliseconds connection may wait for header.
+		 * @param size	Maximum size of header in bytes.
+		 */
+		private HeaderBuffer(long timeout, int size) {
+			this.timeout = timeout;
+			this.buffer = ByteBuffer.allocate(size);
+		}
+		
+		/**
+		 * Checks whether buffer contains empty line that ends header.
+		 * 
+		 * @return	true if whole header is read, false otherwise.
+		 */
+		private boolean isComplete() {
+			return HttpRequestParser.findHeaderEnd(buffer.array(), 0, buffer.position()) >= 0;
+		}
+		
+		/**
+		 * Returns copy of read bytes.
+		 * 
+		 * @return	read bytes.
+		 */
+		private byte[] getBytes() {
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+	}
+	
+	/**
+	 * Class representing session map entry.
+	 * It is contained of session id, host, validUntil and map.
+	 */
+	protected static class SessionMapEntry {
+		String sid;
+		String host;
+		volatile long validUntil;
+		Map<String, String> map;
+	}
+
+	/**
+	 * Class that represents job that will be executed on clients request to server.
+	 * Each ClientWorker takes socket connection between server and client.
+	 */
+	protected class ClientWorker implements Runnable, IDispatcher {
+		/**
+		 * Represents connection between client and server.
+		 */
+		private Socket csocket;
+		/**
+		 * Input stream from client.
+		 */
+		private InputStream istream;
+		/**
+		 * Parser of request headers read from input stream.
+		 */
+		private HttpRequestParser parser;
+		/**
+		 * Output stream to client.
+		 */
+		private OutputStream ostream;
+		/**
+		 * Http version.
+		 */
+		private String version;
+		/**
+		 * Sent method
+		 */
+		private String method;
+		/**
+		 * Host name.
+		 */
+		private String host;
+		/**
+		 * Map of parameters.
+		 */
+		private Map<String, String> params = new HashMap<String, String>();
+		/**
+		 * Map of temporary parameters.
+		 */
+		private Map<String, String> tempParams = new HashMap<String, String>();
+		/**
+		 * Map of persistent parametes.
+		 */
+		private Map<String, String> permPrams = new HashMap<String, String>();
+		/**
+		 * List of output cookies.
+		 */
+		private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+		/**
+		 * Session ID.
+		 */
+		private String SID;
+		
+		/**
+		 * RequestContext used for client.
+		 */
+		private RequestContext context;
+		/**
+		 * Bytes already read from client before worker was started.
+		 */
+		private byte[] prefetched;
+		/**
+		 * Selector thread that waits for next request on persistent connection, null in blocking mode.
+		 */
+		private SelectorThread owner;
+		/**
+		 * Whether connection should be kept alive after current response.
+		 */
+		private boolean keepAlive;
+		/**
+		 * Content encoding accepted by client for current request, or null.
+		 */
+		private String acceptedEncoding;
+		/**
+		 * Whether error response was sent for current request.
+		 */
+		private boolean errorSent;
+		/**
+		 * Route that served current request, used for metrics.
+		 */
+		private String route;
+		/**
+		 * Number of bytes of responses written directly to output stream for current request, such as error responses.
+		 */
+		private long directBytes;
+		/**
+		 * Status code of response written directly to output stream for current request.
+		 */
+		private int directStatus;
+		/**
+		 * WebSocket connection opened by current request, or null.
+		 */
+		private WebSocket webSocket;
+		/**
+		 * Thread pool this worker runs in, request waiting for asynchronous worker is finished in it.
+		 */
+		private ExecutorService threadPool;
+		/**
+		 * Ordinal number of current request on this connection.
+		 */
+		private int served = 1;
+		/**
+		 * First line of current request.
+		 */
+		private String requestLine;
+		/**
+		 * Time in milliseconds when current request started.
+		 */
+		private long startTime;
+		/**
+		 * Time in nanoseconds when current request started, used for metrics.
+		 */
+		private long startNanos;
+		/**
+		 * Whether current request was dispatched by other resource, so it can't wait for asynchronous worker.
+		 */
+		private boolean dispatched;
+		/**
+		 * Stage of asynchronous worker current request waits for, or null.
+		 */
+		private CompletionStage<?> pending;
+		/**
+		 * Address of client that sent current request.
+		 */
+		private InetAddress clientAddress;
+		/**
+		 * Time in nanoseconds when connection was put into queue.
+		 */
+		private long queuedAt = System.nanoTime();
+
+		/**
+		 * Constructor that takes socket representing connection between client and server.
+		 * 
+		 * @param csocket	Connection between client and server.
+		 * @param threadPool	Thread pool worker is submitted to.
+		 */
+		public ClientWorker(Socket csocket, ExecutorService threadPool) {
+			this(csocket, new byte[0], null, threadPool);
+		}
+		
+		/**
+		 * Constructor that takes socket representing connection between client and server,
+		 * bytes of request that were already read from that connection and
+		 * selector thread that read them.
+		 * 
+		 * @param csocket	Connection between client and server.
+		 * @param prefetched	Bytes already read from connection.
+		 * @param owner	Selector thread that read header, null in blocking mode.
+		 * @param threadPool	Thread pool worker is submitted to.
+		 */
+		public ClientWorker(Socket csocket, byte[] prefetched, SelectorThread owner, ExecutorService threadPool) {
+			this.csocket = csocket;
+			this.prefetched = prefetched;
+			this.owner = owner;
+			this.threadPool = threadPool;
+		}
+
+		/**
+		 * Method called when thread starts.
+		 * 
+		 * @throws RuntimeException	if error happens serving client.
+		 */
+		@Override
+		public void run() {
+			long queueWait = System.nanoTime() - queuedAt;
+			admission.dequeue();
+			metrics.jobStarted(queueWait);
+			
+			boolean detached = false;
+			try {
+				ostream = csocket.getOutputStream();
+				if(maxQueueWait > 0 && queueWait > TimeUnit.MILLISECONDS.toNanos(maxQueueWait)) {
+					sendUnavailable();
+					return;
+				}
+				
+				istream = csocket.getInputStream();
+				parser = new HttpRequestParser(maxHeaderSize);
+				parser.feed(prefetched);
+				csocket.setSoTimeout(keepAliveTimeout);
+				
+				detached = serveRequests(serveRequest());
+			}catch(SocketTimeoutException ex) {
+			}catch(Exception ex) {
+				throw new RuntimeException("Error serving client.");
+			}finally {
+				if(!detached) {
+					closeSocket();
+				}
+			}
+		}
+		
+		/**
+		 * Method called in thread pool when asynchronous worker
+		 * current request waited for is done.
+		 * Finishes response and continues serving connection.
+		 * If worker failed or timed out, request is answered by failRequest
+		 * and connection is closed.
+		 * 
+		 * @param error	Exception worker failed with, or null if it succeeded.
+		 * @throws RuntimeException	if error happens serving client.
+		 */
+		private void resume(Throwable error) {
+			boolean detached = false;
+			try {
+				if(error != null) {
+					metrics.requestFailed();
+					failRequest(error);
+					return;
+				}
+				
+				detached = serveRequests(finishRequest());
+			}catch(SocketTimeoutException ex) {
+			}catch(Exception ex) {
+				throw new RuntimeException("Error serving client.");
+			}finally {
+				if(!detached) {
+					closeSocket();
+				}
+			}
+		}
+		
+		/**
+		 * Method that serves requests from connection until it should be closed.
+		 * Stops earlier if connection is given back to selector thread or if
+		 * request waits for asynchronous worker, in which case connection stays open.
+		 * 
+		 * @param keepOpen	Whether connection should be kept alive after request that was just served.
+		 * @return	true if connection is left open for selector thread or asynchronous worker, false if it should be closed.
+		 * @throws Exception	if error happens serving request.
+		 */
+		private boolean serveRequests(boolean keepOpen) throws Exception {
+			while(true) {
+				if(pending != null) {
+					suspend();
+					return true;
+				}
+				if(webSocket != null)	return serveWebSocket();
+				if(!keepOpen)	return false;
+				
+				resetRequest();
+				served++;
+				
+				if(owner != null && !parser.hasBuffered() && istream.available() == 0) {
+					owner.resumeConnection(csocket.getChannel());
+					return true;
+				}
+				if(owner == null && !parser.hasBuffered() && !awaitRequest())	return false;
+				
+				keepOpen = serveRequest();
+			}
+		}
+		
+		/**
+		 * Method that waits in blocking mode for next request of persistent connection.
+		 * Idle connection holds thread of thread pool, so it is closed as soon as
+		 * other connections wait for thread, which then don't wait for keep alive timeout
+		 * and aren't rejected because server looks overloaded. First byte of request
+		 * is given to parser.
+		 * 
+		 * @return	true if request started, false if connection should be closed.
+		 * @throws IOException	if error happens reading from connection.
+		 */
+		private boolean awaitRequest() throws IOException {
+			if(istream.available() > 0)	return true;
+			
+			long deadline = System.currentTimeMillis() + keepAliveTimeout;
+			csocket.setSoTimeout(KEEP_ALIVE_CHECK_INTERVAL);
+			try {
+				while(true) {
+					try {
+						int b = istream.read();
+						if(b < 0)	return false;
+						
+						parser.feed(new byte[] {(byte) b});
+						return true;
+					} catch(SocketTimeoutException ex) {
+						if(WorkerExecutors.queueDepth(threadPool) > 0)	return false;
+						if(keepAliveTimeout > 0 && System.currentTimeMillis() >= deadline)	return false;
+					}
+				}
+			} finally {
+				csocket.setSoTimeout(keepAliveTimeout);
+			}
+		}
+		
 		/**
-		 * Http version.
+		 * Method that serves WebSocket connection opened by current request.
+		 * In nio mode connection is given to selector thread that reads frames without blocking.
+		 * In blocking mode frames are read by new daemon thread until connection is closed,
+		 * so WebSocket connections don't hold threads of thread pool.
+		 * 
+		 * @return	true if connection was given to other thread, false if it should be closed.
+		 * @throws IOException	if error happens reading from connection.
 		 */
-		private String version;
+		private boolean serveWebSocket() throws IOException {
+			WebSocket socket = webSocket;
+			webSocket = null;
+			
+			socket.open();
+			if(!socket.receive(ByteBuffer.wrap(parser.getBuffered()))) {
+				socket.terminate();
+				return false;
+			}
+			
+			if(owner != null) {
+				owner.addWebSocket(csocket.getChannel(), socket);
+				return true;
+			}
+			
+			Thread reader = new Thread(() -> readFrames(socket), "websocket-reader");
+			reader.setDaemon(true);
+			reader.start();
+			return true;
+		}
+		
 		/**
-		 * Sent method
+		 * Method executed by thread that reads frames of WebSocket connection in blocking mode.
+		 * Reads until connection is closed, WebSocket stops accepting frames or connection
+		 * is idle for too long, and pings client when it is silent for ping interval.
+		 * Closes connection at the end.
+		 * 
+		 * @param socket	WebSocket connection that gets read frames.
 		 */
-		private String method;
+		private void readFrames(WebSocket socket) {
+			try {
+				boolean pings = webSocketPingInterval > 0 && (webSocketIdleTimeout == 0 || webSocketPingInterval < webSocketIdleTimeout);
+				csocket.setSoTimeout(pings ? webSocketPingInterval : webSocketIdleTimeout);
+				byte[] data = new byte[WEBSOCKET_BUFFER_SIZE];
+				boolean open = true;
+				while(open) {
+					int read;
+					try {
+						read = istream.read(data);
+					} catch(SocketTimeoutException ex) {
+						long now = System.currentTimeMillis();
+						if(webSocketIdleTimeout > 0 && now - socket.getLastRead() >= webSocketIdleTimeout)	break;
+						
+						if(webSocketPingInterval > 0 && now - Math.max(socket.getLastRead(), socket.getLastPing()) >= webSocketPingInterval) {
+							socket.ping();
+						}
+						continue;
+					}
+					if(read < 0)	break;
+					open = socket.receive(ByteBuffer.wrap(data, 0, read));
+				}
+			} catch(IOException ignorable) {
+			} finally {
+				socket.terminate();
+				closeSocket();
+			}
+		}
+		
 		/**
-		 * Host name.
+		 * Method that releases thread while current request waits for asynchronous worker.
+		 * Once worker is done, request is finished in thread pool of this worker.
+		 * If worker isn't done within timeout, request is finished as failed
+		 * with TimeoutException.
 		 */
-		private String host;
+		private void suspend() {
+			CompletionStage<?> stage = pending;
+			pending = null;
+			
+			CompletableFuture<Object> done = new CompletableFuture<>();
+			stage.whenComplete((result, error) -> {
+				if(error == null) {
+					done.complete(result);
+				} else {
+					done.completeExceptionally(error);
+				}
+			});
+			if(asyncTimeout > 0) {
+				done.orTimeout(asyncTimeout, TimeUnit.MILLISECONDS);
+			}
+			
+			done.whenComplete((result, error) -> {
+				try {
+					threadPool.submit(() -> resume(error));
+				} catch(RejectedExecutionException ex) {
+					closeSocket();
+				}
+			});
+		}
+		
 		/**
-		 * Map of parameters.
+		 * Method that answers request whose asynchronous worker failed or timed out.
+		 * If header of response wasn't sent yet, sends 504 Gateway Timeout if worker
+		 * timed out, else 500 Internal Server Error. Request is recorded in access log
+		 * either way. Connection is closed afterwards, since worker could have left
+		 * response unfinished, and worker that timed out can still write into it.
+		 * 
+		 * @param error	Exception worker failed with.
+		 * @throws IOException	if error happens sending response.
 		 */
-		private Map<String, String> params = new HashMap<String, String>();
+		private void failRequest(Throwable error) throws IOException {
+			keepAlive = false;
+			try {
+				if(context == null || !context.isHeaderSent()) {
+					if(error instanceof TimeoutException) {
+						sendError(504, "Gateway Timeout");
+					} else {
+						sendError(500, "Internal Server Error");
+					}
+				}
+			} finally {
+				logAccess(System.nanoTime() - startNanos);
+			}
+		}
+		
 		/**
-		 * Map of temporary parameters.
+		 * Method that reads and serves one request from connection.
+		 * Returns whether connection should be kept alive
+		 * so next request can be read from it.
+		 * If request waits for asynchronous worker, it is finished later.
+		 * 
+		 * @return	true if connection should be kept alive, false otherwise.
+		 * @throws Exception	if error happens serving request.
 		 */
-		private Map<String, String> tempParams = new HashMap<String, String>();
+		private boolean serveRequest() throws Exception {
+			HttpRequestParser.Status status = parser.next(istream);
+			if(status == HttpRequestParser.Status.CLOSED)	return false;
+			if(status == HttpRequestParser.Status.TOO_LARGE) {
+				sendError(431, "Request Header Fields Too Large");
+				return false;
+			}
+			
+			clientAddress = findClientAddress();
+			requestLine = parser.getRequestLine();
+			if(requestLine.isEmpty()) {
+				sendError(400, "Bad request");
+				return false;
+			}
+			
+			String[] firstLine = requestLine.split(" ");
+			if(!isValidFirstLine(firstLine))	return false;
+
+			metrics.requestStarted();
+			startTime = System.currentTimeMillis();
+			startNanos = System.nanoTime();
+			try {
+				serveValidRequest(firstLine);
+			} catch(Exception ex) {
+				metrics.requestFailed();
+				throw ex;
+			}
+			
+			return pending == null ? finishRequest() : true;
+		}
+		
 		/**
-		 * Map of persistent parametes.
+		 * Method that finds address of client that sent request which was just read.
+		 * Connection from trusted proxy carries client address in last entry of
+		 * X-Forwarded-For header of its first request. Proxy adds header only to
+		 * first request and copies later ones unchanged, so address is taken
+		 * from first request and kept until connection is closed.
+		 * If first request has no valid address, address of proxy is used.
+		 * 
+		 * @return	address of client.
 		 */
-		private Map<String, String> permPrams = new HashMap<String, String>();
+		private InetAddress findClientAddress() {
+			InetAddress address = csocket.getInetAddress();
+			if(!admission.isTrustedProxy(address))	return address;
+			
+			InetAddress forwarded = forwardedClients.computeIfAbsent(csocket,
+					socket -> parseForwarded(parser.getHeader("X-Forwarded-For"), address));
+			if(csocket.isClosed()) {
+				forwardedClients.remove(csocket);
+			}
+			
+			return forwarded;
+		}
+		
 		/**
-		 * List of output cookies.
+		 * Method that finishes response of current request and records it.
+		 * 
+		 * @return	true if connection should be kept alive, false otherwise.
+		 * @throws Exception	if error happens writing response.
 		 */
-		private List<RCCookie> outputCookies = new ArrayList<RequestContext.RCCookie>();
+		private boolean finishRequest() throws Exception {
+			try {
+				if(!errorSent && webSocket == null) {
+					context.finish();
+				}
+				ostream.flush();
+			} catch(Exception ex) {
+				metrics.requestFailed();
+				throw ex;
+			}
+			
+			long duration = System.nanoTime() - startNanos;
+			metrics.requestFinished(route == null ? "[error]" : route, duration, getBytesSent());
+			logAccess(duration);
+			
+			return keepAlive && (errorSent || context.isKeepAlive());
+		}
+		
 		/**
-		 * Session ID.
+		 * Method that returns number of bytes sent in response to current request.
+		 * 
+		 * @return	number of sent bytes.
 		 */
-		private String SID;
+		private long getBytesSent() {
+			return directBytes + (context == null ? 0 : context.getBytesSent());
+		}
 		
 		/**
-		 * RequestContext used for client.
+		 * Method that records current request in access log, if there is one.
+		 * 
+		 * @param duration	Time spent serving request in nanoseconds.
 		 */
-		private RequestContext context;
-
+		private void logAccess(long duration) {
+			if(accessLog == null)	return;
+			
+			int statusCode = errorSent || webSocket != null || context == null ? directStatus : context.getStatusCode();
+			accessLog.log(new AccessLog.Record(clientAddress.getHostAddress(), startTime,
+					requestLine, statusCode, getBytesSent(), parser.getHeader("Referer"), parser.getHeader("User-Agent"),
+					duration / 1000));
+		}
+		
 		/**
-		 * Constructor that takes socket representing connection between client and server.
+		 * Method that serves request whose first line is valid.
 		 * 
-		 * @param csocket	Connection between client and server.
+		 * Response is finished by caller.
+		 * 
+		 * @param firstLine	Parts of request first line.
+		 * @throws Exception	if error happens serving request.
 		 */
-		public ClientWorker(Socket csocket) {
-			this.csocket = csocket;
+		private void serveValidRequest(String[] firstLine) throws Exception {
+			keepAlive = isKeepAliveRequested() && served < keepAliveMaxRequests;
+			acceptedEncoding = compression ? ContentEncoding.negotiate(parser.getHeader("Accept-Encoding")) : null;
+			setHost();
+			checkSession();
+			
+			String[] pathAndParams = firstLine[1].split("\\?");
+			if(pathAndParams.length > 1) {
+				parseParameters(pathAndParams[1]);
+			}
+			
+			internalDispatchRequest(pathAndParams[0], true);
 		}
-
+		
 		/**
-		 * Method called when thread starts.
+		 * Method that checks whether client wants to keep connection alive.
+		 * HTTP/1.1 connections are persistent unless Connection: close is sent,
+		 * HTTP/1.0 connections only if Connection: keep-alive is sent.
 		 * 
-		 * @throws RuntimeException	if error happens serving client.
+		 * @return	true if client wants persistent connection, false otherwise.
 		 */
-		@Override
-		public void run() {
-			try {
-				istream = new PushbackInputStream(csocket.getInputStream());
-				ostream = csocket.getOutputStream();
-
-				List<String> request = readRequest();
-				if(request.size() == 0) {
-					sendError(400, "Bad request");
-					return;
-				}
-				
-				String[] firstLine = request.isEmpty() ? null : request.get(0).split(" ");
-				if(!isValidFirstLine(firstLine))	return;
-	
-				setHost(request);
-				checkSession(request);
-				
-				String[] pathAndParams = firstLine[1].split("\\?");
-				if(pathAndParams.length > 1) {
-					parseParameters(pathAndParams[1]);
-				}
-				
-				internalDispatchRequest(pathAndParams[0], true);
-			}catch(Exception ex) {
-				throw new RuntimeException("Error serving client.");
-			}finally {
-				closeSocket();
+		private boolean isKeepAliveRequested() {
+			String value = parser.getHeader("Connection");
+			if(value != null) {
+				value = value.toLowerCase();
+				if(value.contains("close"))	return false;
+				if(value.contains("keep-alive"))	return true;
 			}
+			
+			return version.equals("HTTP/1.1");
+		}
+		
+		/**
+		 * Method that clears state of previous request, so
+		 * next request on same connection can be served.
+		 */
+		private void resetRequest() {
+			params = new HashMap<>();
+			tempParams = new HashMap<>();
+			permPrams = new HashMap<>();
+			outputCookies = new ArrayList<>();
+			context = null;
+			SID = null;
+			keepAlive = false;
+			acceptedEncoding = null;
+			route = null;
+			directBytes = 0;
+			directStatus = 0;
+			errorSent = false;
+			dispatched = false;
 		}
 		
 		/**
 		 * Method that closes connection between client and server.
 		 */
 		private void closeSocket() {
-			while(!csocket.isClosed()) {
-				try {
-					csocket.close();
-				}catch(IOException ex) {}
-			}
+			closeConnection(csocket);
 		}
 		
 		/**
-		 * Method that reads user request
-		 * and returns list of user request lines.
+		 * Method that sets route of current request, unless it was already
+		 * set by route that dispatched request further.
 		 * 
-		 * @return	List of user request lines.
-		 * @throws IOException	if error happens reading header string.
+		 * @param name	Route name.
 		 */
-		private List<String> readRequest() throws IOException {
-			List<String> headers = new ArrayList<String>();
-			String currentLine = null;
-			
-			for(String s : getHeaderString().split("\n")) {
-				if(s.isEmpty()) break;
-				char c = s.charAt(0);
-				
-				if(c==9 || c==32) {
-					currentLine += s;
-				} else {
-					if(currentLine != null) {
-						headers.add(currentLine);
-					}
-					currentLine = s;
-				}
+		private void setRoute(String name) {
+			if(route == null) {
+				route = name;
 			}
-			
-			if(!currentLine.isEmpty()) {
-				headers.add(currentLine);
-			}
-			
-			return headers;
 		}
 		
 		/**
@@ -503,55 +1870,34 @@ public class SmartHttpServer {
 		 * @throws IOException	If error happens writing to outputStream.
 		 */
 		private void sendError(int statusCode, String statusText) throws IOException {
-			ostream.write(
-				("HTTP/1.1 "+statusCode+" "+statusText+"\r\n"+
+			byte[] response = ("HTTP/1.1 "+statusCode+" "+statusText+"\r\n"+
 				"Server: Smart Http Server\r\n"+
 				"Content-Length: 0\r\n"+
 				"Content-Type: text/plain;charset=UTF-8\r\n"+
-				"Connection: close\r\n"+
-				"\r\n").getBytes(StandardCharsets.US_ASCII)
-			);
+				"Connection: "+(keepAlive ? "keep-alive" : "close")+"\r\n"+
+				"\r\n").getBytes(StandardCharsets.US_ASCII);
+			
+			ostream.write(response);
+			errorSent = true;
+			directBytes += response.length;
+			directStatus = statusCode;
+			metrics.errorSent(statusCode);
 			
 			ostream.flush();
 		}
 		
 		/**
-		 * Helper method that returns request header as string.
+		 * Method that answers connection that waited for worker too long
+		 * with 503 Service Unavailable, since its client probably gave up already.
 		 * 
-		 * @return	Request header as string.
-		 * @throws IOException	if error happens writing to outputstream.
+		 * @throws IOException	if error happens sending response.
 		 */
-		private String getHeaderString() throws IOException {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int state = 0;
-			
-	l:		while(true) {
-				int b = istream.read();
-				if(b==-1) return null;
-				if(b!=13) {
-					bos.write(b);
-				}
-				
-				switch(state) {
-				case 0: 
-					if(b==13) { state=1; } else if(b==10) state=4;
-					break;
-				case 1: 
-					if(b==10) { state=2; } else state=0;
-					break;
-				case 2: 
-					if(b==13) { state=3; } else state=0;
-					break;
-				case 3: 
-					if(b==10) { break l; } else state=0;
-					break;
-				case 4: 
-					if(b==10) { break l; } else state=0;
-					break;
-				}
-			}
+		private void sendUnavailable() throws IOException {
+			ostream.write(unavailableResponse);
+			ostream.flush();
 			
-			return new String(bos.toByteArray(), StandardCharsets.ISO_8859_1);
+			metrics.connectionRejected();
+			metrics.errorSent(503);
 		}
 		
 		/**
@@ -585,24 +1931,15 @@ public class SmartHttpServer {
 		}
 		
 		/**
-		 * Method that takes list of request rows,
-		 * and if contains line HOST:, sets host to
-		 * given host ,else sets it to domainName.
-		 * 
-		 * @param request	List of request lines.
+		 * Method that sets host to value of Host header
+		 * without port, or to domainName if request
+		 * has no Host header.
 		 */
-		private void setHost(List<String> request) {
-			boolean hostSet = false;
-			
-			for(String line: request) {
-				if(line.toUpperCase().startsWith("HOST")) {
-					hostSet = true;
-					host = line.split(" ")[1].trim().split(":")[0].trim();
-					break;
-				}
-			}
+		private void setHost() {
+			String value = parser.getHeader("Host");
+			host = value == null ? "" : value.split(":")[0].trim();
 			
-			if(!hostSet) {
+			if(host.isEmpty()) {
 				host = domainName;
 			}
 		}
@@ -613,58 +1950,19 @@ public class SmartHttpServer {
 		 * If request containes cookie with name sid,
 		 * gets SessionMapEntry and check if it is valid,
 		 * if yes,updates valid time, else creates new session map entry.
-		 * 
-		 * @param request	List of request lines.
-		 */
-		private void checkSession(List<String> request) {
-			String sidCandidate = getSidCandidate(request);
-			
-			synchronized(sessions) {
-				SessionMapEntry entry = sessions.get(sidCandidate);
-
-				if (sidCandidate == null || !sessions.containsKey(sidCandidate)) {
-					entry = generateSessionMapEntry();
-				} else if (!entry.host.equals(host)) {
-					entry = generateSessionMapEntry();
-				} else if (entry.validUntil < System.currentTimeMillis() / 1000) {
-					sessions.remove(sidCandidate);
-					entry = generateSessionMapEntry();
-				} else {
-					SID = entry.sid;
-					entry.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
-				}
-
-				permPrams = entry.map;
-			}
-		}
-		
-		/**
-		 * Method that looks for cookie with name sid.
-		 * If it is contained returns its value,
-		 * else returns null;
-		 * 
-		 * @param request	List of request lines.
-		 * @return	String representing sid values from given cookie in request.
 		 */
-		private String getSidCandidate(List<String> request) {
-			String sidCandidate = null;
+		private void checkSession() {
+			String sidCandidate = parser.getCookie("sid");
+			SessionMapEntry entry = sessions.get(sidCandidate);
 			
-			for(String line : request) {
-				if(!line.startsWith("Cookie:"))	continue;
-				line = line.replaceFirst("Cookie:", "").trim();
-				
-				String[] cookies = line.split(";");
-				for(String cookie : cookies) {
-					String pts[] = cookie.split("=");
-					if(pts.length < 2)	continue;
-					
-					if(pts[0].trim().equals("sid")) {
-						sidCandidate = pts[1];
-					}
-				}
+			if (entry == null || !entry.host.equals(host)) {
+				entry = generateSessionMapEntry();
+			} else {
+				SID = entry.sid;
+				entry.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
 			}
-			
-			return sidCandidate == null ? sidCandidate : sidCandidate.replaceAll("\"", "");
+
+			permPrams = entry.map;
 		}
 		
 		/**
@@ -684,9 +1982,7 @@ public class SmartHttpServer {
 				entry.validUntil = System.currentTimeMillis() / 1000 + sessionTimeout;
 				entry.map = new ConcurrentHashMap<>();
 
-				synchronized(sessions) {
-					sessions.put(SID, entry);
-				}
+				sessions.put(entry);
 				outputCookies.add(new RCCookie("sid", SID, null, host, "/", true));
 
 				return entry;
@@ -696,6 +1992,7 @@ public class SmartHttpServer {
 		 * Method that generates new random session ID.
 		 * It is contained of 20 randomly generated
 		 * upper-case characters.
+		 * Uses random generator of current thread, so threads don't share it.
 		 * 
 		 * @return	new generated session ID.
 		 */
@@ -705,10 +2002,9 @@ public class SmartHttpServer {
 			int firstLetter = 'A';
 			int lastLetter = 'Z';
 			
-			synchronized(sessionRandom) {
-				for (int i = 0; i < 20; i++) {
-					sid[i] = (char) (sessionRandom.nextInt(lastLetter - firstLetter + 1) + firstLetter);
-				}
+			Random random = ThreadLocalRandom.current();
+			for (int i = 0; i < 20; i++) {
+				sid[i] = (char) (random.nextInt(lastLetter - firstLetter + 1) + firstLetter);
 			}
 			
 			return new String(sid);
@@ -741,6 +2037,7 @@ public class SmartHttpServer {
 		 */
 		@Override
 		public void dispatchRequest(String urlPath) throws Exception {
+			dispatched = true;
 			internalDispatchRequest(urlPath, false);
 		}
 		
@@ -757,6 +2054,14 @@ public class SmartHttpServer {
 		public void internalDispatchRequest(String urlPath, boolean directCall)	throws Exception {
 			if(context == null) {
 				context = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this);
+				context.setKeepAlive(keepAlive);
+				context.setOutputChannel(csocket.getChannel());
+				context.setBufferSize(outputBufferSize);
+				context.setChunkingAllowed(version.equals("HTTP/1.1"));
+				context.setRequestHeaders(parser::getHeader);
+				if(compression) {
+					context.setCompression(acceptedEncoding, SmartHttpServer.this::isCompressible);
+				}
 			}
 			
 			if(inWorkersMap(urlPath))	return;
@@ -783,16 +2088,23 @@ public class SmartHttpServer {
 		 * @throws Exception	if error happens writing to output stream.
 		 */
 		private boolean inWorkersMap(String urlPath) throws Exception {
-			if(!workersMap.containsKey(urlPath))	return false;
+			IWebWorker worker = workersMap.get(urlPath);
+			if(worker == null)	return false;
 			
-			workersMap.get(urlPath).processRequest(context);
+			setRoute(urlPath);
+			if(worker instanceof StatusWorker && !clientAddress.isLoopbackAddress()) {
+				sendError(403, "Forbidden");
+				return true;
+			}
+			
+			processWorkerRequest(worker);
 			return true;
 		}
 		
 		/**
 		 * Checks whether given urlPath
 		 * represents direct path to workers.
-		 * If it is, gets worker and processes request,
+		 * If it is, gets worker from worker registry and processes request,
 		 * returns true,
 		 * else returns false.
 		 * 
@@ -808,17 +2120,128 @@ public class SmartHttpServer {
 			String className = path.getFileName().toString();
 			String fqcn = WORKERS_PACKAGE + "." + className;
 			
-			IWebWorker iww = getWorkerClass(fqcn);
+			IWebWorker iww = workerRegistry.get(fqcn);
 			if(iww == null)	{
 				sendError(404, "File Not Found");
 				return true;
 			}
 			
-			iww.processRequest(context);
+			setRoute(urlPath);
+			processWorkerRequest(iww);
 			
 			return true;
 		}
 		
+		/**
+		 * Lets given worker process request.
+		 * Response of cacheable worker is taken from response cache if it is there,
+		 * else worker renders it into separate context so it can be cached.
+		 * Asynchronous worker called directly by client is only started, if it
+		 * isn't done right away request waits for it without holding thread.
+		 * WebSocket worker called directly by client that asks for upgrade gets WebSocket connection.
+		 * 
+		 * @param worker	Worker that processes request.
+		 * @throws Exception	if error happens processing request.
+		 */
+		private void processWorkerRequest(IWebWorker worker) throws Exception {
+			if(worker instanceof IWebSocketWorker && !dispatched && isUpgradeRequested()) {
+				upgrade((IWebSocketWorker) worker);
+				return;
+			}
+			if(worker instanceof IAsyncWebWorker && !dispatched) {
+				CompletionStage<?> stage = ((IAsyncWebWorker) worker).processRequestAsync(context);
+				CompletableFuture<?> future = stage.toCompletableFuture();
+				if(!future.isDone()) {
+					pending = stage;
+				} else {
+					future.get();
+				}
+				return;
+			}
+			
+			String key = worker instanceof ICacheableWebWorker ? ((ICacheableWebWorker) worker).getCacheKey(context) : null;
+			if(key == null) {
+				worker.processRequest(context);
+				return;
+			}
+			
+			ResponseCache.Entry response = responses.get(worker.getClass().getName() + ":" + key,
+					((ICacheableWebWorker) worker).getCacheTTL(), () -> renderResponse(worker));
+			response.writeTo(context);
+		}
+		
+		/**
+		 * Checks whether client asks to upgrade connection to WebSocket.
+		 * 
+		 * @return	true if request has Upgrade: websocket and Connection: Upgrade headers.
+		 */
+		private boolean isUpgradeRequested() {
+			String upgrade = parser.getHeader("Upgrade");
+			String connection = parser.getHeader("Connection");
+			
+			return upgrade != null && upgrade.toLowerCase().contains("websocket")
+					&& connection != null && connection.toLowerCase().contains("upgrade");
+		}
+		
+		/**
+		 * Completes WebSocket opening handshake with given worker.
+		 * Client that uses unsupported protocol version gets 426 Upgrade Required
+		 * with supported version. Once 101 Switching Protocols is sent,
+		 * connection is served as WebSocket connection after request is recorded.
+		 * 
+		 * @param worker	Worker that gets connection.
+		 * @throws IOException	if error happens sending response.
+		 */
+		private void upgrade(IWebSocketWorker worker) throws IOException {
+			String key = parser.getHeader("Sec-WebSocket-Key");
+			if(key == null || key.isEmpty()) {
+				sendError(400, "Bad request");
+				return;
+			}
+			if(!WEBSOCKET_VERSION.equals(parser.getHeader("Sec-WebSocket-Version"))) {
+				context.setStatusCode(426);
+				context.setStatusText("Upgrade Required");
+				context.setHeader("Sec-WebSocket-Version", WEBSOCKET_VERSION);
+				return;
+			}
+			
+			HeaderEncoder header = HeaderEncoder.get()
+					.status(101, "Switching Protocols")
+					.header("Upgrade", "websocket")
+					.header("Connection", "Upgrade")
+					.header("Sec-WebSocket-Accept", WebSocketCodec.acceptKey(key));
+			outputCookies.forEach(header::cookie);
+			header.end();
+			
+			ostream.write(header.array(), 0, header.length());
+			ostream.flush();
+			directBytes += header.length();
+			directStatus = 101;
+			
+			webSocket = new WebSocket(csocket.getChannel(), worker, owner == null ? Runnable::run : threadPool,
+					webSocketMaxMessageSize, params, permPrams);
+		}
+		
+		/**
+		 * Lets given worker render response into separate context.
+		 * Context has parameters of current request, but no request headers,
+		 * so conditional headers are checked when response is written to client.
+		 * 
+		 * @param worker	Worker that renders response.
+		 * @return	rendered response.
+		 * @throws Exception	if error happens processing request.
+		 */
+		private ResponseCache.Entry renderResponse(IWebWorker worker) throws Exception {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			List<RCCookie> cookies = new ArrayList<>();
+			RequestContext rendering = new RequestContext(output, params, permPrams, cookies, tempParams, null);
+			
+			worker.processRequest(rendering);
+			rendering.finish();
+			
+			return new ResponseCache.Entry(rendering, output.toByteArray(), cookies);
+		}
+		
 		/**
 		 * Checks whether given urlPath
 		 * represents path to private files.
@@ -876,7 +2299,9 @@ public class SmartHttpServer {
 		 * Checks whether given urlPath
 		 * represents path to .smscr file.
 		 * If it is, executes file and returns true,
-		 * else returns false.
+		 * parsed file is taken from template cache,
+		 * else returns false. File is executed compiled
+		 * if compiling is on and file can be compiled.
 		 * 
 		 * @param filePath	file path of file user wants to get.	
 		 * @return	true if given path is path to .smscr file, false otherwise.
@@ -886,11 +2311,17 @@ public class SmartHttpServer {
 			if(!filePath.toString().endsWith(".smscr"))	return false;
 			
 			context.setContentLength(null);
+			Path root = documentRoot.toAbsolutePath().normalize();
+			setRoute("/" + root.relativize(filePath.normalize()).toString().replace('\\', '/'));
 			
-			String content = new String(Files.readAllBytes(filePath), StandardCharsets.UTF_8);
-			DocumentNode docNode = new SmartScriptParser(content).getDocumentNode();
+			TemplateCache.Entry entry = templateCache.getEntry(filePath);
+			CompiledTemplate template = compileTemplates ? entry.getCompiled() : null;
+			if(template != null) {
+				template.execute(context);
+				return true;
+			}
 			
-			SmartScriptEngine engine = new SmartScriptEngine(docNode, context);
+			SmartScriptEngine engine = new SmartScriptEngine(entry.getDocument(), context);
 			engine.execute();
 			
 			return true;
@@ -899,8 +2330,16 @@ public class SmartHttpServer {
 		/**
 		 * Checks whether given filePath
 		 * represents valid path to webroot file.
-		 * If it is, writes file content to client,
+		 * If it is, writes file content to client
+		 * by transferring it from file channel directly to socket,
 		 * else throws error that file is not found.
+		 * Compressible files are sent compressed if client accepts it,
+		 * compressed content is taken from cache.
+		 * Response has ETag and Last-Modified headers, if client's
+		 * copy of file is still valid response 304 is sent without body.
+		 * Small files are served from memory cache and large files from
+		 * memory mapping. If request has Range header that applies,
+		 * only requested ranges of uncompressed file are sent.
 		 * 
 		 * @param filePath	file path of file user wants to get.	
 		 * @throws Exception	if error happens executing file.
@@ -910,18 +2349,140 @@ public class SmartHttpServer {
 			String mimeType = fileNamePts.length < 2 ? "application/octet-stream" : mimeTypes.get(fileNamePts[1]);
 			
 			context.setMimeType(mimeType);
-			context.setContentLength(Files.size(filePath));
+			setRoute("[static]");
 			
-			try(InputStream fis = Files.newInputStream(filePath)) {
-				byte[] buf = new byte[1024];
-				while(true) {
-					int r = fis.read(buf);
-					if(r < 1)	break;
-
-					context.write(buf, 0, r);
+			StaticFileCache.Entry cached = staticFiles.get(filePath, context.getContentType());
+			long fileSize = cached != null ? cached.getBody().length : Files.size(filePath);
+			long modified = cached != null ? cached.getModified() : Files.getLastModifiedTime(filePath).toMillis();
+			String etag = StaticFileCache.etagOf(fileSize, modified);
+			boolean compressible = compression && isCompressible(mimeType)
+					&& fileSize >= compressionMinSize && fileSize <= compressionMaxSize;
+			if(compressible) {
+				context.setHeader("Vary", "Accept-Encoding");
+			}
+				
+			if(context.checkNotModified(etag, modified))	return;
+			
+			String range = parser.getHeader("Range");
+			List<ByteRange> ranges = range != null && context.isRangeApplicable()
+					? ByteRange.parse(range, fileSize, MAX_RANGES) : null;
+			
+			if(compressible && ranges == null) {
+				byte[] data = acceptedEncoding == null ? null : compressedFiles.get(filePath, acceptedEncoding);
+				if(data != null) {
+					context.setContentEncoding(acceptedEncoding);
+					context.setContentLength(Long.valueOf(data.length));
+					context.write(data);
+					
+					ostream.flush();
+					return;
+				}
+			}
+			
+			context.setHeader("Accept-Ranges", "bytes");
+			ByteBuffer mapped = cached == null && mmapThreshold > 0 && fileSize >= mmapThreshold
+					? mappedFiles.get(filePath) : null;
+			
+			if(ranges != null) {
+				sendRanges(filePath, cached, mapped, ranges, fileSize);
+			} else if(cached != null) {
+				context.writeResponse(cached.getHeaderLines(), cached.getBody());
+			} else if(mapped != null) {
+				context.setContentLength(Long.valueOf(mapped.remaining()));
+				context.write(mapped);
+			} else {
+				try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+					long size = channel.size();
+					context.setContentLength(size);
+					context.write(channel, 0, size);
+				}
+			}
+			
+			ostream.flush();
+		}
+		
+		/**
+		 * Method that sends given ranges of static file.
+		 * If no range is satisfiable, sends 416 Range Not Satisfiable.
+		 * One range is sent as body of 206 Partial Content response,
+		 * multiple ranges are sent as parts of multipart/byteranges body.
+		 * Bytes are taken from cached content or mapping of file if
+		 * they are given, else they are transferred from file.
+		 * 
+		 * @param filePath	Path to file.
+		 * @param cached	Cached file, or null.
+		 * @param mapped	Mapped content of file, or null.
+		 * @param ranges	Sorted satisfiable ranges.
+		 * @param fileSize	Size of file.
+		 * @throws IOException	if error happens reading file or writing response.
+		 */
+		private void sendRanges(Path filePath, StaticFileCache.Entry cached, ByteBuffer mapped,
+				List<ByteRange> ranges, long fileSize) throws IOException {
+			if(ranges.isEmpty()) {
+				context.setStatusCode(416);
+				context.setStatusText("Range Not Satisfiable");
+				context.setHeader("Content-Range", "bytes */" + fileSize);
+				context.setContentLength(0L);
+				return;
+			}
+			
+			context.setStatusCode(206);
+			context.setStatusText("Partial Content");
+				
+			try(FileChannel channel = cached == null && mapped == null
+					? FileChannel.open(filePath, StandardOpenOption.READ) : null) {
+				if(ranges.size() == 1) {
+					ByteRange r = ranges.get(0);
+					context.setHeader("Content-Range", r.toContentRange(fileSize));
+					context.setContentLength(r.getLength());
+					writeRange(r, cached, mapped, channel);
+					return;
 				}
 				
-				ostream.flush();
+				String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+				String partType = context.getContentType();
+				List<byte[]> partHeaders = new ArrayList<>();
+				byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+				long length = closing.length;
+				
+				for(ByteRange r : ranges) {
+					byte[] partHeader = ("\r\n--" + boundary + "\r\n" +
+							"Content-Type: " + partType + "\r\n" +
+							"Content-Range: " + r.toContentRange(fileSize) + "\r\n" +
+							"\r\n").getBytes(StandardCharsets.ISO_8859_1);
+					partHeaders.add(partHeader);
+					length += partHeader.length + r.getLength();
+				}
+				
+				context.setMimeType("multipart/byteranges; boundary=" + boundary);
+				context.setContentLength(length);
+				for(int i = 0; i < ranges.size(); i++) {
+					context.write(partHeaders.get(i));
+					writeRange(ranges.get(i), cached, mapped, channel);
+				}
+				context.write(closing);
+			}
+		}
+		
+		/**
+		 * Method that writes bytes of given range of static file.
+		 * 
+		 * @param range	Range to write.
+		 * @param cached	Cached file, or null.
+		 * @param mapped	Mapped content of file, or null.
+		 * @param channel	Channel of file, used if file isn't cached or mapped.
+		 * @throws IOException	if error happens reading file or writing response.
+		 */
+		private void writeRange(ByteRange range, StaticFileCache.Entry cached, ByteBuffer mapped,
+				FileChannel channel) throws IOException {
+			if(cached != null) {
+				context.write(cached.getBody(), (int) range.getStart(), (int) range.getLength());
+			} else if(mapped != null) {
+				ByteBuffer part = mapped.duplicate();
+				part.limit((int) range.getEnd() + 1).position((int) range.getStart());
+				context.write(part);
+			} else {
+				context.write(channel, range.getStart(), range.getLength());
 			}
 		}
 	}
@@ -0,0 +1,221 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Cache of small static files.
+ * Each file is kept in memory together with header lines that describe it,
+ * already encoded as bytes, so cached file is sent without reading disk
+ * and without building its header.
+ * Attributes of cached file are checked at most once per check interval,
+ * if file was changed since it was read, it is read again.
+ * Cache is bounded by total number of bytes of cached files,
+ * when it is full least recently used files are removed.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class StaticFileCache {
+
+	/**
+	 * Maximum total size of cached files in bytes.
+	 */
+	private long capacity;
+	/**
+	 * Maximum size of file that is cached.
+	 */
+	private long maxFileSize;
+	/**
+	 * Time in milliseconds during which cached file isn't checked for changes.
+	 */
+	private long checkInterval;
+	/**
+	 * Cached files mapped by their path, weighted by their size.
+	 */
+	private LruCache<Path, Entry> entries;
+	
+	/**
+	 * Constructor that creates cache bounded by total size of files.
+	 * 
+	 * @param capacity	Maximum total size of cached files in bytes, 0 turns caching off.
+	 * @param maxFileSize	Maximum size of file that is cached.
+	 * @param checkInterval	Time in milliseconds during which cached file isn't checked for changes.
+	 * @throws IllegalArgumentException	if some argument is negative.
+	 */
+	public StaticFileCache(long capacity, long maxFileSize, long checkInterval) {
+		if(capacity < 0 || maxFileSize < 0 || checkInterval < 0) {
+			throw new IllegalArgumentException("Cache limits can't be negative.");
+		}
+		
+		this.capacity = capacity;
+		this.maxFileSize = maxFileSize;
+		this.checkInterval = checkInterval;
+		entries = new LruCache<>(capacity, entry -> entry.body.length);
+	}
+	
+	/**
+	 * Returns cached file on given path.
+	 * If file is cached, its content type didn't change and file didn't change
+	 * when it was last checked, cached file is returned, else file is read and cached.
+	 * 
+	 * @param file	Path to file.
+	 * @param contentType	Value of Content-Type header of file.
+	 * @return	cached file, or null if file is too large to be cached.
+	 * @throws IOException	if error happens reading file.
+	 * @throws NullPointerException	if null file or content type is given.
+	 */
+	public Entry get(Path file, String contentType) throws IOException {
+		Objects.requireNonNull(file, "File path can't be null.");
+		Objects.requireNonNull(contentType, "Content type can't be null.");
+		
+		Path path = file.toAbsolutePath().normalize();
+		long now = System.currentTimeMillis();
+		
+		Entry entry = entries.get(path);
+		if(entry != null && entry.contentType.equals(contentType)) {
+			if(now - entry.checkedAt < checkInterval)	return entry;
+			
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch(NoSuchFileException e) {
+				entries.remove(path);
+				throw e;
+			}
+			
+			if(attributes.size() == entry.body.length && attributes.lastModifiedTime().toMillis() == entry.modified) {
+				entry.checkedAt = now;
+				return entry;
+			}
+		}
+		
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if(attributes.size() > maxFileSize || attributes.size() > capacity) {
+			entries.remove(path);
+			return null;
+		}
+		
+		byte[] body = Files.readAllBytes(path);
+		long modified = attributes.lastModifiedTime().toMillis();
+		
+		entry = new Entry(body, modified, contentType, now);
+		entries.put(path, entry);
+		return entry;
+	}
+	
+	/**
+	 * Returns total size of cached files.
+	 * 
+	 * @return	size of cached files in bytes.
+	 */
+	public long size() {
+		return entries.weight();
+	}
+	
+	/**
+	 * Returns entity tag of file with given size and last modified time.
+	 * 
+	 * @param size	Size of file.
+	 * @param modified	Last modified time of file.
+	 * @return	quoted entity tag.
+	 */
+	public static String etagOf(long size, long modified) {
+		return "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+	}
+	
+	/**
+	 * Class representing one cached file.
+	 */
+	public static class Entry {
+		/**
+		 * Content of file.
+		 */
+		private byte[] body;
+		/**
+		 * Last modified time of file when it was read.
+		 */
+		private long modified;
+		/**
+		 * Value of Content-Type header of file.
+		 */
+		private String contentType;
+		/**
+		 * Entity tag of file.
+		 */
+		private String etag;
+		/**
+		 * Header lines that describe file, encoded as ISO-8859-1.
+		 */
+		private byte[] headerLines;
+		/**
+		 * Time when file was last checked for changes.
+		 */
+		private volatile long checkedAt;
+		
+		/**
+		 * Constructor that creates new entry and builds its header lines.
+		 * 
+		 * @param body	Content of file.
+		 * @param modified	Last modified time of file when it was read.
+		 * @param contentType	Value of Content-Type header of file.
+		 * @param checkedAt	Time when file was read.
+		 */
+		private Entry(byte[] body, long modified, String contentType, long checkedAt) {
+			this.body = body;
+			this.modified = modified;
+			this.contentType = contentType;
+			this.checkedAt = checkedAt;
+			
+			etag = etagOf(body.length, modified);
+			headerLines = ("Content-Length: " + body.length + "\r\n"
+					+ "Content-Type: " + contentType + "\r\n"
+					+ "ETag: " + etag + "\r\n"
+					+ "Last-Modified: " + RequestContext.formatDate(modified) + "\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+		}
+		
+		/**
+		 * Returns content of file.
+		 * Returned array must not be modified.
+		 * 
+		 * @return	content of file.
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+		
+		/**
+		 * Returns last modified time of file when it was read.
+		 * 
+		 * @return	last modified time in milliseconds.
+		 */
+		public long getModified() {
+			return modified;
+		}
+		
+		/**
+		 * Returns entity tag of file.
+		 * 
+		 * @return	quoted entity tag.
+		 */
+		public String getETag() {
+			return etag;
+		}
+		
+		/**
+		 * Returns header lines that describe file, each terminated with CRLF.
+		 * Returned array must not be modified.
+		 * 
+		 * @return	encoded header lines.
+		 */
+		public byte[] getHeaderLines() {
+			return headerLines;
+		}
+	}
+}
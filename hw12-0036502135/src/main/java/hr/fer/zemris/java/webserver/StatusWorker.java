@@ -0,0 +1,48 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Objects;
+
+/**
+ * Class that implements IWebWorker.
+ * Writes report of server metrics, as plain text or,
+ * if parameter format has value json, as JSON.
+ * Is registered by server itself under path given by
+ * server.status.path property, and answers only clients on loopback address.
+ * It is kept outside of workers package, since it can't be created
+ * without metrics and accessed through /ext/.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class StatusWorker implements IWebWorker {
+
+	/**
+	 * Metrics of server.
+	 */
+	private ServerMetrics metrics;
+	
+	/**
+	 * Constructor that takes metrics of server.
+	 * 
+	 * @param metrics	Metrics of server.
+	 * @throws NullPointerException	if null metrics are given.
+	 */
+	public StatusWorker(ServerMetrics metrics) {
+		this.metrics = Objects.requireNonNull(metrics, "Metrics can't be null.");
+	}
+	
+	/**
+	 * Method that worker implements and determines the way request will be processed.
+	 * 
+	 * @param context	RequestContext used to read data from and write data to.
+	 * @throws Exception	If exception happens during processing request.
+	 */
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		boolean json = "json".equals(context.getParameter("format"));
+		
+		context.setMimeType(json ? "application/json" : "text/plain");
+		context.setHeader("Cache-Control", "no-store");
+		context.write(json ? metrics.toJson() : metrics.toText());
+	}
+}
@@ -0,0 +1,279 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledTemplate;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptCompiler;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+
+/**
+ * Cache of parsed SmartScript documents.
+ * Documents are stored under absolute normalized path of script file,
+ * together with last modified time of file when it was parsed.
+ * If file was modified since, it is parsed again.
+ * Cache holds at most given number of documents, when it is full
+ * least recently used document is removed.
+ * Optionally watches directories of cached scripts and removes
+ * documents as soon as their files change, in which case
+ * last modified time isn't checked on each access. Document parsed while
+ * its directory changed isn't kept, as it could have been read from old file.
+ * Parsed documents are only read during execution, so one document
+ * can be executed by multiple threads at the same time.
+ * Documents can also be taken compiled, each cached document is
+ * compiled once, when its compiled template is first requested.
+ * Documents that aren't cached aren't compiled, as compiled class
+ * would be used only once, so they should be interpreted.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class TemplateCache {
+
+	/**
+	 * Maximum number of cached documents.
+	 */
+	private int capacity;
+	/**
+	 * Cached documents mapped by path of their file.
+	 */
+	private LruCache<Path, Entry> entries;
+	/**
+	 * Service that watches directories of cached scripts, or null if watching is off.
+	 */
+	private WatchService watcher;
+	/**
+	 * Directories that are already watched.
+	 */
+	private Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+	/**
+	 * Number of times watching thread received events, increased before documents are removed.
+	 */
+	private AtomicLong invalidations = new AtomicLong();
+	
+	/**
+	 * Constructor that creates cache holding given number of documents.
+	 * If watch is true, starts deamon thread that invalidates
+	 * documents whose files changed.
+	 * 
+	 * @param capacity	Maximum number of cached documents, 0 turns caching off.
+	 * @param watch	Whether directories of cached scripts should be watched.
+	 * @throws IllegalArgumentException	if capacity is negative.
+	 * @throws IOException	if watch service can't be created.
+	 */
+	public TemplateCache(int capacity, boolean watch) throws IOException {
+		if(capacity < 0) {
+			throw new IllegalArgumentException("Cache capacity can't be negative.");
+		}
+		
+		this.capacity = capacity;
+		entries = new LruCache<>(capacity, entry -> 1);
+		
+		if(watch && capacity > 0) {
+			watcher = FileSystems.getDefault().newWatchService();
+			
+			Thread thread = new Thread(this::processEvents);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Returns parsed document of given script file.
+	 * If document is cached and file didn't change, cached document is returned,
+	 * else file is read and parsed and document is cached.
+	 * 
+	 * @param file	Path to script file.
+	 * @return	Parsed document of script file.
+	 * @throws IOException	if error happens reading file.
+	 * @throws NullPointerException	if null file is given.
+	 */
+	public DocumentNode get(Path file) throws IOException {
+		return load(file).document;
+	}
+	
+	/**
+	 * Returns entry of given script file, which holds its parsed document and
+	 * gives its compiled template, so file is read at most once per request
+	 * whether script is executed compiled or interpreted.
+	 * 
+	 * @param file	Path to script file.
+	 * @return	entry of script file.
+	 * @throws IOException	if error happens reading file.
+	 * @throws NullPointerException	if null file is given.
+	 */
+	public Entry getEntry(Path file) throws IOException {
+		return load(file);
+	}
+	
+	/**
+	 * Returns entry of given script file.
+	 * If entry is cached and file didn't change, cached entry is returned,
+	 * else file is read and parsed and new entry is cached.
+	 * 
+	 * @param file	Path to script file.
+	 * @return	entry of script file.
+	 * @throws IOException	if error happens reading file.
+	 * @throws NullPointerException	if null file is given.
+	 */
+	private Entry load(Path file) throws IOException {
+		Objects.requireNonNull(file, "Script path can't be null.");
+		Path key = file.toAbsolutePath().normalize();
+		
+		Entry entry = entries.get(key);
+		if(entry != null && watcher != null)	return entry;
+		
+		if(capacity > 0) {
+			watch(key.getParent());
+		}
+		
+		long modified = Files.getLastModifiedTime(key).toMillis();
+		if(entry != null && entry.modified == modified)	return entry;
+		
+		long version = invalidations.get();
+		String content = new String(Files.readAllBytes(key), StandardCharsets.UTF_8);
+		entry = new Entry(new SmartScriptParser(content).getDocumentNode(), modified);
+		if(capacity == 0)	return entry;
+		
+		entries.put(key, entry);
+		if(watcher != null && invalidations.get() != version) {
+			entries.remove(key, entry);
+			return entry;
+		}
+		entry.cached = true;
+		return entry;
+	}
+	
+	/**
+	 * Returns number of currently cached documents.
+	 * 
+	 * @return	number of cached documents.
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Registers given directory with watch service if watching is on
+	 * and directory isn't watched yet.
+	 * 
+	 * @param dir	Directory to watch.
+	 * @throws IOException	if directory can't be registered.
+	 */
+	private void watch(Path dir) throws IOException {
+		if(watcher == null || !watchedDirs.add(dir))	return;
+		
+		dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+	
+	/**
+	 * Method executed by watching thread.
+	 * Removes documents of changed files, or all documents
+	 * of watched directory if some events were lost.
+	 */
+	private void processEvents() {
+		while(true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			invalidations.incrementAndGet();
+			Path dir = (Path) key.watchable();
+			for(WatchEvent<?> event : key.pollEvents()) {
+				if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					entries.removeIf(path -> dir.equals(path.getParent()));
+				} else {
+					entries.remove(dir.resolve((Path) event.context()));
+				}
+			}
+			
+			if(!key.reset()) {
+				watchedDirs.remove(dir);
+				entries.removeIf(path -> dir.equals(path.getParent()));
+			}
+		}
+	}
+	
+	/**
+	 * Class representing one parsed document, cached or not.
+	 */
+	public static class Entry {
+		/**
+		 * Parsed document.
+		 */
+		private DocumentNode document;
+		/**
+		 * Last modified time of file when it was parsed.
+		 */
+		private long modified;
+		/**
+		 * Whether entry was kept in cache when it was created.
+		 */
+		private volatile boolean cached;
+		/**
+		 * Compiled template of document, or null if it isn't compiled yet.
+		 */
+		private volatile CompiledTemplate compiled;
+		/**
+		 * Whether compiling document failed.
+		 */
+		private volatile boolean compileFailed;
+		
+		/**
+		 * Constructor that creates new entry.
+		 * 
+		 * @param document	Parsed document.
+		 * @param modified	Last modified time of file when it was parsed.
+		 */
+		private Entry(DocumentNode document, long modified) {
+			this.document = document;
+			this.modified = modified;
+		}
+		
+		/**
+		 * Returns parsed document.
+		 * 
+		 * @return	parsed document.
+		 */
+		public DocumentNode getDocument() {
+			return document;
+		}
+		
+		/**
+		 * Returns compiled template of document, compiling it if needed.
+		 * Only cached document is compiled, once, as compiled class of
+		 * document that isn't cached would be used only once. Document that
+		 * isn't cached, or that can't be compiled because it would fail during
+		 * execution, should be interpreted instead.
+		 * 
+		 * @return	compiled template, or null if document isn't cached or can't be compiled.
+		 */
+		public synchronized CompiledTemplate getCompiled() {
+			if(!cached || compiled != null || compileFailed)	return compiled;
+			
+			try {
+				compiled = SmartScriptCompiler.compile(document);
+			} catch(RuntimeException ex) {
+				compileFailed = true;
+			}
+			
+			return compiled;
+		}
+	}
+}
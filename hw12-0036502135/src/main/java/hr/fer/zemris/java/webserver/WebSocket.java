@@ -0,0 +1,581 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class representing WebSocket connection between worker and client.
+ * Worker sends messages through it from any thread. Frames read from connection
+ * are given to it by server, in blocking mode by thread that serves connection
+ * and in nio mode by selector thread, and messages are passed to worker
+ * one at a time through executor of connection.
+ * Connection never closes socket itself, it only stops accepting frames,
+ * and server closes socket once reading from it stops and queued frames are written.
+ * Frames are written through queue. Frames sent by worker are waited for until they
+ * are written, while answers to control frames and pings are only queued, so selector
+ * thread that reads frames never waits for client. Queued frames of non blocking
+ * channel are written by selector thread once channel can be written.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class WebSocket {
+
+	/**
+	 * Time in milliseconds sending frame may wait for client to read previous frames.
+	 */
+	static final long WRITE_TIMEOUT = 10000;
+	
+	/**
+	 * Channel of connection.
+	 */
+	private SocketChannel channel;
+	/**
+	 * Worker connection belongs to.
+	 */
+	private IWebSocketWorker worker;
+	/**
+	 * Executor that calls worker.
+	 */
+	private Executor executor;
+	/**
+	 * Parameters of request that opened connection.
+	 */
+	private Map<String, String> parameters;
+	/**
+	 * Persistent parameters of session of client.
+	 */
+	private Map<String, String> persistentParameters;
+	/**
+	 * Decoder of frames sent by client.
+	 */
+	private WebSocketCodec.Decoder decoder;
+	/**
+	 * Maximum size of message in bytes.
+	 */
+	private int maxMessageSize;
+	/**
+	 * Opcode of fragmented message being received, or -1 if there is none.
+	 */
+	private int messageOpcode = -1;
+	/**
+	 * Payload of fragmented message received so far.
+	 */
+	private ByteBuffer message;
+	/**
+	 * Calls of worker waiting to be made.
+	 */
+	private Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+	/**
+	 * Whether executor is making calls of worker.
+	 */
+	private AtomicBoolean delivering = new AtomicBoolean();
+	/**
+	 * Whether connection no longer accepts frames.
+	 */
+	private volatile boolean closed;
+	/**
+	 * Whether close frame was sent.
+	 */
+	private boolean closeSent;
+	/**
+	 * Time in milliseconds when bytes were last read from connection.
+	 */
+	private volatile long lastRead = System.currentTimeMillis();
+	/**
+	 * Time in milliseconds when ping was last sent, or 0 if none was sent.
+	 */
+	private volatile long lastPing;
+	/**
+	 * Frames waiting to be written, first one can be partially written.
+	 */
+	private Queue<ByteBuffer> outgoing = new ArrayDeque<>();
+	/**
+	 * Key of non blocking channel in selector that reads frames, or null if it isn't registered.
+	 */
+	private SelectionKey key;
+	/**
+	 * Whether server still reads frames from connection.
+	 */
+	private boolean reading = true;
+	
+	/**
+	 * Constructor that creates connection of given worker.
+	 * 
+	 * @param channel	Channel of connection.
+	 * @param worker	Worker connection belongs to.
+	 * @param executor	Executor that calls worker.
+	 * @param maxMessageSize	Maximum size of message in bytes.
+	 * @param parameters	Parameters of request that opened connection.
+	 * @param persistentParameters	Persistent parameters of session of client.
+	 */
+	public WebSocket(SocketChannel channel, IWebSocketWorker worker, Executor executor, int maxMessageSize,
+			Map<String, String> parameters, Map<String, String> persistentParameters) {
+		this.channel = Objects.requireNonNull(channel, "Channel can't be null.");
+		this.worker = Objects.requireNonNull(worker, "Worker can't be null.");
+		this.executor = Objects.requireNonNull(executor, "Executor can't be null.");
+		this.maxMessageSize = maxMessageSize;
+		this.parameters = parameters == null ? Collections.emptyMap() : parameters;
+		this.persistentParameters = persistentParameters == null ? Collections.emptyMap() : persistentParameters;
+		this.decoder = new WebSocketCodec.Decoder(maxMessageSize);
+	}
+	
+	/**
+	 * Sends text message to client.
+	 * 
+	 * @param text	Message to send.
+	 * @throws IOException	if connection is closed or error happens sending message.
+	 */
+	public void send(String text) throws IOException {
+		send(WebSocketCodec.TEXT, text.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Sends binary message to client.
+	 * 
+	 * @param data	Message to send.
+	 * @throws IOException	if connection is closed or error happens sending message.
+	 */
+	public void send(byte[] data) throws IOException {
+		send(WebSocketCodec.BINARY, data);
+	}
+	
+	/**
+	 * Starts closing connection with normal closure.
+	 * Connection is closed once client answers, or when it times out.
+	 * 
+	 * @throws IOException	if error happens sending close frame.
+	 */
+	public void close() throws IOException {
+		close(WebSocketCodec.NORMAL_CLOSURE, null);
+	}
+	
+	/**
+	 * Starts closing connection with given close code and reason.
+	 * Does nothing if close frame was already sent.
+	 * 
+	 * @param code	Close code.
+	 * @param reason	Reason of closing, or null.
+	 * @throws IOException	if error happens sending close frame.
+	 */
+	public synchronized void close(int code, String reason) throws IOException {
+		close(code, reason, true);
+	}
+	
+	/**
+	 * Returns whether messages can be sent and received.
+	 * 
+	 * @return	true if connection is open, false otherwise.
+	 */
+	public boolean isOpen() {
+		return !closed && !closeSent;
+	}
+	
+	/**
+	 * Returns value of parameter of request that opened connection.
+	 * 
+	 * @param name	Parameter name.
+	 * @return	parameter value, or null if there is no such parameter.
+	 */
+	public String getParameter(String name) {
+		return parameters.get(name);
+	}
+	
+	/**
+	 * Returns value of persistent parameter of session of client.
+	 * Value is read from session, so changes made by other requests are visible.
+	 * 
+	 * @param name	Parameter name.
+	 * @return	parameter value, or null if there is no such parameter.
+	 */
+	public String getPersistentParameter(String name) {
+		return persistentParameters.get(name);
+	}
+	
+	/**
+	 * Notifies worker that connection is opened.
+	 * Must be called before any bytes are received.
+	 */
+	void open() {
+		deliver(() -> worker.onOpen(this));
+	}
+	
+	/**
+	 * Decodes given bytes read from connection and handles frames in them.
+	 * Messages are passed to worker, pings are answered and close frame is answered
+	 * with close frame. If client violates protocol, connection is closed with
+	 * appropriate close code.
+	 * 
+	 * @param data	Bytes read from connection.
+	 * @return	true if connection accepts further frames, false if reading should stop.
+	 */
+	boolean receive(ByteBuffer data) {
+		if(closed)	return false;
+		lastRead = System.currentTimeMillis();
+		
+		try {
+			decoder.feed(data);
+			for(WebSocketCodec.Frame frame = decoder.next(); frame != null; frame = decoder.next()) {
+				if(!handle(frame))	return false;
+			}
+			return true;
+		} catch(WebSocketCodec.FrameException ex) {
+			closeQuietly(ex.getCloseCode(), ex.getMessage());
+			return false;
+		} catch(IOException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Marks connection closed and notifies worker.
+	 * Called by server once it stops reading from connection. Does nothing if called again.
+	 * Workers waiting for their frames to be written stop waiting.
+	 */
+	void terminate() {
+		synchronized(this) {
+			if(closed)	return;
+			closed = true;
+			notifyAll();
+		}
+		
+		deliver(() -> worker.onClose(this));
+	}
+	
+	/**
+	 * Sets key of non blocking channel in selector that reads frames.
+	 * If frames are already queued, selector is asked to write them.
+	 * 
+	 * @param key	Key of channel.
+	 */
+	synchronized void register(SelectionKey key) {
+		this.key = key;
+		updateInterest();
+	}
+	
+	/**
+	 * Writes as many queued frames as channel accepts without blocking.
+	 * Called by selector thread when channel can be written.
+	 * 
+	 * @return	true if all queued frames are written, false otherwise.
+	 * @throws IOException	if error happens writing.
+	 */
+	synchronized boolean flush() throws IOException {
+		while(!outgoing.isEmpty()) {
+			ByteBuffer frame = outgoing.peek();
+			channel.write(frame);
+			if(frame.hasRemaining())	break;
+			
+			outgoing.poll();
+		}
+		
+		notifyAll();
+		updateInterest();
+		return outgoing.isEmpty();
+	}
+	
+	/**
+	 * Records that server stopped reading frames, so connection can be closed
+	 * once queued frames are written.
+	 * 
+	 * @return	true if there are no queued frames, false otherwise.
+	 */
+	synchronized boolean stopReading() {
+		reading = false;
+		updateInterest();
+		return outgoing.isEmpty();
+	}
+	
+	/**
+	 * Returns whether server still reads frames from connection.
+	 * 
+	 * @return	true if frames are read, false otherwise.
+	 */
+	synchronized boolean isReading() {
+		return reading;
+	}
+	
+	/**
+	 * Queues ping frame, so client answers it and connection doesn't go idle.
+	 * Does nothing if connection is closing.
+	 * 
+	 * @throws IOException	if error happens writing frame.
+	 */
+	synchronized void ping() throws IOException {
+		if(closeSent || closed)	return;
+		
+		lastPing = System.currentTimeMillis();
+		write(WebSocketCodec.encode(WebSocketCodec.PING, new byte[0]), false);
+	}
+	
+	/**
+	 * Returns time when bytes were last read from connection.
+	 * 
+	 * @return	time in milliseconds.
+	 */
+	long getLastRead() {
+		return lastRead;
+	}
+	
+	/**
+	 * Returns time when ping was last sent.
+	 * 
+	 * @return	time in milliseconds, or 0 if no ping was sent.
+	 */
+	long getLastPing() {
+		return lastPing;
+	}
+	
+	/**
+	 * Handles one frame sent by client.
+	 * 
+	 * @param frame	Received frame.
+	 * @return	true if connection accepts further frames, false otherwise.
+	 * @throws IOException	if frame violates protocol or error happens answering it.
+	 */
+	private boolean handle(WebSocketCodec.Frame frame) throws IOException {
+		switch(frame.getOpcode()) {
+			case WebSocketCodec.PING:
+				synchronized(this) {
+					if(!closeSent) {
+						write(WebSocketCodec.encode(WebSocketCodec.PONG, frame.getPayload()), false);
+					}
+				}
+				return true;
+			case WebSocketCodec.PONG:
+				return true;
+			case WebSocketCodec.CLOSE:
+				byte[] payload = frame.getPayload();
+				int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : WebSocketCodec.NORMAL_CLOSURE;
+				close(code, null, false);
+				return false;
+			case WebSocketCodec.TEXT:
+			case WebSocketCodec.BINARY:
+				if(messageOpcode >= 0) {
+					throw new WebSocketCodec.FrameException(WebSocketCodec.PROTOCOL_ERROR, "Message isn't finished.");
+				}
+				messageOpcode = frame.getOpcode();
+				message = ByteBuffer.allocate(0);
+				break;
+			case WebSocketCodec.CONTINUATION:
+				if(messageOpcode < 0) {
+					throw new WebSocketCodec.FrameException(WebSocketCodec.PROTOCOL_ERROR, "No message to continue.");
+				}
+				break;
+			default:
+				throw new WebSocketCodec.FrameException(WebSocketCodec.PROTOCOL_ERROR, "Unknown opcode.");
+		}
+		
+		append(frame.getPayload());
+		if(frame.isFin()) {
+			deliverMessage(messageOpcode, message.array());
+			messageOpcode = -1;
+			message = null;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Appends payload of frame to message being received.
+	 * 
+	 * @param payload	Payload of frame.
+	 * @throws WebSocketCodec.FrameException	if message gets larger than allowed.
+	 */
+	private void append(byte[] payload) throws WebSocketCodec.FrameException {
+		if(message.capacity() + payload.length > maxMessageSize) {
+			throw new WebSocketCodec.FrameException(WebSocketCodec.MESSAGE_TOO_BIG, "Message is too large.");
+		}
+		
+		ByteBuffer joined = ByteBuffer.allocate(message.capacity() + payload.length);
+		joined.put(message.array()).put(payload);
+		message = joined;
+	}
+	
+	/**
+	 * Passes complete message to worker.
+	 * Text message must be valid UTF-8.
+	 * 
+	 * @param opcode	Opcode of message.
+	 * @param payload	Payload of message.
+	 * @throws WebSocketCodec.FrameException	if text message isn't valid UTF-8.
+	 */
+	private void deliverMessage(int opcode, byte[] payload) throws WebSocketCodec.FrameException {
+		if(opcode == WebSocketCodec.BINARY) {
+			deliver(() -> worker.onMessage(this, payload));
+			return;
+		}
+		
+		try {
+			String text = StandardCharsets.UTF_8.newDecoder()
+					.onMalformedInput(CodingErrorAction.REPORT)
+					.onUnmappableCharacter(CodingErrorAction.REPORT)
+					.decode(ByteBuffer.wrap(payload)).toString();
+			deliver(() -> worker.onMessage(this, text));
+		} catch(CharacterCodingException ex) {
+			throw new WebSocketCodec.FrameException(WebSocketCodec.INVALID_DATA, "Text isn't valid UTF-8.");
+		}
+	}
+	
+	/**
+	 * Queues call of worker and makes sure executor makes queued calls.
+	 * Calls are made one at a time, in order they were queued. If call fails,
+	 * connection is closed with internal error.
+	 * 
+	 * @param call	Call of worker.
+	 */
+	private void deliver(WorkerCall call) {
+		events.add(() -> {
+			try {
+				call.run();
+			} catch(Exception ex) {
+				closeQuietly(WebSocketCodec.INTERNAL_ERROR, null);
+			}
+		});
+		
+		if(delivering.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::drainEvents);
+			} catch(RejectedExecutionException ex) {
+				delivering.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Makes queued calls of worker until queue is empty.
+	 */
+	private void drainEvents() {
+		do {
+			Runnable event;
+			while((event = events.poll()) != null) {
+				event.run();
+			}
+			delivering.set(false);
+		} while(!events.isEmpty() && delivering.compareAndSet(false, true));
+	}
+	
+	/**
+	 * Sends frame with given opcode and payload.
+	 * 
+	 * @param opcode	Opcode of frame.
+	 * @param payload	Payload of frame.
+	 * @throws IOException	if connection is closed or error happens sending frame.
+	 */
+	private synchronized void send(int opcode, byte[] payload) throws IOException {
+		if(closeSent || closed) {
+			throw new IOException("WebSocket is closed.");
+		}
+		
+		write(WebSocketCodec.encode(opcode, payload), true);
+	}
+	
+	/**
+	 * Sends close frame with given close code and reason, if it wasn't sent already.
+	 * 
+	 * @param code	Close code.
+	 * @param reason	Reason of closing, or null.
+	 * @param wait	Whether to wait until frame is written.
+	 * @throws IOException	if error happens sending close frame.
+	 */
+	private synchronized void close(int code, String reason, boolean wait) throws IOException {
+		if(closeSent)	return;
+		
+		closeSent = true;
+		write(WebSocketCodec.encodeClose(code, reason), wait);
+	}
+	
+	/**
+	 * Queues close frame ignoring errors.
+	 * 
+	 * @param code	Close code.
+	 * @param reason	Reason of closing, or null.
+	 */
+	private void closeQuietly(int code, String reason) {
+		try {
+			close(code, reason, false);
+		} catch(IOException ignorable) {}
+	}
+	
+	/**
+	 * Queues frame and writes queued frames as far as channel accepts them.
+	 * Blocking channel accepts all of them. If frame remains queued, selector
+	 * is asked to write it once channel can be written, and if wait is true,
+	 * current thread waits until it is written. Must be called while holding
+	 * lock of connection, which is released while waiting.
+	 * 
+	 * @param frame	Encoded frame.
+	 * @param wait	Whether to wait until frame is written.
+	 * @throws IOException	if error happens writing, connection is closed while
+	 * 		waiting or client doesn't read in time.
+	 */
+	private void write(ByteBuffer frame, boolean wait) throws IOException {
+		outgoing.add(frame);
+		if(flush() || !wait)	return;
+		
+		long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+		while(frame.hasRemaining()) {
+			if(closed) {
+				throw new IOException("WebSocket is closed.");
+			}
+			
+			long left = deadline - System.currentTimeMillis();
+			if(left <= 0) {
+				throw new IOException("Client doesn't read from WebSocket.");
+			}
+			try {
+				wait(left);
+			} catch(InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for WebSocket.");
+			}
+		}
+	}
+	
+	/**
+	 * Sets operations selector waits for, reading while server reads frames
+	 * and writing while there are queued frames.
+	 * Selector is woken up when writing is added.
+	 */
+	private void updateInterest() {
+		if(key == null)	return;
+		
+		int ops = (reading ? SelectionKey.OP_READ : 0) | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+		try {
+			int old = key.interestOps();
+			if(old == ops)	return;
+			
+			key.interestOps(ops);
+			if((ops & ~old & SelectionKey.OP_WRITE) != 0) {
+				key.selector().wakeup();
+			}
+		} catch(CancelledKeyException ignorable) {}
+	}
+	
+	/**
+	 * Call of worker that may throw exception.
+	 */
+	private interface WorkerCall {
+		/**
+		 * Makes call.
+		 * 
+		 * @throws Exception	if worker fails.
+		 */
+		void run() throws Exception;
+	}
+}
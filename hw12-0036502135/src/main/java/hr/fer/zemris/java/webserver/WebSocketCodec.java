@@ -0,0 +1,341 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Codec of WebSocket protocol, as defined in RFC 6455.
+ * Computes accept key of opening handshake, encodes frames sent by server
+ * and decodes frames sent by client. Server frames are never masked and
+ * never fragmented, client frames must be masked.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class WebSocketCodec {
+
+	/**
+	 * Opcode of frame that continues fragmented message.
+	 */
+	public static final int CONTINUATION = 0x0;
+	/**
+	 * Opcode of text frame.
+	 */
+	public static final int TEXT = 0x1;
+	/**
+	 * Opcode of binary frame.
+	 */
+	public static final int BINARY = 0x2;
+	/**
+	 * Opcode of close frame.
+	 */
+	public static final int CLOSE = 0x8;
+	/**
+	 * Opcode of ping frame.
+	 */
+	public static final int PING = 0x9;
+	/**
+	 * Opcode of pong frame.
+	 */
+	public static final int PONG = 0xA;
+	
+	/**
+	 * Close code of normal closure.
+	 */
+	public static final int NORMAL_CLOSURE = 1000;
+	/**
+	 * Close code sent when endpoint is going away, for example server stopping.
+	 */
+	public static final int GOING_AWAY = 1001;
+	/**
+	 * Close code sent when peer violated protocol.
+	 */
+	public static final int PROTOCOL_ERROR = 1002;
+	/**
+	 * Close code sent when text message isn't valid UTF-8.
+	 */
+	public static final int INVALID_DATA = 1007;
+	/**
+	 * Close code sent when message is larger than allowed.
+	 */
+	public static final int MESSAGE_TOO_BIG = 1009;
+	/**
+	 * Close code sent when server failed processing message.
+	 */
+	public static final int INTERNAL_ERROR = 1011;
+	
+	/**
+	 * Value appended to client key when accept key is computed.
+	 */
+	private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	/**
+	 * Maximum payload length of control frame.
+	 */
+	private static final int MAX_CONTROL_PAYLOAD = 125;
+	
+	/**
+	 * Computes value of Sec-WebSocket-Accept header for given client key.
+	 * 
+	 * @param key	Value of Sec-WebSocket-Key header.
+	 * @return	accept key.
+	 */
+	public static String acceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			byte[] digest = sha1.digest((key.trim() + HANDSHAKE_GUID).getBytes(StandardCharsets.US_ASCII));
+			return Base64.getEncoder().encodeToString(digest);
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-1 isn't available.", ex);
+		}
+	}
+	
+	/**
+	 * Encodes unmasked final frame with given opcode and payload.
+	 * 
+	 * @param opcode	Opcode of frame.
+	 * @param payload	Payload of frame.
+	 * @return	encoded frame.
+	 */
+	public static ByteBuffer encode(int opcode, byte[] payload) {
+		int headerLength = payload.length <= MAX_CONTROL_PAYLOAD ? 2 : (payload.length <= 0xFFFF ? 4 : 10);
+		ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+		
+		frame.put((byte) (0x80 | opcode));
+		if(headerLength == 2) {
+			frame.put((byte) payload.length);
+		} else if(headerLength == 4) {
+			frame.put((byte) 126);
+			frame.putShort((short) payload.length);
+		} else {
+			frame.put((byte) 127);
+			frame.putLong(payload.length);
+		}
+		frame.put(payload);
+		frame.flip();
+		
+		return frame;
+	}
+	
+	/**
+	 * Encodes close frame with given code and reason.
+	 * 
+	 * @param code	Close code.
+	 * @param reason	Reason of closing, shortened if it doesn't fit into control frame.
+	 * @return	encoded frame.
+	 */
+	public static ByteBuffer encodeClose(int code, String reason) {
+		byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+		byte[] payload = new byte[2 + Math.min(text.length, MAX_CONTROL_PAYLOAD - 2)];
+		
+		payload[0] = (byte) (code >>> 8);
+		payload[1] = (byte) code;
+		System.arraycopy(text, 0, payload, 2, payload.length - 2);
+		
+		return encode(CLOSE, payload);
+	}
+	
+	/**
+	 * Class representing decoded frame.
+	 */
+	public static class Frame {
+		/**
+		 * Whether frame is last frame of message.
+		 */
+		private boolean fin;
+		/**
+		 * Opcode of frame.
+		 */
+		private int opcode;
+		/**
+		 * Unmasked payload of frame.
+		 */
+		private byte[] payload;
+		
+		/**
+		 * Constructor that creates new frame.
+		 * 
+		 * @param fin	Whether frame is last frame of message.
+		 * @param opcode	Opcode of frame.
+		 * @param payload	Unmasked payload of frame.
+		 */
+		public Frame(boolean fin, int opcode, byte[] payload) {
+			this.fin = fin;
+			this.opcode = opcode;
+			this.payload = payload;
+		}
+		
+		/**
+		 * Returns whether frame is last frame of message.
+		 * 
+		 * @return	true if frame is final.
+		 */
+		public boolean isFin() {
+			return fin;
+		}
+		
+		/**
+		 * Returns opcode of frame.
+		 * 
+		 * @return	opcode.
+		 */
+		public int getOpcode() {
+			return opcode;
+		}
+		
+		/**
+		 * Returns whether frame is control frame.
+		 * 
+		 * @return	true for close, ping and pong frames.
+		 */
+		public boolean isControl() {
+			return (opcode & 0x8) != 0;
+		}
+		
+		/**
+		 * Returns unmasked payload of frame.
+		 * 
+		 * @return	payload.
+		 */
+		public byte[] getPayload() {
+			return payload;
+		}
+	}
+	
+	/**
+	 * Exception thrown when client sends frame that violates protocol.
+	 * Carries close code that should be sent to client.
+	 */
+	public static class FrameException extends IOException {
+	
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * Close code that should be sent to client.
+		 */
+		private int closeCode;
+		
+		/**
+		 * Constructor that takes close code and message.
+		 * 
+		 * @param closeCode	Close code that should be sent to client.
+		 * @param message	Description of error.
+		 */
+		public FrameException(int closeCode, String message) {
+			super(message);
+			this.closeCode = closeCode;
+		}
+		
+		/**
+		 * Returns close code that should be sent to client.
+		 * 
+		 * @return	close code.
+		 */
+		public int getCloseCode() {
+			return closeCode;
+		}
+	}
+	
+	/**
+	 * Decoder of frames sent by client.
+	 * Bytes are fed in blocks of any size, as they are read from connection,
+	 * and complete frames are taken one by one.
+	 */
+	public static class Decoder {
+		/**
+		 * Bytes fed but not yet decoded.
+		 */
+		private byte[] buffer = new byte[1024];
+		/**
+		 * Number of bytes in buffer.
+		 */
+		private int length;
+		/**
+		 * Maximum payload length of one frame.
+		 */
+		private int maxPayload;
+		
+		/**
+		 * Constructor that creates decoder accepting frames with payload of at most given length.
+		 * 
+		 * @param maxPayload	Maximum payload length of one frame.
+		 */
+		public Decoder(int maxPayload) {
+			this.maxPayload = maxPayload;
+		}
+		
+		/**
+		 * Adds given bytes read from connection.
+		 * 
+		 * @param data	Read bytes, from position to limit.
+		 */
+		public void feed(ByteBuffer data) {
+			if(length + data.remaining() > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + data.remaining()));
+			}
+			
+			int count = data.remaining();
+			data.get(buffer, length, count);
+			length += count;
+		}
+		
+		/**
+		 * Decodes next complete frame from fed bytes.
+		 * 
+		 * @return	decoded frame, or null if whole frame wasn't fed yet.
+		 * @throws FrameException	if frame violates protocol or is too large.
+		 */
+		public Frame next() throws FrameException {
+			if(length < 2)	return null;
+			
+			boolean fin = (buffer[0] & 0x80) != 0;
+			int opcode = buffer[0] & 0x0F;
+			if((buffer[0] & 0x70) != 0) {
+				throw new FrameException(PROTOCOL_ERROR, "Reserved bits are set.");
+			}
+			if((buffer[1] & 0x80) == 0) {
+				throw new FrameException(PROTOCOL_ERROR, "Client frame isn't masked.");
+			}
+			
+			int pos = 2;
+			long payloadLength = buffer[1] & 0x7F;
+			if(payloadLength == 126) {
+				if(length < 4)	return null;
+				payloadLength = ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+				pos = 4;
+			} else if(payloadLength == 127) {
+				if(length < 10)	return null;
+				payloadLength = 0;
+				for(int i = 2; i < 10; i++) {
+					payloadLength = (payloadLength << 8) | (buffer[i] & 0xFF);
+				}
+				pos = 10;
+			}
+			
+			if((opcode & 0x8) != 0 && (!fin || payloadLength > MAX_CONTROL_PAYLOAD)) {
+				throw new FrameException(PROTOCOL_ERROR, "Invalid control frame.");
+			}
+			if(payloadLength < 0 || payloadLength > maxPayload) {
+				throw new FrameException(MESSAGE_TOO_BIG, "Frame is too large.");
+			}
+			if(length < pos + 4 + payloadLength)	return null;
+			
+			int maskStart = pos;
+			pos += 4;
+			byte[] payload = new byte[(int) payloadLength];
+			for(int i = 0; i < payload.length; i++) {
+				payload[i] = (byte) (buffer[pos + i] ^ buffer[maskStart + (i & 3)]);
+			}
+			pos += payload.length;
+			
+			System.arraycopy(buffer, pos, buffer, 0, length - pos);
+			length -= pos;
+			
+			return new Frame(fin, opcode, payload);
+		}
+	}
+}
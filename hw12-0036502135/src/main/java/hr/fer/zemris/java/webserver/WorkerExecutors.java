@@ -0,0 +1,235 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of executors that run client workers.
+ * Supports two types of executors:
+ * fixed, pool with fixed number of deamon threads, and
+ * virtual, which runs each job on new virtual thread.
+ * Virtual threads exist only on Java 21 and newer, on older
+ * runtime virtual type falls back to fixed pool.
+ * Number of jobs that virtual executor runs at the same time can be limited,
+ * in which case new job waits in queue until one of running jobs finishes.
+ * Submitting job never blocks, so it can be done from selector threads.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class WorkerExecutors {
+
+	/**
+	 * Name of fixed executor type.
+	 */
+	public static final String FIXED = "fixed";
+	/**
+	 * Name of virtual executor type.
+	 */
+	public static final String VIRTUAL = "virtual";
+	
+	/**
+	 * Factory that creates deamon threads.
+	 */
+	private static final ThreadFactory DAEMON_FACTORY = job -> {
+		Thread thr = new Thread(job);
+		thr.setDaemon(true);
+		return thr;
+	};
+	
+	/**
+	 * Creates executor of given type.
+	 * 
+	 * @param type	Executor type, fixed or virtual.
+	 * @param threads	Number of threads of fixed executor, also used if virtual threads aren't supported.
+	 * @param maxConcurrency	Maximum number of jobs virtual executor runs at once, 0 for no limit.
+	 * @return	new executor.
+	 * @throws IllegalArgumentException	if unknown type or invalid number of threads is given.
+	 */
+	public static ExecutorService create(String type, int threads, int maxConcurrency) {
+		Objects.requireNonNull(type, "Executor type can't be null.");
+		
+		if(type.equals(FIXED)) {
+			return Executors.newFixedThreadPool(threads, DAEMON_FACTORY);
+		}
+		if(!type.equals(VIRTUAL)) {
+			throw new IllegalArgumentException("Unknown executor type: " + type);
+		}
+		if(maxConcurrency < 0) {
+			throw new IllegalArgumentException("Maximum concurrency can't be negative.");
+		}
+		
+		ExecutorService executor = newVirtualExecutor();
+		if(executor == null) {
+			return Executors.newFixedThreadPool(threads, DAEMON_FACTORY);
+		}
+		return maxConcurrency == 0 ? executor : new LimitedExecutor(executor, maxConcurrency);
+	}
+	
+	/**
+	 * Returns number of jobs that wait to be run by given executor.
+	 * For executor with limited concurrency, those are jobs waiting in its queue.
+	 * 
+	 * @param executor	Executor created by this class.
+	 * @return	number of waiting jobs, or 0 if it can't be determined.
+	 */
+	public static int queueDepth(ExecutorService executor) {
+		if(executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executor).getQueue().size();
+		}
+		if(executor instanceof LimitedExecutor) {
+			return ((LimitedExecutor) executor).queue.size();
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Checks whether runtime supports virtual threads.
+	 * 
+	 * @return	true if virtual threads are supported, false otherwise.
+	 */
+	public static boolean isVirtualSupported() {
+		return virtualFactoryMethod() != null;
+	}
+	
+	/**
+	 * Creates executor that runs each job on new virtual thread.
+	 * 
+	 * @return	new executor, or null if virtual threads aren't supported.
+	 */
+	private static ExecutorService newVirtualExecutor() {
+		Method factory = virtualFactoryMethod();
+		
+		if(factory != null) {
+			try {
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException ignorable) {}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Returns method of Executors that creates virtual thread executor.
+	 * 
+	 * @return	method creating virtual thread executor, or null if it doesn't exist.
+	 */
+	private static Method virtualFactoryMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Executor that limits number of jobs running at the same time.
+	 * Job submitted while limit is reached is put in queue and started
+	 * when one of running jobs finishes, so submitting never blocks.
+	 * Number of queued jobs is bounded by admission control of server.
+	 */
+	static class LimitedExecutor extends AbstractExecutorService {
+		
+		/**
+		 * Executor that runs jobs.
+		 */
+		private ExecutorService executor;
+		/**
+		 * Permits of jobs that can run.
+		 */
+		private Semaphore permits;
+		/**
+		 * Jobs waiting for permit.
+		 */
+		private Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+		
+		/**
+		 * Constructor that takes executor and maximum number of jobs running at once.
+		 * 
+		 * @param executor	Executor that runs jobs.
+		 * @param limit	Maximum number of jobs running at once.
+		 */
+		LimitedExecutor(ExecutorService executor, int limit) {
+			this.executor = executor;
+			this.permits = new Semaphore(limit);
+		}
+		
+		@Override
+		public void execute(Runnable command) {
+			Objects.requireNonNull(command, "Job can't be null.");
+			
+			if(executor.isShutdown()) {
+				throw new RejectedExecutionException("Executor is shut down.");
+			}
+			queue.add(command);
+			drain();
+		}
+		
+		/**
+		 * Starts queued jobs while there are free permits.
+		 * Called after job is queued and after job finishes, so queued job
+		 * is started by whichever thread releases permit it waits for.
+		 */
+		private void drain() {
+			while(!queue.isEmpty() && permits.tryAcquire()) {
+				Runnable job = queue.poll();
+				if(job == null) {
+					permits.release();
+					continue;
+				}
+				
+				try {
+					executor.execute(() -> {
+						try {
+							job.run();
+						} finally {
+							permits.release();
+							drain();
+						}
+					});
+				} catch(RejectedExecutionException ex) {
+					permits.release();
+					queue.clear();
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public void shutdown() {
+			executor.shutdown();
+		}
+		
+		@Override
+		public List<Runnable> shutdownNow() {
+			return executor.shutdownNow();
+		}
+		
+		@Override
+		public boolean isShutdown() {
+			return executor.isShutdown();
+		}
+		
+		@Override
+		public boolean isTerminated() {
+			return executor.isTerminated();
+		}
+		
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return executor.awaitTermination(timeout, unit);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Registry of web workers.
+ * Each worker class is loaded and instantiated only once,
+ * after that same instance is returned for its fully qualified class name.
+ * Class names that don't represent instantiable worker are remembered,
+ * so failed lookups are also done only once. Number of remembered
+ * failed lookups is limited, when limit is reached they are forgotten.
+ * Registry can be filled in advance with all workers from given package.
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class WorkerRegistry {
+
+	/**
+	 * Maximum number of remembered class names that don't represent worker.
+	 */
+	private static final int MAX_MISSING = 1024;
+	
+	/**
+	 * Class loader used to load worker classes.
+	 */
+	private ClassLoader loader;
+	/**
+	 * Created workers mapped by fully qualified class name.
+	 */
+	private Map<String, IWebWorker> workers = new ConcurrentHashMap<>();
+	/**
+	 * Class names that don't represent worker.
+	 */
+	private Set<String> missing = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * Constructor that takes class loader used to load worker classes.
+	 * 
+	 * @param loader	Class loader used to load worker classes.
+	 * @throws NullPointerException	if null loader is given.
+	 */
+	public WorkerRegistry(ClassLoader loader) {
+		this.loader = Objects.requireNonNull(loader, "Class loader can't be null.");
+	}
+	
+	/**
+	 * Returns worker of class with given fully qualified name.
+	 * Worker is created on first request, every next request returns same instance.
+	 * 
+	 * @param fqcn	Fully qualified class name of worker.
+	 * @return	worker of given class, or null if given class is not instantiable worker.
+	 */
+	public IWebWorker get(String fqcn) {
+		IWebWorker worker = workers.get(fqcn);
+		if(worker != null || missing.contains(fqcn))	return worker;
+		
+		worker = createWorker(fqcn);
+		if(worker == null) {
+			if(missing.size() >= MAX_MISSING) {
+				missing.clear();
+			}
+			missing.add(fqcn);
+			return null;
+		}
+		
+		IWebWorker previous = workers.putIfAbsent(fqcn, worker);
+		return previous == null ? worker : previous;
+	}
+	
+	/**
+	 * Creates workers of all classes from given package, found by class loader,
+	 * that implement IWebWorker and have public constructor without arguments.
+	 * Classes from subpackages are not included.
+	 * 
+	 * @param packageName	Name of package to search.
+	 * @return	number of workers in registry from given package.
+	 * @throws IOException	if error happens searching for classes.
+	 */
+	public int preload(String packageName) throws IOException {
+		int count = 0;
+		
+		for(String fqcn : findClasses(packageName)) {
+			if(get(fqcn) != null) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Loads class with given name and instantiates it if it is worker.
+	 * 
+	 * @param fqcn	Fully qualified class name.
+	 * @return	new worker, or null if class doesn't exist or isn't instantiable worker.
+	 */
+	private IWebWorker createWorker(String fqcn) {
+		try {
+			Class<?> referenceToClass = loader.loadClass(fqcn);
+			if(!IWebWorker.class.isAssignableFrom(referenceToClass) 
+					|| Modifier.isAbstract(referenceToClass.getModifiers())) {
+				return null;
+			}
+			
+			return (IWebWorker) referenceToClass.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns names of top level classes in given package, found
+	 * in directories and jar files of class loader.
+	 * 
+	 * @param packageName	Name of package to search.
+	 * @return	list of fully qualified class names.
+	 * @throws IOException	if error happens searching for classes.
+	 */
+	private List<String> findClasses(String packageName) throws IOException {
+		String packagePath = packageName.replace('.', '/');
+		List<String> classes = new ArrayList<>();
+		
+		Enumeration<URL> resources = loader.getResources(packagePath);
+		while(resources.hasMoreElements()) {
+			URL url = resources.nextElement();
+			
+			if(url.getProtocol().equals("file")) {
+				File[] files;
+				try {
+					files = Paths.get(url.toURI()).toFile().listFiles();
+				} catch (URISyntaxException e) {
+					continue;
+				}
+				if(files == null)	continue;
+				
+				for(File file : files) {
+					addClassName(classes, packageName, file.getName());
+				}
+			} else if(url.getProtocol().equals("jar")) {
+				URLConnection connection = url.openConnection();
+				if(!(connection instanceof JarURLConnection))	continue;
+				connection.setUseCaches(false);
+				
+				try(JarFile jar = ((JarURLConnection) connection).getJarFile()) {
+					Enumeration<JarEntry> entries = jar.entries();
+					while(entries.hasMoreElements()) {
+						String name = entries.nextElement().getName();
+						
+						if(name.startsWith(packagePath + "/") && name.indexOf('/', packagePath.length() + 1) < 0) {
+							addClassName(classes, packageName, name.substring(packagePath.length() + 1));
+						}
+					}
+				}
+			}
+		}
+		
+		return classes;
+	}
+	
+	/**
+	 * Adds fully qualified class name to given list if
+	 * given file name is name of top level class file.
+	 * 
+	 * @param classes	List where name is added.
+	 * @param packageName	Name of package containing file.
+	 * @param fileName	Name of file.
+	 */
+	private static void addClassName(List<String> classes, String packageName, String fileName) {
+		if(!fileName.endsWith(".class") || fileName.contains("$"))	return;
+		
+		classes.add(packageName + "." + fileName.substring(0, fileName.length() - ".class".length()));
+	}
+}
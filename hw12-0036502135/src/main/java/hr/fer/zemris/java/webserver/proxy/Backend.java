@@ -0,0 +1,111 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class representing one server process front proxy forwards connections to.
+ * Keeps number of connections proxy has open to backend and whether backend
+ * passed its last health check.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class Backend {
+
+	/**
+	 * Address backend listens on.
+	 */
+	private InetSocketAddress address;
+	/**
+	 * Number of connections currently forwarded to backend.
+	 */
+	private AtomicInteger connections = new AtomicInteger();
+	/**
+	 * Whether backend can receive connections.
+	 */
+	private volatile boolean healthy = true;
+	
+	/**
+	 * Constructor that creates backend listening on given address.
+	 * 
+	 * @param address	Address backend listens on.
+	 * @throws NullPointerException	if null address is given.
+	 */
+	public Backend(InetSocketAddress address) {
+		this.address = Objects.requireNonNull(address, "Address can't be null.");
+	}
+	
+	/**
+	 * Creates backend from address written as host:port.
+	 * 
+	 * @param hostAndPort	Address of backend.
+	 * @return	new backend.
+	 * @throws IllegalArgumentException	if address isn't host:port.
+	 */
+	public static Backend parse(String hostAndPort) {
+		String value = hostAndPort.trim();
+		int colon = value.lastIndexOf(':');
+		if(colon <= 0) {
+			throw new IllegalArgumentException("Backend must be given as host:port, got: " + value);
+		}
+		
+		return new Backend(new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1))));
+	}
+	
+	/**
+	 * Returns address backend listens on.
+	 * 
+	 * @return	address of backend.
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+	
+	/**
+	 * Returns number of connections currently forwarded to backend.
+	 * 
+	 * @return	number of open connections.
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+	
+	/**
+	 * Records that connection to backend was opened.
+	 */
+	public void connectionOpened() {
+		connections.incrementAndGet();
+	}
+	
+	/**
+	 * Records that connection to backend was closed.
+	 */
+	public void connectionClosed() {
+		connections.decrementAndGet();
+	}
+	
+	/**
+	 * Returns whether backend can receive connections.
+	 * 
+	 * @return	true if backend is healthy, false otherwise.
+	 */
+	public boolean isHealthy() {
+		return healthy;
+	}
+	
+	/**
+	 * Sets whether backend can receive connections.
+	 * 
+	 * @param healthy	Whether backend is healthy.
+	 */
+	public void setHealthy(boolean healthy) {
+		this.healthy = healthy;
+	}
+	
+	@Override
+	public String toString() {
+		return address.getHostString() + ":" + address.getPort();
+	}
+}
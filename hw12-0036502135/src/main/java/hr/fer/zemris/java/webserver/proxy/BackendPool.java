@@ -0,0 +1,192 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of backends front proxy balances connections between.
+ * New clients are sent to healthy backend chosen by balancing strategy,
+ * least connections or round robin. Client that has session is sent
+ * to backend that created its session, as long as that backend is healthy,
+ * since sessions live in memory of backend process.
+ * Sessions are remembered by their sid until they are unused for session timeout.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class BackendPool {
+
+	/**
+	 * Name of strategy that chooses backend with least open connections.
+	 */
+	public static final String LEAST_CONNECTIONS = "leastconnections";
+	/**
+	 * Name of strategy that chooses backends in turn.
+	 */
+	public static final String ROUND_ROBIN = "roundrobin";
+	
+	/**
+	 * Backends of pool.
+	 */
+	private List<Backend> backends;
+	/**
+	 * Whether backend with least open connections is chosen.
+	 */
+	private boolean leastConnections;
+	/**
+	 * Time in milliseconds after which unused session is forgotten.
+	 */
+	private long sessionTimeout;
+	/**
+	 * Counter used to choose backends in turn.
+	 */
+	private AtomicInteger next = new AtomicInteger();
+	/**
+	 * Backends of sessions mapped by session id.
+	 */
+	private Map<String, Binding> sessions = new ConcurrentHashMap<>();
+	
+	/**
+	 * Constructor that creates pool of given backends.
+	 * 
+	 * @param backends	Backends of pool.
+	 * @param strategy	Balancing strategy, leastConnections or roundRobin.
+	 * @param sessionTimeout	Time in milliseconds after which unused session is forgotten.
+	 * @throws IllegalArgumentException	if no backends or unknown strategy is given.
+	 */
+	public BackendPool(List<Backend> backends, String strategy, long sessionTimeout) {
+		Objects.requireNonNull(strategy, "Strategy can't be null.");
+		if(backends.isEmpty()) {
+			throw new IllegalArgumentException("Pool must have at least one backend.");
+		}
+		
+		String name = strategy.trim().toLowerCase();
+		if(!name.equals(LEAST_CONNECTIONS) && !name.equals(ROUND_ROBIN)) {
+			throw new IllegalArgumentException("Unknown balancing strategy: " + strategy);
+		}
+		
+		this.backends = Collections.unmodifiableList(new ArrayList<>(backends));
+		this.leastConnections = name.equals(LEAST_CONNECTIONS);
+		this.sessionTimeout = sessionTimeout;
+	}
+	
+	/**
+	 * Returns backends of pool.
+	 * 
+	 * @return	unmodifiable list of backends.
+	 */
+	public List<Backend> getBackends() {
+		return backends;
+	}
+	
+	/**
+	 * Chooses backend for client with given session.
+	 * Backend of session is returned if it is healthy and not excluded,
+	 * else backend is chosen by balancing strategy.
+	 * 
+	 * @param sid	Session id sent by client, or null.
+	 * @param excluded	Backends that shouldn't be chosen, for example because connecting to them failed.
+	 * @return	chosen backend, or null if there is no healthy backend.
+	 */
+	public Backend choose(String sid, Collection<Backend> excluded) {
+		if(sid != null) {
+			Binding binding = sessions.get(sid);
+			if(binding != null && binding.backend.isHealthy() && !excluded.contains(binding.backend)) {
+				binding.lastUsed = System.currentTimeMillis();
+				return binding.backend;
+			}
+		}
+		
+		return balance(excluded);
+	}
+	
+	/**
+	 * Remembers that session with given id belongs to given backend.
+	 * 
+	 * @param sid	Session id.
+	 * @param backend	Backend that created session.
+	 */
+	public void bind(String sid, Backend backend) {
+		sessions.put(sid, new Binding(backend, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Forgets sessions that weren't used for session timeout.
+	 */
+	public void expireSessions() {
+		long oldest = System.currentTimeMillis() - sessionTimeout;
+		sessions.values().removeIf(binding -> binding.lastUsed < oldest);
+	}
+	
+	/**
+	 * Returns number of remembered sessions.
+	 * 
+	 * @return	number of sessions.
+	 */
+	public int sessionCount() {
+		return sessions.size();
+	}
+	
+	/**
+	 * Chooses healthy backend by balancing strategy.
+	 * Healthy backends are taken in turn, and with least connections strategy
+	 * search for least loaded backend starts from backend whose turn it is,
+	 * so backends with equal number of connections are chosen in turn too.
+	 * 
+	 * @param excluded	Backends that shouldn't be chosen.
+	 * @return	chosen backend, or null if there is no healthy backend.
+	 */
+	private Backend balance(Collection<Backend> excluded) {
+		List<Backend> candidates = new ArrayList<>(backends.size());
+		for(Backend backend : backends) {
+			if(backend.isHealthy() && !excluded.contains(backend)) {
+				candidates.add(backend);
+			}
+		}
+		if(candidates.isEmpty())	return null;
+		
+		int start = Math.floorMod(next.getAndIncrement(), candidates.size());
+		Backend chosen = candidates.get(start);
+		if(!leastConnections)	return chosen;
+		
+		for(int i = 1; i < candidates.size(); i++) {
+			Backend backend = candidates.get((start + i) % candidates.size());
+			if(backend.getConnections() < chosen.getConnections()) {
+				chosen = backend;
+			}
+		}
+		
+		return chosen;
+	}
+	
+	/**
+	 * Class representing backend of session together with time session was last used.
+	 */
+	private static class Binding {
+		/**
+		 * Backend that created session.
+		 */
+		private Backend backend;
+		/**
+		 * Time in milliseconds when session was last used.
+		 */
+		private volatile long lastUsed;
+		
+		/**
+		 * Constructor that creates new binding.
+		 * 
+		 * @param backend	Backend that created session.
+		 * @param lastUsed	Time in milliseconds when session was used.
+		 */
+		private Binding(Backend backend, long lastUsed) {
+			this.backend = backend;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hr.fer.zemris.java.webserver.HttpRequestParser;
+
+/**
+ * Front proxy that spreads connections between several server processes on one host.
+ * Listens on one port and forwards each accepted connection to one backend,
+ * chosen when header of first request is read. Client with sid cookie is
+ * forwarded to backend that created its session, other clients are balanced
+ * between healthy backends by least connections or round robin.
+ * Proxy learns sessions from Set-Cookie headers of responses it forwards.
+ * Backends are health checked, and backend that refuses connection is
+ * skipped until it passes check again, so backends can be restarted one at a time.
+ * Once backend is chosen bytes are copied in both directions without parsing,
+ * so all requests of persistent connection go to same backend.
+ * Address of client is added to first request in X-Forwarded-For header,
+ * backend keeps it for whole connection.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class FrontProxy {
+
+	/**
+	 * Size of buffers used to copy bytes between connections.
+	 */
+	private static final int BUFFER_SIZE = 16 * 1024;
+	/**
+	 * Time in milliseconds acceptor waits after first failed accept, doubled after each next failure.
+	 */
+	private static final long ACCEPT_RETRY_WAIT = 10;
+	/**
+	 * Maximum time in milliseconds acceptor waits after failed accept.
+	 */
+	private static final long MAX_ACCEPT_RETRY_WAIT = 1000;
+	
+	/**
+	 * Address proxy listens on.
+	 */
+	private String address;
+	/**
+	 * Port proxy listens on.
+	 */
+	private int port;
+	/**
+	 * Maximum number of connections proxy forwards at the same time.
+	 */
+	private int maxConnections;
+	/**
+	 * Maximum size of request header in bytes.
+	 */
+	private int maxHeaderSize;
+	/**
+	 * Time in milliseconds client has to send request header.
+	 */
+	private int headerTimeout;
+	/**
+	 * Time in milliseconds proxy waits for connection to backend.
+	 */
+	private int connectTimeout;
+	/**
+	 * Backends connections are forwarded to.
+	 */
+	private BackendPool pool;
+	/**
+	 * Checker of backend health.
+	 */
+	private HealthChecker healthChecker;
+	/**
+	 * Number of connections proxy currently forwards.
+	 */
+	private AtomicInteger connections = new AtomicInteger();
+	/**
+	 * Server socket proxy listens on, null if proxy isn't started.
+	 */
+	private ServerSocket serverSocket;
+	/**
+	 * Thread that accepts connections.
+	 */
+	private Thread acceptor;
+	/**
+	 * Pool of threads that copy bytes between connections.
+	 */
+	private ExecutorService threadPool;
+	
+	/**
+	 * Constructor that takes path to proxy properties file
+	 * and if valid loads settings of proxy.
+	 * 
+	 * @param configFileName	Proxy properties file.
+	 * @throws IllegalArgumentException	if invalid file is given.
+	 */
+	public FrontProxy(String configFileName) {
+		Path path = Paths.get(configFileName);
+		
+		if(!Files.isRegularFile(path) || !path.endsWith("proxy.properties")) {
+			throw new IllegalArgumentException("Must be proxy.properties file path.");
+		}
+		
+		readProperties(path);
+	}
+	
+	/**
+	 * Method that reads properties from proxy properties file.
+	 * 
+	 * @param configFile	Provided proxy properties file.
+	 * @throws RuntimeException	if error happens reading properties.
+	 * @throws IllegalArgumentException if invalid proxy properties content is provided.
+	 */
+	private void readProperties(Path configFile) {
+		Properties prop = new Properties();
+		
+		try(InputStream stream = Files.newInputStream(configFile)) {
+			prop.load(stream);
+			
+			address = prop.getProperty("proxy.address").trim();
+			port = Integer.parseInt(prop.getProperty("proxy.port").trim());
+			maxConnections = Integer.parseInt(prop.getProperty("proxy.maxConnections", "256").trim());
+			maxHeaderSize = Integer.parseInt(prop.getProperty("proxy.maxHeaderSize", "8192").trim());
+			headerTimeout = Integer.parseInt(prop.getProperty("proxy.headerTimeout", "30").trim()) * 1000;
+			connectTimeout = Integer.parseInt(prop.getProperty("proxy.connectTimeout", "1000").trim());
+			
+			List<Backend> backends = new ArrayList<>();
+			for(String backend : prop.getProperty("proxy.backends").split(",")) {
+				if(!backend.trim().isEmpty()) {
+					backends.add(Backend.parse(backend));
+				}
+			}
+			pool = new BackendPool(backends, prop.getProperty("proxy.balancing", BackendPool.LEAST_CONNECTIONS),
+					Long.parseLong(prop.getProperty("proxy.session.timeout", "600").trim()) * 1000);
+			
+			healthChecker = new HealthChecker(pool,
+					prop.getProperty("proxy.healthCheck.path", "/status").trim(),
+					Long.parseLong(prop.getProperty("proxy.healthCheck.interval", "2000").trim()),
+					Integer.parseInt(prop.getProperty("proxy.healthCheck.timeout", "1000").trim()));
+		} catch (IOException e) {
+			throw new RuntimeException("Error reading properties.");
+		} catch(Exception ex) {
+			throw new IllegalArgumentException("Invalid proxy.properties content given.");
+		}
+	}
+	
+	/**
+	 * Method that starts accepting connections and checking backends.
+	 * 
+	 * @throws RuntimeException	if error happens creating socket.
+	 */
+	protected synchronized void start() {
+		if(serverSocket != null)	return;
+		
+		try {
+			serverSocket = new ServerSocket();
+			serverSocket.bind(new InetSocketAddress(address, port));
+		} catch(IOException ex) {
+			serverSocket = null;
+			throw new RuntimeException("Error creating socket.");
+		}
+		
+		threadPool = Executors.newCachedThreadPool(job -> {
+			Thread thr = new Thread(job);
+			thr.setDaemon(true);
+			return thr;
+		});
+		acceptor = new Thread(this::acceptConnections, "proxy-acceptor");
+		acceptor.start();
+		healthChecker.start();
+		
+		System.out.println("Proxy started...");
+	}
+	
+	/**
+	 * Method that stops accepting connections.
+	 * Connections that are already forwarded are finished.
+	 */
+	protected synchronized void stop() {
+		if(serverSocket == null)	return;
+		
+		try {
+			serverSocket.close();
+		} catch(IOException ignorable) {}
+		serverSocket = null;
+		threadPool.shutdown();
+		healthChecker.stop();
+		
+		System.out.println("Proxy stopped...");
+	}
+	
+	/**
+	 * Method executed by acceptor thread.
+	 * Accepts connections until server socket is closed.
+	 * If accept fails, for example because process ran out of file descriptors,
+	 * error is printed and acceptor waits before it tries again, waiting longer
+	 * after each failure in a row.
+	 */
+	private void acceptConnections() {
+		ServerSocket socket = serverSocket;
+		int failures = 0;
+		
+		while(!socket.isClosed()) {
+			Socket client;
+			try {
+				client = socket.accept();
+				failures = 0;
+			} catch(IOException ex) {
+				if(socket.isClosed())	break;
+				
+				if(failures == 0) {
+					System.out.println("Error accepting connection: " + ex.getMessage());
+				}
+				try {
+					Thread.sleep(Math.min(MAX_ACCEPT_RETRY_WAIT, ACCEPT_RETRY_WAIT << Math.min(failures, 10)));
+				} catch(InterruptedException interrupted) {
+					return;
+				}
+				failures++;
+				continue;
+			}
+			
+			if(connections.incrementAndGet() > maxConnections) {
+				connections.decrementAndGet();
+				sendError(client, 503, "Service Unavailable");
+				continue;
+			}
+			
+			try {
+				threadPool.execute(new ProxyConnection(client));
+			} catch(RejectedExecutionException ex) {
+				connections.decrementAndGet();
+				close(client);
+			}
+		}
+	}
+	
+	/**
+	 * Answers given connection with error response and closes it.
+	 * 
+	 * @param client	Connection to answer.
+	 * @param statusCode	Response status code.
+	 * @param statusText	Response status text.
+	 */
+	private static void sendError(Socket client, int statusCode, String statusText) {
+		try {
+			OutputStream os = client.getOutputStream();
+			os.write(("HTTP/1.1 " + statusCode + " " + statusText + "\r\n" +
+					"Server: Smart Http Proxy\r\n" +
+					"Content-Length: 0\r\n" +
+					"Content-Type: text/plain;charset=UTF-8\r\n" +
+					"Connection: close\r\n" +
+					"\r\n").getBytes(StandardCharsets.US_ASCII));
+			os.flush();
+		} catch(IOException ignorable) {}
+		
+		close(client);
+	}
+	
+	/**
+	 * Closes given socket, ignoring errors.
+	 * 
+	 * @param socket	Socket to close, or null.
+	 */
+	private static void close(Socket socket) {
+		if(socket == null)	return;
+		
+		try {
+			socket.close();
+		} catch(IOException ignorable) {}
+	}
+	
+	/**
+	 * Class representing one forwarded connection.
+	 * Reads header of first request, connects to chosen backend and
+	 * copies responses to client in its thread, while requests are copied
+	 * to backend in other thread of pool.
+	 */
+	private class ProxyConnection implements Runnable {
+		/**
+		 * Connection from client.
+		 */
+		private Socket client;
+		/**
+		 * Connection to backend, or null if it isn't opened.
+		 */
+		private Socket server;
+		/**
+		 * Backend connection is forwarded to.
+		 */
+		private Backend backend;
+		
+		/**
+		 * Constructor that takes accepted connection of client.
+		 * 
+		 * @param client	Connection from client.
+		 */
+		private ProxyConnection(Socket client) {
+			this.client = client;
+		}
+		
+		/**
+		 * Method called when thread starts.
+		 */
+		@Override
+		public void run() {
+			try {
+				client.setTcpNoDelay(true);
+				client.setSoTimeout(headerTimeout);
+				
+				HttpRequestParser parser = new HttpRequestParser(maxHeaderSize);
+				HttpRequestParser.Status status = parser.next(client.getInputStream());
+				if(status == HttpRequestParser.Status.CLOSED)	return;
+				if(status == HttpRequestParser.Status.TOO_LARGE) {
+					sendError(client, 431, "Request Header Fields Too Large");
+					return;
+				}
+				
+				if(!connect(parser.getCookie("sid"))) {
+					sendError(client, 502, "Bad Gateway");
+					return;
+				}
+				
+				client.setSoTimeout(0);
+				server.getOutputStream().write(addForwardedFor(parser.getBytes()));
+				threadPool.execute(this::forwardRequests);
+				forwardResponses();
+			} catch(IOException | RejectedExecutionException ex) {
+			} finally {
+				close(client);
+				close(server);
+				if(backend != null) {
+					backend.connectionClosed();
+				}
+				connections.decrementAndGet();
+			}
+		}
+		
+		/**
+		 * Connects to backend chosen for client with given session.
+		 * Backend that refuses connection is marked unhealthy and next one is tried.
+		 * 
+		 * @param sid	Session id sent by client, or null.
+		 * @return	true if connection to backend is opened, false if no backend is available.
+		 */
+		private boolean connect(String sid) {
+			List<Backend> failed = new ArrayList<>();
+			
+			while(true) {
+				Backend candidate = pool.choose(sid, failed);
+				if(candidate == null)	return false;
+				
+				Socket socket = new Socket();
+				try {
+					socket.connect(candidate.getAddress(), connectTimeout);
+					socket.setTcpNoDelay(true);
+				} catch(IOException ex) {
+					close(socket);
+					candidate.setHealthy(false);
+					failed.add(candidate);
+					continue;
+				}
+				
+				server = socket;
+				backend = candidate;
+				backend.connectionOpened();
+				return true;
+			}
+		}
+		
+		/**
+		 * Adds X-Forwarded-For header line with address of client to end of
+		 * header in given bytes. If client sent its own X-Forwarded-For header,
+		 * it is kept, so added line is last entry of header value.
+		 * 
+		 * @param bytes	Header of first request followed by bytes read after it.
+		 * @return	bytes with added header line.
+		 */
+		private byte[] addForwardedFor(byte[] bytes) {
+			int end = HttpRequestParser.findHeaderEnd(bytes, 0, bytes.length);
+			int insertAt = bytes[end - 2] == '\r' ? end - 2 : end - 1;
+			byte[] line = ("X-Forwarded-For: " + client.getInetAddress().getHostAddress() + "\r\n")
+					.getBytes(StandardCharsets.US_ASCII);
+			
+			byte[] result = new byte[bytes.length + line.length];
+			System.arraycopy(bytes, 0, result, 0, insertAt);
+			System.arraycopy(line, 0, result, insertAt, line.length);
+			System.arraycopy(bytes, insertAt, result, insertAt + line.length, bytes.length - insertAt);
+			
+			return result;
+		}
+		
+		/**
+		 * Copies responses from backend to client until backend closes connection.
+		 * Sessions set by backend are bound to it before response reaches client.
+		 * 
+		 * @throws IOException	if error happens copying bytes.
+		 */
+		private void forwardResponses() throws IOException {
+			InputStream is = server.getInputStream();
+			OutputStream os = client.getOutputStream();
+			SessionCookieScanner scanner = new SessionCookieScanner();
+			byte[] buffer = new byte[BUFFER_SIZE];
+			
+			for(int read = is.read(buffer); read >= 0; read = is.read(buffer)) {
+				String sid = scanner.scan(buffer, 0, read);
+				if(sid != null) {
+					pool.bind(sid, backend);
+				}
+				
+				os.write(buffer, 0, read);
+			}
+		}
+		
+		/**
+		 * Copies requests from client to backend until client closes connection.
+		 * Then output to backend is shut down, so backend closes connection once
+		 * last response is sent. If copying fails, both connections are closed.
+		 */
+		private void forwardRequests() {
+			try {
+				InputStream is = client.getInputStream();
+				OutputStream os = server.getOutputStream();
+				byte[] buffer = new byte[BUFFER_SIZE];
+				
+				for(int read = is.read(buffer); read >= 0; read = is.read(buffer)) {
+					os.write(buffer, 0, read);
+				}
+				server.shutdownOutput();
+			} catch(IOException ex) {
+				close(client);
+				close(server);
+			}
+		}
+	}
+	
+	/**
+	 * Main method that starts proxy.
+	 * 
+	 * @param args	Path to proxy properties file.
+	 */
+	public static void main(String[] args) {
+		if(args.length != 1) {
+			System.out.println("Invalid number of arguments, expected: 1, path to proxy properties file.");
+			return;
+		}
+		
+		FrontProxy proxy = new FrontProxy(args[0]);
+		proxy.start();
+		System.out.println("Type STOP to stop proxy.");
+		
+		Scanner scan = new Scanner(System.in);
+		while(true) {
+			String line = scan.nextLine().trim().toUpperCase();
+			
+			if(line.equals("STOP")){
+				proxy.stop();
+				break;
+			}
+		}
+		
+		scan.close();
+	}
+}
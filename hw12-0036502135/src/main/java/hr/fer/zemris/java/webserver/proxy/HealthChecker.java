@@ -0,0 +1,206 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import hr.fer.zemris.java.webserver.HttpRequestParser;
+
+/**
+ * Checks health of backends of pool in regular intervals.
+ * Backend is healthy if it answers request for check path with status
+ * lower than 500 within timeout. Backend that fails check gets no new
+ * connections until it passes check again, so backends can be restarted
+ * one at a time. Unused sessions of pool are forgotten on each check.
+ * Session set by backend in answer to check is sent with following checks,
+ * so checks don't create new session on backend each time.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class HealthChecker {
+
+	/**
+	 * Maximum size of response header that is read.
+	 */
+	private static final int MAX_HEADER_SIZE = 8192;
+	
+	/**
+	 * Pool whose backends are checked.
+	 */
+	private BackendPool pool;
+	/**
+	 * Path requested from backends.
+	 */
+	private String path;
+	/**
+	 * Time in milliseconds between checks.
+	 */
+	private long interval;
+	/**
+	 * Time in milliseconds backend has to answer.
+	 */
+	private int timeout;
+	/**
+	 * Sessions backends set in answers to checks, mapped by backend.
+	 */
+	private Map<Backend, String> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Thread that checks backends, or null if checker isn't started.
+	 */
+	private Thread checkThread;
+	
+	/**
+	 * Constructor that creates checker of given pool.
+	 * 
+	 * @param pool	Pool whose backends are checked.
+	 * @param path	Path requested from backends.
+	 * @param interval	Time in milliseconds between checks.
+	 * @param timeout	Time in milliseconds backend has to answer.
+	 * @throws IllegalArgumentException	if interval or timeout isn't positive.
+	 */
+	public HealthChecker(BackendPool pool, String path, long interval, int timeout) {
+		if(interval <= 0 || timeout <= 0) {
+			throw new IllegalArgumentException("Interval and timeout of health check must be positive.");
+		}
+		
+		this.pool = Objects.requireNonNull(pool, "Pool can't be null.");
+		this.path = Objects.requireNonNull(path, "Path can't be null.");
+		this.interval = interval;
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Starts deamon thread that checks backends.
+	 * Does nothing if thread is already running.
+	 */
+	public synchronized void start() {
+		if(checkThread != null)	return;
+		
+		checkThread = new Thread(this::runChecks, "health-check");
+		checkThread.setDaemon(true);
+		checkThread.start();
+	}
+	
+	/**
+	 * Stops thread that checks backends.
+	 */
+	public synchronized void stop() {
+		if(checkThread == null)	return;
+		
+		checkThread.interrupt();
+		checkThread = null;
+	}
+	
+	/**
+	 * Checks all backends and updates their health.
+	 * Called by check thread in each interval, but can be called directly.
+	 */
+	public void checkAll() {
+		for(Backend backend : pool.getBackends()) {
+			boolean healthy = check(backend);
+			if(healthy != backend.isHealthy()) {
+				System.out.println("Backend " + backend + (healthy ? " is up." : " is down."));
+			}
+			backend.setHealthy(healthy);
+		}
+		
+		pool.expireSessions();
+	}
+	
+	/**
+	 * Sends check request to given backend.
+	 * 
+	 * @param backend	Backend to check.
+	 * @return	true if backend answered with status lower than 500, false otherwise.
+	 */
+	private boolean check(Backend backend) {
+		try(Socket socket = new Socket()) {
+			socket.connect(backend.getAddress(), timeout);
+			socket.setSoTimeout(timeout);
+			
+			String sid = sessions.get(backend);
+			OutputStream os = socket.getOutputStream();
+			os.write(("GET " + path + " HTTP/1.1\r\n" +
+					"Host: " + backend + "\r\n" +
+					(sid == null ? "" : "Cookie: sid=\"" + sid + "\"\r\n") +
+					"Connection: close\r\n" +
+					"\r\n").getBytes(StandardCharsets.US_ASCII));
+			os.flush();
+			
+			InputStream is = socket.getInputStream();
+			int status = readStatus(is);
+			rememberSession(backend, is);
+			return status > 0 && status < 500;
+		} catch(IOException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads status code from status line of response.
+	 * 
+	 * @param is	Stream response is read from.
+	 * @return	status code, or -1 if status line is invalid.
+	 * @throws IOException	if error happens reading stream.
+	 */
+	private static int readStatus(InputStream is) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for(int b = is.read(); b >= 0 && b != '\n' && line.length() < 256; b = is.read()) {
+			line.append((char) b);
+		}
+		
+		String[] parts = line.toString().trim().split(" ");
+		if(parts.length < 2 || !parts[0].startsWith("HTTP/"))	return -1;
+		
+		try {
+			return Integer.parseInt(parts[1]);
+		} catch(NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Reads rest of response header and remembers session backend set in it.
+	 * 
+	 * @param backend	Checked backend.
+	 * @param is	Stream response is read from, positioned after status line.
+	 * @throws IOException	if error happens reading stream.
+	 */
+	private void rememberSession(Backend backend, InputStream is) throws IOException {
+		byte[] header = new byte[MAX_HEADER_SIZE];
+		header[0] = '\n';
+		int length = 1;
+		
+		for(int b = is.read(); b >= 0 && length < header.length; b = is.read()) {
+			header[length++] = (byte) b;
+			if(HttpRequestParser.findHeaderEnd(header, length - 1, length) >= 0)	break;
+		}
+		
+		String sid = new SessionCookieScanner().scan(header, 0, length);
+		if(sid != null) {
+			sessions.put(backend, sid);
+		}
+	}
+	
+	/**
+	 * Method executed by check thread.
+	 * Checks backends until thread is interrupted.
+	 */
+	private void runChecks() {
+		while(!Thread.currentThread().isInterrupted()) {
+			checkAll();
+			
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+/**
+ * Scanner that finds session ids set by backend in stream of its responses.
+ * Bytes are scanned as they are forwarded to client, in blocks of any size,
+ * for Set-Cookie header line of sid cookie, so proxy learns which backend
+ * created which session.
+ * Only response headers are scanned. Header line is collected until its end,
+ * and at end of header Content-Length and Transfer-Encoding tell how long
+ * body is, so body is skipped without looking at its bytes and next response
+ * header is found. Body of unknown length lasts until connection is closed,
+ * as does connection switched to other protocol, so nothing after it is scanned.
+ * Header name is matched ignoring case and quotes around value are removed.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class SessionCookieScanner {
+
+	/**
+	 * State in which header line is collected.
+	 */
+	private static final int HEADER = 0;
+	/**
+	 * State in which body of known length is skipped.
+	 */
+	private static final int BODY = 1;
+	/**
+	 * State in which line with size of chunk is collected.
+	 */
+	private static final int CHUNK_SIZE = 2;
+	/**
+	 * State in which chunk and line end after it are skipped.
+	 */
+	private static final int CHUNK = 3;
+	/**
+	 * State in which trailer lines after last chunk are collected.
+	 */
+	private static final int TRAILER = 4;
+	/**
+	 * State in which rest of connection is ignored.
+	 */
+	private static final int IGNORED = 5;
+	/**
+	 * Name of header that sets cookie, in lower case, with colon.
+	 */
+	private static final String SET_COOKIE = "set-cookie:";
+	/**
+	 * Start of value that sets session cookie.
+	 */
+	private static final String SID = "sid=";
+	/**
+	 * Maximum length of session id.
+	 */
+	private static final int MAX_SID_LENGTH = 64;
+	/**
+	 * Maximum number of collected characters of one line, rest of longer line is ignored.
+	 */
+	private static final int MAX_LINE_LENGTH = 8192;
+	
+	/**
+	 * Current state of scanner.
+	 */
+	private int state = HEADER;
+	/**
+	 * Characters of line being collected.
+	 */
+	private StringBuilder line = new StringBuilder();
+	/**
+	 * Number of lines of current header collected so far.
+	 */
+	private int lines;
+	/**
+	 * Status code of current response.
+	 */
+	private int statusCode;
+	/**
+	 * Content length of current response, or -1 if it isn't given.
+	 */
+	private long contentLength = -1;
+	/**
+	 * Whether body of current response is chunked.
+	 */
+	private boolean chunked;
+	/**
+	 * Number of bytes of body or chunk left to skip.
+	 */
+	private long remaining;
+	
+	/**
+	 * Scans given bytes and returns last session id set in them.
+	 * Header line split between calls is recognized.
+	 * 
+	 * @param data	Array with bytes.
+	 * @param offset	Index of first byte.
+	 * @param length	Number of bytes.
+	 * @return	session id whose header line ended in given bytes, or null if there is none.
+	 */
+	public String scan(byte[] data, int offset, int length) {
+		String found = null;
+		int end = offset + length;
+		
+		for(int i = offset; i < end; i++) {
+			if(state == IGNORED)	break;
+			
+			if(state == BODY || state == CHUNK) {
+				int skipped = (int) Math.min(remaining, end - i);
+				remaining -= skipped;
+				i += skipped - 1;
+				
+				if(remaining == 0) {
+					state = state == BODY ? HEADER : CHUNK_SIZE;
+				}
+				continue;
+			}
+			
+			byte b = data[i];
+			if(b != '\n') {
+				if(b != '\r' && line.length() < MAX_LINE_LENGTH) {
+					line.append((char) (b & 0xFF));
+				}
+				continue;
+			}
+			
+			String sid = endLine(line.toString());
+			if(sid != null) {
+				found = sid;
+			}
+			line.setLength(0);
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Processes line that was just collected.
+	 * 
+	 * @param text	Line without line end.
+	 * @return	session id if line sets it, null otherwise.
+	 */
+	private String endLine(String text) {
+		switch(state) {
+			case HEADER:
+				return endHeaderLine(text);
+			case CHUNK_SIZE:
+				remaining = parseChunkSize(text);
+				if(remaining < 0) {
+					state = IGNORED;
+				} else if(remaining == 0) {
+					state = TRAILER;
+				} else {
+					remaining += 2;
+					state = CHUNK;
+				}
+				return null;
+			case TRAILER:
+				if(text.isEmpty()) {
+					state = HEADER;
+				}
+				return null;
+			default:
+				return null;
+		}
+	}
+	
+	/**
+	 * Processes line of response header.
+	 * Status line gives status code, empty line ends header and
+	 * other lines are checked for session cookie and length of body.
+	 * 
+	 * @param text	Line without line end.
+	 * @return	session id if line sets it, null otherwise.
+	 */
+	private String endHeaderLine(String text) {
+		if(lines == 0) {
+			if(text.isEmpty())	return null;
+			
+			lines++;
+			statusCode = parseStatusCode(text);
+			return null;
+		}
+		
+		if(text.isEmpty()) {
+			endHeader();
+			return null;
+		}
+		
+		lines++;
+		String lower = text.toLowerCase();
+		if(lower.startsWith("content-length:")) {
+			try {
+				contentLength = Long.parseLong(text.substring("content-length:".length()).trim());
+			} catch(NumberFormatException ex) {
+				contentLength = -1;
+			}
+		} else if(lower.startsWith("transfer-encoding:")) {
+			chunked = lower.contains("chunked");
+		} else if(lower.startsWith(SET_COOKIE)) {
+			return parseSid(text.substring(SET_COOKIE.length()));
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Chooses how body of response whose header just ended is skipped.
+	 * Responses with status 1xx, 204 and 304 have no body, and connection
+	 * that switched protocols isn't scanned any more.
+	 */
+	private void endHeader() {
+		if(statusCode == 101) {
+			state = IGNORED;
+		} else if((statusCode >= 100 && statusCode < 200) || statusCode == 204 || statusCode == 304) {
+			state = HEADER;
+		} else if(chunked) {
+			state = CHUNK_SIZE;
+		} else if(contentLength > 0) {
+			remaining = contentLength;
+			state = BODY;
+		} else if(contentLength == 0) {
+			state = HEADER;
+		} else {
+			state = IGNORED;
+		}
+		
+		lines = 0;
+		statusCode = 0;
+		contentLength = -1;
+		chunked = false;
+	}
+	
+	/**
+	 * Returns session id from value of Set-Cookie header, if it sets sid cookie.
+	 * 
+	 * @param value	Value of header.
+	 * @return	session id, or null if header doesn't set sid cookie.
+	 */
+	private static String parseSid(String value) {
+		value = value.trim();
+		if(!value.startsWith(SID))	return null;
+		
+		int start = SID.length();
+		if(start < value.length() && value.charAt(start) == '"') {
+			start++;
+		}
+		
+		int end = start;
+		while(end < value.length() && end - start < MAX_SID_LENGTH && isSidChar(value.charAt(end))) {
+			end++;
+		}
+		
+		return end > start ? value.substring(start, end) : null;
+	}
+	
+	/**
+	 * Returns status code from given status line.
+	 * 
+	 * @param text	Status line.
+	 * @return	status code, or 0 if line has none.
+	 */
+	private static int parseStatusCode(String text) {
+		String[] parts = text.split(" ");
+		if(parts.length < 2)	return 0;
+		
+		try {
+			return Integer.parseInt(parts[1]);
+		} catch(NumberFormatException ex) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Returns size of chunk from given chunk size line.
+	 * 
+	 * @param text	Chunk size line, optionally with extensions.
+	 * @return	size of chunk, or -1 if line isn't valid.
+	 */
+	private static long parseChunkSize(String text) {
+		int semicolon = text.indexOf(';');
+		String size = (semicolon < 0 ? text : text.substring(0, semicolon)).trim();
+		
+		try {
+			long value = Long.parseLong(size, 16);
+			return value < 0 ? -1 : value;
+		} catch(NumberFormatException ex) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Checks whether given character can be part of session id.
+	 * 
+	 * @param c	Character to check.
+	 * @return	true if character is letter or digit.
+	 */
+	private static boolean isSidChar(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+	}
+}
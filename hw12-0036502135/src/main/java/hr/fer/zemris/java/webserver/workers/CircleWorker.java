@@ -7,7 +7,7 @@ import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.ICacheableWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -17,12 +17,23 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * Writes image using given context onto site.
  * Can be accessed by /cw or /ext/CircleWorker.
  * Takes no parameters.
+ * Image is always the same, so client that already has it gets response 304,
+ * and server caches response instead of drawing and encoding image on each request.
  * 
  * @author Martin Sršen
  *
  */
-public class CircleWorker implements IWebWorker {
+public class CircleWorker implements ICacheableWebWorker {
 
+	/**
+	 * Entity tag of generated image.
+	 */
+	private static final String ETAG = "\"circle-200x200\"";
+	/**
+	 * Time in milliseconds for which cached image is valid.
+	 */
+	private static final long CACHE_TTL = 60 * 60 * 1000;
+	
 	/**
 	 * Method that worker implements and determines the way request will be processed.
 	 * 
@@ -31,14 +42,15 @@ public class CircleWorker implements IWebWorker {
 	 */
 	@Override
 	public void processRequest(RequestContext context) throws Exception {
+		context.setMimeType("image/png");
+		if(context.checkNotModified(ETAG, -1))	return;
+		
 		BufferedImage bim = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
 		
 		Graphics2D g2d = bim.createGraphics();
 		g2d.fillOval(0, 0, 200, 200);
 		g2d.dispose();
 		
-		context.setMimeType("image/png");
-		
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
 			ImageIO.write(bim, "png", bos);
@@ -51,5 +63,27 @@ public class CircleWorker implements IWebWorker {
 			e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Returns key under which image is cached.
+	 * Worker takes no parameters, so all requests share same image.
+	 * 
+	 * @param context	RequestContext of request.
+	 * @return	cache key of image.
+	 */
+	@Override
+	public String getCacheKey(RequestContext context) {
+		return "200x200";
+	}
+	
+	/**
+	 * Returns time in milliseconds for which cached image is valid.
+	 * 
+	 * @return	time to live of cached image.
+	 */
+	@Override
+	public long getCacheTTL() {
+		return CACHE_TTL;
+	}
 
 }
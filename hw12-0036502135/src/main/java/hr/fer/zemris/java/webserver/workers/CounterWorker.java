@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IWebSocketWorker;
+import hr.fer.zemris.java.webserver.WebSocket;
+
+/**
+ * Class that implements IWebSocketWorker.
+ * Pushes number of calls of brojPoziva.smscr script in session of client
+ * over WebSocket connection each time it changes, so page showing it
+ * doesn't have to poll server with new requests.
+ * Can be accessed by /counter or /ext/CounterWorker.
+ * Client can send text message refresh to get current number right away.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class CounterWorker implements IWebSocketWorker {
+
+	/**
+	 * Name of persistent parameter that stores number of calls.
+	 */
+	private static final String COUNTER = "brojPoziva";
+	/**
+	 * Time in milliseconds between checks of counters.
+	 */
+	private static final long CHECK_INTERVAL = 500;
+	
+	/**
+	 * Open connections, mapped to last number sent over them.
+	 */
+	private Map<WebSocket, String> sockets = new ConcurrentHashMap<>();
+	/**
+	 * Scheduler that checks counters, or null if no connection was opened yet.
+	 */
+	private ScheduledExecutorService scheduler;
+	
+	/**
+	 * Method called when WebSocket connection is opened.
+	 * Sends current number and starts checking it.
+	 * 
+	 * @param socket	Opened connection.
+	 * @throws IOException	if number can't be sent.
+	 */
+	@Override
+	public void onOpen(WebSocket socket) throws IOException {
+		sockets.put(socket, "");
+		push(socket);
+		startScheduler();
+	}
+	
+	/**
+	 * Method called when client sends text message.
+	 * Sends current number if client asked for refresh.
+	 * 
+	 * @param socket	Connection message was received from.
+	 * @param message	Received message.
+	 * @throws IOException	if number can't be sent.
+	 */
+	@Override
+	public void onMessage(WebSocket socket, String message) throws IOException {
+		if("refresh".equals(message.trim())) {
+			sockets.put(socket, "");
+			push(socket);
+		}
+	}
+	
+	/**
+	 * Method called once connection is closed.
+	 * Stops checking its number.
+	 * 
+	 * @param socket	Closed connection.
+	 */
+	@Override
+	public void onClose(WebSocket socket) {
+		sockets.remove(socket);
+	}
+	
+	/**
+	 * Starts scheduler that checks counters, if it isn't already started.
+	 */
+	private synchronized void startScheduler() {
+		if(scheduler != null)	return;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "counter-push");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::pushAll, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Sends number to all connections whose number changed.
+	 * Connections that can't be written aren't checked anymore.
+	 */
+	private void pushAll() {
+		for(WebSocket socket : sockets.keySet()) {
+			try {
+				push(socket);
+			} catch(IOException ex) {
+				sockets.remove(socket);
+			}
+		}
+	}
+	
+	/**
+	 * Returns number of calls in session of given connection.
+	 * Script stores number it shows on next call, so number of calls is one less.
+	 * 
+	 * @param socket	Connection whose session is read.
+	 * @return	number of calls.
+	 */
+	private static String getCount(WebSocket socket) {
+		String next = socket.getPersistentParameter(COUNTER);
+		if(next == null)	return "0";
+		
+		try {
+			return Integer.toString(Integer.parseInt(next.trim()) - 1);
+		} catch(NumberFormatException ex) {
+			return next;
+		}
+	}
+	
+	/**
+	 * Sends number to given connection if it changed since it was last sent.
+	 * 
+	 * @param socket	Connection number is sent to.
+	 * @throws IOException	if number can't be sent.
+	 */
+	private void push(WebSocket socket) throws IOException {
+		String count = getCount(socket);
+		
+		String last = sockets.get(socket);
+		if(last == null || Objects.equals(last, count))	return;
+		
+		if(sockets.replace(socket, last, count)) {
+			socket.send(count);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.IAsyncWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Class that implements IAsyncWebWorker.
+ * Simulates slow backend, answers request after given delay
+ * without holding server thread while it waits.
+ * Can be accessed by /delay or /ext/DelayWorker.
+ * Takes 1 parameter with key ms and value delay in milliseconds,
+ * default delay is 1000 ms and delay is at most 10000 ms.
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class DelayWorker implements IAsyncWebWorker {
+
+	/**
+	 * Delay in milliseconds used when parameter isn't given.
+	 */
+	private static final long DEFAULT_DELAY = 1000;
+	/**
+	 * Maximum delay in milliseconds.
+	 */
+	private static final long MAX_DELAY = 10000;
+	
+	/**
+	 * Method that starts processing request.
+	 * 
+	 * @param context	RequestContext used to read data from and write data to.
+	 * @return	stage that completes when response is written.
+	 */
+	@Override
+	public CompletionStage<?> processRequestAsync(RequestContext context) {
+		long delay = getDelay(context.getParameter("ms"));
+		
+		return CompletableFuture.runAsync(() -> {
+			context.setMimeType("text/plain");
+			try {
+				context.write("Waited " + delay + " ms.");
+			} catch(IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+	}
+	
+	/**
+	 * Method that returns delay from given parameter.
+	 * 
+	 * @param param	Provided parameter.
+	 * @return	delay in milliseconds, default delay if invalid parameter is given.
+	 */
+	private long getDelay(String param) {
+		if(param == null)	return DEFAULT_DELAY;
+		
+		try {
+			return Math.max(0, Math.min(MAX_DELAY, Long.parseLong(param)));
+		}catch(NumberFormatException ex) {
+			return DEFAULT_DELAY;
+		}
+	}
+}
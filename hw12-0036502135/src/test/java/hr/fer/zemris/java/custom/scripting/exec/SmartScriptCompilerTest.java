@@ -0,0 +1,88 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+public class SmartScriptCompilerTest {
+
+	private static final String FILE_LOC = "webroot/scripts/";
+	
+	@Test
+	public void scriptsGiveSameOutputAsInterpreter() throws IOException {
+		for(String script : new String[] {"osnovni.smscr", "zbrajanje.smscr", "brojPoziva.smscr", "fibonacci.smscr", "fibonaccih.smscr"}) {
+			String body = new String(Files.readAllBytes(Paths.get(FILE_LOC + script)), StandardCharsets.UTF_8);
+			assertSameOutput(body);
+		}
+	}
+	
+	@Test
+	public void nestedLoopsAndFunctionsGiveSameOutput() throws IOException {
+		assertSameOutput("Početak\n{$FOR i 1 3 1$}{$FOR j 1 2 $}[{$= i j * \"x\" @swap $}]{$END$}"
+				+ "{$FOR i 1.5 2.5 0.5$}{$= i \"0.00\" @decfmt @dup 2 / $}{$END$}{$END$} kraj {$= \"a\" 4 @pparamSet \"a\" 0 @pparamGet 30 @sin $}");
+	}
+	
+	@Test
+	public void loopWithoutStepUsesStepOne() throws IOException {
+		DocumentNode document = new SmartScriptParser("{$FOR i 1 3$}{$= i $}{$END$}").getDocumentNode();
+		
+		Assert.assertTrue(execute(document, true).endsWith("123{}"));
+		Assert.assertTrue(execute(document, false).endsWith("123{}"));
+	}
+	
+	@Test
+	public void numberConstantsKeepTheirType() throws IOException {
+		DocumentNode document = new SmartScriptParser("{$FOR i 0 100000 25000$}{$= i 2.5 * $} {$END$}{$= 123456 1 + 0.1 \"3\" * $}")
+				.getDocumentNode();
+		String expected = "0.0 62500.0 125000.0 187500.0 250000.0 1234570.30000000000000004{}";
+		
+		Assert.assertTrue(execute(document, false).endsWith(expected));
+		Assert.assertTrue(execute(document, true).endsWith(expected));
+	}
+	
+	@Test(expected = UnsupportedOperationException.class)
+	public void unknownFunctionIsNotCompiled() {
+		SmartScriptCompiler.compile(new SmartScriptParser("{$= 1 @unknown $}").getDocumentNode());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void missingOperandIsNotCompiled() {
+		SmartScriptCompiler.compile(new SmartScriptParser("{$= 1 + $}").getDocumentNode());
+	}
+	
+	private static void assertSameOutput(String body) throws IOException {
+		DocumentNode document = new SmartScriptParser(body).getDocumentNode();
+		
+		Assert.assertEquals(execute(document, false), execute(document, true));
+	}
+	
+	private static String execute(DocumentNode document, boolean compiled) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Map<String, String> parameters = new HashMap<>();
+		Map<String, String> persistentParameters = new HashMap<>();
+		parameters.put("a", "4");
+		parameters.put("b", "2");
+		RequestContext rc = new RequestContext(os, parameters, persistentParameters, new ArrayList<>());
+		
+		if(compiled) {
+			SmartScriptCompiler.compile(document).execute(rc);
+		} else {
+			new SmartScriptEngine(document, rc).execute();
+		}
+		rc.finish();
+		
+		return os.toString("UTF-8") + persistentParameters;
+	}
+}
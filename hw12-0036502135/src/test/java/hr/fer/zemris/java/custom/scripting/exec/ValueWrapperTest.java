@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ValueWrapperTest {
+
+	@Test
+	public void integersGiveInteger() {
+		ValueWrapper wrapper = new ValueWrapper(Integer.valueOf(7));
+		wrapper.divide("2");
+		
+		Assert.assertEquals(Integer.valueOf(3), wrapper.getValue());
+	}
+	
+	@Test
+	public void integerAndDoubleGiveDouble() {
+		ValueWrapper wrapper = new ValueWrapper(null);
+		wrapper.add("1.5");
+		wrapper.multiply(Integer.valueOf(2));
+		
+		Assert.assertEquals(Double.valueOf(3), wrapper.getValue());
+	}
+	
+	@Test
+	public void stringIsParsedOnce() {
+		ValueWrapper wrapper = new ValueWrapper(" 12 ");
+		wrapper.subtract(null);
+		
+		Assert.assertEquals(Integer.valueOf(12), wrapper.getValue());
+		Assert.assertEquals(0, wrapper.numCompare("1.2E1"));
+		Assert.assertEquals(1, wrapper.numCompare(Double.valueOf(11.5)));
+	}
+	
+	@Test
+	public void wrapperOperandIsUsedAsText() {
+		ValueWrapper wrapper = new ValueWrapper("5");
+		ValueWrapper copy = wrapper.copy();
+		wrapper.apply(ValueWrapper.ADD, new ValueWrapper(Double.valueOf(0.5)));
+		copy.apply(ValueWrapper.MULTIPLY, new ValueWrapper("2"));
+		
+		Assert.assertEquals("5.5", wrapper.toString());
+		Assert.assertEquals(Integer.valueOf(10), copy.getValue());
+		Assert.assertEquals(-1, copy.compareWith(new ValueWrapper("1e2")));
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void infiniteOperandIsInvalid() {
+		new ValueWrapper(Integer.valueOf(1)).apply(ValueWrapper.ADD, new ValueWrapper(Double.valueOf(Double.POSITIVE_INFINITY)));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void divisionByZeroThrows() {
+		new ValueWrapper(Integer.valueOf(1)).divide(Integer.valueOf(0));
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void invalidTypeThrows() {
+		new ValueWrapper(new Object()).add(Integer.valueOf(1));
+	}
+}
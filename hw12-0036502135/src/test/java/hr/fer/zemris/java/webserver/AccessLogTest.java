@@ -0,0 +1,129 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void recordIsFormattedInCombinedFormatWithDuration() {
+		StringBuilder sb = new StringBuilder();
+		new AccessLog.Record("127.0.0.1", 0, "GET /a?x=\"1\" HTTP/1.1", 200, 512,
+				null, "curl/7.0", 1500).appendTo(sb);
+		
+		String line = sb.toString();
+		Assert.assertTrue(line.startsWith("127.0.0.1 - - ["));
+		Assert.assertTrue(line.endsWith("] \"GET /a?x=\\\"1\\\" HTTP/1.1\" 200 512 \"-\" \"curl/7.0\" 1500\n"));
+	}
+	
+	@Test
+	public void recordsAreWrittenBeforeStop() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("logs/access.log");
+		AccessLog log = new AccessLog(file, 16, 0, 0);
+		log.start();
+		
+		for(int i = 0; i < 100; i++) {
+			log.log(record("GET /" + i + " HTTP/1.1"));
+		}
+		log.stop();
+		
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		Assert.assertEquals(100 - log.getDropped(), lines.size());
+		Assert.assertTrue(lines.get(0).contains("\"GET /0 HTTP/1.1\""));
+	}
+	
+	@Test
+	public void fullBufferDropsRecords() throws IOException {
+		AccessLog log = new AccessLog(folder.getRoot().toPath().resolve("access.log"), 3, 0, 0);
+		
+		for(int i = 0; i < 6; i++) {
+			log.log(record("GET / HTTP/1.1"));
+		}
+		Assert.assertEquals(2, log.getDropped());
+		
+		log.start();
+		log.stop();
+		Assert.assertEquals(4, Files.readAllLines(folder.getRoot().toPath().resolve("access.log")).size());
+	}
+	
+	@Test
+	public void logIsRotatedWhenItGrowsOverMaximalSize() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("access.log");
+		AccessLog log = new AccessLog(file, 1024, 150, 0);
+		
+		log.log(record("GET /first HTTP/1.1"));
+		log.start();
+		waitForSize(file);
+		log.log(record("GET /second HTTP/1.1"));
+		log.stop();
+		
+		List<Path> rotated;
+		try(Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			rotated = files.filter(p -> !p.equals(file)).collect(Collectors.toList());
+		}
+		Assert.assertEquals(1, rotated.size());
+		Assert.assertTrue(rotated.get(0).getFileName().toString().startsWith("access.log."));
+		Assert.assertTrue(new String(Files.readAllBytes(rotated.get(0)), StandardCharsets.UTF_8).contains("/first"));
+		Assert.assertTrue(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains("/second"));
+	}
+	
+	@Test
+	public void writerRecoversAfterFailedRotation() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("access.log");
+		AccessLog log = new AccessLog(file, 1024, 150, 0);
+		
+		log.log(record("GET /first HTTP/1.1"));
+		log.start();
+		waitForSize(file);
+		Files.delete(file);
+		log.log(record("GET /second HTTP/1.1"));
+		
+		for(int i = 0; i < 500 && !(Files.exists(file) && Files.size(file) > 0); i++) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+		log.log(record("GET /third HTTP/1.1"));
+		log.stop();
+		
+		StringBuilder content = new StringBuilder();
+		try(Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			for(Path p : files.collect(Collectors.toList())) {
+				content.append(new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+			}
+		}
+		Assert.assertTrue(content.indexOf("/second") >= 0);
+		Assert.assertTrue(content.indexOf("/third") >= 0);
+		Assert.assertEquals(0, log.getDropped());
+	}
+	
+	private static AccessLog.Record record(String requestLine) {
+		return new AccessLog.Record("10.0.0.1", System.currentTimeMillis(), requestLine, 200, 100,
+				"http://localhost/", "test", 10);
+	}
+	
+	private static void waitForSize(Path file) throws IOException {
+		for(int i = 0; i < 500 && Files.size(file) == 0; i++) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package hr.fer.zemris.java.webserver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdmissionControlTest {
+
+	@Test
+	public void connectionsOfClientAreLimited() throws UnknownHostException {
+		AdmissionControl admission = new AdmissionControl(0, 2);
+		InetAddress a = InetAddress.getByName("10.0.0.1");
+		InetAddress b = InetAddress.getByName("10.0.0.2");
+		
+		Assert.assertTrue(admission.acquireConnection(a));
+		Assert.assertTrue(admission.acquireConnection(a));
+		Assert.assertFalse(admission.acquireConnection(a));
+		Assert.assertTrue(admission.acquireConnection(b));
+		Assert.assertEquals(2, admission.getConnections(a));
+		
+		admission.releaseConnection(a);
+		Assert.assertTrue(admission.acquireConnection(a));
+		
+		admission.releaseConnection(a);
+		admission.releaseConnection(a);
+		Assert.assertEquals(0, admission.getConnections(a));
+	}
+	
+	@Test
+	public void trustedProxyIsntLimited() throws UnknownHostException {
+		InetAddress proxy = InetAddress.getByName("127.0.0.1");
+		InetAddress client = InetAddress.getByName("10.0.0.1");
+		AdmissionControl admission = new AdmissionControl(0, 1, Collections.singleton(proxy));
+		
+		for(int i = 0; i < 10; i++) {
+			Assert.assertTrue(admission.acquireConnection(proxy));
+		}
+		Assert.assertEquals(0, admission.getConnections(proxy));
+		admission.releaseConnection(proxy);
+		
+		Assert.assertTrue(admission.isTrustedProxy(proxy));
+		Assert.assertFalse(admission.isTrustedProxy(client));
+		Assert.assertTrue(admission.acquireConnection(client));
+		Assert.assertFalse(admission.acquireConnection(client));
+	}
+	
+	@Test
+	public void queueIsBounded() {
+		AdmissionControl admission = new AdmissionControl(2, 0);
+		
+		Assert.assertTrue(admission.enqueue());
+		Assert.assertTrue(admission.enqueue());
+		Assert.assertFalse(admission.enqueue());
+		Assert.assertEquals(2, admission.getQueued());
+		
+		admission.dequeue();
+		Assert.assertTrue(admission.enqueue());
+	}
+	
+	@Test
+	public void zeroMeansNoLimit() throws UnknownHostException {
+		AdmissionControl admission = new AdmissionControl(0, 0);
+		InetAddress a = InetAddress.getByName("10.0.0.1");
+		
+		for(int i = 0; i < 1000; i++) {
+			Assert.assertTrue(admission.acquireConnection(a));
+			Assert.assertTrue(admission.enqueue());
+		}
+		Assert.assertEquals(1000, admission.getQueued());
+	}
+}
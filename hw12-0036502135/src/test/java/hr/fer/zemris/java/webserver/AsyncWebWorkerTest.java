@@ -0,0 +1,40 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.workers.DelayWorker;
+
+public class AsyncWebWorkerTest {
+
+	@Test
+	public void synchronousCallWaitsForResponse() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Map<String, String> params = new HashMap<>();
+		params.put("ms", "50");
+		RequestContext rc = new RequestContext(os, params, null, new ArrayList<>());
+		
+		long start = System.nanoTime();
+		new DelayWorker().processRequest(rc);
+		Assert.assertTrue(System.nanoTime() - start >= 50_000_000L);
+		
+		rc.finish();
+		Assert.assertTrue(new String(os.toByteArray(), StandardCharsets.ISO_8859_1).endsWith("\r\n\r\nWaited 50 ms."));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void synchronousCallThrowsCauseOfFailure() throws Exception {
+		IAsyncWebWorker worker = context -> CompletableFuture.runAsync(() -> {
+			throw new IllegalStateException("Backend is down.");
+		});
+		
+		worker.processRequest(new RequestContext(new ByteArrayOutputStream(), null, null, null));
+	}
+}
@@ -0,0 +1,44 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+	@Test
+	public void singleRangesAreParsed() {
+		Assert.assertEquals("[0-99]", ByteRange.parse("bytes=0-99", 1000, 16).toString());
+		Assert.assertEquals("[900-999]", ByteRange.parse("bytes=900-", 1000, 16).toString());
+		Assert.assertEquals("[800-999]", ByteRange.parse("bytes=-200", 1000, 16).toString());
+		Assert.assertEquals("[0-999]", ByteRange.parse("bytes=-5000", 1000, 16).toString());
+		Assert.assertEquals("[990-999]", ByteRange.parse("BYTES=990-5000", 1000, 16).toString());
+	}
+	
+	@Test
+	public void overlappingRangesAreJoined() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=500-600, 0-9, 10-19, 550-700", 1000, 16);
+		
+		Assert.assertEquals("[0-19, 500-700]", ranges.toString());
+		Assert.assertEquals(201, ranges.get(1).getLength());
+		Assert.assertEquals("bytes 500-700/1000", ranges.get(1).toContentRange(1000));
+	}
+	
+	@Test
+	public void unsatisfiableRangesGiveEmptyList() {
+		Assert.assertTrue(ByteRange.parse("bytes=1000-", 1000, 16).isEmpty());
+		Assert.assertTrue(ByteRange.parse("bytes=-0", 1000, 16).isEmpty());
+		Assert.assertTrue(ByteRange.parse("bytes=0-", 0, 16).isEmpty());
+	}
+	
+	@Test
+	public void invalidHeadersAreIgnored() {
+		Assert.assertNull(ByteRange.parse(null, 1000, 16));
+		Assert.assertNull(ByteRange.parse("items=0-5", 1000, 16));
+		Assert.assertNull(ByteRange.parse("bytes=5-2", 1000, 16));
+		Assert.assertNull(ByteRange.parse("bytes=a-b", 1000, 16));
+		Assert.assertNull(ByteRange.parse("bytes=0-1,", 1000, 16));
+		Assert.assertNull(ByteRange.parse("bytes=0-1,2-3,4-5", 1000, 2));
+	}
+}
@@ -0,0 +1,121 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentEncodingTest {
+
+	@Test
+	public void negotiatePrefersGzip() {
+		Assert.assertEquals("gzip", ContentEncoding.negotiate("gzip, deflate, br"));
+		Assert.assertEquals("gzip", ContentEncoding.negotiate("deflate, gzip"));
+		Assert.assertEquals("deflate", ContentEncoding.negotiate("deflate"));
+		Assert.assertEquals("deflate", ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+		Assert.assertEquals("gzip", ContentEncoding.negotiate("*"));
+	}
+	
+	@Test
+	public void negotiateRespectsZeroQuality() {
+		Assert.assertNull(ContentEncoding.negotiate(null));
+		Assert.assertNull(ContentEncoding.negotiate("identity"));
+		Assert.assertNull(ContentEncoding.negotiate("gzip;q=0, deflate;q=0"));
+		Assert.assertEquals("deflate", ContentEncoding.negotiate("*, gzip;q=0"));
+	}
+	
+	@Test
+	public void encodedDataCanBeDecoded() throws IOException {
+		byte[] data = "Tekst koji se ponavlja. Tekst koji se ponavlja. Tekst koji se ponavlja."
+				.getBytes(StandardCharsets.UTF_8);
+		
+		byte[] gzip = ContentEncoding.encode(data, ContentEncoding.GZIP);
+		Assert.assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+		
+		byte[] deflate = ContentEncoding.encode(data, ContentEncoding.DEFLATE);
+		Assert.assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+	}
+	
+	@Test
+	public void contextCompressesCompressibleBody() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(64);
+		rc.setChunkingAllowed(true);
+		rc.setCompression(ContentEncoding.GZIP, type -> type.startsWith("text/"));
+		
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 200; i++) {
+			rc.write("Redak " + i + "\n");
+			expected.append("Redak " + i + "\n");
+		}
+		rc.finish();
+		
+		byte[] response = os.toByteArray();
+		String header = headerOf(response);
+		Assert.assertTrue(header.contains("Content-Encoding: gzip\r\n"));
+		Assert.assertTrue(header.contains("Vary: Accept-Encoding\r\n"));
+		Assert.assertTrue(header.contains("Transfer-Encoding: chunked\r\n"));
+		
+		byte[] body = decodeChunked(Arrays.copyOfRange(response, header.length(), response.length));
+		byte[] decoded = readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+		Assert.assertEquals(expected.toString(), new String(decoded, StandardCharsets.UTF_8));
+	}
+	
+	@Test
+	public void contextDoesntCompressOtherTypes() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(1024);
+		rc.setMimeType("image/png");
+		rc.setCompression(ContentEncoding.GZIP, type -> type.startsWith("text/"));
+		
+		rc.write(new byte[] {1, 2, 3});
+		rc.finish();
+		
+		String header = headerOf(os.toByteArray());
+		Assert.assertFalse(header.contains("Content-Encoding"));
+		Assert.assertFalse(header.contains("Vary"));
+		Assert.assertTrue(header.contains("Content-Length: 3\r\n"));
+	}
+	
+	private static String headerOf(byte[] response) {
+		String text = new String(response, StandardCharsets.ISO_8859_1);
+		return text.substring(0, text.indexOf("\r\n\r\n") + 4);
+	}
+	
+	private static byte[] decodeChunked(byte[] body) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		String text = new String(body, StandardCharsets.ISO_8859_1);
+		
+		int pos = 0;
+		while(true) {
+			int lineEnd = text.indexOf("\r\n", pos);
+			int size = Integer.parseInt(text.substring(pos, lineEnd), 16);
+			if(size == 0)	break;
+			
+			os.write(body, lineEnd + 2, size);
+			pos = lineEnd + 2 + size + 2;
+		}
+		
+		return os.toByteArray();
+	}
+	
+	private static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int read;
+		while((read = is.read(buf)) > 0) {
+			os.write(buf, 0, read);
+		}
+		
+		return os.toByteArray();
+	}
+}
@@ -0,0 +1,65 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+public class HeaderEncoderTest {
+
+	@Test
+	public void headerMatchesStringEncoding() {
+		for(int i = 0; i < 2; i++) {
+			HeaderEncoder encoder = HeaderEncoder.get()
+					.status(200, "OK")
+					.contentLength(1234567890123L)
+					.contentType("text/html", "UTF-8")
+					.lastModified(0)
+					.header("Vary", "Accept-Encoding")
+					.connection(true)
+					.cookie(new RCCookie("sid", "ABC", 600, "localhost", "/", true))
+					.end();
+			
+			Assert.assertEquals("HTTP/1.1 200 OK\r\n"
+					+ "Content-Length: 1234567890123\r\n"
+					+ "Content-Type: text/html; charset=UTF-8\r\n"
+					+ "Last-Modified: " + RequestContext.formatDate(0) + "\r\n"
+					+ "Vary: Accept-Encoding\r\n"
+					+ "Connection: keep-alive\r\n"
+					+ "Set-Cookie: sid=\"ABC\"; Domain=localhost; Path=/; Max-Age=600; HttpOnly\r\n"
+					+ "\r\n", new String(encoder.toByteArray(), StandardCharsets.ISO_8859_1));
+		}
+	}
+	
+	@Test
+	public void cachedStatusLineIsUsedOnlyForSameText() {
+		HeaderEncoder.get().status(299, "First");
+		
+		Assert.assertEquals("HTTP/1.1 299 Second\r\n",
+				new String(HeaderEncoder.get().status(299, "Second").toByteArray(), StandardCharsets.ISO_8859_1));
+		Assert.assertEquals("HTTP/1.1 299 First\r\n",
+				new String(HeaderEncoder.get().status(299, "First").toByteArray(), StandardCharsets.ISO_8859_1));
+	}
+	
+	@Test
+	public void textOutsideOfCharsetIsReplaced() {
+		byte[] bytes = HeaderEncoder.get().append("ašé😀").append(-5).toByteArray();
+		
+		Assert.assertArrayEquals("a?é?-5".getBytes(StandardCharsets.ISO_8859_1), bytes);
+	}
+	
+	@Test
+	public void bufferGrowsForLongHeaders() {
+		StringBuilder value = new StringBuilder();
+		for(int i = 0; i < 1000; i++) {
+			value.append('x');
+		}
+		
+		HeaderEncoder encoder = HeaderEncoder.get().header("X-Long", value.toString());
+		Assert.assertEquals(1000 + 10, encoder.length());
+		Assert.assertSame(HeaderEncoder.get(), encoder);
+		Assert.assertEquals(0, encoder.length());
+	}
+}
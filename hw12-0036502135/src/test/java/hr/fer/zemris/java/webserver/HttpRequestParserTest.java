@@ -0,0 +1,101 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.HttpRequestParser.Status;
+
+public class HttpRequestParserTest {
+
+	@Test
+	public void parsesRequestLineAndHeaders() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024);
+		InputStream is = stream("GET /index.html HTTP/1.1\r\nHost: localhost:5721\r\n"
+				+ "accept-encoding: gzip\r\nX-Long: first\r\n\tsecond\r\nAccept-Encoding: br\r\n\r\n");
+		
+		Assert.assertEquals(Status.REQUEST, parser.next(is));
+		Assert.assertEquals("GET /index.html HTTP/1.1", parser.getRequestLine());
+		Assert.assertEquals("localhost:5721", parser.getHeader("host"));
+		Assert.assertEquals("gzip, br", parser.getHeader("Accept-Encoding"));
+		Assert.assertEquals("first second", parser.getHeader("X-Long"));
+		Assert.assertNull(parser.getHeader("Accept"));
+		Assert.assertNull(parser.getHeader("X"));
+		Assert.assertEquals(Status.CLOSED, parser.next(is));
+	}
+	
+	@Test
+	public void readsPipelinedRequestsFromSlowStream() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024);
+		byte[] bytes = "GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\nConnection: close\n\n".getBytes(StandardCharsets.ISO_8859_1);
+		InputStream is = new ByteArrayInputStream(bytes) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		};
+		
+		Assert.assertEquals(Status.REQUEST, parser.next(is));
+		Assert.assertEquals("GET /a HTTP/1.1", parser.getRequestLine());
+		Assert.assertEquals(Status.REQUEST, parser.next(is));
+		Assert.assertEquals("GET /b HTTP/1.1", parser.getRequestLine());
+		Assert.assertEquals("close", parser.getHeader("Connection"));
+		Assert.assertFalse(parser.hasBuffered());
+	}
+	
+	@Test
+	public void keepsBytesOfNextRequest() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024);
+		parser.feed("GET /a HTTP/1.1\r\n\r\nGET /b".getBytes(StandardCharsets.ISO_8859_1));
+		
+		Assert.assertEquals(Status.REQUEST, parser.next(stream(" HTTP/1.1\r\n\r\n")));
+		Assert.assertTrue(parser.hasBuffered());
+		Assert.assertEquals(Status.REQUEST, parser.next(stream(" HTTP/1.1\r\n\r\n")));
+		Assert.assertEquals("GET /b HTTP/1.1", parser.getRequestLine());
+	}
+	
+	@Test
+	public void returnsHeaderTogetherWithFollowingBytes() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024);
+		parser.next(stream("GET /a HTTP/1.1\r\n\r\nGET /b"));
+		
+		Assert.assertEquals("GET /a HTTP/1.1\r\n\r\nGET /b", new String(parser.getBytes(), StandardCharsets.ISO_8859_1));
+	}
+	
+	@Test
+	public void findsCookieValue() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(1024);
+		parser.next(stream("GET / HTTP/1.1\r\nCookie: a=1; sid=\"ABC\" ; xsid=2\r\nCookie: b=3\r\n\r\n"));
+		
+		Assert.assertEquals("ABC", parser.getCookie("sid"));
+		Assert.assertEquals("3", parser.getCookie("b"));
+		Assert.assertNull(parser.getCookie("c"));
+	}
+	
+	@Test
+	public void rejectsTooLargeHeader() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(64);
+		StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+		for(int i = 0; i < 10; i++) {
+			sb.append("X-Header: value\r\n");
+		}
+		
+		Assert.assertEquals(Status.TOO_LARGE, parser.next(stream(sb.append("\r\n").toString())));
+	}
+	
+	@Test
+	public void emptyRequestLineIsEmpty() throws IOException {
+		HttpRequestParser parser = new HttpRequestParser(64);
+		
+		Assert.assertEquals(Status.REQUEST, parser.next(stream("\n\n")));
+		Assert.assertEquals("", parser.getRequestLine());
+	}
+	
+	private static InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+}
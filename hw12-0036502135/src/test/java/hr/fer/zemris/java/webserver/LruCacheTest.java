@@ -0,0 +1,39 @@
+package hr.fer.zemris.java.webserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LruCacheTest {
+
+	@Test
+	public void leastRecentlyUsedValuesAreRemovedByWeight() {
+		LruCache<String, String> cache = new LruCache<>(6, String::length);
+		cache.put("a", "aa");
+		cache.put("b", "bb");
+		cache.put("c", "cc");
+		Assert.assertEquals("aa", cache.get("a"));
+		
+		cache.put("d", "ddd");
+		Assert.assertNull(cache.get("b"));
+		Assert.assertNull(cache.get("c"));
+		Assert.assertEquals("aa", cache.get("a"));
+		Assert.assertEquals(5, cache.weight());
+		Assert.assertEquals(2, cache.size());
+	}
+	
+	@Test
+	public void replacedAndRemovedValuesUpdateWeight() {
+		LruCache<String, String> cache = new LruCache<>(100, String::length);
+		cache.put("a", "aaaa");
+		cache.put("a", "a");
+		cache.put("ab", "ab");
+		cache.put("b", "bbb");
+		Assert.assertEquals(6, cache.weight());
+		
+		Assert.assertFalse(cache.remove("b", "other"));
+		cache.removeIf(key -> key.startsWith("a"));
+		Assert.assertEquals(3, cache.weight());
+		Assert.assertEquals("bbb", cache.remove("b"));
+		Assert.assertEquals(0, cache.weight());
+	}
+}
@@ -0,0 +1,269 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestContextTest {
+
+	@Test
+	public void unbufferedContextWritesHeaderOnFirstWrite() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		
+		rc.write("Tekst");
+		String response = asString(os);
+		Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		Assert.assertTrue(response.endsWith("\r\n\r\nTekst"));
+		Assert.assertFalse(response.contains("Content-Length"));
+		Assert.assertTrue(response.contains("Connection: close\r\n"));
+	}
+	
+	@Test
+	public void bufferedBodyGetsContentLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(1024);
+		rc.setKeepAlive(true);
+		
+		rc.write("Čevapčići ");
+		rc.write("i Šiščevapčići.");
+		Assert.assertEquals(0, os.size());
+		
+		rc.finish();
+		String response = asString(os);
+		Assert.assertTrue(response.contains("Content-Length: 33\r\n"));
+		Assert.assertTrue(response.contains("Connection: keep-alive\r\n"));
+		Assert.assertTrue(response.endsWith("\r\n\r\nČevapčići i Šiščevapčići."));
+		Assert.assertTrue(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void overflowingBodyIsChunked() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(64);
+		rc.setChunkingAllowed(true);
+		rc.setKeepAlive(true);
+		
+		for(int i = 0; i < 10; i++) {
+			rc.write("0123456789");
+		}
+		rc.finish();
+		
+		String response = asString(os);
+		Assert.assertTrue(response.contains("Transfer-Encoding: chunked\r\n"));
+		Assert.assertTrue(response.endsWith("789\r\n0\r\n\r\n"));
+		Assert.assertEquals(100, decodeChunked(response.substring(response.indexOf("\r\n\r\n") + 4)).length());
+		Assert.assertTrue(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void unknownLengthWithoutChunkingClosesConnection() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(64);
+		rc.setKeepAlive(true);
+		
+		rc.write(new byte[100]);
+		rc.finish();
+		
+		Assert.assertTrue(asString(os).contains("Connection: close\r\n"));
+		Assert.assertFalse(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void emptyResponseIsFinished() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		
+		rc.finish();
+		Assert.assertTrue(asString(os).contains("Content-Length: 0\r\n"));
+	}
+	
+	@Test(expected = RuntimeException.class)
+	public void propertiesCantChangeAfterWrite() throws IOException {
+		RequestContext rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		rc.setBufferSize(1024);
+		
+		rc.write("a");
+		rc.setMimeType("text/plain");
+	}
+	
+	@Test
+	public void matchingETagGivesNotModified() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setBufferSize(1024);
+		rc.setKeepAlive(true);
+		rc.setRequestHeaders(headers("if-none-match", "\"x\", W/\"abc\""));
+		
+		Assert.assertTrue(rc.checkNotModified("\"abc\"", 0));
+		rc.write("ignored");
+		rc.finish();
+		
+		String response = asString(os);
+		Assert.assertTrue(response.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+		Assert.assertTrue(response.contains("ETag: \"abc\"\r\n"));
+		Assert.assertTrue(response.contains("Last-Modified: Thu, 1 Jan 1970 00:00:00 GMT\r\n"));
+		Assert.assertFalse(response.contains("Content-Length"));
+		Assert.assertTrue(response.endsWith("\r\n\r\n"));
+		Assert.assertTrue(rc.isKeepAlive());
+	}
+	
+	@Test
+	public void differentETagGivesFullResponse() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setRequestHeaders(headers("if-none-match", "\"old\""));
+		
+		Assert.assertFalse(rc.checkNotModified("\"new\"", -1));
+		rc.write("body");
+		
+		String response = asString(os);
+		Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		Assert.assertTrue(response.contains("ETag: \"new\"\r\n"));
+		Assert.assertFalse(response.contains("Last-Modified"));
+	}
+	
+	@Test
+	public void modifiedSinceIsComparedInSeconds() {
+		RequestContext rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		rc.setRequestHeaders(headers("if-modified-since", "Sun, 06 Nov 1994 08:49:37 GMT"));
+		Assert.assertTrue(rc.checkNotModified(null, 784111777999L));
+		
+		rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		rc.setRequestHeaders(headers("if-modified-since", "Sun, 06 Nov 1994 08:49:37 GMT"));
+		Assert.assertFalse(rc.checkNotModified(null, 784111778000L));
+		
+		rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		rc.setRequestHeaders(headers("if-modified-since", "invalid date"));
+		Assert.assertFalse(rc.checkNotModified(null, 0));
+	}
+	
+	@Test
+	public void prebuiltHeaderLinesReplaceBodyHeaders() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setHeader("Vary", "Accept-Encoding");
+		
+		byte[] lines = "Content-Length: 5\r\nContent-Type: text/css\r\n".getBytes(StandardCharsets.ISO_8859_1);
+		rc.writeResponse(lines, "a {} ".getBytes(StandardCharsets.UTF_8));
+		
+		String response = asString(os);
+		Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\nContent-Length: 5\r\nContent-Type: text/css\r\nVary: Accept-Encoding\r\n"));
+		Assert.assertTrue(response.endsWith("\r\n\r\na {} "));
+		Assert.assertEquals(os.size(), rc.getBytesSent());
+	}
+	
+	@Test
+	public void ifRangeMustMatchStrongETagOrDate() throws IOException {
+		RequestContext rc = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+		rc.checkNotModified("\"abc\"", 1500);
+		Assert.assertTrue(rc.isRangeApplicable());
+		
+		rc.setRequestHeaders(headers("if-range", "\"abc\""));
+		Assert.assertTrue(rc.isRangeApplicable());
+		rc.setRequestHeaders(headers("if-range", "W/\"abc\""));
+		Assert.assertFalse(rc.isRangeApplicable());
+		rc.setRequestHeaders(headers("if-range", "Thu, 1 Jan 1970 00:00:01 GMT"));
+		Assert.assertTrue(rc.isRangeApplicable());
+		rc.setRequestHeaders(headers("if-range", "Thu, 1 Jan 1970 00:00:02 GMT"));
+		Assert.assertFalse(rc.isRangeApplicable());
+	}
+	
+	@Test
+	public void byteBufferIsWrittenWithoutChannel() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setContentLength(3L);
+		
+		ByteBuffer data = ByteBuffer.wrap("xabcx".getBytes(StandardCharsets.UTF_8));
+		data.position(1).limit(4);
+		rc.write(data);
+		rc.finish();
+		
+		String response = asString(os);
+		Assert.assertTrue(response.contains("Content-Length: 3\r\n"));
+		Assert.assertTrue(response.endsWith("\r\n\r\nabc"));
+	}
+	
+	@Test
+	public void emptyAndShortFileKeepChunkedBodyValid() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setChunkingAllowed(true);
+		rc.setKeepAlive(true);
+		
+		Path file = Files.createTempFile("chunked", ".txt");
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+			channel.write(ByteBuffer.wrap("abcde".getBytes(StandardCharsets.UTF_8)));
+			
+			rc.write(channel, 0, 0);
+			rc.write(channel, 1, 100);
+			rc.write("end");
+			rc.finish();
+		} finally {
+			Files.delete(file);
+		}
+		
+		String response = asString(os);
+		Assert.assertEquals("bcdeend", decodeChunked(response.substring(response.indexOf("\r\n\r\n") + 4)));
+		Assert.assertTrue(response.endsWith("end\r\n0\r\n\r\n"));
+	}
+	
+	@Test
+	public void emptyByteBufferDoesntEndChunkedBody() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setOutputChannel(Channels.newChannel(os));
+		rc.setChunkingAllowed(true);
+		rc.setKeepAlive(true);
+		
+		rc.write(ByteBuffer.allocate(0));
+		rc.write(ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8)));
+		rc.write(ByteBuffer.allocate(0));
+		rc.finish();
+		
+		String response = asString(os);
+		Assert.assertEquals("abc", decodeChunked(response.substring(response.indexOf("\r\n\r\n") + 4)));
+		Assert.assertTrue(response.endsWith("abc\r\n0\r\n\r\n"));
+	}
+	
+	private static Map<String, String> headers(String name, String value) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put(name, value);
+		return headers;
+	}
+	
+	private static String asString(ByteArrayOutputStream os) {
+		return new String(os.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	private static String decodeChunked(String body) {
+		StringBuilder sb = new StringBuilder();
+		int pos = 0;
+		
+		while(true) {
+			int lineEnd = body.indexOf("\r\n", pos);
+			int size = Integer.parseInt(body.substring(pos, lineEnd), 16);
+			if(size == 0)	break;
+			
+			sb.append(body, lineEnd + 2, lineEnd + 2 + size);
+			pos = lineEnd + 4 + size;
+		}
+		
+		return sb.toString();
+	}
+}
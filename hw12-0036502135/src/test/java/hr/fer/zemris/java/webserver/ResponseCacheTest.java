@@ -0,0 +1,123 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+
+public class ResponseCacheTest {
+
+	@Test
+	public void renderedResponseIsReusedUntilItExpires() throws Exception {
+		ResponseCache cache = new ResponseCache(1024);
+		AtomicInteger renders = new AtomicInteger();
+		
+		ResponseCache.Entry first = cache.get("a", 60000, () -> render("body " + renders.incrementAndGet(), false));
+		Assert.assertSame(first, cache.get("a", 60000, () -> render("body " + renders.incrementAndGet(), false)));
+		Assert.assertEquals(1, renders.get());
+		
+		cache.get("b", 0, () -> render("body " + renders.incrementAndGet(), false));
+		cache.get("b", 0, () -> render("body " + renders.incrementAndGet(), false));
+		Assert.assertEquals(3, renders.get());
+	}
+	
+	@Test
+	public void responseWithCookiesIsNotCached() throws Exception {
+		ResponseCache cache = new ResponseCache(1024);
+		
+		ResponseCache.Entry first = cache.get("a", 60000, () -> render("x", true));
+		Assert.assertFalse(first.isCacheable());
+		Assert.assertNotSame(first, cache.get("a", 60000, () -> render("x", true)));
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void concurrentMissesAreRenderedOnce() throws Exception {
+		ResponseCache cache = new ResponseCache(1024);
+		AtomicInteger renders = new AtomicInteger();
+		CountDownLatch rendering = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<ResponseCache.Entry>> results = new ArrayList<>();
+			results.add(pool.submit(() -> cache.get("a", 60000, () -> {
+				renders.incrementAndGet();
+				rendering.countDown();
+				release.await();
+				return render("shared", false);
+			})));
+			rendering.await();
+			
+			for(int i = 0; i < 3; i++) {
+				results.add(pool.submit(() -> cache.get("a", 60000, () -> {
+					renders.incrementAndGet();
+					return render("other", false);
+				})));
+			}
+			Thread.sleep(50);
+			release.countDown();
+			
+			for(Future<ResponseCache.Entry> result : results) {
+				Assert.assertEquals("shared", new String(result.get(5, TimeUnit.SECONDS).getBody(), StandardCharsets.UTF_8));
+			}
+			Assert.assertEquals(1, renders.get());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void cachedResponseIsWrittenWithNewConnectionHeaders() throws Exception {
+		ResponseCache.Entry entry = render("cached", false);
+		
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext rc = new RequestContext(os, null, null, null);
+		rc.setKeepAlive(true);
+		entry.writeTo(rc);
+		rc.finish();
+		
+		String response = new String(os.toByteArray(), StandardCharsets.ISO_8859_1);
+		Assert.assertTrue(response.startsWith("HTTP/1.1 200 OK\r\nContent-Length: 6\r\n"));
+		Assert.assertTrue(response.contains("ETag: \"v1\"\r\n"));
+		Assert.assertTrue(response.contains("Connection: keep-alive\r\n"));
+		Assert.assertTrue(response.endsWith("\r\n\r\ncached"));
+		
+		os.reset();
+		Map<String, String> headers = new HashMap<>();
+		headers.put("if-none-match", "\"v1\"");
+		rc = new RequestContext(os, null, null, null);
+		rc.setRequestHeaders(headers);
+		entry.writeTo(rc);
+		rc.finish();
+		Assert.assertTrue(new String(os.toByteArray(), StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 304 Not Modified\r\n"));
+	}
+	
+	private static ResponseCache.Entry render(String body, boolean setCookie) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		List<RCCookie> cookies = new ArrayList<>();
+		RequestContext rc = new RequestContext(os, null, null, cookies);
+		rc.setMimeType("text/plain");
+		rc.checkNotModified("\"v1\"", -1);
+		if(setCookie) {
+			rc.addRCCookie(new RCCookie("a", "b", null, null, null));
+		}
+		rc.write(body);
+		rc.finish();
+		
+		return new ResponseCache.Entry(rc, os.toByteArray(), cookies);
+	}
+}
@@ -0,0 +1,98 @@
+package hr.fer.zemris.java.webserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerMetricsTest {
+
+	@Test
+	public void histogramCountsSmallValuesExactly() {
+		LatencyHistogram h = new LatencyHistogram();
+		for(int i = 1; i <= 10; i++) {
+			h.record(i);
+		}
+		
+		Assert.assertEquals(10, h.getCount());
+		Assert.assertEquals(5.5, h.getMean(), 1e-9);
+		Assert.assertEquals(5, h.getPercentile(50));
+		Assert.assertEquals(9, h.getPercentile(90));
+		Assert.assertEquals(10, h.getPercentile(100));
+		Assert.assertEquals(10, h.getMax());
+	}
+	
+	@Test
+	public void histogramPercentilesHaveBoundedError() {
+		LatencyHistogram h = new LatencyHistogram();
+		for(int i = 1; i <= 100000; i++) {
+			h.record(i);
+		}
+		
+		Assert.assertEquals(50000, h.getPercentile(50), 50000 * 0.0625);
+		Assert.assertEquals(99000, h.getPercentile(99), 99000 * 0.0625);
+		Assert.assertEquals(100000, h.getPercentile(100));
+		Assert.assertEquals(0, new LatencyHistogram().getPercentile(50));
+	}
+	
+	@Test
+	public void histogramAcceptsExtremeValues() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(-5);
+		h.record(Long.MAX_VALUE);
+		
+		Assert.assertEquals(0, h.getPercentile(50));
+		Assert.assertEquals(Long.MAX_VALUE, h.getPercentile(100));
+	}
+	
+	@Test
+	public void metricsAreReported() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.setSessionCount(() -> 3);
+		metrics.connectionOpened();
+		metrics.requestStarted();
+		metrics.requestFinished("/cw", 2_000_000, 1200);
+		metrics.errorSent(404);
+		
+		Assert.assertEquals(1, metrics.getRequests());
+		Assert.assertEquals(1200, metrics.getBytesSent());
+		Assert.assertEquals(1, metrics.getOpenConnections());
+		Assert.assertEquals(2000, metrics.getHistogram("/cw").getMax());
+		
+		String text = metrics.toText();
+		Assert.assertTrue(text.contains("sessions 3\n"));
+		Assert.assertTrue(text.contains("errors{status=\"404\"} 1\n"));
+		Assert.assertTrue(text.contains("latency_us_p99{route=\"/cw\"} 2000\n"));
+		
+		String json = metrics.toJson();
+		Assert.assertTrue(json.contains("\"requestsActive\":0"));
+		Assert.assertTrue(json.contains("\"errors\":{\"404\":1}"));
+		Assert.assertTrue(json.contains("\"/cw\":{\"count\":1,"));
+	}
+	
+	@Test
+	public void queueWaitAndRejectionsAreReported() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.jobStarted(3_000_000);
+		metrics.connectionRejected();
+		
+		Assert.assertEquals(3000, metrics.getQueueWait().getMax());
+		Assert.assertEquals(1, metrics.getRejectedConnections());
+		
+		String text = metrics.toText();
+		Assert.assertTrue(text.contains("connections_rejected 1\n"));
+		Assert.assertTrue(text.contains("queue_wait_us_max 3000\n"));
+		Assert.assertTrue(metrics.toJson().contains("\"queueWaitMaxUs\":3000"));
+	}
+	
+	@Test
+	public void routesAreLimited() {
+		ServerMetrics metrics = new ServerMetrics();
+		for(int i = 0; i < 300; i++) {
+			metrics.requestStarted();
+			metrics.requestFinished("/r" + i, 1000, 0);
+		}
+		
+		Assert.assertNotNull(metrics.getHistogram("/r0"));
+		Assert.assertNull(metrics.getHistogram("/r299"));
+		Assert.assertEquals(44, metrics.getHistogram(ServerMetrics.OTHER_ROUTE).getCount());
+	}
+}
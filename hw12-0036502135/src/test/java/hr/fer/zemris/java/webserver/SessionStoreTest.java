@@ -0,0 +1,63 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer.SessionMapEntry;
+
+public class SessionStoreTest {
+
+	@Test
+	public void validSessionIsReturned() {
+		SessionStore store = new SessionStore();
+		SessionMapEntry entry = createEntry("ABC", 60);
+		store.put(entry);
+		
+		Assert.assertSame(entry, store.get("ABC"));
+		Assert.assertNull(store.get("XYZ"));
+		Assert.assertNull(store.get(null));
+		Assert.assertEquals(1, store.size());
+	}
+	
+	@Test
+	public void expiredSessionIsNotReturned() {
+		SessionStore store = new SessionStore();
+		store.put(createEntry("ABC", -5));
+		
+		Assert.assertNull(store.get("ABC"));
+		Assert.assertEquals(0, store.size());
+	}
+	
+	@Test
+	public void wheelRemovesOnlyExpiredSessions() throws InterruptedException {
+		SessionStore store = new SessionStore(5, 4);
+		store.put(createEntry("OLD", -1));
+		SessionMapEntry renewed = createEntry("RENEWED", -1);
+		store.put(renewed);
+		store.put(createEntry("NEW", 60));
+		renewed.validUntil = System.currentTimeMillis() / 1000 + 60;
+		
+		Thread.sleep(50);
+		store.expire();
+		
+		Assert.assertEquals(2, store.size());
+		Assert.assertSame(renewed, store.get("RENEWED"));
+		Assert.assertNotNull(store.get("NEW"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidWheelThrows() {
+		new SessionStore(0, 10);
+	}
+	
+	private static SessionMapEntry createEntry(String sid, long validFor) {
+		SessionMapEntry entry = new SessionMapEntry();
+		entry.sid = sid;
+		entry.host = "localhost";
+		entry.validUntil = System.currentTimeMillis() / 1000 + validFor;
+		entry.map = new ConcurrentHashMap<>();
+		return entry;
+	}
+}
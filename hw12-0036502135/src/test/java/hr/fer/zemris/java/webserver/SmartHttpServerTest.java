@@ -0,0 +1,283 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmartHttpServerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void multipleAcceptorsServeRequests() throws IOException {
+		int port = freePort();
+		TestServer server = new TestServer(config(port, "server.acceptorThreads=3"));
+		server.start();
+		try {
+			for(int i = 0; i < 10; i++) {
+				Assert.assertTrue(get(port, "/sample.txt").startsWith("HTTP/1.1 200"));
+			}
+		} finally {
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void multipleAcceptorsDontShareTakenPort() throws IOException {
+		int port = freePort();
+		String config = config(port, "server.acceptorThreads=2");
+		TestServer first = new TestServer(config);
+		first.start();
+		try {
+			TestServer second = new TestServer(config);
+			try {
+				second.start();
+				second.stop();
+				Assert.fail("Second server started on taken port.");
+			} catch(RuntimeException expected) {
+			}
+			
+			Assert.assertTrue(get(port, "/sample.txt").startsWith("HTTP/1.1 200"));
+		} finally {
+			first.stop();
+		}
+	}
+	
+	@Test
+	public void asyncWorkerResumesConnection() throws IOException {
+		for(String ioMode : new String[] {"blocking", "nio"}) {
+			int port = freePort();
+			TestServer server = new TestServer(config(port, "server.ioMode=" + ioMode));
+			server.start();
+			try {
+				String response = send(port, "GET /delay?ms=100 HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n"
+						+ "GET /delay?ms=0 HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n");
+				
+				Assert.assertTrue(response.startsWith("HTTP/1.1 200"));
+				Assert.assertTrue(response.contains("Waited 100 ms.HTTP/1.1 200"));
+				Assert.assertTrue(response.endsWith("Waited 0 ms."));
+			} finally {
+				server.stop();
+			}
+		}
+	}
+	
+	@Test
+	public void failedAsyncWorkerGetsErrorAndIsLogged() throws IOException {
+		Path workers = folder.newFile("workers.properties").toPath();
+		Files.write(workers, ("/fail = " + FailingWorker.class.getName() + "\n").getBytes(StandardCharsets.ISO_8859_1));
+		Path log = folder.getRoot().toPath().resolve("access.log");
+		
+		int port = freePort();
+		TestServer server = new TestServer(config(port, "server.workers=" + workers, "server.accessLog=" + log));
+		server.start();
+		try {
+			Assert.assertTrue(get(port, "/fail").startsWith("HTTP/1.1 500"));
+		} finally {
+			server.stop();
+		}
+		
+		String content = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+		Assert.assertTrue(content.contains("\"GET /fail HTTP/1.1\" 500"));
+	}
+	
+	@Test
+	public void slowAsyncWorkerTimesOut() throws IOException {
+		int port = freePort();
+		TestServer server = new TestServer(config(port, "server.async.timeout=1"));
+		server.start();
+		try {
+			long start = System.nanoTime();
+			Assert.assertTrue(get(port, "/delay?ms=5000").startsWith("HTTP/1.1 504"));
+			Assert.assertTrue(System.nanoTime() - start < 4_000_000_000L);
+		} finally {
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void forwardedClientIsKeptForConnection() throws IOException {
+		int port = freePort();
+		TestServer server = new TestServer(config(port, "server.admission.trustedProxies=127.0.0.1"));
+		server.start();
+		try {
+			Assert.assertTrue(get(port, "/status").startsWith("HTTP/1.1 200"));
+			
+			String response = send(port, "GET /status HTTP/1.1\r\nHost: 127.0.0.1\r\nX-Forwarded-For: 10.0.0.5\r\n\r\n"
+					+ "GET /status HTTP/1.1\r\nHost: 127.0.0.1\r\nX-Forwarded-For: 127.0.0.1\r\nConnection: close\r\n\r\n");
+			Assert.assertTrue(response.startsWith("HTTP/1.1 403"));
+			Assert.assertEquals(response.indexOf("HTTP/1.1 403", 1), response.lastIndexOf("HTTP/1.1 "));
+		} finally {
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void idleKeepAliveConnectionsDontRejectNewClient() throws IOException {
+		int port = freePort();
+		TestServer server = new TestServer(config(port, "server.ioMode=blocking", "server.workerThreads=2",
+				"server.keepAlive.timeout=5", "server.admission.maxQueueWait=1000"));
+		server.start();
+		
+		Socket[] idle = new Socket[2];
+		try {
+			for(int i = 0; i < idle.length; i++) {
+				idle[i] = new Socket("127.0.0.1", port);
+				idle[i].setSoTimeout(5000);
+				idle[i].getOutputStream().write("GET /sample.txt HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				Assert.assertTrue(readHeader(idle[i].getInputStream()).startsWith("HTTP/1.1 200"));
+			}
+			
+			long start = System.nanoTime();
+			Assert.assertTrue(get(port, "/sample.txt").startsWith("HTTP/1.1 200"));
+			Assert.assertTrue(System.nanoTime() - start < 1_000_000_000L);
+		} finally {
+			for(Socket socket : idle) {
+				if(socket != null) {
+					socket.close();
+				}
+			}
+			server.stop();
+		}
+	}
+	
+	@Test
+	public void webSocketIsPingedAndDoesntHoldWorkerThread() throws IOException {
+		for(String ioMode : new String[] {"blocking", "nio"}) {
+			int port = freePort();
+			TestServer server = new TestServer(config(port, "server.ioMode=" + ioMode, "server.workerThreads=1",
+					"server.webSocket.pingInterval=1"));
+			server.start();
+			try(Socket socket = new Socket("127.0.0.1", port)) {
+				socket.setSoTimeout(5000);
+				OutputStream os = socket.getOutputStream();
+				os.write(("GET /counter HTTP/1.1\r\nHost: 127.0.0.1\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+						+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				os.flush();
+				
+				InputStream is = socket.getInputStream();
+				Assert.assertTrue(readHeader(is).startsWith("HTTP/1.1 101"));
+				Assert.assertTrue(get(port, "/sample.txt").startsWith("HTTP/1.1 200"));
+				
+				int opcode;
+				do {
+					opcode = readFrame(is);
+				} while(opcode != WebSocketCodec.PING);
+				
+				os.write(new byte[] {(byte) 0x88, (byte) 0x82, 0, 0, 0, 0, 0x03, (byte) 0xE8});
+				os.flush();
+				do {
+					opcode = readFrame(is);
+				} while(opcode != WebSocketCodec.CLOSE);
+				Assert.assertEquals(-1, is.read());
+			} finally {
+				server.stop();
+			}
+		}
+	}
+	
+	private String config(int port, String... overrides) throws IOException {
+		Properties config = new Properties();
+		try(InputStream is = Files.newInputStream(Paths.get("src/test/resources/bench/server.properties"))) {
+			config.load(is);
+		}
+		config.setProperty("server.port", Integer.toString(port));
+		for(String override : overrides) {
+			int eq = override.indexOf('=');
+			config.setProperty(override.substring(0, eq), override.substring(eq + 1));
+		}
+		
+		Path file = folder.newFolder().toPath().resolve("server.properties");
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+			config.store(writer, null);
+		}
+		
+		return file.toString();
+	}
+	
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+	
+	private static String get(int port, String path) throws IOException {
+		return send(port, "GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n");
+	}
+	
+	private static String send(int port, String request) throws IOException {
+		try(Socket socket = new Socket("127.0.0.1", port)) {
+			socket.setSoTimeout(5000);
+			OutputStream os = socket.getOutputStream();
+			os.write(request.getBytes(StandardCharsets.ISO_8859_1));
+			os.flush();
+			
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			InputStream is = socket.getInputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while((read = is.read(buffer)) >= 0) {
+				response.write(buffer, 0, read);
+			}
+			
+			return new String(response.toByteArray(), StandardCharsets.ISO_8859_1);
+		}
+	}
+	
+	private static String readHeader(InputStream is) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		while(!header.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+			int b = is.read();
+			if(b < 0)	break;
+			header.write(b);
+		}
+		
+		return header.toString("ISO-8859-1");
+	}
+	
+	private static int readFrame(InputStream is) throws IOException {
+		int first = is.read();
+		int length = is.read();
+		Assert.assertTrue(first >= 0 && length >= 0 && length < 126);
+		for(int i = 0; i < length; i++) {
+			Assert.assertTrue(is.read() >= 0);
+		}
+		
+		return first & 0x0F;
+	}
+	
+	public static class FailingWorker implements IAsyncWebWorker {
+		
+		@Override
+		public CompletionStage<?> processRequestAsync(RequestContext context) {
+			return CompletableFuture.runAsync(() -> {
+				throw new IllegalStateException("Backend is down.");
+			}, CompletableFuture.delayedExecutor(50, TimeUnit.MILLISECONDS));
+		}
+	}
+	
+	private static class TestServer extends SmartHttpServer {
+	
+		private TestServer(String configFileName) {
+			super(configFileName);
+		}
+	}
+}
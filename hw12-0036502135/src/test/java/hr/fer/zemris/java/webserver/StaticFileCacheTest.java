@@ -0,0 +1,83 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StaticFileCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void cachedEntryHasPrebuiltHeaderLines() throws IOException {
+		Path file = createFile("a.css", "body {}");
+		StaticFileCache cache = new StaticFileCache(1024, 1024, 60000);
+		
+		StaticFileCache.Entry entry = cache.get(file, "text/css; charset=UTF-8");
+		Assert.assertSame(entry, cache.get(file, "text/css; charset=UTF-8"));
+		Assert.assertEquals("body {}", new String(entry.getBody(), StandardCharsets.UTF_8));
+		Assert.assertEquals(7, cache.size());
+		
+		String lines = new String(entry.getHeaderLines(), StandardCharsets.ISO_8859_1);
+		Assert.assertTrue(lines.startsWith("Content-Length: 7\r\nContent-Type: text/css; charset=UTF-8\r\n"));
+		Assert.assertTrue(lines.contains("ETag: " + entry.getETag() + "\r\n"));
+		Assert.assertTrue(lines.endsWith("\r\n"));
+	}
+	
+	@Test
+	public void changedFileIsReadAgainAfterCheckInterval() throws IOException {
+		Path file = createFile("a.css", "a");
+		StaticFileCache cache = new StaticFileCache(1024, 1024, 0);
+		
+		StaticFileCache.Entry first = cache.get(file, "text/css");
+		Assert.assertSame(first, cache.get(file, "text/css"));
+		
+		Files.write(file, "abc".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(first.getModified() + 5000));
+		
+		StaticFileCache.Entry second = cache.get(file, "text/css");
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(3, second.getBody().length);
+		Assert.assertNotEquals(first.getETag(), second.getETag());
+		Assert.assertEquals(3, cache.size());
+	}
+	
+	@Test
+	public void largeFilesAreNotCached() throws IOException {
+		Path file = createFile("a.css", "0123456789");
+		StaticFileCache cache = new StaticFileCache(1024, 5, 60000);
+		
+		Assert.assertNull(cache.get(file, "text/css"));
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void leastRecentlyUsedFileIsEvicted() throws IOException {
+		Path a = createFile("a.css", "aaaa");
+		Path b = createFile("b.css", "bbbb");
+		Path c = createFile("c.css", "cccc");
+		StaticFileCache cache = new StaticFileCache(8, 8, 60000);
+		
+		StaticFileCache.Entry first = cache.get(a, "text/css");
+		cache.get(b, "text/css");
+		cache.get(a, "text/css");
+		cache.get(c, "text/css");
+		
+		Assert.assertEquals(8, cache.size());
+		Assert.assertSame(first, cache.get(a, "text/css"));
+	}
+	
+	private Path createFile(String name, String content) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
@@ -0,0 +1,112 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledTemplate;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+
+public class TemplateCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void sameDocumentReturnedWhileFileUnchanged() throws IOException {
+		Path script = createScript("a.smscr", "Tekst {$= 1 $}");
+		TemplateCache cache = new TemplateCache(4, false);
+		
+		DocumentNode first = cache.get(script);
+		Assert.assertSame(first, cache.get(script));
+		Assert.assertSame(first, cache.get(script.getParent().resolve("./a.smscr")));
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void modifiedFileIsParsedAgain() throws IOException {
+		Path script = createScript("a.smscr", "Tekst");
+		TemplateCache cache = new TemplateCache(4, false);
+		
+		DocumentNode first = cache.get(script);
+		Files.write(script, "Tekst {$= 2 $}".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(script, FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 5000));
+		
+		DocumentNode second = cache.get(script);
+		Assert.assertNotSame(first, second);
+		Assert.assertEquals(2, second.numberOfChildren());
+	}
+	
+	@Test
+	public void leastRecentlyUsedDocumentIsEvicted() throws IOException {
+		Path a = createScript("a.smscr", "a");
+		Path b = createScript("b.smscr", "b");
+		Path c = createScript("c.smscr", "c");
+		TemplateCache cache = new TemplateCache(2, false);
+		
+		DocumentNode docA = cache.get(a);
+		DocumentNode docB = cache.get(b);
+		cache.get(a);
+		cache.get(c);
+		
+		Assert.assertEquals(2, cache.size());
+		Assert.assertSame(docA, cache.get(a));
+		Assert.assertNotSame(docB, cache.get(b));
+	}
+	
+	@Test
+	public void zeroCapacityDisablesCaching() throws IOException {
+		Path script = createScript("a.smscr", "a");
+		TemplateCache cache = new TemplateCache(0, true);
+		
+		Assert.assertNotSame(cache.get(script), cache.get(script));
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void documentIsCompiledOnce() throws IOException {
+		Path script = createScript("a.smscr", "Tekst {$= 1 $}");
+		TemplateCache cache = new TemplateCache(4, false);
+		
+		CompiledTemplate template = cache.getEntry(script).getCompiled();
+		Assert.assertNotNull(template);
+		Assert.assertSame(template, cache.getEntry(script).getCompiled());
+	}
+	
+	@Test
+	public void uncachedDocumentIsntCompiled() throws IOException {
+		Path script = createScript("a.smscr", "Tekst {$= 1 $}");
+		TemplateCache cache = new TemplateCache(0, false);
+		
+		TemplateCache.Entry entry = cache.getEntry(script);
+		Assert.assertNull(entry.getCompiled());
+		Assert.assertNotNull(entry.getDocument());
+	}
+	
+	@Test
+	public void documentThatCantBeCompiledReturnsNull() throws IOException {
+		Path script = createScript("a.smscr", "Tekst {$= 1 @unknown $}");
+		TemplateCache cache = new TemplateCache(4, false);
+		
+		Assert.assertNull(cache.getEntry(script).getCompiled());
+		Assert.assertNotNull(cache.get(script));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeCapacityThrows() throws IOException {
+		new TemplateCache(-1, false);
+	}
+	
+	private Path createScript(String name, String content) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+}
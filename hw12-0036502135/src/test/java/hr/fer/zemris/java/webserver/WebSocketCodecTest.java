@@ -0,0 +1,93 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.WebSocketCodec.Decoder;
+import hr.fer.zemris.java.webserver.WebSocketCodec.Frame;
+import hr.fer.zemris.java.webserver.WebSocketCodec.FrameException;
+
+public class WebSocketCodecTest {
+
+	@Test
+	public void acceptKeyMatchesRfcExample() {
+		Assert.assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketCodec.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+	}
+	
+	@Test
+	public void encodesPayloadLengthInSmallestForm() {
+		ByteBuffer small = WebSocketCodec.encode(WebSocketCodec.TEXT, new byte[125]);
+		Assert.assertEquals(127, small.remaining());
+		Assert.assertEquals((byte) 0x81, small.get(0));
+		Assert.assertEquals(125, small.get(1));
+		
+		ByteBuffer medium = WebSocketCodec.encode(WebSocketCodec.BINARY, new byte[126]);
+		Assert.assertEquals(130, medium.remaining());
+		Assert.assertEquals(126, medium.get(1));
+		Assert.assertEquals(126, medium.getShort(2));
+		
+		ByteBuffer large = WebSocketCodec.encode(WebSocketCodec.BINARY, new byte[65536]);
+		Assert.assertEquals(65546, large.remaining());
+		Assert.assertEquals(127, large.get(1));
+		Assert.assertEquals(65536, large.getLong(2));
+	}
+	
+	@Test
+	public void decodesMaskedFrameFedInParts() throws FrameException {
+		byte[] frame = mask(0x81, "Hello".getBytes(StandardCharsets.UTF_8));
+		Decoder decoder = new Decoder(1024);
+		
+		decoder.feed(ByteBuffer.wrap(frame, 0, 3));
+		Assert.assertNull(decoder.next());
+		decoder.feed(ByteBuffer.wrap(frame, 3, frame.length - 3));
+		
+		Frame decoded = decoder.next();
+		Assert.assertTrue(decoded.isFin());
+		Assert.assertEquals(WebSocketCodec.TEXT, decoded.getOpcode());
+		Assert.assertEquals("Hello", new String(decoded.getPayload(), StandardCharsets.UTF_8));
+		Assert.assertNull(decoder.next());
+	}
+	
+	@Test
+	public void rejectsUnmaskedFrame() {
+		Decoder decoder = new Decoder(1024);
+		decoder.feed(ByteBuffer.wrap(new byte[] {(byte) 0x81, 0x01, 'a'}));
+		
+		try {
+			decoder.next();
+			Assert.fail();
+		} catch(FrameException ex) {
+			Assert.assertEquals(WebSocketCodec.PROTOCOL_ERROR, ex.getCloseCode());
+		}
+	}
+	
+	@Test
+	public void rejectsFrameLargerThanLimit() {
+		Decoder decoder = new Decoder(100);
+		decoder.feed(ByteBuffer.wrap(mask(0x82, new byte[101])));
+		
+		try {
+			decoder.next();
+			Assert.fail();
+		} catch(FrameException ex) {
+			Assert.assertEquals(WebSocketCodec.MESSAGE_TOO_BIG, ex.getCloseCode());
+		}
+	}
+	
+	private static byte[] mask(int first, byte[] payload) {
+		byte[] key = {0x37, (byte) 0xfa, 0x21, 0x3d};
+		byte[] frame = new byte[6 + payload.length];
+		
+		frame[0] = (byte) first;
+		frame[1] = (byte) (0x80 | payload.length);
+		System.arraycopy(key, 0, frame, 2, 4);
+		for(int i = 0; i < payload.length; i++) {
+			frame[6 + i] = (byte) (payload[i] ^ key[i & 3]);
+		}
+		
+		return frame;
+	}
+}
@@ -0,0 +1,62 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class WorkerExecutorsTest {
+
+	@Test
+	public void virtualFallsBackToFixedPool() {
+		Assume.assumeFalse(WorkerExecutors.isVirtualSupported());
+		
+		ExecutorService executor = WorkerExecutors.create(WorkerExecutors.VIRTUAL, 3, 100);
+		try {
+			Assert.assertTrue(executor instanceof ThreadPoolExecutor);
+			Assert.assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void limitedExecutorQueuesInsteadOfBlocking() throws InterruptedException {
+		ExecutorService executor = new WorkerExecutors.LimitedExecutor(Executors.newCachedThreadPool(), 2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(5);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		
+		try {
+			long start = System.nanoTime();
+			for(int i = 0; i < 5; i++) {
+				executor.execute(() -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					try {
+						release.await();
+					} catch(InterruptedException ignorable) {
+					} finally {
+						running.decrementAndGet();
+						finished.countDown();
+					}
+				});
+			}
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+			Assert.assertEquals(3, WorkerExecutors.queueDepth(executor));
+			
+			release.countDown();
+			Assert.assertTrue(finished.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(maxRunning.get() <= 2);
+			Assert.assertEquals(0, WorkerExecutors.queueDepth(executor));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
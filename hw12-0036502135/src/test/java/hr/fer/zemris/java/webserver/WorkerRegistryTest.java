@@ -0,0 +1,40 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WorkerRegistryTest {
+
+	private static final String WORKERS = "hr.fer.zemris.java.webserver.workers";
+	
+	@Test
+	public void sameInstanceReturnedForSameClass() {
+		WorkerRegistry registry = new WorkerRegistry(getClass().getClassLoader());
+		
+		IWebWorker worker = registry.get(WORKERS + ".HelloWorker");
+		Assert.assertNotNull(worker);
+		Assert.assertSame(worker, registry.get(WORKERS + ".HelloWorker"));
+	}
+	
+	@Test
+	public void missingOrInvalidClassesReturnNull() {
+		WorkerRegistry registry = new WorkerRegistry(getClass().getClassLoader());
+		
+		Assert.assertNull(registry.get(WORKERS + ".Nope"));
+		Assert.assertNull(registry.get(WORKERS + ".Nope"));
+		Assert.assertNull(registry.get("java.lang.String"));
+		Assert.assertNull(registry.get(IWebWorker.class.getName()));
+	}
+	
+	@Test
+	public void preloadCreatesAllWorkersFromPackage() throws IOException {
+		WorkerRegistry registry = new WorkerRegistry(getClass().getClassLoader());
+		IWebWorker before = registry.get(WORKERS + ".CircleWorker");
+		
+		Assert.assertTrue(registry.preload(WORKERS) >= 6);
+		Assert.assertSame(before, registry.get(WORKERS + ".CircleWorker"));
+		Assert.assertEquals(0, registry.preload("hr.fer.zemris.java.nonexisting"));
+	}
+}
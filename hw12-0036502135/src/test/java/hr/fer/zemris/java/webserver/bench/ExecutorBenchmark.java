@@ -0,0 +1,96 @@
+package hr.fer.zemris.java.webserver.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.java.webserver.WorkerExecutors;
+
+/**
+ * Benchmark that compares fixed and virtual executors used by server.
+ * Each job simulates worker that blocks on file or database access
+ * and then does some calculation.
+ * Arguments, all optional, are: number of jobs, blocking time of job in milliseconds,
+ * number of threads of fixed executor and concurrency limit of virtual executor.
+ * Run with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=hr.fer.zemris.java.webserver.bench.ExecutorBenchmark
+ * 
+ * @author Martin Sršen
+ * 
+ */
+public class ExecutorBenchmark {
+
+	/**
+	 * Called when program is started.
+	 * 
+	 * @param args	Number of jobs, blocking time, fixed threads and virtual limit.
+	 * @throws InterruptedException	if interrupted while waiting for jobs.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int blockMillis = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int limit = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		
+		System.out.println("Virtual threads supported: " + WorkerExecutors.isVirtualSupported());
+		System.out.printf("%d jobs, each blocking %d ms%n", jobs, blockMillis);
+		
+		for(int round = 0; round < 2; round++) {
+			boolean warmup = round == 0;
+			run("fixed(" + threads + ")", WorkerExecutors.create(WorkerExecutors.FIXED, threads, 0), 
+					jobs, blockMillis, warmup);
+			run("virtual(limit " + limit + ")", WorkerExecutors.create(WorkerExecutors.VIRTUAL, threads, limit), 
+					jobs, blockMillis, warmup);
+		}
+	}
+	
+	/**
+	 * Runs jobs on given executor and prints throughput and average latency.
+	 * 
+	 * @param name	Name of executor.
+	 * @param executor	Executor to run jobs on.
+	 * @param jobs	Number of jobs.
+	 * @param blockMillis	Blocking time of each job.
+	 * @param warmup	Whether this run is warmup whose results aren't printed.
+	 * @throws InterruptedException	if interrupted while waiting for jobs.
+	 */
+	private static void run(String name, ExecutorService executor, int jobs, int blockMillis, boolean warmup) 
+			throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(jobs);
+		long[] latencies = new long[jobs];
+		long start = System.nanoTime();
+		
+		for(int i = 0; i < jobs; i++) {
+			int index = i;
+			long submitted = System.nanoTime();
+			
+			executor.execute(() -> {
+				try {
+					Thread.sleep(blockMillis);
+				} catch (InterruptedException ignorable) {}
+				
+				double sum = 0;
+				for(int j = 1; j < 2000; j++) {
+					sum += Math.sqrt(j);
+				}
+				latencies[index] = sum > 0 ? System.nanoTime() - submitted : 0;
+				done.countDown();
+			});
+		}
+		
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		if(warmup)	return;
+		
+		long total = 0;
+		for(long latency : latencies) {
+			total += latency;
+		}
+		
+		System.out.printf("%-22s %10.0f jobs/s   avg latency %8.2f ms%n", name,
+				jobs / (elapsed / 1e9), total / (double) jobs / 1e6);
+	}
+}
@@ -0,0 +1,586 @@
+package hr.fer.zemris.java.webserver.bench;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import hr.fer.zemris.java.webserver.LatencyHistogram;
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Load benchmark of server.
+ * Starts server on localhost from test configuration and sends requests to it
+ * over given number of concurrent connections, first with persistent connections
+ * and then with new connection for each request.
+ * Requests are chosen randomly from routes of four kinds: static files,
+ * workers under /ext/, workers mapped in workers.properties and smart scripts,
+ * according to weights of mix. For each run throughput and mean, p50, p99, p999
+ * and maximal latency are printed, in total and for each kind of route.
+ * Arguments, all optional, are key=value pairs:
+ * config (path to server.properties), connections, duration and warmup in seconds,
+ * keepAlive (true, false or both), mix (for example static:4,ext:2,mapped:2,script:2),
+ * gzip (whether client accepts compressed responses) and seed of random generator.
+ * Arguments starting with server. override properties of configuration,
+ * for example server.ioMode=nio.
+ * Run from project directory with:
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=hr.fer.zemris.java.webserver.bench.LoadBenchmark
+ * -Dexec.args="connections=32 server.ioMode=nio"
+ * 
+ * @author Martin Sršen
+ *
+ */
+public class LoadBenchmark {
+
+	/**
+	 * Routes of each kind of request.
+	 */
+	private static final Map<String, String[]> ROUTES = new LinkedHashMap<>();
+	
+	static {
+		ROUTES.put("static", new String[] {"/index.html", "/sample.txt", "/plaza.jpg"});
+		ROUTES.put("ext", new String[] {"/ext/EchoParams?a=1&b=2", "/ext/HelloWorker?name=bench"});
+		ROUTES.put("mapped", new String[] {"/hello?name=bench", "/calc?a=3&b=4", "/cw", "/index2.html"});
+		ROUTES.put("script", new String[] {"/scripts/osnovni.smscr", "/scripts/zbrajanje.smscr?a=1&b=2",
+				"/scripts/brojPoziva.smscr"});
+	}
+	
+	/**
+	 * Called when program is started.
+	 * 
+	 * @param args	Options of benchmark in key=value form.
+	 * @throws Exception	if server can't be started or benchmark is interrupted.
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		Properties config = new Properties();
+		List<String> overrides = new ArrayList<>();
+		
+		for(String arg : args) {
+			int eq = arg.indexOf('=');
+			if(eq < 0) {
+				throw new IllegalArgumentException("Expected key=value argument, was: " + arg);
+			}
+			
+			if(arg.startsWith("server.") || arg.startsWith("session.")) {
+				overrides.add(arg);
+			} else {
+				options.put(arg.substring(0, eq), arg.substring(eq + 1));
+			}
+		}
+		
+		try(InputStream is = Files.newInputStream(Paths.get(
+				options.getOrDefault("config", "src/test/resources/bench/server.properties")))) {
+			config.load(is);
+		}
+		for(String override : overrides) {
+			int eq = override.indexOf('=');
+			config.setProperty(override.substring(0, eq), override.substring(eq + 1));
+		}
+		
+		int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+		String keepAlive = options.getOrDefault("keepAlive", "both");
+		boolean gzip = Boolean.parseBoolean(options.getOrDefault("gzip", "false"));
+		long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+		Map<String, Integer> mix = parseMix(options.getOrDefault("mix", "static:4,ext:2,mapped:2,script:2"));
+		
+		String host = config.getProperty("server.address").trim();
+		int port = Integer.parseInt(config.getProperty("server.port").trim());
+		
+		BenchServer server = new BenchServer(writeConfig(config));
+		server.begin();
+		awaitServer(host, port);
+		
+		System.out.printf("%s mode, %s executor, %d connections, mix %s%n",
+				config.getProperty("server.ioMode").trim(), config.getProperty("server.executor").trim(),
+				connections, mix);
+		
+		for(boolean persistent : new boolean[] {true, false}) {
+			if(!keepAlive.equals("both") && Boolean.parseBoolean(keepAlive) != persistent)	continue;
+			
+			Load load = new Load(host, port, persistent, gzip, mix);
+			load.run(connections, warmup, seed);
+			
+			load = new Load(host, port, persistent, gzip, mix);
+			load.run(connections, duration, seed + 1);
+			load.print(persistent ? "keep-alive" : "connection per request", duration);
+		}
+		
+		server.end();
+		System.exit(0);
+	}
+	
+	/**
+	 * Parses mix of routes given as kind:weight pairs separated by commas.
+	 * 
+	 * @param text	Mix to parse.
+	 * @return	weights mapped by kind of route.
+	 * @throws IllegalArgumentException	if kind is unknown or no weight is positive.
+	 */
+	private static Map<String, Integer> parseMix(String text) {
+		Map<String, Integer> mix = new LinkedHashMap<>();
+		int total = 0;
+		
+		for(String part : text.split(",")) {
+			String[] pair = part.trim().split(":");
+			if(!ROUTES.containsKey(pair[0])) {
+				throw new IllegalArgumentException("Unknown kind of route: " + pair[0]);
+			}
+			
+			int weight = pair.length > 1 ? Integer.parseInt(pair[1]) : 1;
+			if(weight > 0) {
+				mix.put(pair[0], weight);
+				total += weight;
+			}
+		}
+		
+		if(total == 0) {
+			throw new IllegalArgumentException("Mix must have positive weight.");
+		}
+		
+		return mix;
+	}
+	
+	/**
+	 * Writes given configuration into server.properties file in temporary directory.
+	 * 
+	 * @param config	Configuration of server.
+	 * @return	path to written file.
+	 * @throws IOException	if file can't be written.
+	 */
+	private static String writeConfig(Properties config) throws IOException {
+		Path dir = Files.createTempDirectory("bench");
+		Path file = dir.resolve("server.properties");
+		
+		try(Writer writer = Files.newBufferedWriter(file, StandardCharsets.ISO_8859_1)) {
+			config.store(writer, "Load benchmark configuration");
+		}
+		file.toFile().deleteOnExit();
+		dir.toFile().deleteOnExit();
+		
+		return file.toString();
+	}
+	
+	/**
+	 * Waits until server accepts connections.
+	 * 
+	 * @param host	Address of server.
+	 * @param port	Port of server.
+	 * @throws Exception	if server doesn't accept connections in 10 seconds.
+	 */
+	private static void awaitServer(String host, int port) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		
+		while(true) {
+			try(Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(host, port), 1000);
+				return;
+			} catch(IOException e) {
+				if(System.currentTimeMillis() > deadline)	throw e;
+				Thread.sleep(100);
+			}
+		}
+	}
+	
+	/**
+	 * Server that can be started and stopped from benchmark.
+	 */
+	private static class BenchServer extends SmartHttpServer {
+	
+		/**
+		 * Constructor that creates server from given configuration file.
+		 * 
+		 * @param configFileName	Path to server.properties file.
+		 */
+		private BenchServer(String configFileName) {
+			super(configFileName);
+		}
+		
+		/**
+		 * Starts server.
+		 */
+		private void begin() {
+			start();
+		}
+		
+		/**
+		 * Stops server.
+		 */
+		private void end() {
+			stop();
+		}
+	}
+	
+	/**
+	 * One run of benchmark, with its latency histograms.
+	 */
+	private static class Load {
+		/**
+		 * Address of server.
+		 */
+		private String host;
+		/**
+		 * Port of server.
+		 */
+		private int port;
+		/**
+		 * Whether connections are reused for multiple requests.
+		 */
+		private boolean persistent;
+		/**
+		 * Whether client accepts compressed responses.
+		 */
+		private boolean gzip;
+		/**
+		 * Weights of kinds of routes.
+		 */
+		private Map<String, Integer> mix;
+		/**
+		 * Sum of weights of mix.
+		 */
+		private int totalWeight;
+		/**
+		 * Latencies of all requests in microseconds.
+		 */
+		private LatencyHistogram total = new LatencyHistogram();
+		/**
+		 * Latencies of requests in microseconds, mapped by kind of route.
+		 */
+		private Map<String, LatencyHistogram> byKind = new LinkedHashMap<>();
+		/**
+		 * Number of failed requests and error responses.
+		 */
+		private LongAdder errors = new LongAdder();
+		
+		/**
+		 * Constructor that creates new run.
+		 * 
+		 * @param host	Address of server.
+		 * @param port	Port of server.
+		 * @param persistent	Whether connections are reused for multiple requests.
+		 * @param gzip	Whether client accepts compressed responses.
+		 * @param mix	Weights of kinds of routes.
+		 */
+		private Load(String host, int port, boolean persistent, boolean gzip, Map<String, Integer> mix) {
+			this.host = host;
+			this.port = port;
+			this.persistent = persistent;
+			this.gzip = gzip;
+			this.mix = mix;
+			
+			for(Map.Entry<String, Integer> e : mix.entrySet()) {
+				byKind.put(e.getKey(), new LatencyHistogram());
+				totalWeight += e.getValue();
+			}
+		}
+		
+		/**
+		 * Sends requests over given number of connections for given time.
+		 * 
+		 * @param connections	Number of concurrent connections.
+		 * @param seconds	Duration of run.
+		 * @param seed	Seed of random generators of connections.
+		 * @throws InterruptedException	if interrupted while waiting for connections.
+		 */
+		private void run(int connections, int seconds, long seed) throws InterruptedException {
+			long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+			Thread[] threads = new Thread[connections];
+			
+			for(int i = 0; i < connections; i++) {
+				Random random = new Random(seed * 31 + i);
+				threads[i] = new Thread(() -> drive(random, deadline));
+				threads[i].start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+		}
+		
+		/**
+		 * Method executed by each connection thread.
+		 * Sends requests until deadline, opening new connection when
+		 * previous is closed or when connections aren't persistent.
+		 * 
+		 * @param random	Random generator used to choose routes.
+		 * @param deadline	Time in nanoseconds when sending stops.
+		 */
+		private void drive(Random random, long deadline) {
+			Socket socket = null;
+			InputStream is = null;
+			String sid = null;
+			
+			while(System.nanoTime() < deadline) {
+				String kind = chooseKind(random);
+				String[] routes = ROUTES.get(kind);
+				String path = routes[random.nextInt(routes.length)];
+				long start = System.nanoTime();
+				
+				try {
+					if(socket == null) {
+						socket = new Socket(host, port);
+						socket.setTcpNoDelay(true);
+						is = new BufferedInputStream(socket.getInputStream());
+					}
+					
+					Response response = send(socket, is, path, sid);
+					if(response.sid != null) {
+						sid = response.sid;
+					}
+					if(response.status >= 400) {
+						errors.increment();
+					}
+					if(!persistent || !response.keepAlive) {
+						socket.close();
+						socket = null;
+					}
+				} catch(IOException e) {
+					errors.increment();
+					close(socket);
+					socket = null;
+					continue;
+				}
+				
+				long micros = (System.nanoTime() - start) / 1000;
+				total.record(micros);
+				byKind.get(kind).record(micros);
+			}
+			
+			close(socket);
+		}
+		
+		/**
+		 * Chooses kind of route according to weights of mix.
+		 * 
+		 * @param random	Random generator.
+		 * @return	kind of route.
+		 */
+		private String chooseKind(Random random) {
+			int value = random.nextInt(totalWeight);
+			
+			for(Map.Entry<String, Integer> e : mix.entrySet()) {
+				value -= e.getValue();
+				if(value < 0)	return e.getKey();
+			}
+			
+			throw new IllegalStateException("Weights of mix changed.");
+		}
+		
+		/**
+		 * Sends request for given path and reads whole response.
+		 * 
+		 * @param socket	Connection to server.
+		 * @param is	Buffered input stream of connection.
+		 * @param path	Path of request.
+		 * @param sid	Session identifier sent as cookie, or null.
+		 * @return	read response.
+		 * @throws IOException	if error happens sending request or reading response.
+		 */
+		private Response send(Socket socket, InputStream is, String path, String sid) throws IOException {
+			StringBuilder request = new StringBuilder();
+			request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+			request.append("Host: ").append(host).append(':').append(port).append("\r\n");
+			request.append("Connection: ").append(persistent ? "keep-alive" : "close").append("\r\n");
+			if(gzip) {
+				request.append("Accept-Encoding: gzip\r\n");
+			}
+			if(sid != null) {
+				request.append("Cookie: sid=\"").append(sid).append("\"\r\n");
+			}
+			request.append("\r\n");
+			
+			OutputStream os = socket.getOutputStream();
+			os.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+			os.flush();
+			
+			return Response.read(is, persistent);
+		}
+		
+		/**
+		 * Prints results of run.
+		 * 
+		 * @param name	Name of run.
+		 * @param seconds	Duration of run.
+		 */
+		private void print(String name, int seconds) {
+			System.out.printf("%n%s, %d s, %d errors%n", name, seconds, errors.sum());
+			System.out.printf("%-8s %10s %10s %9s %9s %9s %9s %9s%n",
+					"route", "requests", "req/s", "mean us", "p50 us", "p99 us", "p999 us", "max us");
+			
+			printRow("all", total, seconds);
+			byKind.forEach((kind, histogram) -> printRow(kind, histogram, seconds));
+		}
+		
+		/**
+		 * Prints one row of results.
+		 * 
+		 * @param name	Name of row.
+		 * @param histogram	Latencies of row.
+		 * @param seconds	Duration of run.
+		 */
+		private static void printRow(String name, LatencyHistogram histogram, int seconds) {
+			System.out.printf(Locale.ROOT, "%-8s %10d %10.0f %9.0f %9d %9d %9d %9d%n", name,
+					histogram.getCount(), histogram.getCount() / (double) seconds, histogram.getMean(),
+					histogram.getPercentile(50), histogram.getPercentile(99), histogram.getPercentile(99.9),
+					histogram.getMax());
+		}
+		
+		/**
+		 * Closes given socket, ignoring errors.
+		 * 
+		 * @param socket	Socket to close, or null.
+		 */
+		private static void close(Socket socket) {
+			if(socket == null)	return;
+			
+			try {
+				socket.close();
+			} catch(IOException ignorable) {}
+		}
+	}
+	
+	/**
+	 * Response read from server.
+	 * Body is read and discarded.
+	 */
+	private static class Response {
+		/**
+		 * Status code of response.
+		 */
+		private int status;
+		/**
+		 * Session identifier set by server, or null.
+		 */
+		private String sid;
+		/**
+		 * Whether connection can be used for next request.
+		 */
+		private boolean keepAlive;
+		
+		/**
+		 * Reads response from given stream.
+		 * 
+		 * @param is	Stream of connection.
+		 * @param persistent	Whether connection was requested to be kept alive.
+		 * @return	read response.
+		 * @throws IOException	if error happens reading, or response is invalid.
+		 */
+		private static Response read(InputStream is, boolean persistent) throws IOException {
+			Response response = new Response();
+			
+			String statusLine = readLine(is);
+			String[] parts = statusLine.split(" ");
+			if(parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+				throw new IOException("Invalid status line: " + statusLine);
+			}
+			response.status = Integer.parseInt(parts[1]);
+			
+			long length = -1;
+			boolean chunked = false;
+			response.keepAlive = persistent;
+			
+			for(String line = readLine(is); !line.isEmpty(); line = readLine(is)) {
+				int colon = line.indexOf(':');
+				if(colon < 0)	continue;
+				
+				String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+				String value = line.substring(colon + 1).trim();
+				
+				if(name.equals("content-length")) {
+					length = Long.parseLong(value);
+				} else if(name.equals("transfer-encoding")) {
+					chunked = value.equalsIgnoreCase("chunked");
+				} else if(name.equals("connection")) {
+					response.keepAlive &= !value.equalsIgnoreCase("close");
+				} else if(name.equals("set-cookie") && value.startsWith("sid=")) {
+					int end = value.indexOf(';');
+					response.sid = value.substring(4, end < 0 ? value.length() : end).replace("\"", "");
+				}
+			}
+			
+			boolean noBody = response.status == 304 || response.status == 204;
+			if(noBody) {
+				return response;
+			}
+			
+			if(chunked) {
+				while(true) {
+					String sizeLine = readLine(is);
+					int semicolon = sizeLine.indexOf(';');
+					long size = Long.parseLong((semicolon < 0 ? sizeLine : sizeLine.substring(0, semicolon)).trim(), 16);
+					if(size == 0) {
+						while(!readLine(is).isEmpty());
+						break;
+					}
+					skip(is, size);
+					readLine(is);
+				}
+			} else if(length >= 0) {
+				skip(is, length);
+			} else {
+				response.keepAlive = false;
+				while(is.read() >= 0);
+			}
+			
+			return response;
+		}
+		
+		/**
+		 * Reads line terminated by CRLF or LF.
+		 * 
+		 * @param is	Stream to read from.
+		 * @return	line without terminator.
+		 * @throws IOException	if stream ends before line is read.
+		 */
+		private static String readLine(InputStream is) throws IOException {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			
+			while(true) {
+				int b = is.read();
+				if(b < 0)	throw new IOException("Connection closed.");
+				if(b == '\n')	break;
+				if(b != '\r') {
+					line.write(b);
+				}
+			}
+			
+			return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+		}
+		
+		/**
+		 * Reads and discards given number of bytes.
+		 * 
+		 * @param is	Stream to read from.
+		 * @param count	Number of bytes.
+		 * @throws IOException	if stream ends before all bytes are read.
+		 */
+		private static void skip(InputStream is, long count) throws IOException {
+			byte[] buffer = new byte[8192];
+			
+			while(count > 0) {
+				int read = is.read(buffer, 0, (int) Math.min(buffer.length, count));
+				if(read < 0)	throw new IOException("Connection closed.");
+				count -= read;
+			}
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BackendPoolTest {
+
+	@Test
+	public void roundRobinSkipsUnhealthyBackends() {
+		List<Backend> backends = backends(3);
+		BackendPool pool = new BackendPool(backends, "roundRobin", 60000);
+		
+		Assert.assertSame(backends.get(0), pool.choose(null, Collections.emptyList()));
+		Assert.assertSame(backends.get(1), pool.choose(null, Collections.emptyList()));
+		
+		backends.get(2).setHealthy(false);
+		Assert.assertSame(backends.get(0), pool.choose(null, Collections.emptyList()));
+		Assert.assertSame(backends.get(1), pool.choose(null, Collections.emptyList()));
+		
+		backends.get(0).setHealthy(false);
+		backends.get(1).setHealthy(false);
+		Assert.assertNull(pool.choose(null, Collections.emptyList()));
+	}
+	
+	@Test
+	public void leastConnectionsChoosesLeastLoadedBackend() {
+		List<Backend> backends = backends(3);
+		BackendPool pool = new BackendPool(backends, "leastConnections", 60000);
+		backends.get(0).connectionOpened();
+		backends.get(1).connectionOpened();
+		backends.get(1).connectionOpened();
+		
+		Assert.assertSame(backends.get(2), pool.choose(null, Collections.emptyList()));
+		Assert.assertSame(backends.get(0), pool.choose(null, Arrays.asList(backends.get(2))));
+	}
+	
+	@Test
+	public void sessionStaysOnItsBackendWhileItIsHealthy() {
+		List<Backend> backends = backends(2);
+		BackendPool pool = new BackendPool(backends, "roundRobin", 60000);
+		pool.bind("ABC", backends.get(1));
+		
+		for(int i = 0; i < 4; i++) {
+			Assert.assertSame(backends.get(1), pool.choose("ABC", Collections.emptyList()));
+		}
+		
+		backends.get(1).setHealthy(false);
+		Assert.assertSame(backends.get(0), pool.choose("ABC", Collections.emptyList()));
+	}
+	
+	@Test
+	public void unusedSessionsAreForgotten() throws InterruptedException {
+		List<Backend> backends = backends(2);
+		BackendPool pool = new BackendPool(backends, "roundRobin", 20);
+		pool.bind("ABC", backends.get(1));
+		
+		Thread.sleep(50);
+		pool.expireSessions();
+		Assert.assertEquals(0, pool.sessionCount());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownStrategyIsRejected() {
+		new BackendPool(backends(1), "random", 60000);
+	}
+	
+	private static List<Backend> backends(int count) {
+		Backend[] backends = new Backend[count];
+		for(int i = 0; i < count; i++) {
+			backends[i] = Backend.parse("127.0.0.1:" + (5721 + i));
+		}
+		
+		return Arrays.asList(backends);
+	}
+}
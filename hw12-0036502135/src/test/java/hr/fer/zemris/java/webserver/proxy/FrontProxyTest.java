@@ -0,0 +1,81 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrontProxyTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void clientAddressIsAddedToFirstRequest() throws Exception {
+		BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+		try(ServerSocket backend = new ServerSocket(0)) {
+			Thread thread = new Thread(() -> serve(backend, requests));
+			thread.setDaemon(true);
+			thread.start();
+			
+			int port;
+			try(ServerSocket free = new ServerSocket(0)) {
+				port = free.getLocalPort();
+			}
+			Path config = folder.getRoot().toPath().resolve("proxy.properties");
+			Files.write(config, ("proxy.address = 127.0.0.1\nproxy.port = " + port
+					+ "\nproxy.backends = 127.0.0.1:" + backend.getLocalPort() + "\n").getBytes(StandardCharsets.ISO_8859_1));
+			
+			FrontProxy proxy = new FrontProxy(config.toString());
+			proxy.start();
+			try(Socket client = new Socket("127.0.0.1", port)) {
+				client.getOutputStream().write(("GET /page HTTP/1.1\r\nHost: 127.0.0.1\r\n"
+						+ "X-Forwarded-For: 10.0.0.5\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+				
+				String request;
+				do {
+					request = requests.poll(5, TimeUnit.SECONDS);
+					Assert.assertNotNull(request);
+				} while(!request.startsWith("GET /page "));
+				
+				Assert.assertTrue(request.endsWith("X-Forwarded-For: 10.0.0.5\r\nX-Forwarded-For: 127.0.0.1\r\n\r\n"));
+			} finally {
+				proxy.stop();
+			}
+		}
+	}
+	
+	private static void serve(ServerSocket backend, BlockingQueue<String> requests) {
+		while(true) {
+			try(Socket socket = backend.accept()) {
+				InputStream is = socket.getInputStream();
+				ByteArrayOutputStream header = new ByteArrayOutputStream();
+				while(!header.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+					int b = is.read();
+					if(b < 0)	break;
+					header.write(b);
+				}
+				requests.add(header.toString("ISO-8859-1"));
+				
+				OutputStream os = socket.getOutputStream();
+				os.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				os.flush();
+			} catch(IOException ex) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package hr.fer.zemris.java.webserver.proxy;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionCookieScannerTest {
+
+	private static final String RESPONSE = "HTTP/1.1 200 OK\r\n"
+			+ "Content-Length: 2\r\n"
+			+ "Set-Cookie: a=\"sid=\"; Path=/\r\n"
+			+ "set-cookie: sid=\"QWERTYUIOPASDFGHJKLZ\"; Domain=localhost; Path=/; HttpOnly\r\n"
+			+ "\r\nok";
+	
+	@Test
+	public void findsSessionIdInWholeResponse() {
+		byte[] bytes = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+		
+		Assert.assertEquals("QWERTYUIOPASDFGHJKLZ", new SessionCookieScanner().scan(bytes, 0, bytes.length));
+	}
+	
+	@Test
+	public void findsSessionIdSplitBetweenBlocks() {
+		byte[] bytes = RESPONSE.getBytes(StandardCharsets.ISO_8859_1);
+		SessionCookieScanner scanner = new SessionCookieScanner();
+		
+		String found = null;
+		for(int i = 0; i < bytes.length; i += 3) {
+			String sid = scanner.scan(bytes, i, Math.min(3, bytes.length - i));
+			if(sid != null) {
+				Assert.assertNull(found);
+				found = sid;
+			}
+		}
+		Assert.assertEquals("QWERTYUIOPASDFGHJKLZ", found);
+	}
+	
+	@Test
+	public void ignoresOtherCookies() {
+		byte[] bytes = "HTTP/1.1 200 OK\r\nSet-Cookie: xsid=\"A\"\r\n\r\nSet-Cookie sid=B".getBytes(StandardCharsets.ISO_8859_1);
+		
+		Assert.assertNull(new SessionCookieScanner().scan(bytes, 0, bytes.length));
+	}
+	
+	@Test
+	public void ignoresCookiesInBodies() {
+		String body = "x\r\nSet-Cookie: sid=BODY\r\n";
+		String chunk = "\r\nset-cookie: sid=CHUNK\r\n";
+		byte[] bytes = ("HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body
+				+ "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ Integer.toHexString(chunk.length()) + "\r\n" + chunk + "\r\n0\r\n\r\n"
+				+ "HTTP/1.1 304 Not Modified\r\nContent-Length: 10\r\n\r\n"
+				+ "HTTP/1.1 200 OK\r\nSet-Cookie: sid=NEXT\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		SessionCookieScanner scanner = new SessionCookieScanner();
+		
+		String found = null;
+		for(int i = 0; i < bytes.length; i += 5) {
+			String sid = scanner.scan(bytes, i, Math.min(5, bytes.length - i));
+			if(sid != null) {
+				Assert.assertNull(found);
+				found = sid;
+			}
+		}
+		Assert.assertEquals("NEXT", found);
+	}
+	
+	@Test
+	public void stopsAfterBodyOfUnknownLength() {
+		byte[] bytes = "HTTP/1.1 200 OK\r\nConnection: close\r\n\r\nHTTP/1.1 200 OK\r\nSet-Cookie: sid=A\r\n\r\n"
+				.getBytes(StandardCharsets.ISO_8859_1);
+		
+		Assert.assertNull(new SessionCookieScanner().scan(bytes, 0, bytes.length));
+	}
+}